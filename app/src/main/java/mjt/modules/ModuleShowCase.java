@@ -15,12 +15,18 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import mjt.commonsqliteutilities.CommonSQLiteUtilities;
 import mjt.dbcolumn.DBColumn;
 import mjt.dbdatabase.DBDatabase;
+import mjt.dbdatabase.DBPragmaProfile;
+import mjt.dbdatabase.DBSchemaApplyListener;
+import mjt.dbdatabase.DBSchemaApplyResult;
 import mjt.dbindex.DBIndex;
 import mjt.dbtable.DBTable;
+import mjt.dbtable.DBTableDAO;
 import mjt.emsg.Emsg;
 import mjt.displayhelp.DisplayHelp;
 import mjt.pickcolour.PickColour;
@@ -276,6 +282,14 @@ public class ModuleShowCase extends AppCompatActivity {
             Log.d(OKLOGTAG,"Admin User Added");
         }
 
+        // Copy the data of the first Database to the 2nd Database, within
+        // SQLite rather than via Cursors
+        long copied = ShowCaseDBInfo.pseudodbschema.copyDBDatabaseTo(db,
+                db2.getPath(),
+                null
+        );
+        Log.d(DB2LOGTAG,"Rows Copied=" + Long.toString(copied));
+
         db2csr.close();
     }
 
@@ -292,10 +306,13 @@ public class ModuleShowCase extends AppCompatActivity {
             return;
         }
         csr.close();
-        ContentValues cv = new ContentValues();
-        cv.put(ShowCaseDBInfo.USERS_NAME_COLNAME,"ADMIN");
-        cv.put(ShowCaseDBInfo.USERS_INFO_COLNAME,"The admin user");
-        db.insert(ShowCaseDBInfo.USERS_TABLENAME,null,cv);
+        // Insert via a DBTableDAO, values in DBColumn order (null for _id)
+        DBTableDAO dao = new DBTableDAO(db, ShowCaseDBInfo.users);
+        try {
+            dao.insert(null,"ADMIN","The admin user");
+        } finally {
+            dao.close();
+        }
     }
 
     /**************************************************************************
@@ -434,14 +451,22 @@ public class ModuleShowCase extends AppCompatActivity {
                         usersdescnameindex
                 ));
 
-        //Finally construct the DBDatabase Object
-        DBDatabase baseschema = new DBDatabase(DBNAME,tables,indexes);
+        //Finally construct the DBDatabase Object, freezing it as it will be
+        // used by another thread (the build/alter executor)
+        DBDatabase baseschema = new DBDatabase(DBNAME,tables,indexes).freeze();
 
         //To use the baseschema to create the tables, an SQLite database
         // will be required.
         ShowCaseDBHelper dbhelper = new ShowCaseDBHelper(this,DBNAME,null,DBVERSION);
         SQLiteDatabase db = dbhelper.getWritableDatabase();
 
+        // Tune the connection for reading, logging the effective settings
+        // and any that SQLite didn't accept (e.g. mmap_size may be limited)
+        baseschema.setDBPragmaProfile(DBPragmaProfile.newReadHeavyProfile());
+        DBPragmaProfile effective = baseschema.applyDBPragmaProfile(db);
+        Log.d("PragmaProfile", effective.toString() + " " +
+                baseschema.getDBPragmaProfile().getDifferences(effective));
+
         // Alternative method of getting an SQLite Database not using a helper
         SQLiteDatabase db2 =  openOrCreateDatabase(
                 "anotherexampledatabase",
@@ -451,19 +476,67 @@ public class ModuleShowCase extends AppCompatActivity {
 
         // Check for usability of baseschema
         if (baseschema.isDBDatabaseUsable()) {
-            // Build the Database Structures for the two databases
-            baseschema.actionDBBuildSQL(db);
-            baseschema.actionDBBuildSQL(db2);
-
-            // Now Alter the database to apply any changes, if any
-            baseschema.actionDBAlterSQL(db);
-            baseschema.actionDBAlterSQL(db2);
+            // Build the Database Structures for the two databases and
+            // then Alter the databases to apply any changes, if any.
+            // This is done off the UI thread, on a single thread so
+            // that the databases are done one after the other.
             // Typically Build followed by Alter would be run at the
             // start of the application, thus creating the database if
             // it doesn't exist and then altering it if any changes
             // have been made (e.g. adding a new DBColumn to a table).
+            // (actionDBBuildSQL and actionDBAlterSQL do the same but
+            // on the calling thread)
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            baseschema.actionDBBuildAndAlterSQLAsync(db,executor,
+                    exampleDBApplyListener(db)
+            );
+            baseschema.actionDBBuildAndAlterSQLAsync(db2,executor,
+                    exampleDBApplyListener(db2)
+            );
+            executor.shutdown();
+        } else {
+            CommonSQLiteUtilities.logDatabaseInfo(db);
+            CommonSQLiteUtilities.logDatabaseInfo(db2);
         }
-        CommonSQLiteUtilities.logDatabaseInfo(db);
-        CommonSQLiteUtilities.logDatabaseInfo(db2);
+    }
+
+    /**************************************************************************
+     * Get a DBSchemaApplyListener that logs the progress of the build and
+     * alter of a database and then the database information.
+     * @param db    The SQLite database being built and altered
+     * @return      The DBSchemaApplyListener
+     */
+    private DBSchemaApplyListener exampleDBApplyListener(final SQLiteDatabase db) {
+        final String APPLYLOGTAG = "ExampleDBApply";
+        return new DBSchemaApplyListener() {
+            @Override
+            public void onStatementApplied(int statement_number,
+                                           int statement_count,
+                                           String sql,
+                                           long elapsed_millis) {
+                Log.d(APPLYLOGTAG, db.getPath() +
+                        " Statement " + Integer.toString(statement_number) +
+                        " of " + Integer.toString(statement_count) +
+                        " took " + Long.toString(elapsed_millis) + "ms " +
+                        sql
+                );
+            }
+
+            @Override
+            public void onSchemaApplied(DBSchemaApplyResult result) {
+                if (result.isSuccessful()) {
+                    Log.d(APPLYLOGTAG, db.getPath() +
+                            " Build and Alter took " +
+                            Long.toString(result.getElapsedMillis()) + "ms"
+                    );
+                } else {
+                    Log.e(APPLYLOGTAG, db.getPath() +
+                            " Build and Alter failed " +
+                            result.getFailure().getMessage()
+                    );
+                }
+                CommonSQLiteUtilities.logDatabaseInfo(db);
+            }
+        };
     }
 }
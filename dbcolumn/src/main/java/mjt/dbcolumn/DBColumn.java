@@ -83,6 +83,11 @@ public class DBColumn {
      * if the usable flag is set to false.
      */
     private String problem_msg;
+    /**
+     * Whether or not the DBColumn has been frozen, i.e. made immutable,
+     * by <code>freeze</code>.&nbsp;Setters of a frozen DBColumn are ignored.
+     */
+    private volatile boolean frozen;
 
     /**************************************************************************
      * Constructs DBColumn flagged as unusable.
@@ -186,6 +191,9 @@ public class DBColumn {
      * @param column_name the column name
      */
     public void setDBColumnName(String column_name) {
+        if (this.isFrozenIgnored("setDBColumnName")) {
+            return;
+        }
         this.column_name = column_name.toLowerCase();
         this.checkDBColumnIsUsable("setDBColumnName");
     }
@@ -209,6 +217,9 @@ public class DBColumn {
      * @param column_type the column type as a String.
      */
     public void setDBColumnType(String column_type) {
+        if (this.isFrozenIgnored("setDBColumnType")) {
+            return;
+        }
         this.column_type = simplifyColumnType(column_type);
         this.checkDBColumnIsUsable("setDBColumnType");
     }
@@ -220,6 +231,9 @@ public class DBColumn {
      *                      inserted, into the database, with no value provided.
      */
     public void setDefaultValue(String default_value) {
+        if (this.isFrozenIgnored("setDefaultValue")) {
+            return;
+        }
         this.default_value = default_value;
     }
 
@@ -230,6 +244,9 @@ public class DBColumn {
      *                      column in the table's primary index.
      */
     public void setPrimaryIndex(boolean primaryindex) {
+        if (this.isFrozenIgnored("setPrimaryIndex")) {
+            return;
+        }
         this.primary_index = primaryindex;
         this.checkDBColumnIsUsable("serPrimaryIndex");
     }
@@ -325,6 +342,46 @@ public class DBColumn {
      */
     public String getUnusableMsg() { return this.problem_msg; }
 
+    /**************************************************************************
+     * Freezes the DBColumn so that it can no longer be changed and can
+     * therefore be safely shared by threads; subsequent calls of the
+     * setters are ignored (a warning being added to the problem message).
+     *
+     * <p>
+     *     This is normally invoked via <code>DBTable.freeze</code> or
+     *     <code>DBDatabase.freeze</code>. Freezing cannot be undone.
+     * </p>
+     */
+    public void freeze() {
+        this.frozen = true;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the DBColumn has been frozen.
+     *
+     * @return true if the DBColumn is frozen, else false.
+     */
+    public boolean isDBColumnFrozen() { return this.frozen; }
+
+    /**************************************************************************
+     * Checks whether a change is to be ignored as the DBColumn is frozen,
+     * if so noting this in the problem message.
+     *
+     * @param caller    The setter that is attempting the change.
+     * @return true if the DBColumn is frozen (change to be ignored).
+     */
+    private boolean isFrozenIgnored(String caller) {
+        if (this.frozen) {
+            this.problem_msg = this.problem_msg +
+                    "\nWDBC0004 - Frozen - " +
+                    "DBColumn " + this.column_name +
+                    " cannot be changed, change ignored. " +
+                    "Caller=(" + caller + ")";
+            return true;
+        }
+        return false;
+    }
+
     /**************************************************************************
      * Checks the DBColumn for issues, setting the problem message accordingly.
      *
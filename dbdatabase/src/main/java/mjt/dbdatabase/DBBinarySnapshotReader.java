@@ -0,0 +1,343 @@
+package mjt.dbdatabase;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import mjt.dbtable.DBBlobInputStream;
+
+import static mjt.dbdatabase.DBBinarySnapshotWriter.*;
+
+/**
+ * DBBinarySnapshotReader reads a snapshot written by
+ * DBBinarySnapshotWriter (see that class for the format), table by table
+ * and row by row.
+ *
+ * <p>
+ *     So that memory use is bounded, TEXT and BLOB values longer than the
+ *     large value size are not read into memory; each is copied, a chunk
+ *     at a time, to a temporary file (deleted when the next row is read or
+ *     the reader is closed), its value being given as an empty String or
+ *     byte[] (see <code>isLargeValue</code> and
+ *     <code>openLargeValue</code>). Values longer than
+ *     <code>MAX_VALUE_LENGTH</code> are rejected as invalid.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBBinarySnapshotReader {
+
+    /**
+     * The maximum length of a value, SQLite's default maximum length of a
+     * string or BLOB (SQLITE_MAX_LENGTH).
+     */
+    static final long MAX_VALUE_LENGTH = 1000000000L;
+    /**
+     * The maximum length of a table or column name.
+     */
+    static final int MAX_NAME_LENGTH = 64 * 1024;
+
+    private DBBlockInputStream in;
+    private long large_value_size;
+    private File temp_directory;
+    /* The temporary files of the large values of the current row, by column */
+    private File[] large_values;
+    private boolean ended;
+
+    /* The current table */
+    private String table_name;
+    private String[] column_names;
+    private int[] column_types;
+    private boolean in_table;
+    private long table_rows;
+    private Object[] values;
+
+    /**************************************************************************
+     * Constructs a DBBinarySnapshotReader, reading and checking the header.
+     *
+     * @param is                The InputStream from which the snapshot is
+     *                          read (it should be buffered).
+     * @param large_value_size  The length above which a TEXT or BLOB value
+     *                          is copied to a temporary file rather than
+     *                          read into memory.
+     * @param temp_directory    The directory for the temporary files, null
+     *                          for the system's temporary directory.
+     * @throws IOException if reading fails or this is not a snapshot that
+     * can be read.
+     */
+    DBBinarySnapshotReader(InputStream is, long large_value_size, File temp_directory)
+            throws IOException {
+        this.large_value_size = large_value_size;
+        this.temp_directory = temp_directory;
+        byte[] magic = new byte[MAGIC.length];
+        DBBlockInputStream.readFully(is, magic, magic.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a DBDatabase snapshot");
+        }
+        int version = is.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " +
+                    Integer.toString(version));
+        }
+        int flags = is.read();
+        if (flags == -1) {
+            throw new EOFException();
+        }
+        long block_size = DBBlockInputStream.readVarint(is);
+        if (block_size < 1 || block_size > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid snapshot block size");
+        }
+        this.in = new DBBlockInputStream(is, (int) block_size);
+        this.ended = false;
+        this.in_table = false;
+    }
+
+    /**************************************************************************
+     * Moves to the next table, skipping any unread rows of the current
+     * table.
+     *
+     * @return true if there is a table, false if the end has been reached.
+     * @throws IOException if reading fails or the snapshot is invalid.
+     */
+    boolean nextTable() throws IOException {
+        while (this.in_table) {
+            this.nextRow();
+        }
+        if (this.ended) {
+            return false;
+        }
+        int tag = this.readByte();
+        if (tag == TAG_END) {
+            this.ended = true;
+            this.in.close();
+            return false;
+        }
+        if (tag != TAG_TABLE) {
+            throw new IOException("Invalid snapshot, expected a table");
+        }
+        this.table_name = this.readString();
+        int columncount = (int) DBBlockInputStream.readVarint(this.in);
+        this.column_names = new String[columncount];
+        this.column_types = new int[columncount];
+        for (int i = 0; i < columncount; i++) {
+            this.column_names[i] = this.readString();
+            this.column_types[i] = this.readByte();
+        }
+        this.deleteLargeValues();
+        this.values = new Object[columncount];
+        this.large_values = new File[columncount];
+        this.table_rows = 0;
+        this.in_table = true;
+        return true;
+    }
+
+    /**************************************************************************
+     * Moves to the next row of the current table.
+     *
+     * @return true if there is a row, false if the end of the table has
+     * been reached.
+     * @throws IOException if reading fails or the snapshot is invalid.
+     */
+    boolean nextRow() throws IOException {
+        if (!this.in_table) {
+            return false;
+        }
+        this.deleteLargeValues();
+        int tag = this.readByte();
+        if (tag == TAG_END_TABLE) {
+            long rowcount = DBBlockInputStream.readVarint(this.in);
+            if (rowcount != this.table_rows) {
+                throw new IOException("Invalid snapshot, table " + this.table_name +
+                        " has " + Long.toString(this.table_rows) +
+                        " rows, expected " + Long.toString(rowcount));
+            }
+            this.in_table = false;
+            return false;
+        }
+        if (tag != TAG_ROW) {
+            throw new IOException("Invalid snapshot, expected a row");
+        }
+        for (int i = 0; i < this.values.length; i++) {
+            this.values[i] = this.readValue(i);
+        }
+        this.table_rows++;
+        return true;
+    }
+
+    String getTableName() { return this.table_name; }
+
+    String[] getColumnNames() { return this.column_names; }
+
+    /**************************************************************************
+     * Gets the column types (VALUE_????), derived from the DBColumn types,
+     * of the current table.
+     *
+     * @return The column types.
+     */
+    int[] getColumnTypes() { return this.column_types; }
+
+    /**************************************************************************
+     * Gets the values of the current row; null, Long, Double, String or
+     * byte[]. The array is reused for each row.
+     *
+     * @return The values.
+     */
+    Object[] getValues() { return this.values; }
+
+    /**************************************************************************
+     * Checks whether a value of the current row is a large value, held in a
+     * temporary file rather than in the values.
+     *
+     * @param i The index of the column.
+     * @return true if a large value, else false.
+     */
+    boolean isLargeValue(int i) { return this.large_values[i] != null; }
+
+    /**************************************************************************
+     * Checks whether the current row has any large values.
+     *
+     * @return true if it has a large value, else false.
+     */
+    boolean hasLargeValues() {
+        for (File file : this.large_values) {
+            if (file != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**************************************************************************
+     * Opens a large value of the current row; its bytes (UTF-8 for TEXT).
+     *
+     * @param i The index of the column.
+     * @return An InputStream of the value, which must be closed.
+     * @throws IOException if the temporary file can't be opened.
+     */
+    InputStream openLargeValue(int i) throws IOException {
+        return new FileInputStream(this.large_values[i]);
+    }
+
+    /**************************************************************************
+     * Deletes any temporary files, of large values. The snapshot's
+     * InputStream is not closed.
+     */
+    void close() {
+        this.deleteLargeValues();
+    }
+
+    /**************************************************************************
+     * Reads a value, copying a TEXT or BLOB value longer than the large
+     * value size to a temporary file.
+     *
+     * @param i The index of the column.
+     * @return The value, an empty String or byte[] if a large value.
+     * @throws IOException if reading fails or the snapshot is invalid.
+     */
+    private Object readValue(int i) throws IOException {
+        int type = this.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_INTEGER:
+                return DBBlockInputStream.readZigzag(this.in);
+            case VALUE_REAL:
+                long bits = 0;
+                for (int b = 0; b < 8; b++) {
+                    bits = (bits << 8) | this.readByte();
+                }
+                return Double.longBitsToDouble(bits);
+            case VALUE_TEXT:
+            case VALUE_BLOB:
+                long length = this.readLength(MAX_VALUE_LENGTH);
+                if (length > this.large_value_size) {
+                    this.large_values[i] = this.copyToTempFile(length);
+                    return type == VALUE_TEXT ? "" : new byte[0];
+                }
+                byte[] bytes = this.readBytes(length);
+                return type == VALUE_TEXT ? new String(bytes, "UTF-8") : bytes;
+            default:
+                throw new IOException("Invalid snapshot, value type " +
+                        Integer.toString(type));
+        }
+    }
+
+    private String readString() throws IOException {
+        return new String(this.readBytes(this.readLength(MAX_NAME_LENGTH)), "UTF-8");
+    }
+
+    private byte[] readBytes(long length) throws IOException {
+        byte[] bytes = new byte[(int) length];
+        DBBlockInputStream.readFully(this.in, bytes, bytes.length);
+        return bytes;
+    }
+
+    /**************************************************************************
+     * Reads the length of a value, checking it is within the maximum.
+     */
+    private long readLength(long max_length) throws IOException {
+        long length = DBBlockInputStream.readVarint(this.in);
+        if (length < 0 || length > max_length) {
+            throw new IOException("Invalid snapshot, value length " +
+                    Long.toString(length));
+        }
+        return length;
+    }
+
+    /**************************************************************************
+     * Copies a value, a chunk at a time, to a temporary file.
+     *
+     * @param length    The length of the value.
+     * @return The temporary file.
+     * @throws IOException if reading or writing fails.
+     */
+    private File copyToTempFile(long length) throws IOException {
+        File file = File.createTempFile("dbsnapshot", ".value", this.temp_directory);
+        boolean copied = false;
+        OutputStream os = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[(int) Math.min(length,
+                    DBBlobInputStream.DEFAULT_CHUNK_SIZE)];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = (int) Math.min(remaining, buffer.length);
+                DBBlockInputStream.readFully(this.in, buffer, n);
+                os.write(buffer, 0, n);
+                remaining -= n;
+            }
+            copied = true;
+        } finally {
+            os.close();
+            if (!copied) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    private void deleteLargeValues() {
+        if (this.large_values == null) {
+            return;
+        }
+        for (int i = 0; i < this.large_values.length; i++) {
+            if (this.large_values[i] != null) {
+                //noinspection ResultOfMethodCallIgnored
+                this.large_values[i].delete();
+                this.large_values[i] = null;
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = this.in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -0,0 +1,260 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import mjt.dbcolumn.DBColumn;
+import mjt.dbtable.DBBlobInputStream;
+import mjt.dbtable.DBTable;
+import mjt.dbtable.DBTableReader;
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBBinarySnapshotWriter writes the data of the tables of an SQLite
+ * database in a compact binary format, for reading by
+ * DBBinarySnapshotReader (see <code>DBBulkLoader.loadSnapshot</code>).
+ *
+ * <p>
+ *     <b>Format</b>
+ * </p>
+ * <p>
+ *     The header is the magic bytes DBSNAP, a version byte, a flags byte
+ *     (FLAG_COMPRESSED) and a varint of the block size. The remainder is
+ *     written in blocks (see DBBlockOutputStream), compressed if flagged.
+ * </p>
+ * <p>
+ *     Each table is a TAG_TABLE byte, the table name, a varint of the
+ *     number of columns and, for each column, the column name and a type
+ *     byte derived from the DBColumn's type (VALUE_INTEGER, VALUE_REAL,
+ *     VALUE_TEXT, VALUE_BLOB or VALUE_NUMERIC). Each row is a TAG_ROW byte
+ *     followed by the values and the table ends with a TAG_END_TABLE byte
+ *     and a varint of the number of rows. The snapshot ends with a TAG_END
+ *     byte.
+ * </p>
+ * <p>
+ *     Each value is a type byte, as per the actual type of the value, and
+ *     then; nothing for VALUE_NULL, a zigzag varint for VALUE_INTEGER, 8
+ *     bytes (big endian IEEE 754) for VALUE_REAL or a varint length and the
+ *     bytes (UTF-8 for VALUE_TEXT) for VALUE_TEXT and VALUE_BLOB. Names are
+ *     written as VALUE_TEXT values without the type byte.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBBinarySnapshotWriter {
+
+    static final byte[] MAGIC = {'D','B','S','N','A','P'};
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    static final int TAG_END = 0;
+    static final int TAG_TABLE = 1;
+    static final int TAG_ROW = 2;
+    static final int TAG_END_TABLE = 3;
+
+    static final int VALUE_NULL = 0;
+    static final int VALUE_INTEGER = 1;
+    static final int VALUE_REAL = 2;
+    static final int VALUE_TEXT = 3;
+    static final int VALUE_BLOB = 4;
+    static final int VALUE_NUMERIC = 5;
+
+    private OutputStream os;
+    private boolean compress;
+    private DBExportListener listener;
+    private int progress_interval;
+    private DBBlockOutputStream out;
+    private byte[] longbuffer;
+    private long total_rows;
+
+    /**************************************************************************
+     * Constructs a DBBinarySnapshotWriter.
+     *
+     * @param os                The OutputStream to write to.
+     * @param compress          true to compress the blocks.
+     * @param listener          The DBExportListener to be informed of
+     *                          progress, null if not required.
+     * @param progress_interval The number of rows between progress reports.
+     */
+    DBBinarySnapshotWriter(OutputStream os,
+                           boolean compress,
+                           DBExportListener listener,
+                           int progress_interval) {
+        this.os = os;
+        this.compress = compress;
+        this.listener = listener;
+        this.progress_interval = Math.max(1, progress_interval);
+        this.longbuffer = new byte[8];
+        this.total_rows = 0;
+    }
+
+    /**************************************************************************
+     * Writes the snapshot of the given tables. The OutputStream is flushed
+     * but not closed.
+     *
+     * @param db        The SQLite database from which the data is extracted.
+     * @param tables    The DBTables of the tables.
+     * @return The number of rows written.
+     * @throws IOException if writing fails.
+     */
+    long writeSnapshot(SQLiteDatabase db, ArrayList<DBTable> tables)
+            throws IOException {
+        this.os.write(MAGIC);
+        this.os.write(VERSION);
+        this.os.write(this.compress ? FLAG_COMPRESSED : 0);
+        DBBlockOutputStream.writeVarint(this.os, DEFAULT_BLOCK_SIZE);
+        this.out = new DBBlockOutputStream(this.os, DEFAULT_BLOCK_SIZE, this.compress);
+        for (DBTable dbt : tables) {
+            this.writeTable(db, dbt);
+        }
+        this.out.write(TAG_END);
+        this.out.finish();
+        return this.total_rows;
+    }
+
+    /**************************************************************************
+     * Writes a table, its header and its rows.
+     */
+    private void writeTable(SQLiteDatabase db, DBTable dbt) throws IOException {
+        if (this.listener != null) {
+            this.listener.onTableExportStarted(dbt.getDBTableName());
+        }
+        ArrayList<DBColumn> columns = dbt.getTableDBColumns();
+        String[] columnnames = new String[columns.size()];
+        this.out.write(TAG_TABLE);
+        this.writeString(dbt.getDBTableName());
+        DBBlockOutputStream.writeVarint(this.out, columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            columnnames[i] = columns.get(i).getDBColumnName();
+            this.writeString(columnnames[i]);
+            this.out.write(getColumnTypeCode(columns.get(i)));
+        }
+        long table_rows = 0;
+        DBTableReader reader = new DBTableReader(db, dbt);
+        reader.setColumns(columnnames);
+        reader.setLargeValueSize(DBBlobInputStream.DEFAULT_CHUNK_SIZE);
+        try {
+            while (reader.hasNext()) {
+                Cursor csr = reader.next();
+                this.out.write(TAG_ROW);
+                for (int i = 0; i < columnnames.length; i++) {
+                    if (reader.getLargeValueType(i) != Cursor.FIELD_TYPE_NULL) {
+                        this.writeLargeValue(reader, i);
+                    } else {
+                        this.writeValue(csr, i);
+                    }
+                }
+                table_rows++;
+                this.total_rows++;
+                if (this.listener != null && table_rows % this.progress_interval == 0) {
+                    this.listener.onExportProgress(dbt.getDBTableName(),
+                            table_rows, this.total_rows);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        this.out.write(TAG_END_TABLE);
+        DBBlockOutputStream.writeVarint(this.out, table_rows);
+        if (this.listener != null) {
+            this.listener.onTableExportFinished(dbt.getDBTableName(), table_rows);
+        }
+    }
+
+    /**************************************************************************
+     * Writes a value, according to its actual type.
+     */
+    private void writeValue(Cursor csr, int i) throws IOException {
+        switch (csr.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                this.out.write(VALUE_NULL);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                long value = csr.getLong(i);
+                this.out.write(VALUE_INTEGER);
+                DBBlockOutputStream.writeZigzag(this.out, value);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                long bits = Double.doubleToRawLongBits(csr.getDouble(i));
+                this.out.write(VALUE_REAL);
+                for (int b = 0; b < 8; b++) {
+                    this.longbuffer[b] = (byte) (bits >>> (56 - b * 8));
+                }
+                this.out.write(this.longbuffer, 0, 8);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[] blob = csr.getBlob(i);
+                this.out.write(VALUE_BLOB);
+                DBBlockOutputStream.writeVarint(this.out, blob.length);
+                this.out.write(blob, 0, blob.length);
+                break;
+            default:
+                this.out.write(VALUE_TEXT);
+                this.writeString(csr.getString(i));
+                break;
+        }
+    }
+
+    /**************************************************************************
+     * Writes a large value (see <code>DBTableReader.setLargeValueSize</code>)
+     * as a VALUE_TEXT or VALUE_BLOB, reading it a chunk at a time.
+     */
+    private void writeLargeValue(DBTableReader reader, int i) throws IOException {
+        DBBlobInputStream is = reader.openLargeValue(i);
+        try {
+            this.out.write(reader.getLargeValueType(i) == Cursor.FIELD_TYPE_BLOB ?
+                    VALUE_BLOB : VALUE_TEXT);
+            long length = is.length();
+            DBBlockOutputStream.writeVarint(this.out, length);
+            byte[] buffer = new byte[DBBlobInputStream.DEFAULT_CHUNK_SIZE];
+            long written = 0;
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                this.out.write(buffer, 0, n);
+                written += n;
+            }
+            if (written != length) {
+                throw new IOException("Value changed whilst being written");
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**************************************************************************
+     * Writes a String as a varint length and the UTF-8 bytes.
+     */
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        DBBlockOutputStream.writeVarint(this.out, bytes.length);
+        this.out.write(bytes, 0, bytes.length);
+    }
+
+    /**************************************************************************
+     * Gets the type code for a DBColumn's type.
+     *
+     * @param dbc   The DBColumn.
+     * @return The type code.
+     */
+    static int getColumnTypeCode(DBColumn dbc) {
+        String type = dbc.getDBColumnType();
+        if (type.equals(SQLINTEGER)) {
+            return VALUE_INTEGER;
+        }
+        if (type.equals(SQLREAL)) {
+            return VALUE_REAL;
+        }
+        if (type.equals(SQLTEXT)) {
+            return VALUE_TEXT;
+        }
+        if (type.equals(SQLBLOB)) {
+            return VALUE_BLOB;
+        }
+        return VALUE_NUMERIC;
+    }
+}
@@ -0,0 +1,186 @@
+package mjt.dbdatabase;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DBBlockInputStream reads the blocks written by DBBlockOutputStream,
+ * decompressing them as required.
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBBlockInputStream extends InputStream {
+
+    private InputStream in;
+    private int max_block_size;
+    private byte[] block;
+    private int position;
+    private int limit;
+    private Inflater inflater;
+    private byte[] compressed;
+    private boolean ended;
+
+    /**************************************************************************
+     * Constructs a DBBlockInputStream.
+     *
+     * @param in                The InputStream from which the blocks are read.
+     * @param max_block_size    The maximum (uncompressed) size of a block.
+     */
+    DBBlockInputStream(InputStream in, int max_block_size) {
+        this.in = in;
+        this.max_block_size = max_block_size;
+        this.block = new byte[0];
+        this.compressed = new byte[0];
+        this.position = 0;
+        this.limit = 0;
+        this.ended = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !this.readBlock()) {
+            return -1;
+        }
+        return this.block[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position == this.limit && !this.readBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.block, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    /**************************************************************************
+     * Releases the Inflater, the underlying InputStream is not closed.
+     */
+    @Override
+    public void close() {
+        if (this.inflater != null) {
+            this.inflater.end();
+            this.inflater = null;
+        }
+    }
+
+    /**************************************************************************
+     * Reads the next block.
+     *
+     * @return true if a block was read, false if the end has been reached.
+     */
+    private boolean readBlock() throws IOException {
+        if (this.ended) {
+            return false;
+        }
+        long rawlength = readVarint(this.in);
+        if (rawlength == 0) {
+            this.ended = true;
+            return false;
+        }
+        long clength = readVarint(this.in);
+        if (rawlength > this.max_block_size || clength > rawlength) {
+            throw new IOException("Invalid block, length " + Long.toString(rawlength));
+        }
+        if (this.block.length < rawlength) {
+            this.block = new byte[(int) rawlength];
+        }
+        if (clength == 0) {
+            readFully(this.in, this.block, (int) rawlength);
+        } else {
+            if (this.compressed.length < clength) {
+                this.compressed = new byte[(int) clength];
+            }
+            readFully(this.in, this.compressed, (int) clength);
+            if (this.inflater == null) {
+                this.inflater = new Inflater();
+            }
+            this.inflater.reset();
+            this.inflater.setInput(this.compressed, 0, (int) clength);
+            try {
+                int n = 0;
+                while (n < rawlength && !this.inflater.finished()) {
+                    int inflated = this.inflater.inflate(this.block, n, (int) rawlength - n);
+                    if (inflated == 0 && this.inflater.needsInput()) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != rawlength) {
+                    throw new IOException("Invalid compressed block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed block - " + e.getMessage());
+            }
+        }
+        this.position = 0;
+        this.limit = (int) rawlength;
+        return true;
+    }
+
+    /**************************************************************************
+     * Reads an unsigned varint, as written by
+     * <code>DBBlockOutputStream.writeVarint</code>.
+     *
+     * @param in    The InputStream.
+     * @return The value.
+     * @throws IOException if reading fails or the end is reached.
+     */
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Invalid varint");
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Reads a signed value, as written by
+     * <code>DBBlockOutputStream.writeZigzag</code>.
+     *
+     * @param in    The InputStream.
+     * @return The value.
+     * @throws IOException if reading fails or the end is reached.
+     */
+    static long readZigzag(InputStream in) throws IOException {
+        long zigzag = readVarint(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**************************************************************************
+     * Reads exactly len bytes.
+     *
+     * @param in    The InputStream.
+     * @param b     The buffer.
+     * @param len   The number of bytes.
+     * @throws IOException if reading fails or the end is reached.
+     */
+    static void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, n, len - n);
+            if (r == -1) {
+                throw new EOFException();
+            }
+            n += r;
+        }
+    }
+}
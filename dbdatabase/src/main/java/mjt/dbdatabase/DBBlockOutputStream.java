@@ -0,0 +1,155 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * DBBlockOutputStream writes data as a sequence of blocks, each optionally
+ * compressed (deflate), for reading by DBBlockInputStream.
+ *
+ * <p>
+ *     Each block is written as a varint of the uncompressed length, a
+ *     varint of the compressed length (0 if the block is stored as is,
+ *     i.e. not compressed or compression would not reduce the size) and
+ *     then the data. A block with an uncompressed length of 0 marks the
+ *     end. As each block is compressed independently, memory use is
+ *     bounded by the block size.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBBlockOutputStream extends OutputStream {
+
+    private OutputStream out;
+    private byte[] block;
+    private int count;
+    private Deflater deflater;
+    private byte[] compressed;
+    private boolean finished;
+
+    /**************************************************************************
+     * Constructs a DBBlockOutputStream.
+     *
+     * @param out           The OutputStream to which the blocks are written.
+     * @param block_size    The (uncompressed) size of the blocks.
+     * @param compress      true to compress the blocks.
+     */
+    DBBlockOutputStream(OutputStream out, int block_size, boolean compress) {
+        this.out = out;
+        this.block = new byte[block_size];
+        this.count = 0;
+        if (compress) {
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+            this.compressed = new byte[block_size + (block_size >> 3) + 64];
+        }
+        this.finished = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.block.length) {
+            this.writeBlock();
+        }
+        this.block[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.count == this.block.length) {
+                this.writeBlock();
+            }
+            int n = Math.min(len, this.block.length - this.count);
+            System.arraycopy(b, off, this.block, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**************************************************************************
+     * Writes the final block and the end marker and flushes the underlying
+     * OutputStream, which is not closed.
+     *
+     * @throws IOException if writing fails.
+     */
+    void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+        this.writeBlock();
+        writeVarint(this.out, 0);
+        this.out.flush();
+        if (this.deflater != null) {
+            this.deflater.end();
+        }
+        this.finished = true;
+    }
+
+    /**************************************************************************
+     * Finishes (see <code>finish</code>), the underlying OutputStream is not
+     * closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.finish();
+    }
+
+    /**************************************************************************
+     * Writes the buffered data as a block.
+     */
+    private void writeBlock() throws IOException {
+        if (this.count == 0) {
+            return;
+        }
+        if (this.deflater != null) {
+            this.deflater.reset();
+            this.deflater.setInput(this.block, 0, this.count);
+            this.deflater.finish();
+            int clen = 0;
+            while (!this.deflater.finished() && clen < this.count) {
+                clen += this.deflater.deflate(this.compressed, clen,
+                        this.compressed.length - clen);
+            }
+            if (this.deflater.finished() && clen < this.count) {
+                writeVarint(this.out, this.count);
+                writeVarint(this.out, clen);
+                this.out.write(this.compressed, 0, clen);
+                this.count = 0;
+                return;
+            }
+        }
+        writeVarint(this.out, this.count);
+        writeVarint(this.out, 0);
+        this.out.write(this.block, 0, this.count);
+        this.count = 0;
+    }
+
+    /**************************************************************************
+     * Writes an unsigned varint (7 bits per byte, least significant first,
+     * the top bit set on all but the last byte).
+     *
+     * @param out   The OutputStream.
+     * @param value The value (treated as unsigned).
+     * @throws IOException if writing fails.
+     */
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**************************************************************************
+     * Writes a signed value as a zigzag varint (0, -1, 1, -2 ... as 0, 1, 2,
+     * 3 ...), so that small negative values are written in few bytes.
+     *
+     * @param out   The OutputStream.
+     * @param value The value.
+     * @throws IOException if writing fails.
+     */
+    static void writeZigzag(OutputStream out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+}
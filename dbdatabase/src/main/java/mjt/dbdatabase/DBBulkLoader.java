@@ -0,0 +1,495 @@
+package mjt.dbdatabase;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import mjt.dbcolumn.DBColumn;
+import mjt.dbindex.DBIndex;
+import mjt.dbtable.DBBlobInputStream;
+import mjt.dbtable.DBBlobOutputStream;
+import mjt.dbtable.DBStatementBinder;
+import mjt.dbtable.DBTable;
+
+/**
+ * DBBulkLoader loads rows into the tables of an SQLite database as defined
+ * by a DBDatabase; the counterpart of <code>DBDatabase.exportDBData</code>.
+ *
+ * <p>
+ *     Rows can be loaded from exported SQL (either format), from a binary
+ *     snapshot, from CSV or from an Iterator of ContentValues. Each row is
+ *     bound to a compiled INSERT statement (an SQLiteStatement), which is
+ *     compiled once per table and set of columns and then reused, and the
+ *     rows are committed in transactions of <code>setTransactionSize</code>
+ *     rows, rather than each row being inserted (and committed)
+ *     individually.
+ * </p>
+ * <p>
+ *     Optionally (<code>setDropIndexes</code>) the DBIndexes of a table are
+ *     dropped before the table's first row is loaded and re-created once
+ *     the load has finished, which is faster than maintaining the indexes
+ *     row by row. Whilst dropped, UNIQUE DBIndexes are not enforced. As
+ *     the stored schema fingerprint is reset when indexes are dropped, an
+ *     interrupted load's indexes will be re-created by the next
+ *     <code>actionDBBuildSQL</code>.
+ * </p>
+ * <p>
+ *     If a load fails, the rows of the current transaction are rolled
+ *     back; rows of transactions already committed remain.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBBulkLoader {
+
+    public static final int DEFAULT_TRANSACTION_SIZE = 10000;
+
+    private DBDatabase dbdatabase;
+    private SQLiteDatabase db;
+    private int transaction_size;
+    private boolean drop_indexes;
+    private boolean replace_existing;
+    private File temp_directory;
+
+    /* State of the current load */
+    private HashMap<String,SQLiteStatement> statements;
+    private HashSet<String> tables_started;
+    private ArrayList<DBIndex> dropped_indexes;
+    private int rows_in_transaction;
+    private long rows_loaded;
+
+    /**************************************************************************
+     * Constructs a DBBulkLoader.
+     *
+     * @param dbdatabase    The DBDatabase that defines the tables.
+     * @param db            The SQLite database to load the rows into.
+     */
+    public DBBulkLoader(DBDatabase dbdatabase, SQLiteDatabase db) {
+        this.dbdatabase = dbdatabase;
+        this.db = db;
+        this.transaction_size = DEFAULT_TRANSACTION_SIZE;
+        this.drop_indexes = false;
+        this.replace_existing = false;
+    }
+
+    /**************************************************************************
+     * Sets the number of rows committed per transaction.
+     *
+     * @param transaction_size  The number of rows (minimum 1, default 10000).
+     */
+    public void setTransactionSize(int transaction_size) {
+        this.transaction_size = Math.max(1, transaction_size);
+    }
+
+    /**************************************************************************
+     * Sets whether or not the DBIndexes of the tables being loaded are
+     * dropped before, and re-created after, the load.
+     *
+     * @param drop_indexes  true to drop the DBIndexes, false (the default)
+     *                      to not.
+     */
+    public void setDropIndexes(boolean drop_indexes) {
+        this.drop_indexes = drop_indexes;
+    }
+
+    /**************************************************************************
+     * Sets whether or not a row replaces an existing row with the same
+     * PRIMARY KEY (or UNIQUE value), i.e. INSERT OR REPLACE, rather than
+     * the load failing.
+     *
+     * @param replace_existing  true to replace, false (the default) to not.
+     */
+    public void setReplaceExisting(boolean replace_existing) {
+        this.replace_existing = replace_existing;
+    }
+
+    /**************************************************************************
+     * Sets the directory in which large values of a binary snapshot are
+     * held, temporarily, whilst being restored.
+     *
+     * @param temp_directory    The directory, null (the default) for the
+     *                          system's temporary directory.
+     */
+    public void setTempDirectory(File temp_directory) {
+        this.temp_directory = temp_directory;
+    }
+
+    /**************************************************************************
+     * Gets the number of rows loaded by the most recent load.
+     *
+     * @return The number of rows.
+     */
+    public long getRowsLoaded() { return this.rows_loaded; }
+
+    /**************************************************************************
+     * Loads rows from an Iterator of ContentValues, the keys of each
+     * ContentValues being the column names.
+     *
+     * @param dbt   The DBTable of the table to load.
+     * @param rows  The rows.
+     * @return The number of rows loaded.
+     */
+    public long loadContentValues(DBTable dbt, Iterator<ContentValues> rows) {
+        this.startLoad();
+        boolean completed = false;
+        try {
+            while (rows.hasNext()) {
+                ContentValues cv = rows.next();
+                String[] columns = cv.keySet().toArray(new String[cv.size()]);
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = cv.get(columns[i]);
+                }
+                this.loadRow(dbt.getDBTableName(), columns, values);
+            }
+            completed = true;
+        } finally {
+            this.finishLoad(completed);
+        }
+        return this.rows_loaded;
+    }
+
+    /**************************************************************************
+     * Loads rows from CSV (see DBCSVReader), the values being bound as
+     * Strings (and so converted according to the column's type), with an
+     * empty unquoted field being loaded as NULL.
+     *
+     * @param dbt           The DBTable of the table to load.
+     * @param reader        The Reader from which the CSV is read.
+     * @param has_header    true if the first record holds the column names,
+     *                      otherwise the fields are the DBTable's DBColumns
+     *                      in order.
+     * @return The number of rows loaded.
+     * @throws IOException if reading fails, the CSV is invalid or a record
+     * has the wrong number of fields.
+     */
+    public long loadCSV(DBTable dbt, Reader reader, boolean has_header)
+            throws IOException {
+        DBCSVReader csv = new DBCSVReader(new BufferedReader(reader));
+        String[] columns;
+        if (has_header) {
+            columns = csv.readRecord();
+            if (columns == null) {
+                return 0;
+            }
+        } else {
+            ArrayList<DBColumn> dbcolumns = dbt.getTableDBColumns();
+            columns = new String[dbcolumns.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = dbcolumns.get(i).getDBColumnName();
+            }
+        }
+        this.startLoad();
+        boolean completed = false;
+        try {
+            String[] record;
+            while ((record = csv.readRecord()) != null) {
+                if (record.length != columns.length) {
+                    throw new IOException("Invalid CSV in record " +
+                            Long.toString(csv.getRecordNumber()) +
+                            " - Has " + Integer.toString(record.length) +
+                            " fields, expected " + Integer.toString(columns.length));
+                }
+                this.loadRow(dbt.getDBTableName(), columns, record);
+            }
+            completed = true;
+        } finally {
+            this.finishLoad(completed);
+        }
+        return this.rows_loaded;
+    }
+
+    /**************************************************************************
+     * Loads rows from exported SQL, as written by
+     * <code>DBDatabase.exportDBData</code> (either format) or
+     * <code>generateExportDataSQL</code>. Statements other than INSERTs
+     * are ignored.
+     *
+     * @param reader    The Reader from which the SQL is read.
+     * @return The number of rows loaded.
+     * @throws IOException if reading fails or the SQL cannot be parsed.
+     */
+    public long loadSQL(Reader reader) throws IOException {
+        return this.loadSQL(reader, new DBExportOptions());
+    }
+
+    /**************************************************************************
+     * Loads rows from exported SQL, as written with the given
+     * DBExportOptions (for MySQL escaping, backslashes in strings are
+     * taken as escapes).
+     *
+     * @param reader    The Reader from which the SQL is read.
+     * @param options   The DBExportOptions with which the SQL was exported.
+     * @return The number of rows loaded.
+     * @throws IOException if reading fails or the SQL cannot be parsed.
+     */
+    public long loadSQL(Reader reader, DBExportOptions options) throws IOException {
+        DBSQLDumpReader dump = new DBSQLDumpReader(new BufferedReader(reader),
+                options.isMySQLEscaping());
+        this.startLoad();
+        boolean completed = false;
+        try {
+            while (dump.nextRow()) {
+                String[] columns = dump.getColumnNames();
+                if (columns == null) {
+                    columns = this.getDBColumnNames(dump.getTableName());
+                }
+                this.loadRow(dump.getTableName(), columns, dump.getValues());
+            }
+            completed = true;
+        } finally {
+            this.finishLoad(completed);
+        }
+        return this.rows_loaded;
+    }
+
+    /**************************************************************************
+     * Loads (restores) rows from a binary snapshot, as written by
+     * <code>DBDatabase.exportDBSnapshot</code>. The InputStream is not
+     * closed.
+     *
+     * <p>
+     *     TEXT and BLOB values longer than
+     *     <code>DBBlobInputStream.DEFAULT_CHUNK_SIZE</code> are not read
+     *     into memory; the row is inserted with an empty value which is
+     *     then replaced, a chunk at a time, by a DBBlobOutputStream.
+     * </p>
+     *
+     * @param is    The InputStream from which the snapshot is read.
+     * @return The number of rows loaded.
+     * @throws IOException if reading fails or the snapshot is invalid.
+     */
+    public long loadSnapshot(InputStream is) throws IOException {
+        DBBinarySnapshotReader snapshot =
+                new DBBinarySnapshotReader(new BufferedInputStream(is),
+                        DBBlobInputStream.DEFAULT_CHUNK_SIZE, this.temp_directory);
+        this.startLoad();
+        boolean completed = false;
+        try {
+            while (snapshot.nextTable()) {
+                while (snapshot.nextRow()) {
+                    long rowid = this.loadRow(snapshot.getTableName(),
+                            snapshot.getColumnNames(),
+                            snapshot.getValues());
+                    if (snapshot.hasLargeValues()) {
+                        this.loadLargeValues(snapshot, rowid);
+                    }
+                }
+            }
+            completed = true;
+        } finally {
+            snapshot.close();
+            this.finishLoad(completed);
+        }
+        return this.rows_loaded;
+    }
+
+    /**************************************************************************
+     * Writes the large values of the current row of a snapshot to the row
+     * inserted for it.
+     *
+     * @param snapshot  The snapshot.
+     * @param rowid     The rowid of the inserted row.
+     * @throws IOException if reading a large value fails.
+     */
+    private void loadLargeValues(DBBinarySnapshotReader snapshot, long rowid)
+            throws IOException {
+        String table_name = DBDataExporter.quoteName(snapshot.getTableName(), false);
+        String[] columns = snapshot.getColumnNames();
+        Object[] values = snapshot.getValues();
+        byte[] buffer = new byte[DBBlobInputStream.DEFAULT_CHUNK_SIZE];
+        for (int i = 0; i < columns.length; i++) {
+            if (!snapshot.isLargeValue(i)) {
+                continue;
+            }
+            InputStream value = snapshot.openLargeValue(i);
+            try {
+                OutputStream os = new DBBlobOutputStream(this.db, table_name,
+                        DBDataExporter.quoteName(columns[i], false), rowid,
+                        buffer.length, values[i] instanceof String);
+                try {
+                    int n;
+                    while ((n = value.read(buffer)) != -1) {
+                        os.write(buffer, 0, n);
+                    }
+                } finally {
+                    os.close();
+                }
+            } finally {
+                value.close();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Starts a load, beginning the first transaction.
+     */
+    private void startLoad() {
+        this.statements = new HashMap<>();
+        this.tables_started = new HashSet<>();
+        this.dropped_indexes = new ArrayList<>();
+        this.rows_in_transaction = 0;
+        this.rows_loaded = 0;
+        this.db.beginTransaction();
+    }
+
+    /**************************************************************************
+     * Loads a row, first committing the transaction if it holds the
+     * transaction size rows (so that a row's large values, written after
+     * the row, are in the row's transaction).
+     *
+     * @param table_name    The table.
+     * @param columns       The column names, null if all columns.
+     * @param values        The values.
+     * @return The rowid of the inserted row.
+     */
+    private long loadRow(String table_name, String[] columns, Object[] values) {
+        if (this.rows_in_transaction >= this.transaction_size) {
+            this.db.setTransactionSuccessful();
+            this.db.endTransaction();
+            this.db.beginTransaction();
+            this.rows_in_transaction = 0;
+        }
+        if (this.tables_started.add(table_name.toLowerCase())) {
+            this.startTable(table_name);
+        }
+        SQLiteStatement statement = this.getInsertStatement(table_name, columns);
+        DBStatementBinder.bindValues(statement, values);
+        long rowid = statement.executeInsert();
+        this.rows_loaded++;
+        this.rows_in_transaction++;
+        return rowid;
+    }
+
+    /**************************************************************************
+     * Prepares for the first row of a table to be loaded, dropping the
+     * table's DBIndexes if required.
+     *
+     * @param table_name    The table.
+     */
+    private void startTable(String table_name) {
+        DBTable dbt = this.dbdatabase.getDBTable(table_name);
+        if (!this.drop_indexes || dbt == null) {
+            return;
+        }
+        ArrayList<DBIndex> indexes = this.dbdatabase.getDBIndexesForDBTable(dbt);
+        if (indexes.isEmpty()) {
+            return;
+        }
+        if (this.dropped_indexes.isEmpty()) {
+            // So that an interrupted load's indexes are re-created
+            this.dbdatabase.resetDBDatabaseFingerprint(this.db);
+        }
+        for (DBIndex dbi : indexes) {
+            this.db.execSQL(" DROP INDEX IF EXISTS " + dbi.getIndexName() + " ;");
+            this.dropped_indexes.add(dbi);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the compiled INSERT statement for a table and columns, compiling
+     * it if this is the first row for the table and columns.
+     *
+     * @param table_name    The table.
+     * @param columns       The column names, null if all columns.
+     * @return The compiled statement.
+     */
+    private SQLiteStatement getInsertStatement(String table_name, String[] columns) {
+        StringBuilder key = new StringBuilder(table_name);
+        if (columns != null) {
+            for (String column : columns) {
+                key.append('\u0000').append(column);
+            }
+        }
+        SQLiteStatement statement = this.statements.get(key.toString());
+        if (statement != null) {
+            return statement;
+        }
+        StringBuilder sql = new StringBuilder(this.replace_existing ?
+                "INSERT OR REPLACE INTO " : "INSERT INTO ");
+        sql.append(DBDataExporter.quoteName(table_name, false));
+        StringBuilder placeholders = new StringBuilder();
+        if (columns != null) {
+            sql.append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(",");
+                    placeholders.append(",");
+                }
+                sql.append(DBDataExporter.quoteName(columns[i], false));
+                placeholders.append("?");
+            }
+            sql.append(")");
+        }
+        sql.append(" VALUES(").append(placeholders).append(")");
+        statement = this.db.compileStatement(sql.toString());
+        this.statements.put(key.toString(), statement);
+        return statement;
+    }
+
+    /**************************************************************************
+     * Gets the names of the DBColumns of a table, for INSERTs that do not
+     * list the columns.
+     *
+     * @param table_name    The table.
+     * @return The column names, null if the table is not a DBTable.
+     */
+    private String[] getDBColumnNames(String table_name) {
+        DBTable dbt = this.dbdatabase.getDBTable(table_name);
+        if (dbt == null) {
+            return null;
+        }
+        ArrayList<DBColumn> dbcolumns = dbt.getTableDBColumns();
+        String[] rv = new String[dbcolumns.size()];
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = dbcolumns.get(i).getDBColumnName();
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Finishes a load; committing the final transaction if the load
+     * completed (else rolling it back), closing the compiled statements and
+     * re-creating any dropped DBIndexes.
+     *
+     * @param completed true if the load completed, false if it failed.
+     */
+    private void finishLoad(boolean completed) {
+        try {
+            if (completed) {
+                this.db.setTransactionSuccessful();
+            }
+            this.db.endTransaction();
+        } finally {
+            for (SQLiteStatement statement : this.statements.values()) {
+                statement.close();
+            }
+            this.statements.clear();
+        }
+        if (this.dropped_indexes.isEmpty()) {
+            return;
+        }
+        try {
+            for (DBIndex dbi : this.dropped_indexes) {
+                this.db.execSQL(dbi.generateCreateIndexSQL());
+            }
+        } catch (RuntimeException e) {
+            // Don't mask the failure of the load (the indexes will be
+            // re-created by actionDBBuildSQL as the fingerprint was reset)
+            if (completed) {
+                throw e;
+            }
+        }
+    }
+}
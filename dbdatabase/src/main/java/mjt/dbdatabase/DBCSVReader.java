@@ -0,0 +1,122 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * DBCSVReader reads the records of CSV (as per RFC 4180), one record at a
+ * time.
+ *
+ * <p>
+ *     Fields are separated by commas and records by CRLF or LF. Fields may
+ *     be enclosed in double quotes, in which case they may contain commas,
+ *     line breaks and (doubled) double quotes. An empty unquoted field is
+ *     read as null, an empty quoted field ("") as an empty String. Blank
+ *     lines are skipped.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBCSVReader {
+
+    private PushbackReader reader;
+    private long record_number;
+
+    /**************************************************************************
+     * Constructs a DBCSVReader.
+     *
+     * @param reader    The Reader from which the CSV is read (it should be
+     *                  buffered).
+     */
+    DBCSVReader(Reader reader) {
+        this.reader = new PushbackReader(reader, 1);
+        this.record_number = 0;
+    }
+
+    /**************************************************************************
+     * Reads the next record.
+     *
+     * @return The fields of the record, null if there are no more records.
+     * @throws IOException if reading fails or a quoted field is not
+     * terminated.
+     */
+    String[] readRecord() throws IOException {
+        int c = this.reader.read();
+        if (c == -1) {
+            return null;
+        }
+        this.reader.unread(c);
+        this.record_number++;
+        ArrayList<String> fields = new ArrayList<>();
+        while (true) {
+            String field;
+            c = this.reader.read();
+            if (c == '"') {
+                field = this.readQuotedField();
+                c = this.reader.read();
+            } else {
+                StringBuilder sb = new StringBuilder();
+                while (c != -1 && c != ',' && c != '\n' && c != '\r') {
+                    sb.append((char) c);
+                    c = this.reader.read();
+                }
+                field = sb.length() > 0 ? sb.toString() : null;
+            }
+            fields.add(field);
+            if (c == ',') {
+                continue;
+            }
+            if (c == '\r') {
+                c = this.reader.read();
+                if (c != '\n' && c != -1) {
+                    this.reader.unread(c);
+                }
+            } else if (c != '\n' && c != -1) {
+                throw new IOException("Invalid CSV in record " +
+                        Long.toString(this.record_number) +
+                        " - Expected , or end of line after quoted field");
+            }
+            // Skip blank lines
+            if (fields.size() == 1 && fields.get(0) == null) {
+                this.record_number--;
+                return this.readRecord();
+            }
+            return fields.toArray(new String[fields.size()]);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the number (1 based) of the record last read.
+     *
+     * @return The record number.
+     */
+    long getRecordNumber() { return this.record_number; }
+
+    /**************************************************************************
+     * Reads a quoted field, the opening quote having been read.
+     */
+    private String readQuotedField() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = this.reader.read();
+            if (c == -1) {
+                throw new IOException("Invalid CSV in record " +
+                        Long.toString(this.record_number) +
+                        " - Unterminated quoted field");
+            }
+            if (c == '"') {
+                int next = this.reader.read();
+                if (next == '"') {
+                    sb.append('"');
+                    continue;
+                }
+                if (next != -1) {
+                    this.reader.unread(next);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package mjt.dbdatabase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * DBCompressingOutputStream compresses what is written to it using a
+ * DBExportCodec, writing the compressed data to another OutputStream, so
+ * that an export is compressed as it is written rather than by a separate
+ * pass.
+ *
+ * <p>
+ *     If more than one thread is requested and the codec is concatenable
+ *     (e.g. gzip), the data is split into blocks of the block size and the
+ *     blocks are compressed concurrently, each as a separate stream, by a
+ *     fixed size thread pool; the compressed blocks are written in order.
+ *     At most two blocks per thread are held. Otherwise the data is
+ *     compressed as a single stream, on the writing thread, through a
+ *     buffer of the block size.
+ * </p>
+ * <p>
+ *     Closing finishes the compressed data and flushes, but does not close,
+ *     the underlying OutputStream. If writing fails, <code>abort</code>
+ *     stops the threads without finishing. <code>flush</code> writes the
+ *     blocks that have been compressed, it doesn't force a partial block to
+ *     be compressed.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBCompressingOutputStream extends OutputStream {
+
+    /**
+     * The default (uncompressed) block size.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private OutputStream out;
+    private DBExportCodec codec;
+    /* The codec's stream when compressing as a single stream */
+    private OutputStream serial;
+    /* The state when compressing blocks concurrently */
+    private byte[] block;
+    private int count;
+    private ExecutorService executor;
+    private ArrayDeque<Future<byte[]>> pending;
+    private int max_pending;
+    private boolean submitted;
+    private boolean closed;
+
+    /**************************************************************************
+     * Constructs a DBCompressingOutputStream.
+     *
+     * @param out           The OutputStream to which the compressed data is
+     *                      written.
+     * @param codec         The DBExportCodec.
+     * @param block_size    The (uncompressed) block size (minimum 4096).
+     * @param threads       The number of compression threads (minimum 1);
+     *                      only used if the codec is concatenable.
+     * @throws IOException if writing the start of the compressed data fails.
+     */
+    public DBCompressingOutputStream(OutputStream out,
+                                     DBExportCodec codec,
+                                     int block_size,
+                                     int threads) throws IOException {
+        this.out = out;
+        this.codec = codec;
+        block_size = Math.max(4096, block_size);
+        if (threads > 1 && codec.isConcatenable()) {
+            this.block = new byte[block_size];
+            this.count = 0;
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.pending = new ArrayDeque<>();
+            this.max_pending = threads * 2;
+            this.submitted = false;
+        } else {
+            this.serial = codec.newCompressingStream(out, block_size);
+        }
+        this.closed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.checkNotClosed();
+        if (this.serial != null) {
+            this.serial.write(b);
+            return;
+        }
+        if (this.count == this.block.length) {
+            this.submitBlock();
+        }
+        this.block[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.checkNotClosed();
+        if (this.serial != null) {
+            this.serial.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            if (this.count == this.block.length) {
+                this.submitBlock();
+            }
+            int n = Math.min(len, this.block.length - this.count);
+            System.arraycopy(b, off, this.block, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**************************************************************************
+     * Writes the blocks that have been compressed and flushes the
+     * underlying OutputStream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        if (this.serial != null) {
+            this.serial.flush();
+            return;
+        }
+        while (!this.pending.isEmpty() && this.pending.peekFirst().isDone()) {
+            this.writeBlock();
+        }
+        this.out.flush();
+    }
+
+    /**************************************************************************
+     * Finishes the compressed data and flushes the underlying OutputStream,
+     * which is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.serial != null) {
+            this.serial.close();
+            return;
+        }
+        try {
+            // If nothing was written an empty block is compressed, as the
+            // compressed data must still be valid (e.g. a gzip header)
+            if (this.count > 0 || !this.submitted) {
+                this.submitBlock();
+            }
+            while (!this.pending.isEmpty()) {
+                this.writeBlock();
+            }
+            this.out.flush();
+        } finally {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**************************************************************************
+     * Stops compressing, without finishing the compressed data, releasing
+     * the codec's resources (e.g. a Deflater); for use when writing has
+     * failed. The underlying OutputStream is not closed.
+     */
+    public void abort() {
+        this.closed = true;
+        if (this.serial instanceof DBExportCodec.Abortable) {
+            ((DBExportCodec.Abortable) this.serial).abort();
+        }
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            for (Future<byte[]> future : this.pending) {
+                future.cancel(true);
+            }
+            this.pending.clear();
+        }
+    }
+
+    /**************************************************************************
+     * Submits the buffered block for compression, first writing the oldest
+     * block if the maximum number of blocks are held.
+     */
+    private void submitBlock() throws IOException {
+        if (this.pending.size() >= this.max_pending) {
+            this.writeBlock();
+        }
+        final byte[] data = this.block;
+        final int length = this.count;
+        final int buffer_size = this.block.length;
+        this.pending.addLast(this.executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 2 + 64);
+                OutputStream cos = codec.newCompressingStream(bos, buffer_size);
+                cos.write(data, 0, length);
+                cos.close();
+                return bos.toByteArray();
+            }
+        }));
+        // The submitted block is owned by its task, so use a new block
+        this.block = new byte[this.block.length];
+        this.count = 0;
+        this.submitted = true;
+    }
+
+    /**************************************************************************
+     * Waits for the oldest block to be compressed and writes it.
+     */
+    private void writeBlock() throws IOException {
+        Future<byte[]> future = this.pending.removeFirst();
+        byte[] compressed;
+        try {
+            compressed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compression interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Compression failed - " + cause);
+        }
+        this.out.write(compressed);
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (this.closed) {
+            throw new IOException("DBCompressingOutputStream closed");
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package mjt.dbdatabase;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBConnectionPool holds the connections to an SQLite database; a single
+ * writer, with write-ahead logging (WAL) enabled, and a pool of read-only
+ * connections, so that reads (e.g. from the UI thread) are not blocked by
+ * writes (e.g. from a background thread) or by each other.
+ *
+ * <p>
+ *     All writes should be made via the writer (<code>getWriter</code>).
+ *     A read-only connection is acquired, used and then released
+ *     (<code>acquireReader</code> and <code>releaseReader</code>, or
+ *     <code>read</code> which does both). Read-only connections are opened
+ *     as required, up to the configured number, and kept open until the
+ *     pool is closed; when all are in use <code>acquireReader</code> waits
+ *     for one to be released.
+ * </p>
+ * <p>
+ *     With WAL each read sees the database as at the start of its read
+ *     transaction; it doesn't see changes committed by the writer after
+ *     that (nor, of course, uncommitted changes).
+ * </p>
+ * <p>
+ *     Note! A Cursor obtained from a read-only connection should be closed
+ *     before the connection is released (the connection can be shared, as
+ *     an SQLiteDatabase is thread safe, but another thread using it would
+ *     then wait for the Cursor's reads). In-memory databases can't be
+ *     pooled.
+ * </p>
+ * <p>
+ *     A DBPragmaProfile, if given, is applied to the writer when it is
+ *     opened (after WAL is enabled, as Android then resets synchronous)
+ *     and to each read-only connection when it is opened.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBConnectionPool {
+
+    /**
+     * The default number of read-only connections.
+     */
+    public static final int DEFAULT_READ_CONNECTIONS = 4;
+
+    /**
+     * A read, run by <code>read</code> with a read-only connection.
+     *
+     * @param <T> The type of the result of the read.
+     */
+    public interface DBReadOperation<T> {
+        /**
+         * Runs the read.
+         *
+         * @param db    The read-only connection, which must not be used
+         *              after returning.
+         * @return The result.
+         */
+        T read(SQLiteDatabase db);
+    }
+
+    private String path;
+    private int read_connections;
+    private SQLiteDatabase writer;
+    private ArrayList<SQLiteDatabase> readers;
+    private LinkedBlockingQueue<SQLiteDatabase> idle_readers;
+    private boolean closed;
+    private DBPragmaProfile pragma_profile;
+    private DBPragmaProfile effective_pragma_profile;
+
+    /**************************************************************************
+     * Constructs a DBConnectionPool with the default number of read-only
+     * connections.
+     *
+     * @param path  The path of the SQLite database, which is created if it
+     *              doesn't exist.
+     */
+    public DBConnectionPool(String path) {
+        this(path, DEFAULT_READ_CONNECTIONS);
+    }
+
+    /**************************************************************************
+     * Constructs a DBConnectionPool, opening the writer and enabling WAL.
+     *
+     * @param path              The path of the SQLite database, which is
+     *                          created if it doesn't exist.
+     * @param read_connections  The maximum number of read-only connections
+     *                          (minimum 1).
+     * @throws IllegalStateException if WAL couldn't be enabled (e.g. an
+     *                               in-memory database).
+     */
+    public DBConnectionPool(String path, int read_connections) {
+        this(path, read_connections, null);
+    }
+
+    /**************************************************************************
+     * Constructs a DBConnectionPool, opening the writer, enabling WAL and
+     * applying the DBPragmaProfile to the writer.
+     *
+     * @param path              The path of the SQLite database, which is
+     *                          created if it doesn't exist.
+     * @param read_connections  The maximum number of read-only connections
+     *                          (minimum 1).
+     * @param pragma_profile    The DBPragmaProfile applied to each
+     *                          connection when opened, null for none.
+     * @throws IllegalStateException if WAL couldn't be enabled (e.g. an
+     *                               in-memory database).
+     */
+    public DBConnectionPool(String path, int read_connections,
+                            DBPragmaProfile pragma_profile) {
+        this.path = path;
+        this.pragma_profile = pragma_profile;
+        this.read_connections = Math.max(1, read_connections);
+        this.readers = new ArrayList<>();
+        this.idle_readers = new LinkedBlockingQueue<>();
+        this.closed = false;
+        this.writer = SQLiteDatabase.openDatabase(path, null,
+                SQLiteDatabase.CREATE_IF_NECESSARY);
+        if (!this.writer.enableWriteAheadLogging()) {
+            this.writer.close();
+            throw new IllegalStateException("Write-ahead logging could not be enabled for " +
+                    path);
+        }
+        if (pragma_profile != null) {
+            try {
+                this.effective_pragma_profile = pragma_profile.apply(this.writer);
+            } catch (RuntimeException e) {
+                this.writer.close();
+                throw e;
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Gets the writer, the connection through which all writes are made.
+     *
+     * @return The writer.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public synchronized SQLiteDatabase getWriter() {
+        this.checkOpen();
+        return this.writer;
+    }
+
+    /**************************************************************************
+     * Acquires a read-only connection, waiting until one is available.
+     *
+     * @return The read-only connection, which must be released (by
+     *         <code>releaseReader</code>).
+     * @throws IllegalStateException if the pool has been closed or the wait
+     *                               was interrupted.
+     */
+    public SQLiteDatabase acquireReader() {
+        SQLiteDatabase reader = this.acquireReader(-1, TimeUnit.MILLISECONDS);
+        if (reader == null) {
+            throw new IllegalStateException("Pool closed whilst waiting for a reader");
+        }
+        return reader;
+    }
+
+    /**************************************************************************
+     * Acquires a read-only connection, waiting for up to the given time if
+     * none is available.
+     *
+     * @param timeout   The maximum time to wait (negative to wait
+     *                  indefinitely).
+     * @param unit      The unit of the timeout.
+     * @return The read-only connection, which must be released (by
+     *         <code>releaseReader</code>), null if none became available.
+     * @throws IllegalStateException if the pool has been closed or the wait
+     *                               was interrupted.
+     */
+    public SQLiteDatabase acquireReader(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            this.checkOpen();
+            SQLiteDatabase reader = this.idle_readers.poll();
+            if (reader != null) {
+                return reader;
+            }
+            if (this.readers.size() < this.read_connections) {
+                reader = SQLiteDatabase.openDatabase(this.path, null,
+                        SQLiteDatabase.OPEN_READONLY);
+                if (this.pragma_profile != null) {
+                    try {
+                        this.pragma_profile.apply(reader);
+                    } catch (RuntimeException e) {
+                        reader.close();
+                        throw e;
+                    }
+                }
+                this.readers.add(reader);
+                return reader;
+            }
+        }
+        try {
+            SQLiteDatabase reader = timeout < 0 ?
+                    this.idle_readers.take() : this.idle_readers.poll(timeout, unit);
+            synchronized (this) {
+                // The pool may have been closed whilst waiting, if so the
+                // reader is passed on to wake the next waiting thread
+                if (this.closed) {
+                    if (reader != null) {
+                        this.idle_readers.offer(reader);
+                    }
+                    return null;
+                }
+            }
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst waiting for a reader");
+        }
+    }
+
+    /**************************************************************************
+     * Releases a read-only connection acquired by <code>acquireReader</code>.
+     *
+     * @param reader    The read-only connection.
+     * @throws IllegalArgumentException if the connection isn't a read-only
+     *                                  connection of the pool.
+     */
+    public synchronized void releaseReader(SQLiteDatabase reader) {
+        if (this.closed) {
+            return;
+        }
+        if (!this.readers.contains(reader)) {
+            throw new IllegalArgumentException("Not a reader of the pool");
+        }
+        this.idle_readers.offer(reader);
+    }
+
+    /**************************************************************************
+     * Runs a read with a read-only connection, acquiring it before and
+     * releasing it after the read.
+     *
+     * @param operation The read.
+     * @param <T>       The type of the result.
+     * @return The result of the read.
+     */
+    public <T> T read(DBReadOperation<T> operation) {
+        SQLiteDatabase reader = this.acquireReader();
+        try {
+            return operation.read(reader);
+        } finally {
+            this.releaseReader(reader);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the DBPragmaProfile applied to each connection when opened.
+     *
+     * @return The DBPragmaProfile, null if none.
+     */
+    public DBPragmaProfile getPragmaProfile() { return this.pragma_profile; }
+
+    /**************************************************************************
+     * Gets the settings of the DBPragmaProfile's PRAGMAs, read back from the
+     * writer after the profile was applied (see
+     * <code>DBPragmaProfile.getDifferences</code>).
+     *
+     * @return The effective settings, null if there is no DBPragmaProfile.
+     */
+    public DBPragmaProfile getEffectivePragmaProfile() {
+        return this.effective_pragma_profile;
+    }
+
+    /**************************************************************************
+     * Gets the path of the SQLite database.
+     *
+     * @return The path.
+     */
+    public String getPath() { return this.path; }
+
+    /**************************************************************************
+     * Gets the maximum number of read-only connections.
+     *
+     * @return The maximum number of read-only connections.
+     */
+    public int getReadConnections() { return this.read_connections; }
+
+    /**************************************************************************
+     * Gets the number of read-only connections that are open.
+     *
+     * @return The number of open read-only connections.
+     */
+    public synchronized int getOpenReadConnections() { return this.readers.size(); }
+
+    /**************************************************************************
+     * Gets the number of read-only connections that are open and not in
+     * use.
+     *
+     * @return The number of idle read-only connections.
+     */
+    public synchronized int getIdleReadConnections() { return this.idle_readers.size(); }
+
+    /**************************************************************************
+     * Checks whether the pool has been closed.
+     *
+     * @return true if closed, else false.
+     */
+    public synchronized boolean isClosed() { return this.closed; }
+
+    /**************************************************************************
+     * Closes the read-only connections and the writer. Read-only
+     * connections in use are closed, so reads should have finished.
+     * Threads waiting for a read-only connection are woken (and fail).
+     */
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.idle_readers.clear();
+        for (SQLiteDatabase reader : this.readers) {
+            reader.close();
+            // Wakes a thread waiting for a reader, which sees the pool closed
+            this.idle_readers.offer(reader);
+        }
+        this.readers.clear();
+        this.writer.close();
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("DBConnectionPool for " + this.path +
+                    " has been closed");
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import mjt.dbcolumn.DBColumn;
+import mjt.dbtable.DBBlobInputStream;
+import mjt.dbtable.DBTable;
+import mjt.dbtable.DBTableReader;
+
+/**
+ * DBDataExporter writes the data of the tables of an SQLite database, as
+ * SQL INSERT statements, to a Writer.
+ *
+ * <p>
+ *     The format is as per the DBExportOptions; either the legacy format
+ *     (single row INSERTs with placeholder escaping) or the batched insert
+ *     format (multi-row INSERTs with SQL literals written according to
+ *     each value's actual type as per <code>Cursor.getType</code>).
+ * </p>
+ * <p>
+ *     The rows are written as they are read, a page at a time by a
+ *     DBTableReader, table by table, so memory use does not grow with the
+ *     size of the database; it is the Writer (normally a BufferedWriter of
+ *     a fixed size, see <code>DBDatabase.exportDBData</code>) that
+ *     determines how much is held before being written out.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBDataExporter {
+
+    private static final char[] HEXDIGITS = "0123456789ABCDEF".toCharArray();
+
+    private SQLiteDatabase db;
+    private DBExportOptions options;
+    private DBExportListener listener;
+    private long total_rows;
+
+    /**************************************************************************
+     * Constructs a DBDataExporter.
+     *
+     * @param db        The SQLite database from which the data is to be
+     *                  extracted.
+     * @param options   The DBExportOptions.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     */
+    DBDataExporter(SQLiteDatabase db,
+                   DBExportOptions options,
+                   DBExportListener listener) {
+        this.db = db;
+        this.options = options;
+        this.listener = listener;
+        this.total_rows = 0;
+    }
+
+    /**************************************************************************
+     * Exports the data of the given tables.
+     *
+     * @param tables    The DBTables of the tables to export.
+     * @param out       The Writer to which the SQL is written.
+     * @return The number of rows exported.
+     * @throws IOException if the Writer fails.
+     */
+    long export(ArrayList<DBTable> tables, Writer out) throws IOException {
+        for (DBTable dbt : tables) {
+            this.exportTable(dbt, out);
+        }
+        return this.total_rows;
+    }
+
+    /**************************************************************************
+     * Exports the data of a single table, in the format as per the
+     * DBExportOptions.
+     *
+     * @param dbt   The DBTable of the table to export.
+     * @param out   The Writer to which the SQL is written.
+     * @return The number of rows exported.
+     * @throws IOException if the Writer fails.
+     */
+    long exportTable(DBTable dbt, Writer out) throws IOException {
+        return this.exportTableRange(dbt, null, null, out);
+    }
+
+    /**************************************************************************
+     * Exports the rows of a single table that are within a range of rowids
+     * (in rowid order), in the format as per the DBExportOptions; so that
+     * a large table can be exported in parts.
+     *
+     * @param dbt           The DBTable of the table to export.
+     * @param from_rowid    The lowest rowid to export, null to export the
+     *                      whole table.
+     * @param to_rowid      The highest rowid to export (ignored if
+     *                      from_rowid is null).
+     * @param out           The Writer to which the SQL is written.
+     * @return The number of rows exported.
+     * @throws IOException if the Writer fails.
+     */
+    long exportTableRange(DBTable dbt, Long from_rowid, Long to_rowid, Writer out)
+            throws IOException {
+        if (this.listener != null) {
+            this.listener.onTableExportStarted(dbt.getDBTableName());
+        }
+        long table_rows;
+        DBTableReader reader = new DBTableReader(this.db, dbt, this.options.getPageSize());
+        reader.setLargeValueSize(this.options.getLargeValueSize());
+        if (from_rowid != null) {
+            reader.setRowidRange(from_rowid, to_rowid);
+        }
+        try {
+            if (this.options.getFormat() == DBExportOptions.FORMAT_BATCHED_INSERT) {
+                table_rows = this.writeBatchedInserts(dbt, reader, out);
+            } else {
+                table_rows = this.writeLegacyInserts(dbt, reader, out, from_rowid == null);
+            }
+        } finally {
+            reader.close();
+        }
+        if (this.listener != null) {
+            this.listener.onTableExportFinished(dbt.getDBTableName(), table_rows);
+        }
+        return table_rows;
+    }
+
+    /**************************************************************************
+     * Writes the rows of a table in the legacy format.
+     *
+     * <p>
+     *     Each row is written as <code>--TBL_INSERTSTART</code>, the INSERT
+     *     statement and then <code>--TBL_INSERTFINISH</code>. TEXT values
+     *     have apostrophes changed to #@APOST@# and quotes changed to
+     *     #@QUOTE@#. An empty table is noted by an
+     *     <code>-- ERROR - TABLE ... IS EMPTY SKIPPED</code> line. BLOB
+     *     values, large or not, can't be written in this format.
+     * </p>
+     *
+     * @param dbt           The DBTable of the table to export.
+     * @param reader        The DBTableReader of the table's rows.
+     * @param out           The Writer to which the SQL is written.
+     * @param note_empty    true to note if there are no rows (false when
+     *                      exporting a part of a table).
+     * @return The number of rows exported.
+     * @throws IOException if the Writer fails or a value is a BLOB.
+     */
+    private long writeLegacyInserts(DBTable dbt,
+                                    DBTableReader reader,
+                                    Writer out,
+                                    boolean note_empty) throws IOException {
+        ArrayList<DBColumn> columns = dbt.getTableDBColumns();
+        boolean[] istext = new boolean[columns.size()];
+        StringBuilder sqlcols = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            DBColumn dbtc = columns.get(i);
+            istext[i] = dbtc.getDBColumnType().equals("TEXT");
+            if (i > 0) {
+                sqlcols.append(", ");
+            }
+            sqlcols.append("`").append(dbtc.getDBColumnName()).append("` ");
+        }
+        String insertstart = "--TBL_INSERTSTART\nINSERT INTO " +
+                dbt.getDBTableName() + " ( " + sqlcols.toString() + ") VALUES(";
+
+        long table_rows = 0;
+        while (reader.hasNext()) {
+            Cursor csr = reader.next();
+            out.write(insertstart);
+            for (int i = 0; i < istext.length; i++) {
+                int largetype = reader.getLargeValueType(i);
+                if (largetype == Cursor.FIELD_TYPE_BLOB ||
+                        (largetype == Cursor.FIELD_TYPE_NULL &&
+                                csr.getType(i) == Cursor.FIELD_TYPE_BLOB)) {
+                    throw new IOException("The legacy format can't export BLOB values, " +
+                            "column " + columns.get(i).getDBColumnName() + " of table " +
+                            dbt.getDBTableName() + " (use FORMAT_BATCHED_INSERT)");
+                }
+                if (largetype != Cursor.FIELD_TYPE_NULL) {
+                    writeLargeLegacyValue(reader, i, istext[i], out);
+                    if (i < (istext.length - 1)) {
+                        out.write(", ");
+                    }
+                    continue;
+                }
+                String coldata = csr.getString(i);
+                if (istext[i]) {
+                    if (coldata == null) {
+                        coldata = "";
+                    }
+                    out.write("'");
+                    out.write(coldata.replace("'", "#@APOST@#")
+                            .replace("\"", "#@QUOTE@#"));
+                    out.write("'");
+                } else {
+                    out.write(String.valueOf(coldata));
+                }
+                if (i < (istext.length - 1)) {
+                    out.write(", ");
+                }
+            }
+            out.write(" );\n--TBL_INSERTFINISH\n");
+            this.rowExported(dbt, ++table_rows);
+        }
+        if (table_rows < 1 && note_empty) {
+            out.write("-- ERROR - TABLE " + dbt.getDBTableName() +
+                    " IS EMPTY SKIPPED \n");
+        }
+        return table_rows;
+    }
+
+    /**************************************************************************
+     * Writes the rows of a table in the batched insert format; i.e. as
+     * <code>INSERT INTO table (columns) VALUES (...),(...);</code> with up
+     * to rows per insert rows per INSERT. Nothing is written for an empty
+     * table.
+     *
+     * @param dbt       The DBTable of the table to export.
+     * @param reader    The DBTableReader of the table's rows.
+     * @param out       The Writer to which the SQL is written.
+     * @return The number of rows exported.
+     * @throws IOException if the Writer fails.
+     */
+    private long writeBatchedInserts(DBTable dbt, DBTableReader reader, Writer out)
+            throws IOException {
+        boolean mysql = this.options.isMySQLEscaping();
+        StringBuilder insertstart = new StringBuilder("INSERT INTO ");
+        insertstart.append(quoteName(dbt.getDBTableName(), mysql)).append(" (");
+        int columncount = dbt.getTableDBColumns().size();
+        for (int i = 0; i < columncount; i++) {
+            if (i > 0) {
+                insertstart.append(", ");
+            }
+            insertstart.append(quoteName(
+                    dbt.getTableDBColumns().get(i).getDBColumnName(), mysql));
+        }
+        insertstart.append(") VALUES\n");
+
+        long table_rows = 0;
+        int rowsininsert = 0;
+        while (reader.hasNext()) {
+            Cursor csr = reader.next();
+            if (rowsininsert == 0) {
+                out.write(insertstart.toString());
+            } else {
+                out.write(",\n");
+            }
+            out.write("(");
+            for (int i = 0; i < columncount; i++) {
+                if (i > 0) {
+                    out.write(",");
+                }
+                if (reader.getLargeValueType(i) != Cursor.FIELD_TYPE_NULL) {
+                    writeLargeLiteral(reader, i, mysql, out);
+                } else {
+                    writeLiteral(csr, i, mysql, out);
+                }
+            }
+            out.write(")");
+            if (++rowsininsert >= this.options.getRowsPerInsert()) {
+                out.write(";\n");
+                rowsininsert = 0;
+            }
+            this.rowExported(dbt, ++table_rows);
+        }
+        if (rowsininsert > 0) {
+            out.write(";\n");
+        }
+        return table_rows;
+    }
+
+    /**************************************************************************
+     * Quotes a table or column name; with backticks for MySQL, otherwise
+     * with double quotes.
+     *
+     * @param name  The name.
+     * @param mysql true if for MySQL.
+     * @return The quoted name.
+     */
+    static String quoteName(String name, boolean mysql) {
+        if (mysql) {
+            return "`" + name.replace("`", "``") + "`";
+        }
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**************************************************************************
+     * Writes a Cursor's column value as an SQL literal according to the
+     * value's actual type; NULL, an integer, a real, a string (with
+     * apostrophes doubled and, for MySQL, backslashes escaped) or a blob
+     * as X'hex'.
+     *
+     * @param csr   The Cursor, positioned at the row.
+     * @param i     The offset of the column.
+     * @param mysql true if for MySQL.
+     * @param out   The Writer to which the literal is written.
+     * @throws IOException if the Writer fails.
+     */
+    static void writeLiteral(Cursor csr, int i, boolean mysql, Writer out)
+            throws IOException {
+        switch (csr.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                out.write("NULL");
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                out.write(Long.toString(csr.getLong(i)));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                writeRealLiteral(csr.getDouble(i), out);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                writeBlobLiteral(csr.getBlob(i), out);
+                break;
+            default:
+                writeTextLiteral(csr.getString(i), mysql, out);
+                break;
+        }
+    }
+
+    /**************************************************************************
+     * Writes a real as an SQL literal, infinities being written as
+     * 9e999/-9e999 (as per the SQLite quote function).
+     *
+     * @param value The value.
+     * @param out   The Writer to which the literal is written.
+     * @throws IOException if the Writer fails.
+     */
+    static void writeRealLiteral(double value, Writer out) throws IOException {
+        if (Double.isInfinite(value)) {
+            out.write(value > 0 ? "9e999" : "-9e999");
+        } else if (Double.isNaN(value)) {
+            out.write("NULL");
+        } else {
+            out.write(Double.toString(value));
+        }
+    }
+
+    /**************************************************************************
+     * Writes a String as an SQL string literal, apostrophes being doubled
+     * and, for MySQL, backslashes being escaped.
+     *
+     * @param value The value.
+     * @param mysql true if for MySQL.
+     * @param out   The Writer to which the literal is written.
+     * @throws IOException if the Writer fails.
+     */
+    static void writeTextLiteral(String value, boolean mysql, Writer out)
+            throws IOException {
+        out.write('\'');
+        int runstart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\'' || (mysql && c == '\\')) {
+                // Write up to and including the character then repeat it
+                out.write(value, runstart, i - runstart + 1);
+                out.write(c);
+                runstart = i + 1;
+            }
+        }
+        out.write(value, runstart, length - runstart);
+        out.write('\'');
+    }
+
+    /**************************************************************************
+     * Writes characters with apostrophes doubled and, for MySQL,
+     * backslashes escaped (i.e. the content of an SQL string literal, as
+     * per <code>writeTextLiteral</code>), for a value read in chunks.
+     *
+     * @param value     The characters.
+     * @param length    The number of characters.
+     * @param mysql     true if for MySQL.
+     * @param out       The Writer to which the characters are written.
+     * @throws IOException if the Writer fails.
+     */
+    static void writeEscapedText(char[] value, int length, boolean mysql, Writer out)
+            throws IOException {
+        int runstart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value[i];
+            if (c == '\'' || (mysql && c == '\\')) {
+                // Write up to and including the character then repeat it
+                out.write(value, runstart, i - runstart + 1);
+                out.write(c);
+                runstart = i + 1;
+            }
+        }
+        out.write(value, runstart, length - runstart);
+    }
+
+    /**************************************************************************
+     * Writes a byte array as an SQL blob literal i.e. X'hex'.
+     *
+     * @param value The value.
+     * @param out   The Writer to which the literal is written.
+     * @throws IOException if the Writer fails.
+     */
+    static void writeBlobLiteral(byte[] value, Writer out) throws IOException {
+        char[] hex = new char[value.length * 2 + 3];
+        hex[0] = 'X';
+        hex[1] = '\'';
+        int h = 2;
+        for (byte b : value) {
+            hex[h++] = HEXDIGITS[(b >> 4) & 0xF];
+            hex[h++] = HEXDIGITS[b & 0xF];
+        }
+        hex[h] = '\'';
+        out.write(hex);
+    }
+
+    /**************************************************************************
+     * Writes a large value (see <code>DBTableReader.setLargeValueSize</code>)
+     * as an SQL literal, reading it a chunk at a time; a blob as X'hex' and
+     * text as a string literal.
+     *
+     * @param reader    The DBTableReader, positioned at the row.
+     * @param i         The offset of the column.
+     * @param mysql     true if for MySQL.
+     * @param out       The Writer to which the literal is written.
+     * @throws IOException if reading the value or the Writer fails.
+     */
+    static void writeLargeLiteral(DBTableReader reader, int i, boolean mysql, Writer out)
+            throws IOException {
+        DBBlobInputStream is = reader.openLargeValue(i);
+        try {
+            if (reader.getLargeValueType(i) == Cursor.FIELD_TYPE_BLOB) {
+                byte[] buffer = new byte[DBBlobInputStream.DEFAULT_CHUNK_SIZE];
+                char[] hex = new char[buffer.length * 2];
+                out.write("X'");
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    int h = 0;
+                    for (int b = 0; b < n; b++) {
+                        hex[h++] = HEXDIGITS[(buffer[b] >> 4) & 0xF];
+                        hex[h++] = HEXDIGITS[buffer[b] & 0xF];
+                    }
+                    out.write(hex, 0, h);
+                }
+                out.write('\'');
+                return;
+            }
+            Reader text = new InputStreamReader(is, "UTF-8");
+            char[] buffer = new char[DBBlobInputStream.DEFAULT_CHUNK_SIZE / 2];
+            out.write('\'');
+            int n;
+            while ((n = text.read(buffer)) != -1) {
+                writeEscapedText(buffer, n, mysql, out);
+            }
+            out.write('\'');
+        } finally {
+            is.close();
+        }
+    }
+
+    /**************************************************************************
+     * Writes a large (TEXT) value in the legacy format, reading it a chunk
+     * at a time, as text; TEXT columns enclosed in apostrophes with
+     * apostrophes and quotes replaced by #@APOST@# and #@QUOTE@#.
+     */
+    private static void writeLargeLegacyValue(DBTableReader reader,
+                                              int i,
+                                              boolean istext,
+                                              Writer out) throws IOException {
+        Reader text = new InputStreamReader(reader.openLargeValue(i), "UTF-8");
+        try {
+            char[] buffer = new char[DBBlobInputStream.DEFAULT_CHUNK_SIZE / 2];
+            if (istext) {
+                out.write("'");
+            }
+            int n;
+            while ((n = text.read(buffer)) != -1) {
+                if (!istext) {
+                    out.write(buffer, 0, n);
+                    continue;
+                }
+                for (int c = 0; c < n; c++) {
+                    if (buffer[c] == '\'') {
+                        out.write("#@APOST@#");
+                    } else if (buffer[c] == '"') {
+                        out.write("#@QUOTE@#");
+                    } else {
+                        out.write(buffer[c]);
+                    }
+                }
+            }
+            if (istext) {
+                out.write("'");
+            }
+        } finally {
+            text.close();
+        }
+    }
+
+    /**************************************************************************
+     * Counts an exported row, reporting progress every progress interval
+     * rows.
+     *
+     * @param dbt           The DBTable being exported.
+     * @param table_rows    The number of rows of the table exported so far.
+     */
+    private void rowExported(DBTable dbt, long table_rows) {
+        this.total_rows++;
+        if (this.listener != null && table_rows % this.options.getProgressInterval() == 0) {
+            this.listener.onExportProgress(dbt.getDBTableName(),
+                    table_rows, this.total_rows);
+        }
+    }
+}
@@ -1,14 +1,36 @@
 package mjt.dbdatabase;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import mjt.dbcolumn.DBColumn;
 import mjt.dbindex.DBIndex;
+import mjt.dbtable.DBSchemaSnapshot;
 import mjt.dbtable.DBTable;
+import mjt.dbtable.DBTableDAO;
 
 /**
  * * DBTDatabase a component of the DB???? classes that represents an SQLite
@@ -47,6 +69,52 @@ import mjt.dbtable.DBTable;
  *     <code>actionAlterSQL</code> calls <code>generateAlterSQL</code>
  *     and then actions the SQL statements, altering the SQLite database.
  * </p>
+ * <p>
+ *     If enabled, via <code>setDBTableRebuildEnabled</code>, the alter will
+ *     also rebuild tables whose DBColumns have changed in ways that cannot
+ *     be applied by ALTER TABLE (type, default value, primary key or
+ *     dropped columns). The data is copied in batches with checkpoints,
+ *     so an interrupted rebuild is resumed by the next alter.
+ * </p>
+ * <p>
+ *     <code>actionDBBuildSQLAsync</code>, <code>actionDBAlterSQLAsync</code>
+ *     and <code>actionDBBuildAndAlterSQLAsync</code> run the build and/or
+ *     alter on an Executor, reporting progress and the outcome to a
+ *     DBSchemaApplyListener; <code>awaitDBSchemaApplied</code> allows
+ *     queries to wait until the builds and/or alters submitted (for an
+ *     SQLite database, or for all) have finished.
+ * </p>
+ * <p>
+ *     <code>openDBConnectionPool</code> opens the SQLite database with
+ *     write-ahead logging, a single writer and a pool of read-only
+ *     connections (see DBConnectionPool), building and altering it via
+ *     the writer. The methods without an SQLiteDatabase argument (e.g.
+ *     <code>newDBTableDAO(String)</code> and
+ *     <code>exportDBData(OutputStream, DBExportOptions,
+ *     DBExportListener)</code>) then write via the writer and read via a
+ *     read-only connection, so reads and writes don't block each other.
+ * </p>
+ * <p>
+ *     A DBPragmaProfile (e.g. bulk-load, read-heavy or durable), set by
+ *     <code>setDBPragmaProfile</code>, is applied to the connections of
+ *     <code>openDBConnectionPool</code> as they are opened, or by
+ *     <code>applyDBPragmaProfile</code> (e.g. from
+ *     <code>SQLiteOpenHelper.onConfigure</code>).
+ *     <code>runWithDBPragmaProfile</code> swaps to another profile around
+ *     an operation, restoring the previous settings afterwards.
+ * </p>
+ * <p>
+ *     <b>Schema Fingerprint.</b>
+ * </p>
+ * <p>
+ *     After an alter has been actioned a fingerprint (a hash of the
+ *     DBTable, DBColumn and DBIndex definitions) is stored in the SQLite
+ *     database (in the dbdatabase_metadata table). Subsequent calls to
+ *     <code>actionBuildSQL</code> and <code>actionAlterSQL</code> will, if
+ *     the stored fingerprint matches, do nothing other than read the
+ *     stored fingerprint. Use <code>resetDBDatabaseFingerprint</code> if
+ *     the SQLite database has been changed other than via the DBDatabase.
+ * </p>
  *
  * <p>
  *     <b>DBDatabase dependencies on other DB???? classes/objects.</b>
@@ -111,6 +179,70 @@ public class DBDatabase {
      */
     private String problem_msg;
 
+    /**
+     * The table, in the SQLite database, in which the DBDatabase stores
+     * its metadata (e.g. the schema fingerprint) as key/value pairs.
+     */
+    public static final String METADATA_TABLE = "dbdatabase_metadata";
+    public static final String METADATA_KEY_COL = "key";
+    public static final String METADATA_VALUE_COL = "value";
+    public static final String METADATA_KEY_FINGERPRINT = "schema_fingerprint";
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    /**
+     * The number of asynchronous builds and/or alters submitted but not yet
+     * finished, per SQLite database (keyed by path), guarded by
+     * schema_apply_lock which is notified as each finishes.
+     */
+    private final HashMap<String,Integer> pending_schema_applies = new HashMap<>();
+    private final Object schema_apply_lock = new Object();
+    /**
+     * Whether or not tables are rebuilt, as part of the alter, when they
+     * have changes that cannot be applied by ALTER TABLE.
+     */
+    private boolean table_rebuild_enabled = false;
+    /**
+     * The number of rows copied per transaction when rebuilding a table.
+     */
+    private int table_rebuild_batch_size = 1000;
+    /**
+     * Whether or not the DBDatabase has been frozen by <code>freeze</code>,
+     * in which case it (and its DBTables, DBColumns and DBIndexes) cannot be
+     * changed and the following precomputed values are used.
+     */
+    private volatile boolean frozen;
+    /**
+     * The precomputed schema fingerprint (frozen DBDatabase only).
+     */
+    private String frozen_fingerprint;
+    /**
+     * The precomputed export schema SQL (frozen DBDatabase only).
+     */
+    private String frozen_export_schema_sql;
+    /**
+     * The size, in characters, of the buffer through which exports are
+     * written.
+     */
+    public static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The number of rows between export progress reports.
+     */
+    public static final int EXPORT_PROGRESS_INTERVAL = 1000;
+    /**
+     * The name (schema) under which the target database of a copy is
+     * attached.
+     */
+    public static final String COPY_SCHEMA = "dbcopy_target";
+    /**
+     * The DBConnectionPool opened by <code>openDBConnectionPool</code>, null
+     * if none is open.
+     */
+    private DBConnectionPool connection_pool;
+    /**
+     * The DBPragmaProfile applied at open (see
+     * <code>setDBPragmaProfile</code>), null if none.
+     */
+    private DBPragmaProfile pragma_profile;
+
     /**************************************************************************
      * Constructs an unusable DBDatabase with problem message set.
      */
@@ -259,6 +391,9 @@ public class DBDatabase {
      *                      SQLite database.
      */
     public void setDBDatabaseName(String database_name) {
+        if (this.isFrozenIgnored("setDBDatabaseName")) {
+            return;
+        }
         this.database_name = database_name;
     }
 
@@ -308,12 +443,199 @@ public class DBDatabase {
         return rv;
     }
 
+    /**************************************************************************
+     * Gets the DBTable with the given name (ignoring case).
+     *
+     * @param table_name The name of the table.
+     * @return The DBTable, null if the DBDatabase has no such DBTable.
+     */
+    public DBTable getDBTable(String table_name) {
+        for (DBTable dbt : this.database_tables) {
+            if (dbt.getDBTableName().equalsIgnoreCase(table_name)) {
+                return dbt;
+            }
+        }
+        return null;
+    }
+
+    /**************************************************************************
+     * Gets the DBIndexes of a DBTable.
+     *
+     * @param dbt The DBTable.
+     * @return A DBIndex ArrayList of the DBTable's DBIndexes, there could be
+     * no elements.
+     */
+    public ArrayList<DBIndex> getDBIndexesForDBTable(DBTable dbt) {
+        ArrayList<DBIndex> rv = new ArrayList<>();
+        for (DBIndex dbi : this.database_indicies) {
+            if (dbi.getOwningDBTable() == dbt) {
+                rv.add(dbi);
+            }
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Opens the SQLite database as a DBConnectionPool; the writer with
+     * write-ahead logging enabled and up to the given number of read-only
+     * connections. If the DBDatabase is usable the SQLite database is built
+     * and altered via the writer (see <code>actionDBBuildSQL</code> and
+     * <code>actionDBAlterSQL</code>).
+     *
+     * @param path              The path of the SQLite database, which is
+     *                          created if it doesn't exist.
+     * @param read_connections  The maximum number of read-only connections.
+     * @return The DBConnectionPool.
+     * @throws IllegalStateException if a DBConnectionPool is already open.
+     */
+    public synchronized DBConnectionPool openDBConnectionPool(String path,
+                                                              int read_connections) {
+        if (this.connection_pool != null && !this.connection_pool.isClosed()) {
+            throw new IllegalStateException("DBDatabase " + this.database_name +
+                    " already has an open DBConnectionPool");
+        }
+        DBConnectionPool pool = new DBConnectionPool(path, read_connections,
+                this.pragma_profile);
+        if (this.usable) {
+            try {
+                this.actionDBBuildSQL(pool.getWriter());
+                this.actionDBAlterSQL(pool.getWriter());
+            } catch (RuntimeException e) {
+                pool.close();
+                throw e;
+            }
+        }
+        this.connection_pool = pool;
+        return pool;
+    }
+
+    /**************************************************************************
+     * Sets the DBPragmaProfile to be applied when the SQLite database is
+     * opened by <code>openDBConnectionPool</code>, or by
+     * <code>applyDBPragmaProfile</code>.
+     *
+     * @param pragma_profile    The DBPragmaProfile, null for none.
+     */
+    public synchronized void setDBPragmaProfile(DBPragmaProfile pragma_profile) {
+        this.pragma_profile = pragma_profile;
+    }
+
+    /**************************************************************************
+     * Gets the DBPragmaProfile applied at open.
+     *
+     * @return The DBPragmaProfile, null if none.
+     */
+    public synchronized DBPragmaProfile getDBPragmaProfile() {
+        return this.pragma_profile;
+    }
+
+    /**************************************************************************
+     * Applies the DBPragmaProfile set by <code>setDBPragmaProfile</code> to
+     * an SQLite database connection (outside of a transaction).
+     *
+     * @param db    The SQLite database.
+     * @return The effective settings read back after applying the profile,
+     *         null if there is no DBPragmaProfile.
+     */
+    public DBPragmaProfile applyDBPragmaProfile(SQLiteDatabase db) {
+        DBPragmaProfile profile = this.getDBPragmaProfile();
+        return profile == null ? null : profile.apply(db);
+    }
+
+    /**************************************************************************
+     * Runs an operation with a DBPragmaProfile applied temporarily (e.g. the
+     * bulk-load profile around a load), the previous values of the
+     * profile's PRAGMAs being restored afterwards (even if the operation
+     * fails).
+     *
+     * @param db        The SQLite database.
+     * @param profile   The DBPragmaProfile.
+     * @param operation The operation, run on the calling thread.
+     * @return The effective settings whilst the operation ran.
+     */
+    public DBPragmaProfile runWithDBPragmaProfile(SQLiteDatabase db,
+                                                  DBPragmaProfile profile,
+                                                  Runnable operation) {
+        DBPragmaProfile previous = profile.read(db);
+        DBPragmaProfile effective = profile.apply(db);
+        try {
+            operation.run();
+        } finally {
+            previous.apply(db);
+        }
+        return effective;
+    }
+
+    /**************************************************************************
+     * Gets the DBConnectionPool opened by <code>openDBConnectionPool</code>.
+     *
+     * @return The DBConnectionPool, null if none is open.
+     */
+    public synchronized DBConnectionPool getDBConnectionPool() {
+        if (this.connection_pool != null && this.connection_pool.isClosed()) {
+            this.connection_pool = null;
+        }
+        return this.connection_pool;
+    }
+
+    /**************************************************************************
+     * Closes the DBConnectionPool opened by <code>openDBConnectionPool</code>,
+     * if any.
+     */
+    public synchronized void closeDBConnectionPool() {
+        if (this.connection_pool != null) {
+            this.connection_pool.close();
+            this.connection_pool = null;
+        }
+    }
+
+    /**************************************************************************
+     * Creates a DBTableDAO, as per <code>newDBTableDAO(SQLiteDatabase,
+     * String)</code>, that writes via the writer of the DBConnectionPool.
+     *
+     * @param table_name    The name of the DBTable.
+     * @return The DBTableDAO, null if the DBTable isn't in the DBDatabase.
+     * @throws IllegalStateException if no DBConnectionPool is open.
+     */
+    public DBTableDAO newDBTableDAO(String table_name) {
+        return this.newDBTableDAO(this.requireDBConnectionPool().getWriter(), table_name);
+    }
+
+    /**************************************************************************
+     * Creates a DBTableDAO for a DBTable of the DBDatabase, its upsert
+     * conflict DBColumns being the PRIMARY KEY or, if the DBTable has no
+     * PRIMARY KEY, the DBColumns of its first usable UNIQUE DBIndex.
+     *
+     * @param db            The SQLite database.
+     * @param table_name    The name of the DBTable.
+     * @return The DBTableDAO, null if the DBTable isn't in the DBDatabase.
+     */
+    public DBTableDAO newDBTableDAO(SQLiteDatabase db, String table_name) {
+        DBTable dbt = this.getDBTable(table_name);
+        if (dbt == null) {
+            return null;
+        }
+        DBTableDAO dao = new DBTableDAO(db, dbt);
+        if (!dao.hasPrimaryKey()) {
+            for (DBIndex dbi : this.getDBIndexesForDBTable(dbt)) {
+                if (dbi.isUniqueIndex() && dbi.isUsable()) {
+                    dao.setConflictDBColumns(dbi.getIndexDBColumns());
+                    break;
+                }
+            }
+        }
+        return dao;
+    }
+
     /**************************************************************************
      * Adds a DBTable to DBDatabase.
      *
      * @param database_table The DBTable to add to the DBDatabase.
      */
     public void addDBTableToDBDatabase(DBTable database_table) {
+        if (this.isFrozenIgnored("AddDBTableToDBDatabase")) {
+            return;
+        }
         this.database_tables.add(database_table);
         this.problem_msg = "";
         this.checkDBDatabaseIsUsable("AddDBTableToDBDatabase");
@@ -326,11 +648,83 @@ public class DBDatabase {
      *                        to be added to the DBDatabase.
      */
     public void addDBTablesToDBDatabase(ArrayList<DBTable> database_tables) {
+        if (this.isFrozenIgnored("AddDBTablesToDBDatabase")) {
+            return;
+        }
         this.database_tables.addAll(database_tables);
         this.problem_msg = "";
         this.checkDBDatabaseIsUsable("AddDBTablesToDBDatabase");
     }
 
+    /**************************************************************************
+     * Freezes the DBDatabase, turning it into an immutable compiled schema
+     * that can be safely shared by threads.
+     *
+     * <p>
+     *     The DBTables, their DBColumns, and the DBIndexes are frozen (see
+     *     <code>DBTable.freeze</code>), so that their SQL create statements,
+     *     DBColumns keyed by name and PRIMARY KEY information are computed
+     *     just the once. The usability is then checked one final time and
+     *     the schema fingerprint and export schema SQL are computed. So
+     *     repeated builds, alters and exports incur no regeneration.
+     * </p>
+     * <p>
+     *     Subsequent attempts to change the DBDatabase, or its components,
+     *     are ignored (a warning being added to the problem message).
+     *     Freezing cannot be undone. The rebuild batch size may still be
+     *     changed as it does not affect the schema.
+     * </p>
+     *
+     * @return The DBDatabase, to allow chaining
+     * (e.g. <code>new DBDatabase(...).freeze()</code>).
+     */
+    public DBDatabase freeze() {
+        if (this.frozen) {
+            return this;
+        }
+        this.database_tables = new ArrayList<>(this.database_tables);
+        this.database_indicies = new ArrayList<>(this.database_indicies);
+        for (DBTable dbt : this.database_tables) {
+            dbt.freeze();
+        }
+        for (DBIndex dbi : this.database_indicies) {
+            dbi.freeze();
+        }
+        this.problem_msg = "";
+        this.checkDBDatabaseIsUsable("freeze");
+        this.frozen_fingerprint = this.getDBDatabaseFingerprint();
+        this.frozen_export_schema_sql = this.generateExportSchemaSQL();
+        // Set last so that readers seeing frozen also see the above
+        this.frozen = true;
+        return this;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the DBDatabase has been frozen.
+     *
+     * @return true if the DBDatabase is frozen, else false.
+     */
+    public boolean isDBDatabaseFrozen() { return this.frozen; }
+
+    /**************************************************************************
+     * Checks whether a change is to be ignored as the DBDatabase is frozen,
+     * if so noting this in the problem message.
+     *
+     * @param caller    The method that is attempting the change.
+     * @return true if the DBDatabase is frozen (change to be ignored).
+     */
+    private boolean isFrozenIgnored(String caller) {
+        if (this.frozen) {
+            this.problem_msg = this.problem_msg +
+                    "\nWDBD0107 - Frozen - " +
+                    "DBDatabase " + this.database_name +
+                    " cannot be changed, change ignored. " +
+                    "Caller=(" + caller + ")";
+            return true;
+        }
+        return false;
+    }
+
     /**************************************************************************
      * Sets the usable status of the DBDatabase.
      *
@@ -421,19 +815,49 @@ public class DBDatabase {
      * SQLite database.
      */
     public ArrayList<String> generateDBBuildSQL(SQLiteDatabase db) {
+        return this.generateDBBuildSQL(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Generate SQLite database build sql array list from a DBSchemaSnapshot
+     * of the SQLite database.
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return A String ArrayList of the SQL statements needed to build the
+     * SQLite database.
+     */
+    public ArrayList<String> generateDBBuildSQL(DBSchemaSnapshot snapshot) {
         ArrayList<String> generatedSQLStatements = new ArrayList<>();
         for(DBTable dbt : this.database_tables) {
-            String current_create_string = dbt.getSQLCreateString(db);
+            String current_create_string = dbt.getSQLCreateString(snapshot);
             if(current_create_string.length() > 0) {
                 generatedSQLStatements.add(current_create_string);
             }
         }
         for(DBIndex dbi : this.database_indicies) {
-            String ixcreate = dbi.getIndexBuildSQL(db);
+            String ixcreate = dbi.getIndexBuildSQL(snapshot);
             if (ixcreate.length() > 0) {
                 generatedSQLStatements.add(ixcreate);
             }
         }
+        // Change tracking triggers (and the change log table)
+        for (DBTable dbt : this.database_tables) {
+            // An unusable DBTable (e.g. tracked without a PRIMARY KEY) has none
+            if (!dbt.isChangeTrackingEnabled() || !dbt.isDBTableUsable()) {
+                continue;
+            }
+            if (!snapshot.isTableInSnapshot(DBTable.CHANGELOG_TABLE) &&
+                    !generatedSQLStatements.contains(DBTable.getSQLChangeLogTableCreate())) {
+                generatedSQLStatements.add(DBTable.getSQLChangeLogTableCreate());
+            }
+            ArrayList<String> triggernames = dbt.getChangeTrackingTriggerNames();
+            ArrayList<String> triggercreates = dbt.getSQLChangeTrackingTriggers();
+            for (int i = 0; i < triggernames.size(); i++) {
+                if (!snapshot.isTriggerInSnapshot(triggernames.get(i))) {
+                    generatedSQLStatements.add(triggercreates.get(i));
+                }
+            }
+        }
         return generatedSQLStatements;
     }
 
@@ -450,7 +874,10 @@ public class DBDatabase {
      *
      */
     public String generateExportSchemaSQL() {
-        String sql = "";
+        if (this.frozen) {
+            return this.frozen_export_schema_sql;
+        }
+        StringBuilder sql = new StringBuilder();
         String tablesql;
         if(this.usable) {
             //sql = "--CRTDB_START\n";
@@ -461,12 +888,42 @@ public class DBDatabase {
             for(DBTable dbt : this.database_tables) {
                 tablesql = dbt.getSQLTableCreateAsString(true);
                 if(tablesql.length() > 0) {
-                    sql = sql + "--CRTTB_START\n" + tablesql + "\n--CRTTB_FINISH\n";
+                    sql.append("--CRTTB_START\n").append(tablesql)
+                            .append("\n--CRTTB_FINISH\n");
                 }
             }
             //sql = sql + "--CRTDB_FINISH\n";
         }
-        return sql;
+        return sql.toString();
+    }
+
+    /**************************************************************************
+     * Exports the schema, as per <code>generateExportSchemaSQL</code>, to an
+     * OutputStream, the SQL being encoded as UTF-8 and compressed if the
+     * DBExportOptions have a codec. The OutputStream is flushed but not
+     * closed.
+     *
+     * @param os        The OutputStream to which the SQL is to be written.
+     * @param options   The DBExportOptions (codec).
+     * @throws IOException if writing fails.
+     */
+    public void exportDBSchema(OutputStream os, DBExportOptions options)
+            throws IOException {
+        DBCompressingOutputStream cos = options.newCompressingStream(os);
+        Writer out = new OutputStreamWriter(cos != null ? cos : os, "UTF-8");
+        boolean finished = false;
+        try {
+            out.write(this.generateExportSchemaSQL());
+            out.flush();
+            if (cos != null) {
+                cos.close();
+            }
+            finished = true;
+        } finally {
+            if (cos != null && !finished) {
+                cos.abort();
+            }
+        }
     }
 
     /**************************************************************************
@@ -487,66 +944,439 @@ public class DBDatabase {
     // Export All Table Data (not expect to work as no escaping as yet)
     //TODO 1 Need to do equiv to MYSQL_REAL_ESCAPE otherwise OK load
     public String generateExportDataSQL(SQLiteDatabase db) {
-        String sql = "";
-        String sqlcols;
+        StringWriter sw = new StringWriter();
+        try {
+            this.exportDBData(db, sw, null);
+        } catch (IOException e) {
+            // Should not happen as a StringWriter does not fail
+            throw new IllegalStateException(e);
+        }
+        return sw.toString();
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database, as per
+     * <code>generateExportDataSQL</code>, but streaming the SQL to a Writer
+     * rather than building a String.
+     *
+     * <p>
+     *     The SQL is written table by table and row by row through a buffer
+     *     of <code>EXPORT_BUFFER_SIZE</code> characters, so memory use does
+     *     not grow with the size of the database. The Writer is flushed but
+     *     not closed.
+     * </p>
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param writer    The Writer to which the SQL is to be written.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             Writer writer,
+                             DBExportListener listener) throws IOException {
+        return this.exportDBData(db, writer, new DBExportOptions(), listener);
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database, streaming the SQL to a
+     * Writer in the format as per the DBExportOptions (e.g. multi-row
+     * INSERTs, see <code>DBExportOptions.FORMAT_BATCHED_INSERT</code>).
+     * The Writer is flushed but not closed.
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param writer    The Writer to which the SQL is to be written.
+     * @param options   The DBExportOptions.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             Writer writer,
+                             DBExportOptions options,
+                             DBExportListener listener) throws IOException {
+        if (!this.usable) {
+            return 0;
+        }
+        BufferedWriter out = new BufferedWriter(writer, options.getBufferSize());
+        long rows = new DBDataExporter(db, options, listener)
+                .export(this.database_tables, out);
+        out.flush();
+        return rows;
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database to an OutputStream, the SQL
+     * being encoded as UTF-8 (see
+     * <code>exportDBData(SQLiteDatabase, Writer, DBExportOptions,
+     * DBExportListener)</code>) and compressed as it is written if the
+     * DBExportOptions have a codec. The OutputStream is flushed but not
+     * closed.
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param os        The OutputStream to which the SQL is to be written.
+     * @param options   The DBExportOptions.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             OutputStream os,
+                             DBExportOptions options,
+                             DBExportListener listener) throws IOException {
+        DBCompressingOutputStream cos = options.newCompressingStream(os);
+        if (cos == null) {
+            return this.exportDBData(db, new OutputStreamWriter(os, "UTF-8"),
+                    options, listener);
+        }
+        boolean finished = false;
+        try {
+            long rows = this.exportDBData(db, new OutputStreamWriter(cos, "UTF-8"),
+                    options, listener);
+            cos.close();
+            finished = true;
+            return rows;
+        } finally {
+            if (!finished) {
+                cos.abort();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database, as per
+     * <code>exportDBData(SQLiteDatabase, OutputStream, DBExportOptions,
+     * DBExportListener)</code>, reading via a read-only connection of the
+     * DBConnectionPool so the export doesn't block, nor is blocked by,
+     * writes.
+     *
+     * @param os        The OutputStream to which the SQL is to be written.
+     * @param options   The DBExportOptions.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     * @throws IllegalStateException if no DBConnectionPool is open.
+     */
+    public long exportDBData(OutputStream os,
+                             DBExportOptions options,
+                             DBExportListener listener) throws IOException {
+        DBConnectionPool pool = this.requireDBConnectionPool();
+        SQLiteDatabase reader = pool.acquireReader();
+        try {
+            return this.exportDBData(reader, os, options, listener);
+        } finally {
+            pool.releaseReader(reader);
+        }
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database to an OutputStream, in the
+     * legacy format, the SQL being encoded as UTF-8.
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param os        The OutputStream to which the SQL is to be written.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             OutputStream os,
+                             DBExportListener listener) throws IOException {
+        return this.exportDBData(db, os, new DBExportOptions(), listener);
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database to a FileChannel, from the
+     * channel's current position, the SQL being encoded as UTF-8 (see
+     * <code>exportDBData(SQLiteDatabase, Writer, DBExportOptions,
+     * DBExportListener)</code>) and compressed as it is written if the
+     * DBExportOptions have a codec. The FileChannel is not closed.
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param channel   The FileChannel to which the SQL is to be written.
+     * @param options   The DBExportOptions.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             FileChannel channel,
+                             DBExportOptions options,
+                             DBExportListener listener) throws IOException {
+        if (options.getCodec() != null) {
+            return this.exportDBData(db, Channels.newOutputStream(channel),
+                    options, listener);
+        }
+        return this.exportDBData(db, Channels.newWriter(channel, "UTF-8"),
+                options, listener);
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database to a FileChannel, in the
+     * legacy format, the SQL being encoded as UTF-8.
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param channel   The FileChannel to which the SQL is to be written.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBData(SQLiteDatabase db,
+                             FileChannel channel,
+                             DBExportListener listener) throws IOException {
+        return this.exportDBData(db, channel, new DBExportOptions(), listener);
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database as a compact binary snapshot
+     * (see DBBinarySnapshotWriter for the format), which can be restored by
+     * <code>DBBulkLoader.loadSnapshot</code>.
+     *
+     * <p>
+     *     Each table has a header derived from its DBColumns, values are
+     *     written according to their actual type (integers as varints,
+     *     text and blobs length prefixed) and the data is written in
+     *     blocks, optionally compressed (deflate), so memory use is
+     *     bounded. The OutputStream is flushed but not closed.
+     * </p>
+     *
+     * @param db        The SQLite database from which data is to be
+     *                  extracted.
+     * @param os        The OutputStream to which the snapshot is written.
+     * @param compress  true to compress the blocks.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportDBSnapshot(SQLiteDatabase db,
+                                 OutputStream os,
+                                 boolean compress,
+                                 DBExportListener listener) throws IOException {
+        if (!this.usable) {
+            return 0;
+        }
+        return new DBBinarySnapshotWriter(os, compress, listener,
+                EXPORT_PROGRESS_INTERVAL).writeSnapshot(db, this.database_tables);
+    }
+
+    /**************************************************************************
+     * Exports the data of the SQLite database as a compact binary snapshot,
+     * as per <code>exportDBSnapshot(SQLiteDatabase, OutputStream, boolean,
+     * DBExportListener)</code>, reading via a read-only connection of the
+     * DBConnectionPool.
+     *
+     * @param os        The OutputStream to which the snapshot is written.
+     * @param compress  true to compress the blocks.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     * @throws IllegalStateException if no DBConnectionPool is open.
+     */
+    public long exportDBSnapshot(OutputStream os,
+                                 boolean compress,
+                                 DBExportListener listener) throws IOException {
+        DBConnectionPool pool = this.requireDBConnectionPool();
+        SQLiteDatabase reader = pool.acquireReader();
+        try {
+            return this.exportDBSnapshot(reader, os, compress, listener);
+        } finally {
+            pool.releaseReader(reader);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the current change checkpoint, the sequence number of the last
+     * change recorded in the change log table (see
+     * <code>DBTable.setChangeTrackingEnabled</code>).
+     *
+     * @param db    The SQLite database.
+     * @return The checkpoint, 0 if no changes have been recorded.
+     */
+    public long getDBChangeCheckpoint(SQLiteDatabase db) {
         Cursor csr;
-        String coldata;
-        if(!this.usable) { return sql; }
-        //sql =
-        //sql = "--TDL_USESTART\n USE `" + this.database_name + "`;\n--TDL_USEFINISH\n";
-        for(DBTable dbt : this.database_tables) {
-            // Select all rows from the respective table into Cursor csr.
-            // TODO if run b4 build tables will not actually exist so need to skip if they don't
-            csr = db.query(dbt.getDBTableName(),null,null,null,null,null,null);
-            // Skip if no rows
-            if(csr.getCount() > 0 ){
-                int coli = 0;
-                // Build Column list
-                ArrayList<Integer> coltype = new ArrayList<>();
-                sqlcols = "";
-                for(DBColumn dbtc : dbt.getTableDBColumns()) {
-                    if(coli++ > 0) {
-                        sqlcols = sqlcols + ", ";
+        try {
+            csr = db.rawQuery(" SELECT max(" + DBTable.CHANGELOG_SEQ_COL + ") FROM " +
+                    DBTable.CHANGELOG_TABLE, null);
+        } catch (SQLiteException e) {
+            // The change log table doesn't exist, so no changes
+            return 0;
+        }
+        long rv = 0;
+        if (csr.moveToFirst() && !csr.isNull(0)) {
+            rv = csr.getLong(0);
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Exports the rows of the change tracked tables that have changed since
+     * a checkpoint (see DBDeltaExporter); as <code>REPLACE INTO</code>
+     * statements for rows that exist and <code>DELETE</code> statements for
+     * rows that have been deleted. The Writer is flushed but not closed.
+     *
+     * <p>
+     *     Pass the returned checkpoint to the next call, so that each delta
+     *     has the changes since the previous delta. Changes that have been
+     *     exported can be removed by <code>pruneDBChanges</code>.
+     * </p>
+     *
+     * @param db                The SQLite database.
+     * @param writer            The Writer to which the SQL is written.
+     * @param since_checkpoint  The checkpoint returned by the previous
+     *                          delta, 0 for all recorded changes.
+     * @param options           The DBExportOptions (MySQL escaping, large
+     *                          value size, buffer size and progress
+     *                          interval).
+     * @param listener          The DBExportListener to be informed of
+     *                          progress, null if not required.
+     * @return The checkpoint up to which changes were exported.
+     * @throws IOException if writing fails.
+     */
+    public long exportDBDelta(SQLiteDatabase db,
+                              Writer writer,
+                              long since_checkpoint,
+                              DBExportOptions options,
+                              DBExportListener listener) throws IOException {
+        long checkpoint = this.getDBChangeCheckpoint(db);
+        if (!this.usable || checkpoint <= since_checkpoint) {
+            return Math.max(checkpoint, since_checkpoint);
+        }
+        BufferedWriter out = new BufferedWriter(writer, options.getBufferSize());
+        new DBDeltaExporter(this, db, options, listener)
+                .export(since_checkpoint, checkpoint, out);
+        out.flush();
+        return checkpoint;
+    }
+
+    /**************************************************************************
+     * Removes the changes up to and including a checkpoint from the change
+     * log table; i.e. changes that have been exported.
+     *
+     * @param db            The SQLite database.
+     * @param checkpoint    The checkpoint.
+     * @return The number of changes removed.
+     */
+    public int pruneDBChanges(SQLiteDatabase db, long checkpoint) {
+        try {
+            return db.delete(DBTable.CHANGELOG_TABLE,
+                    DBTable.CHANGELOG_SEQ_COL + "<=?",
+                    new String[]{Long.toString(checkpoint)});
+        } catch (SQLiteException e) {
+            // The change log table doesn't exist, so nothing to remove
+            return 0;
+        }
+    }
+
+    /**************************************************************************
+     * Copies the data of the tables to another SQLite database file, within
+     * SQLite (the rows are never read into Cursors); the target is attached
+     * (as <code>COPY_SCHEMA</code>), the DBTables are created in it if they
+     * don't exist and each table is copied by an
+     * <code>INSERT INTO target.table SELECT ... FROM main.table</code>.
+     *
+     * <p>
+     *     The target's rows are replaced, the rowids being preserved; a
+     *     target table whose table doesn't exist in the source is left as
+     *     it is (not emptied). The target's DBIndexes are dropped before the data is copied and
+     *     created once all the data has been copied, which is faster than
+     *     maintaining them row by row. The copy is a single transaction, so
+     *     the target has either all or none of the data. Only the DBTables'
+     *     columns that exist in the source are copied; existing target
+     *     tables must have those columns (i.e. build and alter the target
+     *     first if it has an older schema).
+     * </p>
+     * <p>
+     *     Note! The change tracking triggers and the schema fingerprint are
+     *     not copied; <code>actionDBBuildSQL</code> on the target adds them.
+     *     Android disables write-ahead logging for a connection to which a
+     *     database has been attached, so the copy is best done from a
+     *     connection that doesn't use write-ahead logging. The copy must
+     *     not be started within a transaction (ATTACH is not allowed in a
+     *     transaction).
+     * </p>
+     *
+     * @param db            The SQLite database from which data is copied.
+     * @param target_path   The path of the target database file, which is
+     *                      created if it doesn't exist.
+     * @param listener      The DBExportListener to be informed of progress
+     *                      (per table), null if not required.
+     * @return The number of rows copied (0 if the DBDatabase is unusable).
+     */
+    public long copyDBDatabaseTo(SQLiteDatabase db,
+                                 String target_path,
+                                 DBExportListener listener) {
+        if (!this.usable) {
+            return 0;
+        }
+        DBSchemaSnapshot snapshot = new DBSchemaSnapshot(db);
+        long total_rows = 0;
+        db.execSQL(" ATTACH DATABASE ? AS " + COPY_SCHEMA, new Object[]{target_path});
+        try {
+            db.beginTransaction();
+            try {
+                for (DBTable dbt : this.database_tables) {
+                    String table_name = dbt.getDBTableName();
+                    String target_table = COPY_SCHEMA + "." + table_name;
+                    // Created (if need be) for its DBIndexes, but a table
+                    // that isn't in the source is left as it is
+                    db.execSQL(dbt.getSQLCreateStringForTableName(target_table));
+                    if (!snapshot.isTableInSnapshot(table_name)) {
+                        continue;
+                    }
+                    for (DBIndex dbi : this.getDBIndexesForDBTable(dbt)) {
+                        db.execSQL(" DROP INDEX IF EXISTS " + COPY_SCHEMA + "." +
+                                dbi.getIndexName() + " ;");
+                    }
+                    db.execSQL(" DELETE FROM " + target_table + " ;");
+                    if (listener != null) {
+                        listener.onTableExportStarted(table_name);
+                    }
+                    String copycolumns = DBTableRebuilder.getCopyColumns(dbt, snapshot);
+                    SQLiteStatement stmt = db.compileStatement(" INSERT INTO " +
+                            target_table + " (" + copycolumns + ") SELECT " +
+                            copycolumns + " FROM main." + table_name + " ;");
+                    long table_rows;
+                    try {
+                        table_rows = stmt.executeUpdateDelete();
+                    } finally {
+                        stmt.close();
                     }
-                    if(dbtc.getDBColumnType().equals("TEXT")) {
-                        coltype.add(1);
-                    } else {
-                        coltype.add(0);
+                    total_rows += table_rows;
+                    if (listener != null) {
+                        listener.onExportProgress(table_name, table_rows, total_rows);
+                        listener.onTableExportFinished(table_name, table_rows);
                     }
-                    sqlcols = sqlcols + "`" + dbtc.getDBColumnName() + "` ";
                 }
-                // Process each row from the table
-                csr.moveToPosition(-1);
-                while(csr.moveToNext()) {
-                    sql = sql + "--TBL_INSERTSTART\nINSERT INTO " + dbt.getDBTableName() + " ( " + sqlcols + ") VALUES(";
-                    for(int i=0; i < coli;i++) {
-                        coldata = csr.getString(i);
-                        if(coldata == null) {coldata = ""; }
-                        if(coltype.get(i) == 1) {
-                            if(coldata.length() > 0) {
-                                try {
-                                    coldata = coldata.replaceAll("\'", "#@APOST@#")
-                                            .replaceAll("\"", "#@QUOTE@#");
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                            sql = sql + "'" + coldata + "'";
-                        } else {
-                            sql = sql + csr.getString(i);
-                        }
-                        if(i < (coltype.size()-1)) {
-                            sql = sql + ", ";
-                        }
+                // Now that the data has been copied, create the indexes
+                for (DBIndex dbi : this.database_indicies) {
+                    if (dbi.isUsable()) {
+                        db.execSQL(dbi.generateCreateIndexSQL(COPY_SCHEMA));
                     }
-                    sql = sql + " );\n--TBL_INSERTFINISH\n";
                 }
-            } else {
-                sql = sql + "-- ERROR - TABLE " + dbt.getDBTableName() + " IS EMPTY SKIPPED \n";
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
-            csr.close();
+        } finally {
+            db.execSQL(" DETACH DATABASE " + COPY_SCHEMA);
         }
-        return sql;
+        return total_rows;
     }
 
     /**************************************************************************
@@ -557,20 +1387,83 @@ public class DBDatabase {
      *           database will either remain as it is or that any new tables or
      *           indexes will be added (i.e. it is safe to run and an
      *           expectation that it is run on application startup.)
+     *           If the stored schema fingerprint matches then nothing is
+     *           done.
      */
     // Obtain and the run the SQL statements to build the database
     public void actionDBBuildSQL(SQLiteDatabase db) {
-        // Gets the SQL statements
-        ArrayList<String> actionsql = new ArrayList<>(generateDBBuildSQL(db));
+        this.applyDBBuildSQL(db,null,null);
+    }
+
+    /**************************************************************************
+     * Builds the SQLite database, as per <code>actionDBBuildSQL</code>,
+     * recording the SQL statements applied.
+     *
+     * @param db        The SQLite database to be built.
+     * @param result    The DBSchemaApplyResult to record the statements in,
+     *                  null if not required.
+     * @param listener  The DBSchemaApplyListener to be informed of each
+     *                  statement, null if not required.
+     */
+    private void applyDBBuildSQL(SQLiteDatabase db,
+                                 DBSchemaApplyResult result,
+                                 DBSchemaApplyListener listener) {
+        // Nothing to do if the schema is unchanged since the last alter
+        if (this.isDBDatabaseFingerprintCurrent(db)) {
+            return;
+        }
+        // Gets the SQL statements and runs them in a transaction
+        this.applySQL(db,generateDBBuildSQL(db),null,result,listener);
+    }
+
+    /**************************************************************************
+     * Executes SQL statements within a single transaction, timing each
+     * statement and optionally storing the schema fingerprint.
+     *
+     * @param db            The SQLite database.
+     * @param actionsql     The SQL statements to be executed.
+     * @param fingerprint   The fingerprint to be stored once the statements
+     *                      have been executed, null to not store.
+     * @param result        The DBSchemaApplyResult to record the statements
+     *                      in, null if not required.
+     * @param listener      The DBSchemaApplyListener to be informed of each
+     *                      statement, null if not required.
+     */
+    private void applySQL(SQLiteDatabase db,
+                          ArrayList<String> actionsql,
+                          String fingerprint,
+                          DBSchemaApplyResult result,
+                          DBSchemaApplyListener listener) {
         // Begin a Transaction
         db.beginTransaction();
-        for(String currentsql : actionsql) {
-            // Run the current SQL statement
-            db.execSQL(currentsql);
+        try {
+            int statement_number = 0;
+            for (String currentsql : actionsql) {
+                long start = System.nanoTime();
+                // Run the current SQL statement
+                db.execSQL(currentsql);
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                statement_number++;
+                if (result != null) {
+                    result.addAppliedStatement(currentsql, elapsed);
+                }
+                if (listener != null) {
+                    listener.onStatementApplied(statement_number,
+                            actionsql.size(),
+                            currentsql,
+                            elapsed
+                    );
+                }
+            }
+            if (fingerprint != null) {
+                this.storeDBDatabaseFingerprint(db,fingerprint);
+            }
+            // Set the Transaction as successful
+            db.setTransactionSuccessful();
+        } finally {
+            // End the Transaction (rolled back if not successful)
+            db.endTransaction();
         }
-        // Set and End the Transaction
-        db.setTransactionSuccessful();
-        db.endTransaction();
     }
 
     /**************************************************************************
@@ -587,14 +1480,42 @@ public class DBDatabase {
      */
     // Generate the SQL Alter statements for the tables and Indexes.
     public ArrayList<String> generateDBAlterSQL(SQLiteDatabase db) {
+        return this.generateDBAlterSQL(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Generates the SQL to apply additional columns or changed
+     * indexes to the SQLite database, comparing against a DBSchemaSnapshot
+     * of the SQLite database.
+     * <p>
+     *     This DOES NOT apply changes.
+     * </p>
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return A String ArrayList of SQL statements, if any, of the changes
+     * that would be applied to the SQLite database.
+     */
+    public ArrayList<String> generateDBAlterSQL(DBSchemaSnapshot snapshot) {
         ArrayList<String> generatedSQLStatements = new ArrayList<>();
         // Tables
         for(DBTable dbt: this.database_tables) {
-            generatedSQLStatements.addAll(dbt.getSQLAlterToAddNewColumns(db));
+            generatedSQLStatements.addAll(dbt.getSQLAlterToAddNewColumns(snapshot));
         }
         // Indexes
         for (DBIndex dbi: this.database_indicies) {
-            generatedSQLStatements.addAll(dbi.generateAlterSQL(db));
+            generatedSQLStatements.addAll(dbi.generateAlterSQL(snapshot));
+        }
+        // Change tracking triggers, of existing tables
+        for (DBTable dbt : this.database_tables) {
+            if (!snapshot.isTableInSnapshot(dbt.getDBTableName()) ||
+                    !dbt.isDBTableUsable()) {
+                continue;
+            }
+            for (String sql : dbt.getSQLChangeTrackingAlter(snapshot)) {
+                if (!generatedSQLStatements.contains(sql)) {
+                    generatedSQLStatements.add(sql);
+                }
+            }
         }
         return generatedSQLStatements;
     }
@@ -603,15 +1524,559 @@ public class DBDatabase {
      * Actions the alteration, if any, of the SQLite database by applying the
      * SQL statements generated by <code>generateAlterSQL</code>
      *
+     * <p>
+     *     If the schema fingerprint stored in the SQLite database matches
+     *     the DBDatabase's fingerprint then nothing is done; otherwise, the
+     *     alterations are applied and the fingerprint is stored, within the
+     *     same transaction.
+     * </p>
+     *
      * @param db the db
      */
     public void actionDBAlterSQL(SQLiteDatabase db) {
-        ArrayList<String> actionsql = new ArrayList<>(generateDBAlterSQL(db));
-        db.beginTransaction();
-        for(String currentsql : actionsql) {
-            db.execSQL(currentsql);
+        this.applyDBAlterSQL(db,null,null);
+    }
+
+    /**************************************************************************
+     * Alters the SQLite database, as per <code>actionDBAlterSQL</code>,
+     * recording the SQL statements applied.
+     *
+     * @param db        The SQLite database to be altered.
+     * @param result    The DBSchemaApplyResult to record the statements in,
+     *                  null if not required.
+     * @param listener  The DBSchemaApplyListener to be informed of each
+     *                  statement, null if not required.
+     */
+    private void applyDBAlterSQL(SQLiteDatabase db,
+                                 DBSchemaApplyResult result,
+                                 DBSchemaApplyListener listener) {
+        String fingerprint = this.getDBDatabaseFingerprint();
+        if (fingerprint.equals(this.getStoredDBDatabaseFingerprint(db))) {
+            return;
+        }
+        if (!this.table_rebuild_enabled) {
+            this.applySQL(db,generateDBAlterSQL(db),fingerprint,result,listener);
+            return;
+        }
+        // Rebuilds are done after the alter and the fingerprint is only
+        // stored once they have completed, so an interrupted (or failed)
+        // rebuild is retried by the next alter.
+        this.applySQL(db,generateDBAlterSQL(db),null,result,listener);
+        ArrayList<String> failedtables = new ArrayList<>();
+        this.applyDBRebuildTables(db,result,listener,failedtables);
+        if (failedtables.isEmpty()) {
+            this.applySQL(db,new ArrayList<String>(),fingerprint,result,listener);
+        }
+    }
+
+    /**************************************************************************
+     * Sets whether or not tables are rebuilt, by <code>actionDBAlterSQL</code>,
+     * when they have changes that cannot be applied by ALTER TABLE, i.e.
+     * where a DBColumn's type, default value or primary key status has
+     * changed or where a column has been dropped (see
+     * <code>DBTable.getTableRebuildReasons</code>).
+     * <p>
+     *     Note! dropped columns and their data are lost.
+     * </p>
+     *
+     * @param enabled   true to rebuild tables, false (the default) to not.
+     */
+    public void setDBTableRebuildEnabled(boolean enabled) {
+        if (this.isFrozenIgnored("setDBTableRebuildEnabled")) {
+            return;
+        }
+        this.table_rebuild_enabled = enabled;
+    }
+
+    /**************************************************************************
+     * Gets whether or not tables are rebuilt by <code>actionDBAlterSQL</code>.
+     *
+     * @return true if tables are rebuilt, else false.
+     */
+    public boolean isDBTableRebuildEnabled() { return this.table_rebuild_enabled; }
+
+    /**************************************************************************
+     * Sets the number of rows copied per transaction when rebuilding a
+     * table.
+     *
+     * @param batch_size    The number of rows (minimum 1, default 1000).
+     */
+    public void setDBTableRebuildBatchSize(int batch_size) {
+        this.table_rebuild_batch_size = Math.max(1, batch_size);
+    }
+
+    /**************************************************************************
+     * Gets the names of the tables that require rebuilding, either because
+     * they have changes that cannot be applied by ALTER TABLE or because a
+     * rebuild is in progress (i.e. was interrupted).
+     *
+     * @param db The SQLite database to inspect.
+     * @return A String ArrayList of the table names.
+     */
+    public ArrayList<String> getDBTablesRequiringRebuild(SQLiteDatabase db) {
+        ArrayList<String> rv = new ArrayList<>();
+        ArrayList<String> inprogress =
+                DBTableRebuilder.getTablesWithRebuildInProgress(db);
+        DBSchemaSnapshot snapshot = new DBSchemaSnapshot(db);
+        for (DBTable dbt : this.database_tables) {
+            if (inprogress.contains(dbt.getDBTableName().toLowerCase()) ||
+                    !dbt.getTableRebuildReasons(snapshot).isEmpty()) {
+                rv.add(dbt.getDBTableName());
+            }
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Rebuilds the tables that require rebuilding (see
+     * <code>getDBTablesRequiringRebuild</code>), copying the data in batches
+     * with checkpoints so that an interrupted rebuild is resumed.
+     * <p>
+     *     A table whose data violates a constraint of the rebuilt table
+     *     (e.g. duplicates in a new UNIQUE or PRIMARY KEY column) is left as
+     *     it was, the failure being noted in the problem message (EDBD0108).
+     * </p>
+     *
+     * @param db The SQLite database.
+     * @return The number of tables rebuilt.
+     */
+    public int actionDBRebuildTables(SQLiteDatabase db) {
+        return this.applyDBRebuildTables(db,null,null,null);
+    }
+
+    /**************************************************************************
+     * Rebuilds the tables that require rebuilding, recording the SQL
+     * statements applied.
+     *
+     * @param db        The SQLite database.
+     * @param result    The DBSchemaApplyResult to record the statements in,
+     *                  null if not required.
+     * @param listener  The DBSchemaApplyListener to be informed of each
+     *                  statement, null if not required.
+     * @param failed    A String ArrayList to which the names of the tables
+     *                  that couldn't be rebuilt are added, null if not
+     *                  required. The first failure is also recorded as the
+     *                  DBSchemaApplyResult's failure.
+     * @return The number of tables rebuilt.
+     */
+    private int applyDBRebuildTables(SQLiteDatabase db,
+                                     DBSchemaApplyResult result,
+                                     DBSchemaApplyListener listener,
+                                     ArrayList<String> failed) {
+        ArrayList<String> rebuildtables = this.getDBTablesRequiringRebuild(db);
+        DBTableRebuilder rebuilder = new DBTableRebuilder(db,
+                this.table_rebuild_batch_size,
+                result,
+                listener
+        );
+        int rebuilt = 0;
+        for (DBTable dbt : this.database_tables) {
+            if (!rebuildtables.contains(dbt.getDBTableName())) {
+                continue;
+            }
+            try {
+                rebuilder.rebuildTable(dbt,this.getDBIndexesForDBTable(dbt));
+                rebuilt++;
+            } catch (SQLiteConstraintException e) {
+                this.problem_msg = this.problem_msg +
+                        "\nEDBD0108 - Rebuild Failed - Table " +
+                        dbt.getDBTableName() + " data violates a constraint, " +
+                        "table not rebuilt. " + e.getMessage();
+                if (failed != null) {
+                    failed.add(dbt.getDBTableName());
+                }
+                if (result != null && result.isSuccessful()) {
+                    result.setFailure(e);
+                }
+            }
+        }
+        return rebuilt;
+    }
+
+    /**************************************************************************
+     * Asynchronously actions the build of the SQLite database, as per
+     * <code>actionDBBuildSQL</code>, on the given Executor.
+     *
+     * @param db        The SQLite database to be built.
+     * @param executor  The Executor to run the build on.
+     * @param listener  The DBSchemaApplyListener to be informed of progress
+     *                  and the outcome, null if not required.
+     * @return A Future for the DBSchemaApplyResult.
+     */
+    public Future<DBSchemaApplyResult> actionDBBuildSQLAsync(
+            SQLiteDatabase db,
+            Executor executor,
+            DBSchemaApplyListener listener) {
+        return this.submitSchemaApply(db,executor,listener,true,false);
+    }
+
+    /**************************************************************************
+     * Asynchronously actions the alteration of the SQLite database, as per
+     * <code>actionDBAlterSQL</code>, on the given Executor.
+     *
+     * @param db        The SQLite database to be altered.
+     * @param executor  The Executor to run the alter on.
+     * @param listener  The DBSchemaApplyListener to be informed of progress
+     *                  and the outcome, null if not required.
+     * @return A Future for the DBSchemaApplyResult.
+     */
+    public Future<DBSchemaApplyResult> actionDBAlterSQLAsync(
+            SQLiteDatabase db,
+            Executor executor,
+            DBSchemaApplyListener listener) {
+        return this.submitSchemaApply(db,executor,listener,false,true);
+    }
+
+    /**************************************************************************
+     * Asynchronously actions the build and then the alteration of the SQLite
+     * database (the typical application startup sequence) on the given
+     * Executor.
+     *
+     * @param db        The SQLite database to be built and altered.
+     * @param executor  The Executor to run the build and alter on.
+     * @param listener  The DBSchemaApplyListener to be informed of progress
+     *                  and the outcome, null if not required.
+     * @return A Future for the DBSchemaApplyResult.
+     */
+    public Future<DBSchemaApplyResult> actionDBBuildAndAlterSQLAsync(
+            SQLiteDatabase db,
+            Executor executor,
+            DBSchemaApplyListener listener) {
+        return this.submitSchemaApply(db,executor,listener,true,true);
+    }
+
+    /**************************************************************************
+     * Submits a build and/or alter to an Executor.
+     *
+     * @param db        The SQLite database.
+     * @param executor  The Executor to run on.
+     * @param listener  The DBSchemaApplyListener, null if not required.
+     * @param build     true to build.
+     * @param alter     true to alter (after the build if building).
+     * @return A Future for the DBSchemaApplyResult.
+     */
+    private Future<DBSchemaApplyResult> submitSchemaApply(
+            final SQLiteDatabase db,
+            Executor executor,
+            final DBSchemaApplyListener listener,
+            final boolean build,
+            final boolean alter) {
+        final String path = db.getPath();
+        FutureTask<DBSchemaApplyResult> task = new FutureTask<>(
+                new Callable<DBSchemaApplyResult>() {
+                    @Override
+                    public DBSchemaApplyResult call() {
+                        DBSchemaApplyResult result = new DBSchemaApplyResult();
+                        try {
+                            if (build) {
+                                applyDBBuildSQL(db,result,listener);
+                            }
+                            if (alter) {
+                                applyDBAlterSQL(db,result,listener);
+                            }
+                        } catch (RuntimeException e) {
+                            result.setFailure(e);
+                        } finally {
+                            result.finish();
+                            finishSchemaApply(path);
+                        }
+                        if (listener != null) {
+                            listener.onSchemaApplied(result);
+                        }
+                        return result;
+                    }
+                }
+        );
+        this.startSchemaApply(path);
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            // Rejected, so it will never finish
+            this.finishSchemaApply(path);
+            throw e;
+        }
+        return task;
+    }
+
+    /**************************************************************************
+     * Records that a build and/or alter is pending for an SQLite database.
+     *
+     * @param path  The path of the SQLite database.
+     */
+    private void startSchemaApply(String path) {
+        synchronized (this.schema_apply_lock) {
+            Integer pending = this.pending_schema_applies.get(path);
+            this.pending_schema_applies.put(path, pending == null ? 1 : pending + 1);
+        }
+    }
+
+    /**************************************************************************
+     * Records that a build and/or alter for an SQLite database has
+     * finished, waking any threads waiting.
+     *
+     * @param path  The path of the SQLite database.
+     */
+    private void finishSchemaApply(String path) {
+        synchronized (this.schema_apply_lock) {
+            Integer pending = this.pending_schema_applies.get(path);
+            if (pending == null || pending <= 1) {
+                this.pending_schema_applies.remove(path);
+            } else {
+                this.pending_schema_applies.put(path, pending - 1);
+            }
+            this.schema_apply_lock.notifyAll();
+        }
+    }
+
+    /**************************************************************************
+     * Waits until no asynchronous build and/or alter is pending for the
+     * path (any path if null), or the time elapses.
+     *
+     * @param path      The path of the SQLite database, null for any.
+     * @param timeout   The maximum time to wait in nanoseconds, negative to
+     *                  wait indefinitely.
+     * @return true if none is pending, false if the time elapsed.
+     * @throws InterruptedException if interrupted whilst waiting.
+     */
+    private boolean awaitSchemaApplies(String path, long timeout)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeout;
+        synchronized (this.schema_apply_lock) {
+            while (this.isSchemaApplyPending(path)) {
+                if (timeout < 0) {
+                    this.schema_apply_lock.wait();
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.schema_apply_lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**************************************************************************
+     * Checks whether a build and/or alter is pending.
+     *
+     * @param path  The path of the SQLite database, null for any.
+     * @return true if one is pending, else false.
+     */
+    private boolean isSchemaApplyPending(String path) {
+        synchronized (this.schema_apply_lock) {
+            return path == null ? !this.pending_schema_applies.isEmpty() :
+                    this.pending_schema_applies.containsKey(path);
+        }
+    }
+
+    /**************************************************************************
+     * Checks whether all the asynchronous builds and/or alters that have
+     * been submitted, for any SQLite database, have finished.
+     *
+     * @return true if finished (or if none has been submitted), else false.
+     */
+    public boolean isDBSchemaApplied() {
+        return !this.isSchemaApplyPending(null);
+    }
+
+    /**************************************************************************
+     * Checks whether all the asynchronous builds and/or alters that have
+     * been submitted for an SQLite database have finished.
+     *
+     * @param db    The SQLite database.
+     * @return true if finished (or if none has been submitted), else false.
+     */
+    public boolean isDBSchemaApplied(SQLiteDatabase db) {
+        return !this.isSchemaApplyPending(db.getPath());
+    }
+
+    /**************************************************************************
+     * Waits until all the asynchronous builds and/or alters that have been
+     * submitted, for any SQLite database, have finished, returning
+     * immediately if none is pending.
+     * <p>
+     *     Intended for use by queries that require the database to have been
+     *     built/altered. Should not be called on the UI thread.
+     * </p>
+     *
+     * @throws InterruptedException if interrupted whilst waiting.
+     */
+    public void awaitDBSchemaApplied() throws InterruptedException {
+        this.awaitSchemaApplies(null, -1);
+    }
+
+    /**************************************************************************
+     * Waits until all the asynchronous builds and/or alters that have been
+     * submitted for an SQLite database have finished, returning immediately
+     * if none is pending.
+     *
+     * @param db    The SQLite database.
+     * @throws InterruptedException if interrupted whilst waiting.
+     */
+    public void awaitDBSchemaApplied(SQLiteDatabase db) throws InterruptedException {
+        this.awaitSchemaApplies(db.getPath(), -1);
+    }
+
+    /**************************************************************************
+     * Waits, for up to the given time, until all the asynchronous builds
+     * and/or alters that have been submitted, for any SQLite database, have
+     * finished.
+     *
+     * @param timeout   The maximum time to wait.
+     * @param unit      The unit of the timeout.
+     * @return true if finished, false if the time elapsed.
+     * @throws InterruptedException if interrupted whilst waiting.
+     */
+    public boolean awaitDBSchemaApplied(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return this.awaitSchemaApplies(null, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**************************************************************************
+     * Waits, for up to the given time, until all the asynchronous builds
+     * and/or alters that have been submitted for an SQLite database have
+     * finished.
+     *
+     * @param db        The SQLite database.
+     * @param timeout   The maximum time to wait.
+     * @param unit      The unit of the timeout.
+     * @return true if finished, false if the time elapsed.
+     * @throws InterruptedException if interrupted whilst waiting.
+     */
+    public boolean awaitDBSchemaApplied(SQLiteDatabase db, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return this.awaitSchemaApplies(db.getPath(), Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**************************************************************************
+     * Gets the DBDatabase's schema fingerprint, a hash of the SQL that
+     * defines the DBTables (and thus their DBColumns) and the DBIndexes.
+     *
+     * @return The fingerprint as a hexadecimal String.
+     */
+    public String getDBDatabaseFingerprint() {
+        if (this.frozen) {
+            return this.frozen_fingerprint;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (DBTable dbt : this.database_tables) {
+            sb.append(dbt.getSQLTableCreateAsString(false)).append('\n');
+            if (dbt.isChangeTrackingEnabled()) {
+                sb.append("track ").append(dbt.getDBTableName()).append('\n');
+            }
+        }
+        for (DBIndex dbi : this.database_indicies) {
+            sb.append(dbi.generateCreateIndexSQL()).append('\n');
+        }
+        if (this.table_rebuild_enabled) {
+            sb.append("rebuild\n");
+        }
+        byte[] hash;
+        try {
+            MessageDigest md = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+            hash = md.digest(sb.toString().getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Should not happen as both are required to be supported
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**************************************************************************
+     * Gets the schema fingerprint stored in the SQLite database.
+     *
+     * @param db The SQLite database to inspect.
+     * @return The stored fingerprint, null if there is none.
+     */
+    public String getStoredDBDatabaseFingerprint(SQLiteDatabase db) {
+        String rv = null;
+        Cursor csr;
+        try {
+            csr = db.query(METADATA_TABLE,
+                    new String[]{METADATA_VALUE_COL},
+                    METADATA_KEY_COL + "=?",
+                    new String[]{METADATA_KEY_FINGERPRINT},
+                    null,null,null
+            );
+        } catch (SQLiteException e) {
+            // The metadata table doesn't exist, so no fingerprint
+            return null;
+        }
+        if (csr.moveToFirst()) {
+            rv = csr.getString(0);
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Checks whether the schema fingerprint stored in the SQLite database
+     * matches the DBDatabase's fingerprint.
+     *
+     * @param db The SQLite database to inspect.
+     * @return true if the fingerprints match, else false.
+     */
+    public boolean isDBDatabaseFingerprintCurrent(SQLiteDatabase db) {
+        return this.getDBDatabaseFingerprint().equals(
+                this.getStoredDBDatabaseFingerprint(db)
+        );
+    }
+
+    /**************************************************************************
+     * Removes the schema fingerprint from the SQLite database, so that the
+     * next build and alter will inspect the SQLite database.
+     *
+     * @param db The SQLite database.
+     */
+    public void resetDBDatabaseFingerprint(SQLiteDatabase db) {
+        try {
+            db.delete(METADATA_TABLE,
+                    METADATA_KEY_COL + "=?",
+                    new String[]{METADATA_KEY_FINGERPRINT}
+            );
+        } catch (SQLiteException e) {
+            // The metadata table doesn't exist, so nothing to reset
+        }
+    }
+
+    /**************************************************************************
+     * Stores the schema fingerprint in the SQLite database, creating the
+     * metadata table if required.
+     *
+     * @param db            The SQLite database.
+     * @param fingerprint   The fingerprint to be stored.
+     */
+    private void storeDBDatabaseFingerprint(SQLiteDatabase db, String fingerprint) {
+        db.execSQL(" CREATE TABLE IF NOT EXISTS " + METADATA_TABLE + " (" +
+                METADATA_KEY_COL + " TEXT PRIMARY KEY, " +
+                METADATA_VALUE_COL + " TEXT) ;"
+        );
+        db.execSQL(" INSERT OR REPLACE INTO " + METADATA_TABLE + " (" +
+                        METADATA_KEY_COL + ", " +
+                        METADATA_VALUE_COL + ") VALUES(?,?) ;",
+                new Object[]{METADATA_KEY_FINGERPRINT,fingerprint}
+        );
+    }
+
+    /**************************************************************************
+     * Gets the DBConnectionPool opened by <code>openDBConnectionPool</code>,
+     * for the methods that read or write via the pool.
+     *
+     * @return The DBConnectionPool.
+     * @throws IllegalStateException if no DBConnectionPool is open.
+     */
+    private DBConnectionPool requireDBConnectionPool() {
+        DBConnectionPool pool = this.getDBConnectionPool();
+        if (pool == null) {
+            throw new IllegalStateException("DBDatabase " + this.database_name +
+                    " has no open DBConnectionPool");
         }
-        db.setTransactionSuccessful();
-        db.endTransaction();
+        return pool;
     }
 }
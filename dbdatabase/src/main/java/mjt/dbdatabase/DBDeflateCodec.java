@@ -0,0 +1,151 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * DBDeflateCodec, the built in DBExportCodecs; deflate, as a zlib stream
+ * (readable by an InflaterInputStream), and gzip (readable by gzip or a
+ * GZIPInputStream).
+ *
+ * <p>
+ *     gzip streams are concatenable (each is a gzip member) so gzip can be
+ *     compressed using multiple threads; a zlib stream is not, so deflate
+ *     is always compressed by a single thread.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBDeflateCodec implements DBExportCodec {
+
+    /**
+     * deflate, as a zlib stream, at the default compression level.
+     */
+    public static final DBDeflateCodec DEFLATE =
+            new DBDeflateCodec(false, Deflater.DEFAULT_COMPRESSION);
+    /**
+     * gzip at the default compression level.
+     */
+    public static final DBDeflateCodec GZIP =
+            new DBDeflateCodec(true, Deflater.DEFAULT_COMPRESSION);
+
+    private boolean gzip;
+    private int level;
+
+    /**************************************************************************
+     * Constructs a DBDeflateCodec.
+     *
+     * @param gzip  true for gzip, false for deflate (zlib).
+     * @param level The compression level, 0 to 9 (1 is fastest, 9 is
+     *              smallest) or <code>Deflater.DEFAULT_COMPRESSION</code>.
+     */
+    public DBDeflateCodec(boolean gzip, int level) {
+        this.gzip = gzip;
+        this.level = level;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the codec is gzip.
+     *
+     * @return true if gzip, false if deflate (zlib).
+     */
+    public boolean isGzip() { return this.gzip; }
+
+    /**************************************************************************
+     * Gets the compression level.
+     *
+     * @return The compression level.
+     */
+    public int getLevel() { return this.level; }
+
+    @Override
+    public String getFileSuffix() {
+        return this.gzip ? ".gz" : ".zz";
+    }
+
+    @Override
+    public boolean isConcatenable() {
+        return this.gzip;
+    }
+
+    @Override
+    public OutputStream newCompressingStream(OutputStream os, int buffer_size)
+            throws IOException {
+        if (this.gzip) {
+            return new GzipStream(os, buffer_size, this.level);
+        }
+        return new ZlibStream(os, buffer_size, this.level);
+    }
+
+    /**
+     * A GZIPOutputStream, at the given level, whose close finishes but does
+     * not close the underlying OutputStream.
+     */
+    private static class GzipStream extends GZIPOutputStream
+            implements DBExportCodec.Abortable {
+        private boolean closed;
+
+        GzipStream(OutputStream os, int buffer_size, int level) throws IOException {
+            super(os, buffer_size);
+            // Nothing has been deflated yet (the header is written as is)
+            this.def.setLevel(level);
+            this.closed = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.finish();
+            this.def.end();
+            this.out.flush();
+        }
+
+        @Override
+        public void abort() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.def.end();
+        }
+    }
+
+    /**
+     * A DeflaterOutputStream (zlib), at the given level, whose close
+     * finishes but does not close the underlying OutputStream.
+     */
+    private static class ZlibStream extends DeflaterOutputStream
+            implements DBExportCodec.Abortable {
+        private boolean closed;
+
+        ZlibStream(OutputStream os, int buffer_size, int level) {
+            super(os, new Deflater(level), buffer_size);
+            this.closed = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.finish();
+            this.def.end();
+            this.out.flush();
+        }
+
+        @Override
+        public void abort() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.def.end();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import mjt.dbcolumn.DBColumn;
+import mjt.dbtable.DBTable;
+import mjt.dbtable.DBTableReader;
+
+import static mjt.dbtable.DBTable.*;
+
+/**
+ * DBDeltaExporter writes the rows changed, according to the change log
+ * table (see <code>DBTable.setChangeTrackingEnabled</code>), between two
+ * checkpoints (change log sequence numbers), as SQL that applies the
+ * changes to a copy of the database.
+ *
+ * <p>
+ *     Each changed row is written once, as its current state; a
+ *     <code>REPLACE INTO</code> (with SQL literals as per the batched
+ *     insert format) if the row exists, else a <code>DELETE</code> by its
+ *     key. As the current state is written, a row changed after the upper
+ *     checkpoint may be written in its later state; applying it again with
+ *     the next delta is harmless.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBDeltaExporter {
+
+    private DBDatabase dbdatabase;
+    private SQLiteDatabase db;
+    private DBExportOptions options;
+    private DBExportListener listener;
+    private long total_rows;
+
+    /**************************************************************************
+     * Constructs a DBDeltaExporter.
+     *
+     * @param dbdatabase    The DBDatabase that defines the tables.
+     * @param db            The SQLite database.
+     * @param options       The DBExportOptions (MySQL escaping, large value
+     *                      size, progress interval).
+     * @param listener      The DBExportListener to be informed of progress,
+     *                      null if not required.
+     */
+    DBDeltaExporter(DBDatabase dbdatabase,
+                    SQLiteDatabase db,
+                    DBExportOptions options,
+                    DBExportListener listener) {
+        this.dbdatabase = dbdatabase;
+        this.db = db;
+        this.options = options;
+        this.listener = listener;
+        this.total_rows = 0;
+    }
+
+    /**************************************************************************
+     * Exports the rows changed after one checkpoint up to and including
+     * another, table by table.
+     *
+     * @param from_checkpoint   The checkpoint of the previous delta (0 for
+     *                          all changes).
+     * @param to_checkpoint     The checkpoint up to which changes are
+     *                          exported.
+     * @param out               The Writer to which the SQL is written.
+     * @return The number of rows (changes) exported.
+     * @throws IOException if the Writer fails.
+     */
+    long export(long from_checkpoint, long to_checkpoint, Writer out)
+            throws IOException {
+        Cursor csr = this.db.rawQuery(" SELECT " + CHANGELOG_TABLE_COL + ", " +
+                        CHANGELOG_KEY_COL + " FROM " + CHANGELOG_TABLE +
+                        " WHERE " + CHANGELOG_SEQ_COL + " > ? AND " +
+                        CHANGELOG_SEQ_COL + " <= ?" +
+                        " GROUP BY " + CHANGELOG_TABLE_COL + ", " + CHANGELOG_KEY_COL +
+                        " ORDER BY " + CHANGELOG_TABLE_COL + ", max(" +
+                        CHANGELOG_SEQ_COL + ")",
+                new String[]{Long.toString(from_checkpoint),
+                        Long.toString(to_checkpoint)});
+        DBTable dbt = null;
+        String table_name = null;
+        String replacestart = null;
+        long table_rows = 0;
+        try {
+            while (csr.moveToNext()) {
+                if (!csr.getString(0).equals(table_name)) {
+                    this.tableFinished(dbt, table_rows);
+                    table_name = csr.getString(0);
+                    // Changes to tables that are no longer defined are skipped
+                    dbt = this.dbdatabase.getDBTable(table_name);
+                    table_rows = 0;
+                    if (dbt != null) {
+                        replacestart = this.getReplaceStart(dbt);
+                        if (this.listener != null) {
+                            this.listener.onTableExportStarted(dbt.getDBTableName());
+                        }
+                    }
+                }
+                if (dbt == null) {
+                    continue;
+                }
+                this.exportChange(dbt, csr.getString(1), replacestart, out);
+                table_rows++;
+                this.total_rows++;
+                if (this.listener != null &&
+                        table_rows % this.options.getProgressInterval() == 0) {
+                    this.listener.onExportProgress(dbt.getDBTableName(),
+                            table_rows, this.total_rows);
+                }
+            }
+            this.tableFinished(dbt, table_rows);
+        } finally {
+            csr.close();
+        }
+        return this.total_rows;
+    }
+
+    /**************************************************************************
+     * Exports a changed row; its current state if it exists, else its
+     * deletion.
+     *
+     * @param dbt           The DBTable of the row's table.
+     * @param key_where     The key of the row as a WHERE clause expression.
+     * @param replacestart  The start of the REPLACE statement for the table.
+     * @param out           The Writer to which the SQL is written.
+     * @throws IOException if the Writer fails.
+     */
+    private void exportChange(DBTable dbt,
+                              String key_where,
+                              String replacestart,
+                              Writer out) throws IOException {
+        boolean mysql = this.options.isMySQLEscaping();
+        Long rowid = null;
+        Cursor keycsr = this.db.rawQuery(" SELECT rowid FROM " + dbt.getDBTableName() +
+                " WHERE " + key_where, null);
+        try {
+            if (keycsr.moveToFirst()) {
+                rowid = keycsr.getLong(0);
+            }
+        } finally {
+            keycsr.close();
+        }
+        if (rowid == null) {
+            out.write("DELETE FROM ");
+            out.write(DBDataExporter.quoteName(dbt.getDBTableName(), mysql));
+            out.write(" WHERE ");
+            out.write(key_where);
+            out.write(";\n");
+            return;
+        }
+        // Read via a DBTableReader so that large values are streamed
+        DBTableReader reader = new DBTableReader(this.db, dbt, 1);
+        reader.setRowidRange(rowid, rowid);
+        reader.setLargeValueSize(this.options.getLargeValueSize());
+        try {
+            if (!reader.hasNext()) {
+                return;
+            }
+            Cursor rowcsr = reader.next();
+            int columncount = dbt.getTableDBColumns().size();
+            out.write(replacestart);
+            for (int i = 0; i < columncount; i++) {
+                if (i > 0) {
+                    out.write(",");
+                }
+                if (reader.getLargeValueType(i) != Cursor.FIELD_TYPE_NULL) {
+                    DBDataExporter.writeLargeLiteral(reader, i, mysql, out);
+                } else {
+                    DBDataExporter.writeLiteral(rowcsr, i, mysql, out);
+                }
+            }
+            out.write(");\n");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**************************************************************************
+     * Gets the start of the REPLACE statement for a table, up to and
+     * including the opening parenthesis of the values.
+     */
+    private String getReplaceStart(DBTable dbt) {
+        boolean mysql = this.options.isMySQLEscaping();
+        StringBuilder sb = new StringBuilder("REPLACE INTO ");
+        sb.append(DBDataExporter.quoteName(dbt.getDBTableName(), mysql)).append(" (");
+        ArrayList<DBColumn> columns = dbt.getTableDBColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(DBDataExporter.quoteName(columns.get(i).getDBColumnName(), mysql));
+        }
+        sb.append(") VALUES (");
+        return sb.toString();
+    }
+
+    private void tableFinished(DBTable dbt, long table_rows) {
+        if (dbt != null && this.listener != null) {
+            this.listener.onTableExportFinished(dbt.getDBTableName(), table_rows);
+        }
+    }
+}
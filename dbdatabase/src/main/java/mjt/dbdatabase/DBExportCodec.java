@@ -0,0 +1,64 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A compression codec through which an export is written (see
+ * <code>DBExportOptions.setCodec</code>); DBDeflateCodec provides deflate
+ * (zlib) and gzip.
+ *
+ * <p>
+ *     If the codec's streams can be concatenated, i.e. the concatenation of
+ *     separately compressed streams decompresses as the concatenation of
+ *     their data (as is the case for gzip members), blocks of the export
+ *     can be compressed concurrently (see DBCompressingOutputStream).
+ * </p>
+ */
+public interface DBExportCodec {
+
+    /**
+     * Implemented by a compressing OutputStream (as returned by
+     * <code>newCompressingStream</code>) that holds resources, such as a
+     * Deflater's native memory, which must be released if the stream is
+     * abandoned rather than closed.
+     */
+    interface Abortable {
+        /**
+         * Stops compressing, without finishing the compressed data, and
+         * releases the resources. The stream can't be used afterwards.
+         */
+        void abort();
+    }
+
+    /**************************************************************************
+     * Gets the suffix for the name of a file written with the codec.
+     *
+     * @return The suffix, including the period (e.g. ".gz").
+     */
+    String getFileSuffix();
+
+    /**************************************************************************
+     * Gets whether or not separately compressed streams can be
+     * concatenated, and so compressed concurrently.
+     *
+     * @return true if they can, else false.
+     */
+    boolean isConcatenable();
+
+    /**************************************************************************
+     * Creates an OutputStream that compresses what is written to it, writing
+     * the compressed data to the given OutputStream. Closing the returned
+     * OutputStream must finish the compressed data and flush, but not
+     * close, the given OutputStream. If it holds resources that closing
+     * releases, it should also implement Abortable.
+     *
+     * @param os            The OutputStream to which the compressed data is
+     *                      written.
+     * @param buffer_size   The size of the buffer for the compressed data.
+     * @return The compressing OutputStream.
+     * @throws IOException if writing the start of the compressed data fails.
+     */
+    OutputStream newCompressingStream(OutputStream os, int buffer_size)
+            throws IOException;
+}
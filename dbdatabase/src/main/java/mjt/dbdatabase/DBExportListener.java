@@ -0,0 +1,37 @@
+package mjt.dbdatabase;
+
+/**
+ * Listener for the progress of an export of the data of an SQLite database
+ * by a DBDatabase (see <code>DBDatabase.exportDBData</code>).
+ *
+ * <p>
+ *     The methods are invoked on the thread that is running the export.
+ * </p>
+ */
+public interface DBExportListener {
+
+    /**************************************************************************
+     * Invoked before the rows of a table are exported.
+     *
+     * @param table_name    The name of the table.
+     */
+    void onTableExportStarted(String table_name);
+
+    /**************************************************************************
+     * Invoked periodically, as rows are exported (every progress interval
+     * rows).
+     *
+     * @param table_name    The name of the table being exported.
+     * @param table_rows    The number of rows of the table exported so far.
+     * @param total_rows    The number of rows, of all tables, exported so far.
+     */
+    void onExportProgress(String table_name, long table_rows, long total_rows);
+
+    /**************************************************************************
+     * Invoked after the rows of a table have been exported.
+     *
+     * @param table_name    The name of the table.
+     * @param table_rows    The number of rows of the table exported.
+     */
+    void onTableExportFinished(String table_name, long table_rows);
+}
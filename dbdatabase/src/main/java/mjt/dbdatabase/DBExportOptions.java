@@ -0,0 +1,276 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import mjt.dbtable.DBBlobInputStream;
+import mjt.dbtable.DBTableReader;
+
+/**
+ * Options for the export of the data of an SQLite database by a DBDatabase
+ * (see <code>DBDatabase.exportDBData</code>).
+ *
+ * <p>
+ *     By default the legacy format (as per
+ *     <code>DBDatabase.generateExportDataSQL</code>) is used. The batched
+ *     insert format writes groups of rows as multi-row
+ *     <code>INSERT INTO ... VALUES (...),(...)</code> statements with the
+ *     values written as proper SQL literals (according to the actual type
+ *     of each value), so the SQL can be replayed directly into SQLite or,
+ *     if MySQL escaping is set, into MySQL.
+ * </p>
+ * <p>
+ *     If a DBExportCodec is set, exports to an OutputStream or FileChannel
+ *     are compressed as they are written (see DBCompressingOutputStream).
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBExportOptions {
+
+    /**
+     * Legacy format, a single row INSERT per row bracketed by
+     * <code>--TBL_INSERTSTART</code> and <code>--TBL_INSERTFINISH</code>
+     * with apostrophes and quotes replaced by #@APOST@# and #@QUOTE@#.
+     * BLOB values can't be exported in this format.
+     */
+    public static final int FORMAT_LEGACY = 0;
+    /**
+     * Batched insert format, multi-row INSERTs with SQL literals.
+     */
+    public static final int FORMAT_BATCHED_INSERT = 1;
+
+    public static final int DEFAULT_ROWS_PER_INSERT = 100;
+    public static final int DEFAULT_BUFFER_SIZE = DBDatabase.EXPORT_BUFFER_SIZE;
+    public static final int DEFAULT_PROGRESS_INTERVAL = DBDatabase.EXPORT_PROGRESS_INTERVAL;
+    public static final int DEFAULT_PAGE_SIZE = DBTableReader.DEFAULT_PAGE_SIZE;
+    public static final int DEFAULT_LARGE_VALUE_SIZE = DBBlobInputStream.DEFAULT_CHUNK_SIZE;
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = DBCompressingOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private int format;
+    private int rows_per_insert;
+    private boolean mysql_escaping;
+    private int buffer_size;
+    private int progress_interval;
+    private int page_size;
+    private int large_value_size;
+    private DBExportCodec codec;
+    private int compression_block_size;
+    private int compression_threads;
+
+    /**************************************************************************
+     * Constructs DBExportOptions for the legacy format.
+     */
+    public DBExportOptions() {
+        this.format = FORMAT_LEGACY;
+        this.rows_per_insert = DEFAULT_ROWS_PER_INSERT;
+        this.mysql_escaping = false;
+        this.buffer_size = DEFAULT_BUFFER_SIZE;
+        this.progress_interval = DEFAULT_PROGRESS_INTERVAL;
+        this.page_size = DEFAULT_PAGE_SIZE;
+        this.large_value_size = DEFAULT_LARGE_VALUE_SIZE;
+        this.codec = null;
+        this.compression_block_size = DEFAULT_COMPRESSION_BLOCK_SIZE;
+        this.compression_threads = 1;
+    }
+
+    /**************************************************************************
+     * Constructs DBExportOptions for the given format.
+     *
+     * @param format    The format, <code>FORMAT_LEGACY</code> or
+     *                  <code>FORMAT_BATCHED_INSERT</code>.
+     */
+    public DBExportOptions(int format) {
+        this();
+        this.setFormat(format);
+    }
+
+    /**************************************************************************
+     * Sets the format.
+     *
+     * @param format    <code>FORMAT_LEGACY</code> or
+     *                  <code>FORMAT_BATCHED_INSERT</code>, anything else is
+     *                  taken as <code>FORMAT_LEGACY</code>.
+     */
+    public void setFormat(int format) {
+        this.format = format == FORMAT_BATCHED_INSERT ?
+                FORMAT_BATCHED_INSERT : FORMAT_LEGACY;
+    }
+
+    /**************************************************************************
+     * Gets the format.
+     *
+     * @return <code>FORMAT_LEGACY</code> or <code>FORMAT_BATCHED_INSERT</code>.
+     */
+    public int getFormat() { return this.format; }
+
+    /**************************************************************************
+     * Sets the maximum number of rows per INSERT (batched insert format).
+     *
+     * @param rows_per_insert   The number of rows (minimum 1, default 100).
+     */
+    public void setRowsPerInsert(int rows_per_insert) {
+        this.rows_per_insert = Math.max(1, rows_per_insert);
+    }
+
+    /**************************************************************************
+     * Gets the maximum number of rows per INSERT (batched insert format).
+     *
+     * @return The number of rows.
+     */
+    public int getRowsPerInsert() { return this.rows_per_insert; }
+
+    /**************************************************************************
+     * Sets whether or not the SQL is for MySQL (batched insert format), in
+     * which case backslashes in strings are escaped and names are quoted
+     * with backticks (rather than double quotes).
+     *
+     * @param mysql_escaping    true for MySQL, false (the default) for SQLite.
+     */
+    public void setMySQLEscaping(boolean mysql_escaping) {
+        this.mysql_escaping = mysql_escaping;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the SQL is for MySQL (batched insert format).
+     *
+     * @return true if for MySQL, else false.
+     */
+    public boolean isMySQLEscaping() { return this.mysql_escaping; }
+
+    /**************************************************************************
+     * Sets the size, in characters, of the buffer through which the export
+     * is written.
+     *
+     * @param buffer_size   The buffer size (minimum 1024, default 64K).
+     */
+    public void setBufferSize(int buffer_size) {
+        this.buffer_size = Math.max(1024, buffer_size);
+    }
+
+    /**************************************************************************
+     * Gets the size, in characters, of the buffer through which the export
+     * is written.
+     *
+     * @return The buffer size.
+     */
+    public int getBufferSize() { return this.buffer_size; }
+
+    /**************************************************************************
+     * Sets the number of rows between progress reports.
+     *
+     * @param progress_interval The number of rows (minimum 1, default 1000).
+     */
+    public void setProgressInterval(int progress_interval) {
+        this.progress_interval = Math.max(1, progress_interval);
+    }
+
+    /**************************************************************************
+     * Gets the number of rows between progress reports.
+     *
+     * @return The number of rows.
+     */
+    public int getProgressInterval() { return this.progress_interval; }
+
+    /**************************************************************************
+     * Sets the number of rows read per page (see DBTableReader); a page
+     * should fit within a CursorWindow.
+     *
+     * @param page_size The number of rows (minimum 1, default 1000).
+     */
+    public void setPageSize(int page_size) {
+        this.page_size = Math.max(1, page_size);
+    }
+
+    /**************************************************************************
+     * Gets the number of rows read per page.
+     *
+     * @return The number of rows.
+     */
+    public int getPageSize() { return this.page_size; }
+
+    /**************************************************************************
+     * Sets the size above which BLOB and TEXT values are not read with the
+     * row but are streamed a chunk at a time (see DBBlobInputStream).
+     *
+     * @param large_value_size  The size in bytes (minimum 1024, default
+     *                          256K).
+     */
+    public void setLargeValueSize(int large_value_size) {
+        this.large_value_size = Math.max(1024, large_value_size);
+    }
+
+    /**************************************************************************
+     * Gets the size above which BLOB and TEXT values are streamed.
+     *
+     * @return The size in bytes.
+     */
+    public int getLargeValueSize() { return this.large_value_size; }
+
+    /**************************************************************************
+     * Sets the DBExportCodec with which exports to an OutputStream or
+     * FileChannel are compressed (e.g. <code>DBDeflateCodec.GZIP</code>).
+     *
+     * @param codec The DBExportCodec, null (the default) for no compression.
+     */
+    public void setCodec(DBExportCodec codec) {
+        this.codec = codec;
+    }
+
+    /**************************************************************************
+     * Gets the DBExportCodec with which exports are compressed.
+     *
+     * @return The DBExportCodec, null if exports are not compressed.
+     */
+    public DBExportCodec getCodec() { return this.codec; }
+
+    /**************************************************************************
+     * Sets the (uncompressed) size of the blocks that are compressed.
+     *
+     * @param compression_block_size    The size in bytes (minimum 4096,
+     *                                  default 128K).
+     */
+    public void setCompressionBlockSize(int compression_block_size) {
+        this.compression_block_size = Math.max(4096, compression_block_size);
+    }
+
+    /**************************************************************************
+     * Gets the (uncompressed) size of the blocks that are compressed.
+     *
+     * @return The size in bytes.
+     */
+    public int getCompressionBlockSize() { return this.compression_block_size; }
+
+    /**************************************************************************
+     * Sets the number of threads that compress blocks concurrently; only
+     * used if the codec is concatenable (e.g. gzip).
+     *
+     * @param compression_threads   The number of threads (minimum 1,
+     *                              default 1).
+     */
+    public void setCompressionThreads(int compression_threads) {
+        this.compression_threads = Math.max(1, compression_threads);
+    }
+
+    /**************************************************************************
+     * Gets the number of threads that compress blocks concurrently.
+     *
+     * @return The number of threads.
+     */
+    public int getCompressionThreads() { return this.compression_threads; }
+
+    /**************************************************************************
+     * Creates a DBCompressingOutputStream, as per the codec, block size and
+     * threads, that writes to an OutputStream.
+     *
+     * @param os    The OutputStream.
+     * @return The DBCompressingOutputStream, null if there is no codec.
+     * @throws IOException if writing the start of the compressed data fails.
+     */
+    DBCompressingOutputStream newCompressingStream(OutputStream os) throws IOException {
+        if (this.codec == null) {
+            return null;
+        }
+        return new DBCompressingOutputStream(os, this.codec,
+                this.compression_block_size, this.compression_threads);
+    }
+}
@@ -0,0 +1,446 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mjt.dbtable.DBTable;
+
+/**
+ * DBParallelExporter exports the data of the tables of an SQLite database,
+ * as per <code>DBDatabase.exportDBData</code>, using a number of threads
+ * so that tables, and parts (rowid ranges) of large tables, are read and
+ * written concurrently.
+ *
+ * <p>
+ *     The SQLite database should have write-ahead logging enabled (see
+ *     <code>SQLiteDatabase.enableWriteAheadLogging</code>) as it is then
+ *     that its connection pool has multiple (read) connections and so
+ *     queries from the threads run concurrently; otherwise they are
+ *     serialised on the single connection. The number of threads should
+ *     not exceed the number of connections in the pool. Alternatively the
+ *     threads can read using the read-only connections of a
+ *     DBConnectionPool.
+ * </p>
+ * <p>
+ *     Each part is written to a temporary file by a thread of a fixed size
+ *     thread pool. The parts are then, in table order and in rowid order,
+ *     either concatenated into a file per table
+ *     (<code>exportToDirectory</code>) or merged into a single stream
+ *     (<code>exportToStream</code>), each part being merged as soon as it,
+ *     and the parts before it, are complete. The output is the same as a
+ *     serial export. The DBExportListener is invoked on the calling thread
+ *     as the parts are merged.
+ * </p>
+ * <p>
+ *     If the DBExportOptions have a codec the output is compressed (and
+ *     the table files' names have the codec's suffix). With a concatenable
+ *     codec (e.g. gzip) each part is compressed, as a separate stream, by
+ *     its thread; otherwise the output is compressed as the parts are
+ *     merged.
+ * </p>
+ * <p>
+ *     Note! Android does not provide a means of having several connections
+ *     share one read snapshot; each part is read by a single query and so
+ *     is consistent but different parts may be read at different times.
+ *     For an export that is consistent across tables, the database must
+ *     not be updated (e.g. writers paused) whilst the export runs.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBParallelExporter {
+
+    /**
+     * The default number of rows (estimated from the rowid range) per part.
+     */
+    public static final int DEFAULT_RANGE_ROWS = 100000;
+    /**
+     * The default number of threads, and the maximum when reading via an
+     * SQLiteDatabase, Android's default write-ahead logging connection pool
+     * size being 4.
+     */
+    public static final int DEFAULT_THREADS = 4;
+    private static final String TABLE_FILE_SUFFIX = ".sql";
+
+    private DBDatabase dbdatabase;
+    private SQLiteDatabase db;
+    /* The pool from which the threads acquire read-only connections, if any */
+    private DBConnectionPool pool;
+    private int threads;
+    private int range_rows;
+    private DBExportOptions options;
+    private File temp_directory;
+
+    /**
+     * A part of the export; all, or a rowid range, of a table.
+     */
+    private static class Part {
+        DBTable table;
+        Long from_rowid;
+        Long to_rowid;
+        boolean first_of_table;
+        boolean last_of_table;
+        File file;
+        Future<Long> future;
+    }
+
+    /**************************************************************************
+     * Constructs a DBParallelExporter with the default number of threads.
+     *
+     * @param dbdatabase    The DBDatabase that defines the tables to export.
+     * @param db            The SQLite database, which should have
+     *                      write-ahead logging enabled.
+     */
+    public DBParallelExporter(DBDatabase dbdatabase, SQLiteDatabase db) {
+        this(dbdatabase, db, DEFAULT_THREADS);
+    }
+
+    /**************************************************************************
+     * Constructs a DBParallelExporter.
+     *
+     * @param dbdatabase    The DBDatabase that defines the tables to export.
+     * @param db            The SQLite database, which should have
+     *                      write-ahead logging enabled.
+     * @param threads       The number of threads (minimum 1, maximum
+     *                      DEFAULT_THREADS as Android's connection pool
+     *                      has 4 connections).
+     */
+    public DBParallelExporter(DBDatabase dbdatabase, SQLiteDatabase db, int threads) {
+        this.dbdatabase = dbdatabase;
+        this.db = db;
+        this.threads = Math.min(DEFAULT_THREADS, Math.max(1, threads));
+        this.range_rows = DEFAULT_RANGE_ROWS;
+        this.options = new DBExportOptions();
+        this.temp_directory = null;
+    }
+
+    /**************************************************************************
+     * Constructs a DBParallelExporter that reads using the read-only
+     * connections of a DBConnectionPool, each thread acquiring its own
+     * connection for each part.
+     *
+     * @param dbdatabase    The DBDatabase that defines the tables to export.
+     * @param pool          The DBConnectionPool.
+     * @param threads       The number of threads (minimum 1, limited to the
+     *                      number of read-only connections).
+     */
+    public DBParallelExporter(DBDatabase dbdatabase, DBConnectionPool pool, int threads) {
+        this(dbdatabase, (SQLiteDatabase) null, 1);
+        this.pool = pool;
+        this.threads = Math.max(1, Math.min(threads, pool.getReadConnections()));
+    }
+
+    /**************************************************************************
+     * Sets the number of rows per part; tables with more rows are exported
+     * in parts, each part a range of rowids.
+     *
+     * @param range_rows    The number of rows (minimum 1000, default 100000).
+     */
+    public void setRangeRows(int range_rows) {
+        this.range_rows = Math.max(1000, range_rows);
+    }
+
+    /**************************************************************************
+     * Sets the DBExportOptions (format etc.), the legacy format being used
+     * if not set.
+     *
+     * @param options   The DBExportOptions.
+     */
+    public void setExportOptions(DBExportOptions options) {
+        this.options = options;
+    }
+
+    /**************************************************************************
+     * Sets the directory in which the temporary part files are written.
+     *
+     * @param temp_directory    The directory, null (the default) for the
+     *                          system's temporary directory.
+     */
+    public void setTempDirectory(File temp_directory) {
+        this.temp_directory = temp_directory;
+    }
+
+    /**************************************************************************
+     * Exports the data to a file per table, named as per the table with a
+     * .sql suffix, in the given directory (existing files are replaced).
+     *
+     * @param directory The directory.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportToDirectory(File directory, DBExportListener listener)
+            throws IOException {
+        return this.export(directory, null, listener);
+    }
+
+    /**************************************************************************
+     * Exports the data to a single stream (UTF-8), the tables and parts in
+     * order. The OutputStream is flushed but not closed.
+     *
+     * @param os        The OutputStream.
+     * @param listener  The DBExportListener to be informed of progress, null
+     *                  if not required.
+     * @return The number of rows exported (0 if the DBDatabase is unusable).
+     * @throws IOException if writing fails.
+     */
+    public long exportToStream(OutputStream os, DBExportListener listener)
+            throws IOException {
+        return this.export(null, os, listener);
+    }
+
+    /**************************************************************************
+     * Exports the data, to a file per table if a directory is given, else
+     * to the OutputStream.
+     */
+    private long export(File directory, OutputStream os, DBExportListener listener)
+            throws IOException {
+        if (!this.dbdatabase.isDBDatabaseUsable()) {
+            return 0;
+        }
+        ArrayList<Part> parts = this.planParts();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        long total_rows = 0;
+        try {
+            for (Part part : parts) {
+                part.file = File.createTempFile("dbexport", ".part", this.temp_directory);
+                part.future = executor.submit(this.newPartTask(part));
+            }
+            DBExportCodec codec = this.options.getCodec();
+            boolean compressonmerge = codec != null && !codec.isConcatenable();
+            String suffix = TABLE_FILE_SUFFIX + (codec != null ? codec.getFileSuffix() : "");
+            OutputStream tablefile = null;
+            OutputStream tableos = null;
+            OutputStream streamos = os;
+            if (os != null && compressonmerge) {
+                streamos = new DBCompressingOutputStream(os, codec,
+                        this.options.getCompressionBlockSize(), 1);
+            }
+            long table_rows = 0;
+            byte[] buffer = new byte[this.options.getBufferSize()];
+            try {
+                for (Part part : parts) {
+                    long rows = this.waitForPart(part);
+                    if (part.first_of_table) {
+                        table_rows = 0;
+                        if (listener != null) {
+                            listener.onTableExportStarted(part.table.getDBTableName());
+                        }
+                        if (directory != null) {
+                            tablefile = new FileOutputStream(new File(directory,
+                                    part.table.getDBTableName() + suffix));
+                            tableos = !compressonmerge ? tablefile :
+                                    new DBCompressingOutputStream(tablefile, codec,
+                                            this.options.getCompressionBlockSize(), 1);
+                        }
+                    }
+                    copyFile(part.file, directory != null ? tableos : streamos, buffer);
+                    deleteFile(part.file);
+                    table_rows += rows;
+                    total_rows += rows;
+                    if (listener != null) {
+                        listener.onExportProgress(part.table.getDBTableName(),
+                                table_rows, total_rows);
+                    }
+                    if (part.last_of_table) {
+                        if (tableos != null) {
+                            tableos.close();
+                            tablefile.close();
+                            tableos = null;
+                            tablefile = null;
+                        }
+                        if (listener != null) {
+                            listener.onTableExportFinished(part.table.getDBTableName(),
+                                    table_rows);
+                        }
+                    }
+                }
+                if (streamos != os) {
+                    streamos.close();
+                }
+            } finally {
+                if (tablefile != null) {
+                    tablefile.close();
+                }
+            }
+            if (os != null) {
+                os.flush();
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Part part : parts) {
+                if (part.future != null) {
+                    part.future.cancel(true);
+                }
+                if (part.file != null) {
+                    deleteFile(part.file);
+                }
+            }
+        }
+        return total_rows;
+    }
+
+    /**************************************************************************
+     * Splits the tables into parts, tables with more than range rows rows
+     * being split into rowid ranges of (approximately) range rows rows.
+     *
+     * @return The parts, in table and rowid order.
+     */
+    private ArrayList<Part> planParts() {
+        ArrayList<Part> parts = new ArrayList<>();
+        for (String table_name : this.dbdatabase.getTables()) {
+            DBTable dbt = this.dbdatabase.getDBTable(table_name);
+            long rowcount = 0;
+            long minrowid = 0;
+            long maxrowid = 0;
+            SQLiteDatabase reader = this.acquireReader();
+            try {
+                Cursor csr = reader.rawQuery("SELECT count(*), min(rowid), max(rowid) FROM " +
+                        dbt.getDBTableName(), null);
+                try {
+                    if (csr.moveToFirst()) {
+                        rowcount = csr.getLong(0);
+                        minrowid = csr.getLong(1);
+                        maxrowid = csr.getLong(2);
+                    }
+                } finally {
+                    csr.close();
+                }
+            } finally {
+                this.releaseReader(reader);
+            }
+            int partcount = (int) Math.min(this.threads * 16L,
+                    (rowcount + this.range_rows - 1) / this.range_rows);
+            if (partcount < 2) {
+                Part part = new Part();
+                part.table = dbt;
+                part.first_of_table = true;
+                part.last_of_table = true;
+                parts.add(part);
+                continue;
+            }
+            // Split the rowid range evenly (rowids are normally dense)
+            long span = maxrowid - minrowid + 1;
+            long step = (span + partcount - 1) / partcount;
+            long from = minrowid;
+            for (int i = 0; i < partcount; i++) {
+                Part part = new Part();
+                part.table = dbt;
+                part.from_rowid = from;
+                part.to_rowid = (i == partcount - 1) ? maxrowid : from + step - 1;
+                part.first_of_table = i == 0;
+                part.last_of_table = i == partcount - 1;
+                parts.add(part);
+                from = part.to_rowid + 1;
+            }
+        }
+        return parts;
+    }
+
+    /**************************************************************************
+     * Creates the task that exports a part to its file.
+     */
+    private Callable<Long> newPartTask(final Part part) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                SQLiteDatabase reader = acquireReader();
+                OutputStream fos = null;
+                try {
+                    fos = new FileOutputStream(part.file);
+                    // A concatenable codec's parts are compressed here
+                    DBExportCodec codec = options.getCodec();
+                    OutputStream pos = codec != null && codec.isConcatenable() ?
+                            codec.newCompressingStream(fos,
+                                    options.getCompressionBlockSize()) : fos;
+                    Writer out = new BufferedWriter(new OutputStreamWriter(pos, "UTF-8"),
+                            options.getBufferSize());
+                    long rows = new DBDataExporter(reader, options, null)
+                            .exportTableRange(part.table, part.from_rowid,
+                                    part.to_rowid, out);
+                    out.close();
+                    return rows;
+                } finally {
+                    releaseReader(reader);
+                    if (fos != null) {
+                        fos.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**************************************************************************
+     * Waits for a part to be exported.
+     *
+     * @return The number of rows exported.
+     * @throws IOException if the part failed or the wait was interrupted.
+     */
+    private long waitForPart(Part part) throws IOException {
+        try {
+            return part.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Export of table " +
+                    part.table.getDBTableName() + " failed - " + cause);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the connection to read with; a read-only connection of the pool,
+     * if there is one, else the SQLite database.
+     */
+    private SQLiteDatabase acquireReader() {
+        return this.pool != null ? this.pool.acquireReader() : this.db;
+    }
+
+    private void releaseReader(SQLiteDatabase reader) {
+        if (this.pool != null) {
+            this.pool.releaseReader(reader);
+        }
+    }
+
+    private static void copyFile(File file, OutputStream os, byte[] buffer)
+            throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
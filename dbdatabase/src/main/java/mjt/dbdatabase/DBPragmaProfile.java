@@ -0,0 +1,266 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static mjt.sqlwords.SQLKWORD.SQLPRAGMA;
+
+/**
+ * DBPragmaProfile is a named set of PRAGMA settings (e.g. cache_size,
+ * synchronous) that tune an SQLite database connection for a type of use;
+ * <code>newBulkLoadProfile</code> (fast, not durable, loading),
+ * <code>newReadHeavyProfile</code> (large cache and memory mapped I/O) and
+ * <code>newDurableProfile</code> (full synchronisation) or a profile built
+ * by <code>setPragma</code>.
+ *
+ * <p>
+ *     <code>apply</code> sets the PRAGMAs, in the order they were set on
+ *     the profile, then reads them back, returning the effective settings
+ *     as a DBPragmaProfile; <code>getDifferences</code> lists any that
+ *     SQLite didn't accept (e.g. mmap_size is limited by how SQLite was
+ *     built). <code>read</code> gets the current settings, so they can be
+ *     restored after applying a profile temporarily (see
+ *     <code>DBDatabase.runWithDBPragmaProfile</code>).
+ * </p>
+ * <p>
+ *     Note! The settings are per connection (except that synchronous in
+ *     write-ahead logging mode and journal_size_limit only matter to the
+ *     connection writing) and are lost when the connection is closed, so a
+ *     profile should be applied when the SQLite database is opened (e.g. in
+ *     <code>SQLiteOpenHelper.onConfigure</code>). PRAGMAs must be applied
+ *     outside of a transaction.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBPragmaProfile {
+
+    public static final String PRAGMA_CACHE_SIZE = "cache_size";
+    public static final String PRAGMA_MMAP_SIZE = "mmap_size";
+    public static final String PRAGMA_SYNCHRONOUS = "synchronous";
+    public static final String PRAGMA_TEMP_STORE = "temp_store";
+    public static final String PRAGMA_JOURNAL_SIZE_LIMIT = "journal_size_limit";
+    public static final String PRAGMA_WAL_AUTOCHECKPOINT = "wal_autocheckpoint";
+    public static final String PRAGMA_BUSY_TIMEOUT = "busy_timeout";
+    public static final String PRAGMA_CACHE_SPILL = "cache_spill";
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+    public static final int SYNCHRONOUS_EXTRA = 3;
+    public static final int TEMP_STORE_DEFAULT = 0;
+    public static final int TEMP_STORE_FILE = 1;
+    public static final int TEMP_STORE_MEMORY = 2;
+
+    public static final String PROFILE_BULK_LOAD = "bulk-load";
+    public static final String PROFILE_READ_HEAVY = "read-heavy";
+    public static final String PROFILE_DURABLE = "durable";
+
+    private String name;
+    /* The PRAGMAs and their values, in the order set */
+    private LinkedHashMap<String,Long> pragmas;
+
+    /**************************************************************************
+     * Constructs an empty DBPragmaProfile.
+     *
+     * @param name  The name of the profile.
+     */
+    public DBPragmaProfile(String name) {
+        this.name = name;
+        this.pragmas = new LinkedHashMap<>();
+    }
+
+    /**************************************************************************
+     * Creates the bulk-load profile; no synchronisation (a crash or power
+     * loss during the load may corrupt the database), a 64MB cache,
+     * temporary tables and indexes in memory and infrequent WAL
+     * checkpoints.
+     *
+     * @return The profile.
+     */
+    public static DBPragmaProfile newBulkLoadProfile() {
+        DBPragmaProfile profile = new DBPragmaProfile(PROFILE_BULK_LOAD);
+        profile.setPragma(PRAGMA_SYNCHRONOUS, SYNCHRONOUS_OFF);
+        profile.setPragma(PRAGMA_CACHE_SIZE, -64 * 1024);
+        profile.setPragma(PRAGMA_TEMP_STORE, TEMP_STORE_MEMORY);
+        profile.setPragma(PRAGMA_WAL_AUTOCHECKPOINT, 10000);
+        profile.setPragma(PRAGMA_JOURNAL_SIZE_LIMIT, 64L * 1024 * 1024);
+        return profile;
+    }
+
+    /**************************************************************************
+     * Creates the read-heavy profile; normal synchronisation (durable in
+     * WAL mode other than on power loss), a 32MB cache, 256MB of memory
+     * mapped I/O and temporary tables and indexes (e.g. for ORDER BY) in
+     * memory.
+     *
+     * @return The profile.
+     */
+    public static DBPragmaProfile newReadHeavyProfile() {
+        DBPragmaProfile profile = new DBPragmaProfile(PROFILE_READ_HEAVY);
+        profile.setPragma(PRAGMA_SYNCHRONOUS, SYNCHRONOUS_NORMAL);
+        profile.setPragma(PRAGMA_CACHE_SIZE, -32 * 1024);
+        profile.setPragma(PRAGMA_MMAP_SIZE, 256L * 1024 * 1024);
+        profile.setPragma(PRAGMA_TEMP_STORE, TEMP_STORE_MEMORY);
+        profile.setPragma(PRAGMA_WAL_AUTOCHECKPOINT, 1000);
+        return profile;
+    }
+
+    /**************************************************************************
+     * Creates the durable profile; full synchronisation, SQLite's default
+     * cache (2000KB), no memory mapped I/O, the default temporary storage
+     * and the default WAL checkpoints, the WAL being truncated to 4MB.
+     *
+     * @return The profile.
+     */
+    public static DBPragmaProfile newDurableProfile() {
+        DBPragmaProfile profile = new DBPragmaProfile(PROFILE_DURABLE);
+        profile.setPragma(PRAGMA_SYNCHRONOUS, SYNCHRONOUS_FULL);
+        profile.setPragma(PRAGMA_CACHE_SIZE, -2000);
+        profile.setPragma(PRAGMA_MMAP_SIZE, 0);
+        profile.setPragma(PRAGMA_TEMP_STORE, TEMP_STORE_DEFAULT);
+        profile.setPragma(PRAGMA_WAL_AUTOCHECKPOINT, 1000);
+        profile.setPragma(PRAGMA_JOURNAL_SIZE_LIMIT, 4L * 1024 * 1024);
+        return profile;
+    }
+
+    /**************************************************************************
+     * Sets a PRAGMA of the profile, replacing its value if already set.
+     *
+     * @param pragma    The name of the PRAGMA (e.g. PRAGMA_CACHE_SIZE),
+     *                  which must be one that takes and returns an integer.
+     * @param value     The value.
+     * @throws IllegalArgumentException if the name isn't a valid PRAGMA
+     *                                  name.
+     */
+    public void setPragma(String pragma, long value) {
+        if (pragma == null || !pragma.matches("[A-Za-z_]+")) {
+            throw new IllegalArgumentException("Invalid PRAGMA name " + pragma);
+        }
+        this.pragmas.put(pragma.toLowerCase(), value);
+    }
+
+    /**************************************************************************
+     * Removes a PRAGMA from the profile.
+     *
+     * @param pragma    The name of the PRAGMA.
+     */
+    public void removePragma(String pragma) {
+        this.pragmas.remove(pragma.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the value of a PRAGMA of the profile.
+     *
+     * @param pragma    The name of the PRAGMA.
+     * @return The value, null if the PRAGMA isn't set by the profile.
+     */
+    public Long getPragma(String pragma) {
+        return this.pragmas.get(pragma.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the names of the PRAGMAs of the profile, in the order set.
+     *
+     * @return The names.
+     */
+    public ArrayList<String> getPragmaNames() {
+        return new ArrayList<>(this.pragmas.keySet());
+    }
+
+    /**************************************************************************
+     * Gets the name of the profile.
+     *
+     * @return The name.
+     */
+    public String getName() { return this.name; }
+
+    /**************************************************************************
+     * Sets the PRAGMAs of the profile on the SQLite database and reads them
+     * back.
+     *
+     * @param db    The SQLite database.
+     * @return The effective settings, a DBPragmaProfile with the same
+     *         PRAGMAs, named as per this profile, with the values read
+     *         back.
+     */
+    public DBPragmaProfile apply(SQLiteDatabase db) {
+        for (Map.Entry<String,Long> pragma : this.pragmas.entrySet()) {
+            // Queried as some PRAGMAs (e.g. mmap_size) return the new value
+            Cursor csr = db.rawQuery(SQLPRAGMA + pragma.getKey() + " = " +
+                    pragma.getValue(), null);
+            try {
+                csr.moveToFirst();
+            } finally {
+                csr.close();
+            }
+        }
+        return this.read(db);
+    }
+
+    /**************************************************************************
+     * Reads the current values, from the SQLite database, of the PRAGMAs of
+     * the profile; so that they can be restored after the profile has been
+     * applied.
+     *
+     * @param db    The SQLite database.
+     * @return A DBPragmaProfile, named as per this profile, of the current
+     *         values (a PRAGMA that returns no value is omitted).
+     */
+    public DBPragmaProfile read(SQLiteDatabase db) {
+        DBPragmaProfile current = new DBPragmaProfile(this.name);
+        for (String pragma : this.pragmas.keySet()) {
+            Cursor csr = db.rawQuery(SQLPRAGMA + pragma, null);
+            try {
+                if (csr.moveToFirst()) {
+                    current.pragmas.put(pragma, csr.getLong(0));
+                }
+            } finally {
+                csr.close();
+            }
+        }
+        return current;
+    }
+
+    /**************************************************************************
+     * Gets the PRAGMAs of the profile whose values differ from those of
+     * another profile, e.g. those not accepted as per the effective settings
+     * returned by <code>apply</code>.
+     *
+     * @param other The other profile.
+     * @return Descriptions (name, this value and the other value) of the
+     *         PRAGMAs that differ, empty if none.
+     */
+    public ArrayList<String> getDifferences(DBPragmaProfile other) {
+        ArrayList<String> differences = new ArrayList<>();
+        for (Map.Entry<String,Long> pragma : this.pragmas.entrySet()) {
+            Long value = other.pragmas.get(pragma.getKey());
+            if (!pragma.getValue().equals(value)) {
+                differences.add(pragma.getKey() + " " + pragma.getValue() +
+                        " but " + value);
+            }
+        }
+        return differences;
+    }
+
+    /**************************************************************************
+     * Gets the profile as a String, e.g.
+     * <code>bulk-load: synchronous=0, cache_size=-65536</code>.
+     *
+     * @return The profile as a String.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(this.name).append(':');
+        String separator = " ";
+        for (Map.Entry<String,Long> pragma : this.pragmas.entrySet()) {
+            sb.append(separator).append(pragma.getKey()).append('=')
+                    .append(pragma.getValue());
+            separator = ", ";
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,441 @@
+package mjt.dbdatabase;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * DBSQLDumpReader reads the rows of the INSERT statements of exported SQL
+ * (as written by <code>DBDatabase.exportDBData</code> in either format,
+ * or by <code>generateExportDataSQL</code>), one row at a time.
+ *
+ * <p>
+ *     <code>INSERT [OR ...] INTO name [(columns)] VALUES (...)[,(...)]</code>
+ *     statements are read, any other statements (e.g. CREATE TABLE) and
+ *     comments are skipped. Values may be NULL, numbers, string literals
+ *     (with doubled apostrophes and, if MySQL escaping, backslash escapes)
+ *     or X'hex' blob literals. Legacy format rows (preceded by a
+ *     <code>--TBL_INSERTSTART</code> comment) have their #@APOST@# and
+ *     #@QUOTE@# placeholders restored.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBSQLDumpReader {
+
+    private static final String LEGACY_MARKER = "TBL_INSERTSTART";
+
+    private PushbackReader reader;
+    private boolean mysql_escaping;
+    private int line;
+    private boolean legacy_marker_seen;
+
+    /* The current statement */
+    private boolean in_values;
+    private boolean legacy;
+    private String table_name;
+    private String[] column_names;
+    private Object[] values;
+
+    /**************************************************************************
+     * Constructs a DBSQLDumpReader.
+     *
+     * @param reader            The Reader from which the SQL is read (it
+     *                          should be buffered).
+     * @param mysql_escaping    true if backslashes in strings are escapes.
+     */
+    DBSQLDumpReader(Reader reader, boolean mysql_escaping) {
+        this.reader = new PushbackReader(reader, 2);
+        this.mysql_escaping = mysql_escaping;
+        this.line = 1;
+        this.in_values = false;
+    }
+
+    /**************************************************************************
+     * Reads the next row.
+     *
+     * @return true if a row was read, false if there are no more rows.
+     * @throws IOException if reading fails or the SQL cannot be parsed.
+     */
+    boolean nextRow() throws IOException {
+        while (true) {
+            if (this.in_values) {
+                this.skipWhitespaceAndComments();
+                int c = this.peek();
+                if (c == ',') {
+                    this.read();
+                    this.readTuple();
+                    return true;
+                }
+                if (c == ';' || c == -1) {
+                    this.read();
+                    this.in_values = false;
+                    continue;
+                }
+                throw this.error("Expected , or ; after VALUES row");
+            }
+            this.legacy_marker_seen = false;
+            this.skipWhitespaceAndComments();
+            if (this.peek() == -1) {
+                return false;
+            }
+            this.legacy = this.legacy_marker_seen;
+            String word = this.readIdentifier();
+            if (!word.equalsIgnoreCase("INSERT") && !word.equalsIgnoreCase("REPLACE")) {
+                this.skipStatement();
+                continue;
+            }
+            this.readInsertHeader();
+            this.readTuple();
+            this.in_values = true;
+            return true;
+        }
+    }
+
+    /**************************************************************************
+     * Gets the name of the table of the current row.
+     *
+     * @return The table name.
+     */
+    String getTableName() { return this.table_name; }
+
+    /**************************************************************************
+     * Gets the column names of the current row.
+     *
+     * @return The column names, null if the INSERT did not list them.
+     */
+    String[] getColumnNames() { return this.column_names; }
+
+    /**************************************************************************
+     * Gets the values of the current row; null, Long, Double, String or
+     * byte[].
+     *
+     * @return The values.
+     */
+    Object[] getValues() { return this.values; }
+
+    /**************************************************************************
+     * Reads the INSERT statement up to and including VALUES, setting the
+     * table name and column names.
+     */
+    private void readInsertHeader() throws IOException {
+        String word = this.nextWord();
+        if (word.equalsIgnoreCase("OR")) {
+            this.nextWord();
+            word = this.nextWord();
+        }
+        if (!word.equalsIgnoreCase("INTO")) {
+            throw this.error("Expected INTO");
+        }
+        this.skipWhitespaceAndComments();
+        this.table_name = this.readIdentifier();
+        this.skipWhitespaceAndComments();
+        this.column_names = null;
+        if (this.peek() == '(') {
+            this.read();
+            ArrayList<String> columns = new ArrayList<>();
+            while (true) {
+                this.skipWhitespaceAndComments();
+                columns.add(this.readIdentifier());
+                this.skipWhitespaceAndComments();
+                int c = this.read();
+                if (c == ')') {
+                    break;
+                }
+                if (c != ',') {
+                    throw this.error("Expected , or ) in column list");
+                }
+            }
+            this.column_names = columns.toArray(new String[columns.size()]);
+        }
+        if (!this.nextWord().equalsIgnoreCase("VALUES")) {
+            throw this.error("Expected VALUES");
+        }
+    }
+
+    /**************************************************************************
+     * Reads a row of values i.e. (value, value ...).
+     */
+    private void readTuple() throws IOException {
+        this.skipWhitespaceAndComments();
+        if (this.read() != '(') {
+            throw this.error("Expected ( to start VALUES row");
+        }
+        ArrayList<Object> rowvalues = new ArrayList<>();
+        while (true) {
+            this.skipWhitespaceAndComments();
+            rowvalues.add(this.readValue());
+            this.skipWhitespaceAndComments();
+            int c = this.read();
+            if (c == ')') {
+                break;
+            }
+            if (c != ',') {
+                throw this.error("Expected , or ) in VALUES row");
+            }
+        }
+        this.values = rowvalues.toArray();
+    }
+
+    /**************************************************************************
+     * Reads a single value.
+     *
+     * @return The value; null, Long, Double, String or byte[].
+     */
+    private Object readValue() throws IOException {
+        int c = this.peek();
+        if (c == '\'') {
+            String text = this.readQuoted('\'', this.mysql_escaping);
+            if (this.legacy) {
+                text = text.replace("#@APOST@#", "'").replace("#@QUOTE@#", "\"");
+            }
+            return text;
+        }
+        if (c == 'X' || c == 'x') {
+            this.read();
+            if (this.peek() == '\'') {
+                return hexToBytes(this.readQuoted('\'', false));
+            }
+            this.unread(c);
+        }
+        return this.parseBareValue(this.readBareValue());
+    }
+
+    /**************************************************************************
+     * Converts an unquoted value to NULL, a Long or a Double, anything else
+     * (e.g. a legacy export of a non TEXT column holding text) being taken
+     * as a String.
+     */
+    private Object parseBareValue(String bare) {
+        if (bare.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(bare);
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            return Double.parseDouble(bare);
+        } catch (NumberFormatException e) {
+            return bare;
+        }
+    }
+
+    /**************************************************************************
+     * Reads an unquoted value, up to a comma, closing parenthesis or
+     * whitespace.
+     */
+    private String readBareValue() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = this.peek()) != -1 && c != ',' && c != ')' &&
+                !Character.isWhitespace(c)) {
+            sb.append((char) this.read());
+        }
+        if (sb.length() < 1) {
+            throw this.error("Expected a value");
+        }
+        return sb.toString();
+    }
+
+    /**************************************************************************
+     * Reads a name, which may be quoted by ", `, or [], or unquoted.
+     */
+    private String readIdentifier() throws IOException {
+        int c = this.peek();
+        if (c == '"' || c == '`') {
+            return this.readQuoted((char) c, false);
+        }
+        if (c == '[') {
+            this.read();
+            StringBuilder sb = new StringBuilder();
+            while ((c = this.read()) != ']') {
+                if (c == -1) {
+                    throw this.error("Unterminated name");
+                }
+                sb.append((char) c);
+            }
+            return sb.toString();
+        }
+        StringBuilder sb = new StringBuilder();
+        while ((c = this.peek()) != -1 &&
+                (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.')) {
+            sb.append((char) this.read());
+        }
+        if (sb.length() < 1) {
+            throw this.error("Expected a name");
+        }
+        return sb.toString();
+    }
+
+    /**************************************************************************
+     * Reads the next keyword, skipping whitespace and comments.
+     */
+    private String nextWord() throws IOException {
+        this.skipWhitespaceAndComments();
+        return this.readIdentifier();
+    }
+
+    /**************************************************************************
+     * Reads a quoted string, the quote being doubled to include it and,
+     * if backslash escaping, backslash escapes being applied.
+     */
+    private String readQuoted(char quote, boolean backslash_escaping)
+            throws IOException {
+        this.read();
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = this.read();
+            if (c == -1) {
+                throw this.error("Unterminated quoted string");
+            }
+            if (c == quote) {
+                if (this.peek() == quote) {
+                    sb.append((char) this.read());
+                    continue;
+                }
+                return sb.toString();
+            }
+            if (backslash_escaping && c == '\\') {
+                int e = this.read();
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case '0': sb.append('\0'); break;
+                    case 'Z': sb.append('\u001A'); break;
+                    case -1: throw this.error("Unterminated quoted string");
+                    default: sb.append((char) e); break;
+                }
+                continue;
+            }
+            sb.append((char) c);
+        }
+    }
+
+    /**************************************************************************
+     * Skips the remainder of a statement that is not an INSERT, up to and
+     * including the terminating semicolon.
+     */
+    private void skipStatement() throws IOException {
+        while (true) {
+            int c = this.peek();
+            if (c == -1) {
+                return;
+            }
+            if (c == '\'' || c == '"' || c == '`') {
+                this.readQuoted((char) c, c == '\'' && this.mysql_escaping);
+                continue;
+            }
+            if (c == '-' || c == '/') {
+                if (this.skipComment()) {
+                    continue;
+                }
+            }
+            this.read();
+            if (c == ';') {
+                return;
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Skips whitespace and comments, noting any legacy row marker.
+     */
+    private void skipWhitespaceAndComments() throws IOException {
+        while (true) {
+            int c = this.peek();
+            if (c != -1 && Character.isWhitespace(c)) {
+                this.read();
+                continue;
+            }
+            if ((c == '-' || c == '/') && this.skipComment()) {
+                continue;
+            }
+            return;
+        }
+    }
+
+    /**************************************************************************
+     * Skips a comment, if one is next.
+     *
+     * @return true if a comment was skipped.
+     */
+    private boolean skipComment() throws IOException {
+        int c = this.read();
+        int next = this.read();
+        if (next != (c == '-' ? '-' : '*')) {
+            this.unread(next);
+            this.unread(c);
+            return false;
+        }
+        if (c == '-') {
+            StringBuilder sb = new StringBuilder();
+            while ((c = this.read()) != -1 && c != '\n') {
+                if (sb.length() < LEGACY_MARKER.length()) {
+                    sb.append((char) c);
+                }
+            }
+            if (sb.toString().equals(LEGACY_MARKER)) {
+                this.legacy_marker_seen = true;
+            }
+        } else {
+            int previous = 0;
+            while ((c = this.read()) != -1 && !(previous == '*' && c == '/')) {
+                previous = c;
+            }
+        }
+        return true;
+    }
+
+    private int peek() throws IOException {
+        int c = this.reader.read();
+        if (c != -1) {
+            this.reader.unread(c);
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        int c = this.reader.read();
+        if (c == '\n') {
+            this.line++;
+        }
+        return c;
+    }
+
+    private void unread(int c) throws IOException {
+        if (c == -1) {
+            return;
+        }
+        if (c == '\n') {
+            this.line--;
+        }
+        this.reader.unread(c);
+    }
+
+    private IOException error(String message) {
+        return new IOException("Invalid exported SQL at line " +
+                Integer.toString(this.line) + " - " + message);
+    }
+
+    /**************************************************************************
+     * Converts hexadecimal to bytes.
+     */
+    private byte[] hexToBytes(String hex) throws IOException {
+        if (hex.length() % 2 != 0) {
+            throw this.error("Invalid blob literal");
+        }
+        byte[] rv = new byte[hex.length() / 2];
+        for (int i = 0; i < rv.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw this.error("Invalid blob literal");
+            }
+            rv[i] = (byte) ((hi << 4) | lo);
+        }
+        return rv;
+    }
+}
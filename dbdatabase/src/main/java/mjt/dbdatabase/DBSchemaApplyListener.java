@@ -0,0 +1,39 @@
+package mjt.dbdatabase;
+
+/**
+ * Listener for the progress and the outcome of the asynchronous build
+ * and/or alter of an SQLite database by a DBDatabase.
+ *
+ * <p>
+ *     The methods are invoked on the thread that is running the build or
+ *     alter (i.e. a thread of the Executor passed to the DBDatabase's
+ *     <code>action????Async</code> method), NOT the UI thread.
+ * </p>
+ */
+public interface DBSchemaApplyListener {
+
+    /**************************************************************************
+     * Invoked after each SQL statement has been executed.
+     *
+     * @param statement_number  The number (1 based) of the statement within
+     *                          the current build or alter.
+     * @param statement_count   The number of statements in the current build
+     *                          or alter, 0 if not known in advance (as is
+     *                          the case when tables are rebuilt).
+     * @param sql               The SQL statement that was executed.
+     * @param elapsed_millis    The time, in milliseconds, taken to execute
+     *                          the statement.
+     */
+    void onStatementApplied(int statement_number,
+                            int statement_count,
+                            String sql,
+                            long elapsed_millis);
+
+    /**************************************************************************
+     * Invoked when the build and/or alter has finished, whether or not it
+     * was successful.
+     *
+     * @param result    The outcome of the build and/or alter.
+     */
+    void onSchemaApplied(DBSchemaApplyResult result);
+}
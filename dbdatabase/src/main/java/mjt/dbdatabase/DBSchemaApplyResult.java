@@ -0,0 +1,106 @@
+package mjt.dbdatabase;
+
+import java.util.ArrayList;
+
+/**
+ * The outcome of the build and/or alter of an SQLite database by a
+ * DBDatabase.
+ *
+ * <p>
+ *     Records the SQL statements that were executed along with the time
+ *     taken for each, the overall time taken and, if the build or alter
+ *     failed, the Exception that caused the failure (in which case the
+ *     failing transaction will have been rolled back).
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBSchemaApplyResult {
+
+    private ArrayList<String> applied_statements;
+    private ArrayList<Long> statement_millis;
+    private long start_nanos;
+    private long elapsed_millis;
+    private Exception failure;
+
+    /**************************************************************************
+     * Constructs an empty DBSchemaApplyResult, timing starts from
+     * construction.
+     */
+    DBSchemaApplyResult() {
+        this.applied_statements = new ArrayList<>();
+        this.statement_millis = new ArrayList<>();
+        this.start_nanos = System.nanoTime();
+        this.elapsed_millis = 0;
+        this.failure = null;
+    }
+
+    /**************************************************************************
+     * Records a statement that has been executed.
+     *
+     * @param sql       The SQL statement.
+     * @param millis    The time taken, in milliseconds.
+     */
+    void addAppliedStatement(String sql, long millis) {
+        this.applied_statements.add(sql);
+        this.statement_millis.add(millis);
+    }
+
+    /**************************************************************************
+     * Records the failure of the build or alter.
+     *
+     * @param failure   The Exception that caused the failure.
+     */
+    void setFailure(Exception failure) {
+        this.failure = failure;
+    }
+
+    /**************************************************************************
+     * Records that the build and/or alter has finished, setting the overall
+     * elapsed time.
+     */
+    void finish() {
+        this.elapsed_millis = (System.nanoTime() - this.start_nanos) / 1000000;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the build and/or alter was successful.
+     *
+     * @return true if successful, else false.
+     */
+    public boolean isSuccessful() { return this.failure == null; }
+
+    /**************************************************************************
+     * Gets the Exception that caused the build or alter to fail.
+     *
+     * @return The Exception, null if successful.
+     */
+    public Exception getFailure() { return this.failure; }
+
+    /**************************************************************************
+     * Gets the SQL statements that were executed, noting that if the
+     * build or alter failed then the statements of the failed transaction
+     * will have been rolled back.
+     *
+     * @return A String ArrayList of the SQL statements.
+     */
+    public ArrayList<String> getAppliedStatements() {
+        return this.applied_statements;
+    }
+
+    /**************************************************************************
+     * Gets the time taken by each of the SQL statements that were executed.
+     *
+     * @return A Long ArrayList of the times, in milliseconds, in the same
+     * order as <code>getAppliedStatements</code>.
+     */
+    public ArrayList<Long> getStatementMillis() {
+        return this.statement_millis;
+    }
+
+    /**************************************************************************
+     * Gets the overall time taken.
+     *
+     * @return The time, in milliseconds.
+     */
+    public long getElapsedMillis() { return this.elapsed_millis; }
+}
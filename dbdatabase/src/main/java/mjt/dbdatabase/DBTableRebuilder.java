@@ -0,0 +1,434 @@
+package mjt.dbdatabase;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.ArrayList;
+
+import mjt.dbcolumn.DBColumn;
+import mjt.dbindex.DBIndex;
+import mjt.dbtable.DBSchemaSnapshot;
+import mjt.dbtable.DBTable;
+
+/**
+ * DBTableRebuilder rebuilds an SQLite table so that it matches its DBTable
+ * where the changes cannot be applied by ALTER TABLE (changed column types,
+ * defaults or primary key and dropped columns).
+ *
+ * <p>
+ *     This follows the SQLite 12 step procedure (create a new table, copy
+ *     the data, drop the old table, rename the new table and re-create the
+ *     indexes and any change tracking triggers) except that the data is
+ *     copied in batches of rows (in rowid order), each in its own
+ *     transaction, rather than in a single transaction. After each batch a
+ *     checkpoint, the last rowid copied, is recorded (in the
+ *     dbdatabase_rebuild table) within the batch's transaction so that if
+ *     the process is killed the rebuild resumes from the checkpoint.
+ * </p>
+ * <p>
+ *     The checkpoint also holds the SQL that created the shadow table; if
+ *     the DBTable has changed since the rebuild started the rebuild is
+ *     restarted rather than resumed. If the data can't be copied due to a
+ *     constraint (e.g. a new PRIMARY KEY or UNIQUE column with duplicates
+ *     or NULLs) the rebuild is abandoned, the shadow table and checkpoint
+ *     being dropped, and the SQLiteConstraintException thrown.
+ * </p>
+ * <p>
+ *     As the copy is not a single transaction, the table should not be
+ *     updated by other means whilst it is being rebuilt (i.e. rebuild as
+ *     part of the Alter at application startup). Foreign keys are not
+ *     defined by the DB???? classes so are not catered for.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+class DBTableRebuilder {
+
+    /**
+     * The table in which rebuild checkpoints are held.
+     */
+    static final String REBUILD_TABLE = "dbdatabase_rebuild";
+    static final String REBUILD_TABLE_COL = "table_name";
+    static final String REBUILD_SHADOW_COL = "shadow_name";
+    static final String REBUILD_LASTROWID_COL = "last_rowid";
+    static final String REBUILD_SHADOWSQL_COL = "shadow_sql";
+    /**
+     * The suffix applied to a table's name to name the shadow table.
+     */
+    static final String SHADOW_SUFFIX = "_dbrebuild";
+
+    private SQLiteDatabase db;
+    private int batch_size;
+    private DBSchemaApplyResult result;
+    private DBSchemaApplyListener listener;
+    private int statement_number;
+
+    /**************************************************************************
+     * Constructs a DBTableRebuilder.
+     *
+     * @param db            The SQLite database.
+     * @param batch_size    The number of rows to copy per transaction.
+     * @param result        The DBSchemaApplyResult to record statements in,
+     *                      null if not required.
+     * @param listener      The DBSchemaApplyListener to be informed of each
+     *                      statement, null if not required.
+     */
+    DBTableRebuilder(SQLiteDatabase db,
+                     int batch_size,
+                     DBSchemaApplyResult result,
+                     DBSchemaApplyListener listener) {
+        this.db = db;
+        this.batch_size = batch_size;
+        this.result = result;
+        this.listener = listener;
+        this.statement_number = 0;
+    }
+
+    /**************************************************************************
+     * Gets the names of the tables that have a rebuild in progress, i.e.
+     * those with a checkpoint.
+     *
+     * @param db    The SQLite database.
+     * @return A String ArrayList of the (lowercase) table names.
+     */
+    static ArrayList<String> getTablesWithRebuildInProgress(SQLiteDatabase db) {
+        ArrayList<String> rv = new ArrayList<>();
+        Cursor csr;
+        try {
+            csr = db.query(REBUILD_TABLE,
+                    new String[]{REBUILD_TABLE_COL},
+                    null,null,null,null,null
+            );
+        } catch (SQLiteException e) {
+            // No checkpoint table, so no rebuilds in progress
+            return rv;
+        }
+        while (csr.moveToNext()) {
+            rv.add(csr.getString(0).toLowerCase());
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Rebuilds a table, resuming from the checkpoint if there is one (and
+     * the DBTable hasn't changed since the rebuild started).
+     *
+     * @param table     The DBTable that the table is to match.
+     * @param indexes   The DBIndexes of the table, to be re-created once the
+     *                  data has been copied.
+     * @throws SQLiteConstraintException if the data violates a constraint
+     *                                   of the rebuilt table (the rebuild
+     *                                   having been abandoned).
+     */
+    void rebuildTable(DBTable table, ArrayList<DBIndex> indexes) {
+        String table_name = table.getDBTableName();
+        String shadow_name = table_name + SHADOW_SUFFIX;
+        String shadow_sql = table.getSQLCreateStringForTableName(shadow_name);
+        Long last_rowid = null;
+        boolean resuming = false;
+
+        if (this.hasCheckpoint(table_name)) {
+            if (shadow_sql.equals(this.getCheckpointShadowSQL(table_name))) {
+                last_rowid = this.getCheckpoint(table_name);
+                resuming = true;
+            } else {
+                // The DBTable has changed since the rebuild started
+                this.abandonRebuild(table_name, shadow_name);
+            }
+        }
+
+        // Start the rebuild, unless resuming, by creating the shadow table
+        // and the checkpoint
+        if (!resuming) {
+            this.db.beginTransaction();
+            try {
+                this.createRebuildTable();
+                this.execute(" DROP TABLE IF EXISTS " + shadow_name + " ;", null);
+                this.execute(shadow_sql, null);
+                this.execute(" INSERT INTO " + REBUILD_TABLE + " (" +
+                                REBUILD_TABLE_COL + ", " +
+                                REBUILD_SHADOW_COL + ", " +
+                                REBUILD_LASTROWID_COL + ", " +
+                                REBUILD_SHADOWSQL_COL + ") VALUES(?,?,NULL,?) ;",
+                        new Object[]{table_name, shadow_name, shadow_sql});
+                this.db.setTransactionSuccessful();
+            } finally {
+                this.db.endTransaction();
+            }
+        }
+
+        try {
+            this.copyAndSwap(table, indexes, shadow_name, last_rowid);
+        } catch (SQLiteConstraintException e) {
+            // Retrying can't succeed, so abandon rather than resume
+            this.abandonRebuild(table_name, shadow_name);
+            throw e;
+        }
+    }
+
+    /**************************************************************************
+     * Copies the rows, after the checkpoint, to the shadow table and then
+     * replaces the table with the shadow table.
+     *
+     * @param table         The DBTable.
+     * @param indexes       The DBIndexes of the table.
+     * @param shadow_name   The name of the shadow table.
+     * @param last_rowid    The last rowid copied, null if none copied.
+     */
+    private void copyAndSwap(DBTable table, ArrayList<DBIndex> indexes,
+                             String shadow_name, Long last_rowid) {
+        String table_name = table.getDBTableName();
+        String copycolumns = this.getCopyColumns(table);
+
+        // Copy the rows in batches, each batch and its checkpoint in a
+        // single transaction
+        while (true) {
+            this.db.beginTransaction();
+            try {
+                Long upper_rowid = this.getBatchUpperRowid(table_name, last_rowid);
+                if (upper_rowid == null) {
+                    break;
+                }
+                String where = " WHERE rowid <= " + Long.toString(upper_rowid);
+                if (last_rowid != null) {
+                    where = where + " AND rowid > " + Long.toString(last_rowid);
+                }
+                this.execute(" INSERT INTO " + shadow_name +
+                        " (" + copycolumns + ") SELECT " + copycolumns +
+                        " FROM " + table_name + where + " ;", null);
+                this.execute(" UPDATE " + REBUILD_TABLE +
+                                " SET " + REBUILD_LASTROWID_COL + "=?" +
+                                " WHERE " + REBUILD_TABLE_COL + "=? ;",
+                        new Object[]{upper_rowid, table_name});
+                this.db.setTransactionSuccessful();
+                last_rowid = upper_rowid;
+            } finally {
+                this.db.endTransaction();
+            }
+        }
+
+        // Swap the tables, re-create the indexes and remove the checkpoint
+        this.db.beginTransaction();
+        try {
+            this.execute(" DROP TABLE " + table_name + " ;", null);
+            this.execute(" ALTER TABLE " + shadow_name +
+                    " RENAME TO " + table_name + " ;", null);
+            for (DBIndex dbi : indexes) {
+                this.execute(dbi.generateCreateIndexSQL(), null);
+            }
+            // The change tracking triggers were dropped with the old table
+            if (table.isChangeTrackingEnabled()) {
+                this.execute(DBTable.getSQLChangeLogTableCreate(), null);
+                for (String sql : table.getSQLChangeTrackingTriggers()) {
+                    this.execute(sql, null);
+                }
+            }
+            this.execute(" DELETE FROM " + REBUILD_TABLE +
+                    " WHERE " + REBUILD_TABLE_COL + "=? ;", new Object[]{table_name});
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+    }
+
+    /**************************************************************************
+     * Abandons a rebuild, dropping the shadow table and the checkpoint.
+     *
+     * @param table_name    The table.
+     * @param shadow_name   The shadow table.
+     */
+    private void abandonRebuild(String table_name, String shadow_name) {
+        this.db.beginTransaction();
+        try {
+            this.execute(" DROP TABLE IF EXISTS " + shadow_name + " ;", null);
+            this.execute(" DELETE FROM " + REBUILD_TABLE +
+                    " WHERE " + REBUILD_TABLE_COL + "=? ;", new Object[]{table_name});
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+    }
+
+    /**************************************************************************
+     * Creates the checkpoint table if it doesn't exist, adding the shadow
+     * SQL column if the table predates it.
+     */
+    private void createRebuildTable() {
+        this.execute(" CREATE TABLE IF NOT EXISTS " + REBUILD_TABLE + " (" +
+                REBUILD_TABLE_COL + " TEXT PRIMARY KEY, " +
+                REBUILD_SHADOW_COL + " TEXT, " +
+                REBUILD_LASTROWID_COL + " INTEGER, " +
+                REBUILD_SHADOWSQL_COL + " TEXT) ;", null);
+        Cursor csr = this.db.rawQuery("PRAGMA table_info(" + REBUILD_TABLE + ")", null);
+        boolean found = false;
+        try {
+            while (csr.moveToNext()) {
+                if (REBUILD_SHADOWSQL_COL.equalsIgnoreCase(csr.getString(1))) {
+                    found = true;
+                }
+            }
+        } finally {
+            csr.close();
+        }
+        if (!found) {
+            this.execute(" ALTER TABLE " + REBUILD_TABLE + " ADD COLUMN " +
+                    REBUILD_SHADOWSQL_COL + " TEXT ;", null);
+        }
+    }
+
+    /**************************************************************************
+     * Gets the columns to be copied; those DBColumns that exist in the
+     * current table plus the rowid (so rowids are preserved) unless the
+     * new table's rowid alias column is copied.
+     *
+     * @param table The DBTable.
+     * @return The comma separated list of columns.
+     */
+    private String getCopyColumns(DBTable table) {
+        return getCopyColumns(table, new DBSchemaSnapshot(this.db));
+    }
+
+    /**************************************************************************
+     * Gets the columns to be copied from a table, as per the snapshot, as
+     * above.
+     *
+     * @param table     The DBTable.
+     * @param snapshot  The DBSchemaSnapshot of the database copied from.
+     * @return The comma separated list of columns.
+     */
+    static String getCopyColumns(DBTable table, DBSchemaSnapshot snapshot) {
+        String rowidalias = table.getRowidAliasColumnName();
+        boolean rowidaliascopied = false;
+        StringBuilder sb = new StringBuilder();
+        for (DBColumn dc : table.getTableDBColumns()) {
+            if (snapshot.getTableColumn(table.getDBTableName(),
+                    dc.getDBColumnName()) == null) {
+                continue;
+            }
+            if (dc.getDBColumnName().equals(rowidalias)) {
+                rowidaliascopied = true;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(dc.getDBColumnName());
+        }
+        if (!rowidaliascopied) {
+            if (sb.length() > 0) {
+                sb.insert(0, ", ");
+            }
+            sb.insert(0, "rowid");
+        }
+        return sb.toString();
+    }
+
+    /**************************************************************************
+     * Gets the highest rowid of the next batch of rows to be copied.
+     *
+     * @param table_name    The table being rebuilt.
+     * @param last_rowid    The last rowid copied, null if none copied.
+     * @return The highest rowid, null if there are no more rows.
+     */
+    private Long getBatchUpperRowid(String table_name, Long last_rowid) {
+        String where = "";
+        if (last_rowid != null) {
+            where = " WHERE rowid > " + Long.toString(last_rowid);
+        }
+        Cursor csr = this.db.rawQuery("SELECT max(rowid) FROM (SELECT rowid FROM " +
+                table_name + where +
+                " ORDER BY rowid LIMIT " + Integer.toString(this.batch_size) + ")",
+                null);
+        Long rv = null;
+        if (csr.moveToFirst() && !csr.isNull(0)) {
+            rv = csr.getLong(0);
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Checks whether a table has a rebuild checkpoint.
+     *
+     * @param table_name    The table.
+     * @return true if there is a checkpoint, else false.
+     */
+    private boolean hasCheckpoint(String table_name) {
+        return getTablesWithRebuildInProgress(this.db).contains(
+                table_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the last rowid copied according to a table's checkpoint.
+     *
+     * @param table_name    The table.
+     * @return The last rowid copied, null if none copied.
+     */
+    private Long getCheckpoint(String table_name) {
+        Long rv = null;
+        Cursor csr = this.db.query(REBUILD_TABLE,
+                new String[]{REBUILD_LASTROWID_COL},
+                REBUILD_TABLE_COL + "=?",
+                new String[]{table_name},
+                null,null,null
+        );
+        if (csr.moveToFirst() && !csr.isNull(0)) {
+            rv = csr.getLong(0);
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the SQL that created the shadow table according to a table's
+     * checkpoint.
+     *
+     * @param table_name    The table.
+     * @return The SQL, null if not recorded (e.g. the checkpoint predates
+     *         the recording of the SQL).
+     */
+    private String getCheckpointShadowSQL(String table_name) {
+        Cursor csr;
+        try {
+            csr = this.db.query(REBUILD_TABLE,
+                    new String[]{REBUILD_SHADOWSQL_COL},
+                    REBUILD_TABLE_COL + "=?",
+                    new String[]{table_name},
+                    null,null,null
+            );
+        } catch (SQLiteException e) {
+            // No shadow SQL column
+            return null;
+        }
+        String rv = null;
+        if (csr.moveToFirst() && !csr.isNull(0)) {
+            rv = csr.getString(0);
+        }
+        csr.close();
+        return rv;
+    }
+
+    /**************************************************************************
+     * Executes an SQL statement, recording and reporting it.
+     *
+     * @param sql       The SQL statement.
+     * @param bindargs  The bind arguments, null if none.
+     */
+    private void execute(String sql, Object[] bindargs) {
+        long start = System.nanoTime();
+        if (bindargs == null) {
+            this.db.execSQL(sql);
+        } else {
+            this.db.execSQL(sql, bindargs);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        this.statement_number++;
+        if (this.result != null) {
+            this.result.addAppliedStatement(sql, elapsed);
+        }
+        if (this.listener != null) {
+            this.listener.onStatementApplied(this.statement_number, 0, sql, elapsed);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package mjt.dbdatabase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static mjt.dbdatabase.DBBinarySnapshotWriter.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DBBinarySnapshotReader, against snapshots built as per the
+ * format described by DBBinarySnapshotWriter.
+ */
+public class DBBinarySnapshotReaderTest {
+
+    @Test
+    public void readsTablesRowsAndValues() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            Snapshot snapshot = new Snapshot(compress);
+            snapshot.startTable("t1", "i", "r", "s", "b");
+            snapshot.startRow();
+            snapshot.writeInteger(Long.MIN_VALUE);
+            snapshot.writeReal(-1.5);
+            snapshot.writeText("it's \"quoted\" \u00e9");
+            snapshot.writeBlob(new byte[]{0, 1, (byte) 0xFF});
+            snapshot.startRow();
+            snapshot.writeInteger(Long.MAX_VALUE);
+            snapshot.writeNull();
+            snapshot.writeText("");
+            snapshot.writeNull();
+            snapshot.endTable(2);
+            snapshot.startTable("empty", "x");
+            snapshot.endTable(0);
+
+            DBBinarySnapshotReader reader = snapshot.open(1024);
+            assertTrue(reader.nextTable());
+            assertEquals("t1", reader.getTableName());
+            assertArrayEquals(new String[]{"i", "r", "s", "b"}, reader.getColumnNames());
+            assertTrue(reader.nextRow());
+            Object[] values = reader.getValues();
+            assertEquals(Long.MIN_VALUE, values[0]);
+            assertEquals(-1.5, values[1]);
+            assertEquals("it's \"quoted\" \u00e9", values[2]);
+            assertArrayEquals(new byte[]{0, 1, (byte) 0xFF}, (byte[]) values[3]);
+            assertFalse(reader.hasLargeValues());
+            assertTrue(reader.nextRow());
+            values = reader.getValues();
+            assertEquals(Long.MAX_VALUE, values[0]);
+            assertNull(values[1]);
+            assertEquals("", values[2]);
+            assertNull(values[3]);
+            assertFalse(reader.nextRow());
+            assertTrue(reader.nextTable());
+            assertEquals("empty", reader.getTableName());
+            assertFalse(reader.nextRow());
+            assertFalse(reader.nextTable());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void nextTable_skipsUnreadRows() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.startTable("t1", "a");
+        for (int i = 0; i < 3; i++) {
+            snapshot.startRow();
+            snapshot.writeInteger(i);
+        }
+        snapshot.endTable(3);
+        snapshot.startTable("t2", "a");
+        snapshot.endTable(0);
+        DBBinarySnapshotReader reader = snapshot.open(1024);
+        assertTrue(reader.nextTable());
+        assertTrue(reader.nextRow());
+        assertTrue(reader.nextTable());
+        assertEquals("t2", reader.getTableName());
+        assertFalse(reader.nextTable());
+    }
+
+    @Test
+    public void largeValues_heldInTemporaryFiles() throws Exception {
+        File directory = newTempDirectory();
+        try {
+            byte[] blob = new byte[5000];
+            for (int i = 0; i < blob.length; i++) {
+                blob[i] = (byte) i;
+            }
+            Snapshot snapshot = new Snapshot(true);
+            snapshot.startTable("t", "id", "s", "b");
+            snapshot.startRow();
+            snapshot.writeInteger(1);
+            snapshot.writeText("a long text value");
+            snapshot.writeBlob(blob);
+            snapshot.startRow();
+            snapshot.writeInteger(2);
+            snapshot.writeText("short");
+            snapshot.writeBlob(new byte[]{1});
+            snapshot.endTable(2);
+            DBBinarySnapshotReader reader = new DBBinarySnapshotReader(
+                    snapshot.getInputStream(), 8, directory);
+            assertTrue(reader.nextTable());
+            assertTrue(reader.nextRow());
+            assertTrue(reader.hasLargeValues());
+            assertFalse(reader.isLargeValue(0));
+            assertTrue(reader.isLargeValue(1));
+            assertTrue(reader.isLargeValue(2));
+            assertEquals("", reader.getValues()[1]);
+            assertEquals(0, ((byte[]) reader.getValues()[2]).length);
+            assertArrayEquals("a long text value".getBytes("UTF-8"),
+                    readAll(reader.openLargeValue(1)));
+            assertArrayEquals(blob, readAll(reader.openLargeValue(2)));
+            assertEquals(2, list(directory).length);
+
+            // The next row's values are small, the files are deleted
+            assertTrue(reader.nextRow());
+            assertFalse(reader.hasLargeValues());
+            assertEquals("short", reader.getValues()[1]);
+            assertEquals(0, list(directory).length);
+            reader.close();
+        } finally {
+            for (File file : list(directory)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void close_deletesTemporaryFiles() throws Exception {
+        File directory = newTempDirectory();
+        try {
+            Snapshot snapshot = new Snapshot(false);
+            snapshot.startTable("t", "s");
+            snapshot.startRow();
+            snapshot.writeText("a long text value");
+            snapshot.endTable(1);
+            DBBinarySnapshotReader reader = new DBBinarySnapshotReader(
+                    snapshot.getInputStream(), 8, directory);
+            assertTrue(reader.nextTable());
+            assertTrue(reader.nextRow());
+            assertEquals(1, list(directory).length);
+            reader.close();
+            assertEquals(0, list(directory).length);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            directory.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagic_rejected() throws Exception {
+        byte[] bytes = new Snapshot(false).toByteArray();
+        bytes[0] = 'X';
+        open(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersion_rejected() throws Exception {
+        byte[] bytes = new Snapshot(false).toByteArray();
+        bytes[MAGIC.length] = (byte) (VERSION + 1);
+        open(bytes);
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedMagic_rejected() throws Exception {
+        open(Arrays.copyOf(MAGIC, 3));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedHeader_rejected() throws Exception {
+        byte[] header = Arrays.copyOf(MAGIC, MAGIC.length + 1);
+        header[MAGIC.length] = VERSION;
+        open(header);
+    }
+
+    @Test(expected = IOException.class)
+    public void zeroBlockSize_rejected() throws Exception {
+        open(header(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void blockSizeOverMaximum_rejected() throws Exception {
+        open(header(MAX_BLOCK_SIZE + 1));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedSnapshot_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.startTable("t", "a");
+        snapshot.startRow();
+        snapshot.writeText("value");
+        snapshot.endTable(1);
+        byte[] bytes = snapshot.toByteArray();
+        DBBinarySnapshotReader reader = open(Arrays.copyOf(bytes, bytes.length - 8));
+        while (reader.nextTable()) {
+            //noinspection StatementWithEmptyBody
+            while (reader.nextRow()) {
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void valueLengthOverMaximum_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.startTable("t", "b");
+        snapshot.startRow();
+        snapshot.out.write(VALUE_BLOB);
+        DBBlockOutputStream.writeVarint(snapshot.out,
+                DBBinarySnapshotReader.MAX_VALUE_LENGTH + 1);
+        DBBinarySnapshotReader reader = snapshot.open(Long.MAX_VALUE);
+        assertTrue(reader.nextTable());
+        reader.nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void nameLengthOverMaximum_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.out.write(TAG_TABLE);
+        DBBlockOutputStream.writeVarint(snapshot.out, Integer.MAX_VALUE);
+        snapshot.open(1024).nextTable();
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidValueType_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.startTable("t", "a");
+        snapshot.startRow();
+        snapshot.out.write(99);
+        snapshot.endTable(1);
+        DBBinarySnapshotReader reader = snapshot.open(1024);
+        assertTrue(reader.nextTable());
+        reader.nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongRowCount_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.startTable("t", "a");
+        snapshot.startRow();
+        snapshot.writeInteger(1);
+        snapshot.endTable(2);
+        DBBinarySnapshotReader reader = snapshot.open(1024);
+        assertTrue(reader.nextTable());
+        assertTrue(reader.nextRow());
+        reader.nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidTag_rejected() throws Exception {
+        Snapshot snapshot = new Snapshot(false);
+        snapshot.out.write(TAG_ROW);
+        snapshot.open(1024).nextTable();
+    }
+
+    private static DBBinarySnapshotReader open(byte[] bytes) throws IOException {
+        return new DBBinarySnapshotReader(new ByteArrayInputStream(bytes), 1024, null);
+    }
+
+    private static byte[] header(long block_size) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(MAGIC);
+        bos.write(VERSION);
+        bos.write(0);
+        DBBlockOutputStream.writeVarint(bos, block_size);
+        return bos.toByteArray();
+    }
+
+    private static File newTempDirectory() throws IOException {
+        File directory = File.createTempFile("dbsnapshottest", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+
+    private static File[] list(File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Builds a snapshot, the TAG_END being written when it is read.
+     */
+    private static class Snapshot {
+        ByteArrayOutputStream bos;
+        DBBlockOutputStream out;
+
+        Snapshot(boolean compress) throws IOException {
+            this.bos = new ByteArrayOutputStream();
+            this.bos.write(MAGIC);
+            this.bos.write(VERSION);
+            this.bos.write(compress ? FLAG_COMPRESSED : 0);
+            DBBlockOutputStream.writeVarint(this.bos, 4096);
+            this.out = new DBBlockOutputStream(this.bos, 4096, compress);
+        }
+
+        void startTable(String table_name, String... column_names) throws IOException {
+            this.out.write(TAG_TABLE);
+            this.writeName(table_name);
+            DBBlockOutputStream.writeVarint(this.out, column_names.length);
+            for (String column_name : column_names) {
+                this.writeName(column_name);
+                this.out.write(VALUE_NUMERIC);
+            }
+        }
+
+        void startRow() throws IOException { this.out.write(TAG_ROW); }
+
+        void endTable(long rows) throws IOException {
+            this.out.write(TAG_END_TABLE);
+            DBBlockOutputStream.writeVarint(this.out, rows);
+        }
+
+        void writeNull() throws IOException { this.out.write(VALUE_NULL); }
+
+        void writeInteger(long value) throws IOException {
+            this.out.write(VALUE_INTEGER);
+            DBBlockOutputStream.writeZigzag(this.out, value);
+        }
+
+        void writeReal(double value) throws IOException {
+            this.out.write(VALUE_REAL);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int b = 0; b < 8; b++) {
+                this.out.write((int) (bits >>> (56 - b * 8)));
+            }
+        }
+
+        void writeText(String value) throws IOException {
+            this.out.write(VALUE_TEXT);
+            this.writeName(value);
+        }
+
+        void writeBlob(byte[] value) throws IOException {
+            this.out.write(VALUE_BLOB);
+            DBBlockOutputStream.writeVarint(this.out, value.length);
+            this.out.write(value, 0, value.length);
+        }
+
+        void writeName(String name) throws IOException {
+            byte[] bytes = name.getBytes("UTF-8");
+            DBBlockOutputStream.writeVarint(this.out, bytes.length);
+            this.out.write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() throws IOException {
+            this.out.write(TAG_END);
+            this.out.finish();
+            return this.bos.toByteArray();
+        }
+
+        InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(this.toByteArray());
+        }
+
+        DBBinarySnapshotReader open(long large_value_size) throws IOException {
+            return new DBBinarySnapshotReader(this.getInputStream(), large_value_size, null);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package mjt.dbdatabase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DBBlockOutputStream and DBBlockInputStream; the block format and
+ * the varints used by the binary snapshot.
+ */
+public class DBBlockStreamTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @Test
+    public void roundTrip_uncompressed() throws Exception {
+        byte[] data = randomBytes(BLOCK_SIZE * 3 + 100);
+        byte[] blocks = writeBlocks(data, BLOCK_SIZE, false);
+        assertArrayEquals(data, readBlocks(blocks, BLOCK_SIZE));
+        // 3 full blocks, a partial block and the end marker, all stored raw
+        InputStream in = new ByteArrayInputStream(blocks);
+        assertEquals(BLOCK_SIZE, DBBlockInputStream.readVarint(in));
+        assertEquals(0, DBBlockInputStream.readVarint(in));
+    }
+
+    @Test
+    public void roundTrip_compressed() throws Exception {
+        byte[] data = repeatedBytes(BLOCK_SIZE * 5 + 17);
+        byte[] blocks = writeBlocks(data, BLOCK_SIZE, true);
+        assertTrue(blocks.length < data.length / 4);
+        assertArrayEquals(data, readBlocks(blocks, BLOCK_SIZE));
+    }
+
+    @Test
+    public void incompressibleBlock_storedRaw() throws Exception {
+        byte[] data = randomBytes(BLOCK_SIZE);
+        byte[] blocks = writeBlocks(data, BLOCK_SIZE, true);
+        InputStream in = new ByteArrayInputStream(blocks);
+        assertEquals(BLOCK_SIZE, DBBlockInputStream.readVarint(in));
+        assertEquals("compressed length", 0, DBBlockInputStream.readVarint(in));
+        assertArrayEquals(data, readBlocks(blocks, BLOCK_SIZE));
+    }
+
+    @Test
+    public void empty_isJustTheEndMarker() throws Exception {
+        byte[] blocks = writeBlocks(new byte[0], BLOCK_SIZE, true);
+        assertArrayEquals(new byte[]{0}, blocks);
+        DBBlockInputStream in = new DBBlockInputStream(
+                new ByteArrayInputStream(blocks), BLOCK_SIZE);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(new byte[10], 0, 10));
+    }
+
+    @Test
+    public void singleByteWrites_roundTrip() throws Exception {
+        byte[] data = repeatedBytes(BLOCK_SIZE + 1);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DBBlockOutputStream out = new DBBlockOutputStream(bos, BLOCK_SIZE, true);
+        for (byte b : data) {
+            out.write(b);
+        }
+        out.close();
+        DBBlockInputStream in = new DBBlockInputStream(
+                new ByteArrayInputStream(bos.toByteArray()), BLOCK_SIZE);
+        for (byte b : data) {
+            assertEquals(b & 0xFF, in.read());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void blockOverMaximumSize_rejected() throws Exception {
+        byte[] blocks = writeBlocks(randomBytes(BLOCK_SIZE * 2), BLOCK_SIZE * 2, false);
+        readBlocks(blocks, BLOCK_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void compressedLengthOverLength_rejected() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DBBlockOutputStream.writeVarint(bos, 10);
+        DBBlockOutputStream.writeVarint(bos, 11);
+        bos.write(new byte[11]);
+        DBBlockOutputStream.writeVarint(bos, 0);
+        readBlocks(bos.toByteArray(), BLOCK_SIZE);
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedBlock_rejected() throws Exception {
+        byte[] blocks = writeBlocks(randomBytes(BLOCK_SIZE), BLOCK_SIZE, false);
+        readBlocks(Arrays.copyOf(blocks, blocks.length - 10), BLOCK_SIZE);
+    }
+
+    @Test(expected = EOFException.class)
+    public void missingEndMarker_rejected() throws Exception {
+        byte[] blocks = writeBlocks(randomBytes(100), BLOCK_SIZE, false);
+        readBlocks(Arrays.copyOf(blocks, blocks.length - 1), BLOCK_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptCompressedBlock_rejected() throws Exception {
+        byte[] blocks = writeBlocks(repeatedBytes(BLOCK_SIZE), BLOCK_SIZE, true);
+        // Past the two varint lengths, into the deflate data
+        for (int i = 4; i < blocks.length - 1; i++) {
+            blocks[i] = (byte) 0xFF;
+        }
+        readBlocks(blocks, BLOCK_SIZE);
+    }
+
+    @Test
+    public void varint_roundTrip() throws Exception {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE,
+                Long.MAX_VALUE, -1L, Long.MIN_VALUE};
+        for (long value : values) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DBBlockOutputStream.writeVarint(bos, value);
+            assertEquals(value, DBBlockInputStream.readVarint(
+                    new ByteArrayInputStream(bos.toByteArray())));
+        }
+    }
+
+    @Test
+    public void varint_lengths() throws Exception {
+        assertEquals(1, varintBytes(0).length);
+        assertEquals(1, varintBytes(127).length);
+        assertEquals(2, varintBytes(128).length);
+        assertEquals(9, varintBytes(Long.MAX_VALUE).length);
+        assertEquals(10, varintBytes(-1L).length);
+    }
+
+    @Test
+    public void zigzag_extremes() throws Exception {
+        long[] values = {0, 1, -1, 63, -64, 64, -65, Integer.MIN_VALUE,
+                Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE,
+                Long.MIN_VALUE + 1, Long.MAX_VALUE - 1};
+        for (long value : values) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DBBlockOutputStream.writeZigzag(bos, value);
+            assertEquals(value, DBBlockInputStream.readZigzag(
+                    new ByteArrayInputStream(bos.toByteArray())));
+        }
+    }
+
+    @Test
+    public void zigzag_encoding() throws Exception {
+        assertArrayEquals(new byte[]{0}, zigzagBytes(0));
+        assertArrayEquals(new byte[]{1}, zigzagBytes(-1));
+        assertArrayEquals(new byte[]{2}, zigzagBytes(1));
+        assertArrayEquals(new byte[]{127}, zigzagBytes(-64));
+        assertEquals(10, zigzagBytes(Long.MIN_VALUE).length);
+        assertEquals(10, zigzagBytes(Long.MAX_VALUE).length);
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedVarint_rejected() throws Exception {
+        DBBlockInputStream.readVarint(new ByteArrayInputStream(
+                new byte[]{(byte) 0x80, (byte) 0x80}));
+    }
+
+    @Test(expected = IOException.class)
+    public void overlongVarint_rejected() throws Exception {
+        byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        DBBlockInputStream.readVarint(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] writeBlocks(byte[] data, int block_size, boolean compress)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DBBlockOutputStream out = new DBBlockOutputStream(bos, block_size, compress);
+        out.write(data, 0, data.length);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private static byte[] readBlocks(byte[] blocks, int max_block_size)
+            throws IOException {
+        DBBlockInputStream in = new DBBlockInputStream(
+                new ByteArrayInputStream(blocks), max_block_size);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+            bos.write(buffer, 0, n);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+
+    private static byte[] varintBytes(long value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DBBlockOutputStream.writeVarint(bos, value);
+        return bos.toByteArray();
+    }
+
+    private static byte[] zigzagBytes(long value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DBBlockOutputStream.writeZigzag(bos, value);
+        return bos.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] repeatedBytes(int length) {
+        byte[] bytes = new byte[length];
+        byte[] text = "INSERT INTO t (a, b) VALUES (1, 'text');\n".getBytes();
+        for (int i = 0; i < length; i++) {
+            bytes[i] = text[i % text.length];
+        }
+        return bytes;
+    }
+}
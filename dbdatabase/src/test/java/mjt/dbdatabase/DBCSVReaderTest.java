@@ -0,0 +1,69 @@
+package mjt.dbdatabase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DBCSVReader.
+ */
+public class DBCSVReaderTest {
+
+    @Test
+    public void records_lfAndCrlf() throws Exception {
+        DBCSVReader reader = reader("a,b,c\r\n1,2,3\n4,5,6");
+        assertArrayEquals(new String[]{"a", "b", "c"}, reader.readRecord());
+        assertArrayEquals(new String[]{"1", "2", "3"}, reader.readRecord());
+        assertArrayEquals(new String[]{"4", "5", "6"}, reader.readRecord());
+        assertEquals(3, reader.getRecordNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void emptyFields_nullUnlessQuoted() throws Exception {
+        DBCSVReader reader = reader(",\"\",x,\n");
+        assertArrayEquals(new String[]{null, "", "x", null}, reader.readRecord());
+    }
+
+    @Test
+    public void quotedFields() throws Exception {
+        DBCSVReader reader = reader("\"a,b\",\"say \"\"hi\"\"\",\"line1\r\nline2\"\nnext\n");
+        assertArrayEquals(new String[]{"a,b", "say \"hi\"", "line1\r\nline2"},
+                reader.readRecord());
+        assertArrayEquals(new String[]{"next"}, reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void blankLines_skipped() throws Exception {
+        DBCSVReader reader = reader("\n\r\n1\n\n2\n");
+        assertArrayEquals(new String[]{"1"}, reader.readRecord());
+        assertEquals(1, reader.getRecordNumber());
+        assertArrayEquals(new String[]{"2"}, reader.readRecord());
+        assertEquals(2, reader.getRecordNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void legacyPlaceholders_notInterpreted() throws Exception {
+        DBCSVReader reader = reader("#@APOST@#,'x'\n");
+        assertArrayEquals(new String[]{"#@APOST@#", "'x'"}, reader.readRecord());
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedQuotedField_rejected() throws Exception {
+        reader("\"abc\n").readRecord();
+    }
+
+    @Test(expected = IOException.class)
+    public void textAfterQuotedField_rejected() throws Exception {
+        reader("\"abc\"def,1\n").readRecord();
+    }
+
+    private static DBCSVReader reader(String csv) {
+        return new DBCSVReader(new StringReader(csv));
+    }
+}
@@ -0,0 +1,149 @@
+package mjt.dbdatabase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DBSQLDumpReader, with SQL as written by the legacy and batched
+ * export formats.
+ */
+public class DBSQLDumpReaderTest {
+
+    @Test
+    public void legacyFormat_placeholdersRestored() throws Exception {
+        DBSQLDumpReader reader = reader(
+                "CREATE TABLE IF NOT EXISTS t (a TEXT, b INTEGER, c REAL);\n" +
+                "--TBL_INSERTSTART\n" +
+                "INSERT INTO t ( `a` , `b` , `c` ) VALUES(" +
+                "'it#@APOST@#s #@QUOTE@#q#@QUOTE@#', 1, 2.5 );\n" +
+                "--TBL_INSERTFINISH\n" +
+                "--TBL_INSERTSTART\n" +
+                "INSERT INTO t ( `a` , `b` , `c` ) VALUES('', null, -3 );\n" +
+                "--TBL_INSERTFINISH\n", false);
+        assertTrue(reader.nextRow());
+        assertEquals("t", reader.getTableName());
+        assertArrayEquals(new String[]{"a", "b", "c"}, reader.getColumnNames());
+        assertArrayEquals(new Object[]{"it's \"q\"", 1L, 2.5}, reader.getValues());
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new Object[]{"", null, -3L}, reader.getValues());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void legacyFormat_unquotedTextKept() throws Exception {
+        // A legacy export of a non TEXT column holding text
+        DBSQLDumpReader reader = reader(
+                "--TBL_INSERTSTART\n" +
+                "INSERT INTO t ( `a` , `b` ) VALUES(abc, 1e3 );\n" +
+                "--TBL_INSERTFINISH\n", false);
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new Object[]{"abc", 1000.0}, reader.getValues());
+    }
+
+    @Test
+    public void placeholders_onlyRestoredInLegacyFormat() throws Exception {
+        DBSQLDumpReader reader = reader(
+                "INSERT INTO t (a) VALUES ('#@APOST@#');\n", false);
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new Object[]{"#@APOST@#"}, reader.getValues());
+    }
+
+    @Test
+    public void batchedFormat_multipleRowsPerInsert() throws Exception {
+        DBSQLDumpReader reader = reader(
+                "-- comment\n" +
+                "INSERT INTO \"t\" (\"a\", \"b\", \"c\") VALUES\n" +
+                "('it''s',X'00ff10',NULL),\n" +
+                "('x',X'',9223372036854775807);\n" +
+                "/* block\n comment */\n" +
+                "INSERT INTO \"u\" (\"d\") VALUES\n" +
+                "(-1.25E-3);\n", false);
+        assertTrue(reader.nextRow());
+        assertEquals("t", reader.getTableName());
+        assertArrayEquals(new String[]{"a", "b", "c"}, reader.getColumnNames());
+        Object[] values = reader.getValues();
+        assertEquals("it's", values[0]);
+        assertArrayEquals(new byte[]{0, (byte) 0xFF, 0x10}, (byte[]) values[1]);
+        assertNull(values[2]);
+        assertTrue(reader.nextRow());
+        values = reader.getValues();
+        assertEquals("x", values[0]);
+        assertArrayEquals(new byte[0], (byte[]) values[1]);
+        assertEquals(Long.MAX_VALUE, values[2]);
+        assertTrue(reader.nextRow());
+        assertEquals("u", reader.getTableName());
+        assertArrayEquals(new Object[]{-1.25E-3}, reader.getValues());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void batchedFormat_mysqlEscaping() throws Exception {
+        DBSQLDumpReader reader = reader(
+                "INSERT INTO `t` (`a`) VALUES ('a\\'b\\\\c\\nd'),('e''f');\n", true);
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new String[]{"a"}, reader.getColumnNames());
+        assertArrayEquals(new Object[]{"a'b\\c\nd"}, reader.getValues());
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new Object[]{"e'f"}, reader.getValues());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void backslash_notAnEscapeWithoutMySQLEscaping() throws Exception {
+        DBSQLDumpReader reader = reader("INSERT INTO t VALUES ('a\\nb');", false);
+        assertTrue(reader.nextRow());
+        assertNull(reader.getColumnNames());
+        assertArrayEquals(new Object[]{"a\\nb"}, reader.getValues());
+    }
+
+    @Test
+    public void insertOrReplace_andOtherStatementsSkipped() throws Exception {
+        DBSQLDumpReader reader = reader(
+                "PRAGMA foreign_keys = OFF;\n" +
+                "CREATE TABLE t (a TEXT DEFAULT 'x;y');\n" +
+                "INSERT OR REPLACE INTO [t] ([a]) VALUES ('v');\n" +
+                "REPLACE INTO t (a) VALUES ('w');\n", false);
+        assertTrue(reader.nextRow());
+        assertEquals("t", reader.getTableName());
+        assertArrayEquals(new Object[]{"v"}, reader.getValues());
+        assertTrue(reader.nextRow());
+        assertArrayEquals(new Object[]{"w"}, reader.getValues());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void emptyInput_hasNoRows() throws Exception {
+        assertFalse(reader("", false).nextRow());
+        assertFalse(reader("-- ERROR - TABLE t IS EMPTY SKIPPED \n", false).nextRow());
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedString_rejected() throws Exception {
+        reader("INSERT INTO t (a) VALUES ('abc);\n", false).nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidBlobLiteral_rejected() throws Exception {
+        reader("INSERT INTO t (a) VALUES (X'0g');\n", false).nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void missingInto_rejected() throws Exception {
+        reader("INSERT t (a) VALUES (1);\n", false).nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void missingSeparator_rejected() throws Exception {
+        DBSQLDumpReader reader = reader("INSERT INTO t (a) VALUES (1) (2);\n", false);
+        assertTrue(reader.nextRow());
+        reader.nextRow();
+    }
+
+    private static DBSQLDumpReader reader(String sql, boolean mysql_escaping) {
+        return new DBSQLDumpReader(new StringReader(sql), mysql_escaping);
+    }
+}
@@ -1,13 +1,15 @@
 package mjt.dbindex;
 
 import static mjt.sqlwords.SQLKWORD.*;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import mjt.dbcolumn.DBColumn;
+import mjt.dbtable.DBSchemaSnapshot;
 import mjt.dbtable.DBTable;
 
 /**
@@ -43,6 +45,11 @@ import mjt.dbtable.DBTable;
  * flag can also be obtained, this via the <code>isUsable</code> method.
  * </p>
  * <p>
+ *     The checking is deferred until the usability, problem message or SQL
+ *     is requested, so adding columns one at a time does not repeatedly
+ *     check the DBIndex.
+ * </p>
+ * <p>
  *     <b>Class Members.</b>
  * </p>
  * <p>
@@ -80,6 +87,10 @@ import mjt.dbtable.DBTable;
  *     <b>unique</b> Boolean - Indicator as to whether or not this index
  *     is a unique index, true if unique, false if not.
  * </p>
+ * <p>
+ *     <b>frozen</b> boolean - Indicator as to whether or not the DBIndex
+ *     has been frozen (see <code>freeze</code>) and so cannot be changed.
+ * </p>
  *
  *  @author MJT
  **/
@@ -95,6 +106,9 @@ public class DBIndex {
     private String indexcreateSQL;
     private String problem_msg;
     private Boolean unique;
+    private volatile boolean frozen;
+    private boolean check_pending;
+    private String check_pending_caller;
     private static final String callmodeprefix = "Constructed using";
 
     /**************************************************************************
@@ -176,11 +190,35 @@ public class DBIndex {
         this.unique = uniqueindex;
         this.problem_msg = "";
         this.usable = false;
-        // Undertake the checks
-        checkDBIndexIsUsable(caller);
         this.indexcreateSQL = "";
+        // The checks are undertaken when first required
+        this.deferDBIndexCheck(caller);
+    }
+
+    /**************************************************************************
+     * Notes that the DBIndex has changed and so is to be checked (and the
+     * create SQL generated) when next required.
+     * @param caller    The invoking/calling method
+     */
+    private void deferDBIndexCheck(String caller) {
+        this.check_pending = true;
+        this.check_pending_caller = caller;
+    }
+
+    /**************************************************************************
+     * Undertakes the deferred check, generating the create SQL if the
+     * DBIndex is usable, if the DBIndex has changed since last checked.
+     */
+    private void checkDBIndexIfPending() {
+        if (!this.check_pending) {
+            return;
+        }
+        this.check_pending = false;
+        checkDBIndexIsUsable(this.check_pending_caller);
         if (this.usable) {
-            this.indexcreateSQL = generateCreateSQL();
+            this.indexcreateSQL = generateCreateSQL("");
+        } else {
+            this.indexcreateSQL = "";
         }
     }
 
@@ -191,47 +229,77 @@ public class DBIndex {
      *                  descending.
      */
     public void addIndexColumn(DBColumn column, Boolean ascending) {
+        if (this.frozen) {
+            this.problem_msg = this.problem_msg +
+                    "\nWDBI0016 - Frozen - " +
+                    "DBIndex " + this.index_name +
+                    " cannot be changed, change ignored. " +
+                    "Caller = (Add Column)";
+            return;
+        }
         this.columns.add(column);
         this.columnorders.add(ascending);
-        checkDBIndexIsUsable("Add Column");
-        if (this.usable) {
-            this.indexcreateSQL = generateCreateSQL();
-        } else {
-            this.indexcreateSQL = "";
-        }
+        this.deferDBIndexCheck("Add Column");
     }
 
     /**************************************************************************
      * Generates the SQL to create the actual database index.
+     * @param schema_prefix The schema name followed by a period, or an
+     *                      empty string for the main database.
      * @return  The generated SQL as a string
      */
-    private String generateCreateSQL() {
+    private String generateCreateSQL(String schema_prefix) {
 
-        String sql = SQLCREATE;
+        StringBuilder sql = new StringBuilder(SQLCREATE);
         if (this.unique) {
-            sql = sql + SQLUNIQUE;
+            sql.append(SQLUNIQUE);
         }
-        sql = sql + SQLINDEX +
-                SQLIFNOTEXISTS +
-                this.index_name + SQLON +
-                this.owningtable.getDBTableName() + "(";
+        sql.append(SQLINDEX)
+                .append(SQLIFNOTEXISTS).append(schema_prefix)
+                .append(this.index_name).append(SQLON)
+                .append(this.owningtable.getDBTableName()).append("(");
         int lenb4cols = sql.length();
 
         for (int i = 0; i < columns.size(); i++) {
             if (sql.length() > lenb4cols) {
-                sql = sql + ", ";
+                sql.append(", ");
             }
-            sql = sql + columns.get(i).getDBColumnName();
+            sql.append(columns.get(i).getDBColumnName());
             if (columnorders.get(i)) {
-                sql = sql + SQLORDERASCENDING;
+                sql.append(SQLORDERASCENDING);
             } else {
-                sql = sql + SQLORDERDESCENDING;
+                sql.append(SQLORDERDESCENDING);
             }
         }
-        sql = sql + ")";
-        return sql;
+        sql.append(")");
+        return sql.toString();
+    }
+
+    /**************************************************************************
+     * Freezes the DBIndex, and its owning DBTable, so that it can no longer
+     * be changed and can therefore be safely shared by threads.
+     * <p>The create SQL is already held, so freezing just prevents any
+     * further columns being added (<code>addIndexColumn</code> is ignored,
+     * a warning being added to the problem message). Freezing cannot be
+     * undone.</p>
+     */
+    public void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        this.owningtable.freeze();
+        this.checkDBIndexIfPending();
+        this.columns = new ArrayList<>(this.columns);
+        this.columnorders = new ArrayList<>(this.columnorders);
+        this.frozen = true;
     }
 
+    /**************************************************************************
+     * Gets whether or not the DBIndex has been frozen.
+     * @return  true if frozen, else false.
+     */
+    public boolean isFrozen() { return this.frozen; }
+
     /**************************************************************************
      * Gets the SQL to build the actual index, but only if the index doesn't
      * already exist in the actual database.
@@ -240,28 +308,40 @@ public class DBIndex {
      * @return      The SQL string, empty if the actual index exists.
      */
     public String getIndexBuildSQL(SQLiteDatabase db) {
-        // Check to see if the index exists (i.e. check the master table)
-        // If it does exist then skip create build SQL for the index
-        String wherestr = SQLITEMASTERCOLUMN_NAME +
-                "=?" +
-                SQLAND +
-                SQLITEMASTERCOLUMN_TYPE +
-                "=?";
-        String[] whereargs = {this.getIndexName(), "index"};
-        Cursor mstcsr = db.query(SQLITEMASTERTABLE,
-                null,
-                wherestr,
-                whereargs,
-                null,null,null);
-
-        int indexcount = mstcsr.getCount();
-        mstcsr.close();
-        if (indexcount > 0) {
+        return this.getIndexBuildSQL(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Gets the SQL to build the actual index, but only if the index doesn't
+     * exist according to the DBSchemaSnapshot.
+     *
+     * @param snapshot  The DBSchemaSnapshot of the actual database.
+     * @return          The SQL string, empty if the actual index exists.
+     */
+    public String getIndexBuildSQL(DBSchemaSnapshot snapshot) {
+        this.checkDBIndexIfPending();
+        // If the index exists then skip create build SQL for the index
+        if (snapshot.isIndexInSnapshot(this.index_name)) {
             return "";
         }
         return this.indexcreateSQL;
     }
 
+    /**************************************************************************
+     * Gets the SQL, as a string, that is used to create the actual index in
+     * an attached database.
+     * @param schema_name   The name of the attached database (schema).
+     * @return  SQL string containing SQL to create the index, an empty
+     *          string if the DBIndex is unusable.
+     */
+    public String generateCreateIndexSQL(String schema_name) {
+        this.checkDBIndexIfPending();
+        if (!this.usable) {
+            return "";
+        }
+        return generateCreateSQL(schema_name + ".");
+    }
+
     /**************************************************************************
      * Generates a String ArrayList of SQL statements that will align the
      * actual database index according to this DBIndex.
@@ -269,24 +349,23 @@ public class DBIndex {
      * Building the Database).</P>
      * <p>If an index is different then it will be added, but after the actual
      * index is deleted (dropped).</p>
-     * <p>Comparison is weak in that the SQL stored in the master table
-     * is compared against the DBIndex's SQL as opposed to actually
-     * checking the columns fron a PRAGMA index_list.</p>
+     * <p>Comparison is of the index's structure, as per PRAGMA index_list
+     * and PRAGMA index_xinfo, rather than of the SQL stored in the master
+     * table; so differences in case, quoting or spacing do not result in
+     * the index being rebuilt.</p>
      *
      * <p><b>Stages</b></p>
      * <p>Gets the real database index (named as per this DBIndex), if one,
      * from the master table.</p>
      * <p>If there isn't one then return the index create SQL (i.e.
      * member indexcreateSQL) so that the real index will be created.</p>
-     * <p>If no</p>
      * <p>If there is a real index that matches the name of the DBIndex then
-     * extract the SQL from the master table entry.</p>
-     * <p>Tailor the DBIndex's SQL by removing IF NOT EXISTS and whitespaces.
-     * Tailor the real index's SQL by removing whitespaces. Then compare the
-     * two.</p>
-     * <p>If the two tailored SQL statements match then return the empty
-     * ArrayList. Otherwise, add an SQL statement to DROP the real database
-     * followed by the DBINdex's SQL to create the real index.</p>
+     * obtain the index's table, uniqueness, partial flag, columns and
+     * column sort orders and compare them against the DBIndex
+     * (see <code>isMatchedByActualIndex</code>).</p>
+     * <p>If they match then return the empty ArrayList. Otherwise, add an
+     * SQL statement to DROP the real index followed by the DBIndex's SQL
+     * to create the real index.</p>
      *
      * @param db    The SQLite database, aka the real database, which is
      *              accessed to determine the actual current indexes for
@@ -298,66 +377,97 @@ public class DBIndex {
      *              the alterations to be made.
      */
     public ArrayList<String> generateAlterSQL(SQLiteDatabase db) {
+        return this.generateAlterSQL(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Generates a String ArrayList of SQL statements that will align the
+     * actual database index according to this DBIndex, the actual index
+     * being obtained from the DBSchemaSnapshot.
+     *
+     * @param snapshot  The DBSchemaSnapshot of the actual database.
+     * @return          A String ArrayList of 0 or more SQL statements; i.e
+     *                  the alterations to be made.
+     * @see #generateAlterSQL(SQLiteDatabase)
+     */
+    public ArrayList<String> generateAlterSQL(DBSchemaSnapshot snapshot) {
 
         ArrayList<String> rv = new ArrayList<>();
+        this.checkDBIndexIfPending();
 
-        // Get the index's record from the sqlite master table to obtain the
-        // actual index's CREATE SQL as recorded by sqlite
-        String columns[] = {SQLITEMASTERCOLUMN_NAME,
-                SQLITEMASTERCOLUMN_SQL};
-        String where = SQLITEMASTERCOLUMN_TYPE +
-                "=?" +
-                SQLAND +
-                SQLITEMASTERCOLUMN_NAME
-                + "=?";
-        String[] whereargs = {SQLITEMASTERTYPE_INDEX, this.index_name};
-        Cursor mstcsr = db.query(SQLITEMASTERTABLE,
-                columns,
-                where,
-                whereargs,
-                null,null,null
-        );
-        // If the index entry doesn't exist then the index needs to be created
-        if (mstcsr.getCount() < 1) {
-            mstcsr.close();
+        // Get the actual index's structure
+        DBSchemaSnapshot.ActualIndex actualindex =
+                snapshot.getIndexStructure(this.index_name);
+        // If the index doesn't exist then the index needs to be created
+        if (actualindex == null) {
             return new ArrayList<>(Collections.singletonList(this.indexcreateSQL));
         }
-        mstcsr.moveToFirst();
-        String actualcreatesql = mstcsr.getString(
-                mstcsr.getColumnIndex(
-                        SQLITEMASTERCOLUMN_SQL
-                )
-        );
-        mstcsr.close();
 
-        // Does the actual SQL match this instances SQL, if so,
+        // Does the actual index match this instance, if so,
         // then actual does not need altering
-        // Note before the comparison
-        //      IF NOT EXISTS is removed from the instances CREATE INDEX SQL
-        //      White Spaces are removed from both the instances and the
-        //      actual CREATE INDEX SQL
-        String icomparesql = this.indexcreateSQL;
-        icomparesql = icomparesql.replace(SQLIFNOTEXISTS,"");
-        icomparesql = icomparesql.replaceAll("\\p{Z}","");
-        String acomparesql = actualcreatesql.replaceAll("\\p{Z}","");
-        if (acomparesql.equals(icomparesql)) {
+        if (this.isMatchedByActualIndex(actualindex)) {
             return rv;
         }
-        // As the index exists and there doesn't appear to be a match between
-        // the actual and instances versions of the Index a DROP INDEX, followed by
+        // As the index exists and there isn't a match between the actual
+        // and instances versions of the Index a DROP INDEX, followed by
         // a CREATE INDEX, as per the psuedo schema, is a returned.
         rv.add(SQLDROP + SQLINDEX + SQLIFEXISTS + this.index_name);
         rv.add(this.indexcreateSQL);
         return rv;
     }
 
+    /**************************************************************************
+     * Compares the structure of an actual index against this DBIndex.
+     *
+     * <p>
+     *     The table, the uniqueness, the columns and their sort orders must
+     *     all match and the actual index must not be a partial index (as a
+     *     DBIndex cannot be partial). Names are compared case insensitively
+     *     and the way that the SQL was written (case, quoting and spacing)
+     *     is irrelevant.
+     * </p>
+     *
+     * @param actualindex   The actual index from a DBSchemaSnapshot.
+     * @return              true if the actual index matches, else false.
+     */
+    public boolean isMatchedByActualIndex(DBSchemaSnapshot.ActualIndex actualindex) {
+        if (!actualindex.getTableName().equalsIgnoreCase(
+                this.owningtable.getDBTableName())) {
+            return false;
+        }
+        if (actualindex.isUnique() != this.unique || actualindex.isPartial()) {
+            return false;
+        }
+        ArrayList<String> actualcolumns = actualindex.getColumnNames();
+        ArrayList<Boolean> actualdescending = actualindex.getColumnDescending();
+        if (actualcolumns.size() != this.columns.size()) {
+            return false;
+        }
+        for (int i = 0; i < this.columns.size(); i++) {
+            String actualcolumn = actualcolumns.get(i);
+            if (actualcolumn == null ||
+                    !actualcolumn.equalsIgnoreCase(
+                            this.columns.get(i).getDBColumnName())) {
+                return false;
+            }
+            // columnorders are true for ascending
+            if (actualdescending.get(i).booleanValue() ==
+                    this.columnorders.get(i).booleanValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**************************************************************************
      * Returns a boolean indicating whether or not the DBIndex is usable.
      * @return  The usability status of the DBIndex,
      *          true if usable, else false.
      */
-    public boolean isUsable() { return this.usable; }
+    public boolean isUsable() {
+        this.checkDBIndexIfPending();
+        return this.usable;
+    }
 
     /**************************************************************************
      * Gets the name to be used for the underlying index.
@@ -375,11 +485,36 @@ public class DBIndex {
      */
     public String getFullyQualifiedIndexName() { return this.full_index_name; }
 
+    /**************************************************************************
+     * Gets the DBTable that the index is for.
+     * @return  The owning DBTable.
+     */
+    public DBTable getOwningDBTable() { return this.owningtable; }
+
+    /**************************************************************************
+     * Gets the DBColumns of the index.
+     * @return  The DBColumn ArrayList, in index order.
+     */
+    public ArrayList<DBColumn> getIndexDBColumns() { return this.columns; }
+
+    /**************************************************************************
+     * Gets the sort orders of the index's columns.
+     * @return  A Boolean ArrayList, true for ascending, false for descending.
+     */
+    public ArrayList<Boolean> getIndexColumnOrders() { return this.columnorders; }
+
+    /**************************************************************************
+     * Gets whether or not the index is a UNIQUE index.
+     * @return  true if unique, else false.
+     */
+    public boolean isUniqueIndex() { return this.unique; }
+
     /**************************************************************************
      * Gets the SQL, as a string, that is used to create the actual index.
      * @return  SQL string containing SQL to create the index
      */
     public String generateCreateIndexSQL() {
+        this.checkDBIndexIfPending();
         return this.indexcreateSQL;
     }
 
@@ -390,7 +525,10 @@ public class DBIndex {
      *      i.e. if the DBIndex is marked as usable, there will be no issues
      * @return the issues as a string
      */
-    public String getDBIndexProblemMsg() { return this.problem_msg; }
+    public String getDBIndexProblemMsg() {
+        this.checkDBIndexIfPending();
+        return this.problem_msg;
+    }
 
     /**************************************************************************
      * Checks that the DBIndex is usable
@@ -436,7 +574,11 @@ public class DBIndex {
             ;
         }
         // Column Names must be at least 1 character and
-        // be a column in the provided table
+        // be a column in the provided table (the table's DBColumns being
+        // held in an identity based set so each column is a single lookup)
+        Set<DBColumn> tablecolumns =
+                Collections.newSetFromMap(new IdentityHashMap<DBColumn,Boolean>());
+        tablecolumns.addAll(this.owningtable.getTableDBColumns());
         for (int i = 0; i < this.columns.size(); i++) {
             if (this.columns.get(i).getDBColumnName().length() < 1) {
                 this.usable = false;
@@ -448,15 +590,7 @@ public class DBIndex {
                             "Must be at least 1 character in length. ";
             }
             // Check that the column is in the index's table
-            boolean columnintable = false;
-            for (int j = 0; j < this.owningtable.getTableDBColumns().size(); j++) {
-                if (this.owningtable.getTableDBColumns().get(j).equals(
-                        this.columns.get(i))) {
-                    columnintable = true;
-                    break;
-                }
-            }
-            if (!columnintable) {
+            if (!tablecolumns.contains(this.columns.get(i))) {
                 this.usable = false;
                 pmsg = pmsg + "\nEDBI0015 - Column is not in Table - " +
                         "Column " +
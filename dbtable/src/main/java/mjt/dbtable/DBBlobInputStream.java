@@ -0,0 +1,177 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBBlobInputStream reads a (large) BLOB or TEXT value of a row, a chunk
+ * at a time, using <code>substr()</code>; so the value is never held in
+ * memory, or in a CursorWindow, as a whole.
+ *
+ * <p>
+ *     The value is read as bytes; TEXT values as their UTF-8 encoding
+ *     (wrap the stream in an InputStreamReader for "UTF-8" to read the
+ *     characters). A NULL value is read as no bytes. The row is identified
+ *     by its rowid.
+ * </p>
+ * <p>
+ *     Note! The value should not be updated whilst it is being read.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBBlobInputStream extends InputStream {
+
+    /**
+     * The default chunk size, which is well within a CursorWindow (2MB).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private SQLiteDatabase db;
+    private String length_sql;
+    private String chunk_sql;
+    private String rowid;
+    private int chunk_size;
+    private long length;
+    private long position;
+    private byte[] chunk;
+    private int chunk_position;
+
+    /**************************************************************************
+     * Constructs a DBBlobInputStream with the default chunk size.
+     *
+     * @param db            The SQLite database.
+     * @param table_name    The name of the table.
+     * @param column_name   The name of the column.
+     * @param rowid         The rowid of the row.
+     */
+    public DBBlobInputStream(SQLiteDatabase db,
+                             String table_name,
+                             String column_name,
+                             long rowid) {
+        this(db, table_name, column_name, rowid, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**************************************************************************
+     * Constructs a DBBlobInputStream.
+     *
+     * @param db            The SQLite database.
+     * @param table_name    The name of the table.
+     * @param column_name   The name of the column.
+     * @param rowid         The rowid of the row.
+     * @param chunk_size    The number of bytes read at a time (minimum 1024).
+     */
+    public DBBlobInputStream(SQLiteDatabase db,
+                             String table_name,
+                             String column_name,
+                             long rowid,
+                             int chunk_size) {
+        this.db = db;
+        String value = "CAST(" + column_name + SQLAS + SQLBLOB + ")";
+        String where = SQLFROM + table_name +
+                SQLWHERE + SQLITEMASTERCOLUMN_ROWID + " = ?";
+        this.length_sql = SQLSELECT + "length(" + value + ")" + where;
+        this.chunk_sql = SQLSELECT + "substr(" + value + ", ?, ?)" + where;
+        this.rowid = Long.toString(rowid);
+        this.chunk_size = Math.max(1024, chunk_size);
+        this.length = -1;
+        this.position = 0;
+        this.chunk = new byte[0];
+        this.chunk_position = 0;
+    }
+
+    /**************************************************************************
+     * Gets the length, in bytes, of the value.
+     *
+     * @return The length, 0 if the value is NULL.
+     * @throws IOException if the row does not exist.
+     */
+    public long length() throws IOException {
+        if (this.length < 0) {
+            Cursor csr = this.db.rawQuery(this.length_sql, new String[]{this.rowid});
+            try {
+                if (!csr.moveToFirst()) {
+                    throw new IOException("Row " + this.rowid + " not found");
+                }
+                this.length = csr.isNull(0) ? 0 : csr.getLong(0);
+            } finally {
+                csr.close();
+            }
+        }
+        return this.length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.chunk_position == this.chunk.length && !this.readChunk()) {
+            return -1;
+        }
+        return this.chunk[this.chunk_position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.chunk_position == this.chunk.length && !this.readChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, this.chunk.length - this.chunk_position);
+        System.arraycopy(this.chunk, this.chunk_position, b, off, n);
+        this.chunk_position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long inchunk = Math.min(n, this.chunk.length - this.chunk_position);
+        this.chunk_position += inchunk;
+        long beyond = Math.min(n - inchunk, this.length() - this.position);
+        this.position += beyond;
+        return inchunk + beyond;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.chunk.length - this.chunk_position;
+    }
+
+    /**************************************************************************
+     * Reads the next chunk.
+     *
+     * @return true if a chunk was read, false if the end has been reached.
+     */
+    private boolean readChunk() throws IOException {
+        if (this.position >= this.length()) {
+            return false;
+        }
+        Cursor csr = this.db.rawQuery(this.chunk_sql, new String[]{
+                Long.toString(this.position + 1),
+                Integer.toString(this.chunk_size),
+                this.rowid});
+        try {
+            if (!csr.moveToFirst()) {
+                throw new IOException("Row " + this.rowid + " not found");
+            }
+            byte[] bytes = csr.getBlob(0);
+            if (bytes == null || bytes.length == 0) {
+                throw new IOException("Value of row " + this.rowid +
+                        " changed whilst being read");
+            }
+            this.chunk = bytes;
+        } finally {
+            csr.close();
+        }
+        this.chunk_position = 0;
+        this.position += this.chunk.length;
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package mjt.dbtable;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBBlobOutputStream writes a (large) BLOB or TEXT value to a column of an
+ * existing row, a chunk at a time; the first chunk replaces the value and
+ * each subsequent chunk is appended (<code>CAST(column || ? AS ...)</code>),
+ * so the value is never held in memory as a whole.
+ *
+ * <p>
+ *     The value is written as bytes; for a TEXT value these must be the
+ *     UTF-8 encoding (chunks may split characters as the bytes are
+ *     concatenated unchanged). The value is complete when the stream is
+ *     closed; closing a stream to which nothing was written sets an empty
+ *     value. The row is identified by its rowid.
+ * </p>
+ * <p>
+ *     Note! Each append rewrites the value, so the chunk size should be
+ *     large. Write within a transaction if the value must not be seen part
+ *     written.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBBlobOutputStream extends OutputStream {
+
+    private SQLiteDatabase db;
+    private String set_sql;
+    private String append_sql;
+    private long rowid;
+    private byte[] chunk;
+    private int chunk_length;
+    private boolean started;
+    private boolean closed;
+
+    /**************************************************************************
+     * Constructs a DBBlobOutputStream, for a BLOB, with the default chunk
+     * size (as per DBBlobInputStream).
+     *
+     * @param db            The SQLite database.
+     * @param table_name    The name of the table.
+     * @param column_name   The name of the column.
+     * @param rowid         The rowid of the row.
+     */
+    public DBBlobOutputStream(SQLiteDatabase db,
+                              String table_name,
+                              String column_name,
+                              long rowid) {
+        this(db, table_name, column_name, rowid,
+                DBBlobInputStream.DEFAULT_CHUNK_SIZE, false);
+    }
+
+    /**************************************************************************
+     * Constructs a DBBlobOutputStream.
+     *
+     * @param db            The SQLite database.
+     * @param table_name    The name of the table.
+     * @param column_name   The name of the column.
+     * @param rowid         The rowid of the row.
+     * @param chunk_size    The number of bytes written at a time (minimum
+     *                      1024).
+     * @param as_text       true to store the value as TEXT, false to store
+     *                      it as a BLOB.
+     */
+    public DBBlobOutputStream(SQLiteDatabase db,
+                              String table_name,
+                              String column_name,
+                              long rowid,
+                              int chunk_size,
+                              boolean as_text) {
+        this.db = db;
+        String type = as_text ? SQLTEXT : SQLBLOB;
+        String where = SQLWHERE + SQLITEMASTERCOLUMN_ROWID + " = ?";
+        this.set_sql = "UPDATE " + table_name + " SET " + column_name +
+                " = CAST(?" + SQLAS + type + ")" + where;
+        this.append_sql = "UPDATE " + table_name + " SET " + column_name +
+                " = CAST(" + column_name + " || ?" + SQLAS + type + ")" + where;
+        this.rowid = rowid;
+        this.chunk = new byte[Math.max(1024, chunk_size)];
+        this.chunk_length = 0;
+        this.started = false;
+        this.closed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.checkNotClosed();
+        if (this.chunk_length == this.chunk.length) {
+            this.writeChunk();
+        }
+        this.chunk[this.chunk_length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.checkNotClosed();
+        while (len > 0) {
+            if (this.chunk_length == this.chunk.length) {
+                this.writeChunk();
+            }
+            int n = Math.min(len, this.chunk.length - this.chunk_length);
+            System.arraycopy(b, off, this.chunk, this.chunk_length, n);
+            this.chunk_length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**************************************************************************
+     * Writes what has been written so far to the database.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.chunk_length > 0) {
+            this.writeChunk();
+        }
+    }
+
+    /**************************************************************************
+     * Writes the remainder of the value to the database.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.chunk_length > 0 || !this.started) {
+            this.writeChunk();
+        }
+    }
+
+    /**************************************************************************
+     * Writes the buffered bytes, replacing the value for the first chunk,
+     * else appending to the value.
+     */
+    private void writeChunk() throws IOException {
+        byte[] bytes = new byte[this.chunk_length];
+        System.arraycopy(this.chunk, 0, bytes, 0, this.chunk_length);
+        SQLiteStatement stmt = this.db.compileStatement(
+                this.started ? this.append_sql : this.set_sql);
+        try {
+            stmt.bindBlob(1, bytes);
+            stmt.bindLong(2, this.rowid);
+            if (stmt.executeUpdateDelete() < 1) {
+                throw new IOException("Row " + Long.toString(this.rowid) + " not found");
+            }
+        } finally {
+            stmt.close();
+        }
+        this.started = true;
+        this.chunk_length = 0;
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (this.closed) {
+            throw new IOException("DBBlobOutputStream closed");
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package mjt.dbtable;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+
+import mjt.dbcolumn.DBColumn;
+
+/**
+ * DBColumnarResult holds the rows of a Cursor column by column, in
+ * primitive arrays; integers as a long[], reals as a double[], strings as
+ * an int[] of codes into a dictionary of the distinct strings and blobs as
+ * a byte[][], with a bitmap of the NULLs of each column.
+ *
+ * <p>
+ *     The Cursor is drained in one pass. Integers and reals are read
+ *     without allocating objects and strings are copied into a reused
+ *     buffer (<code>copyStringToBuffer</code>) and looked up in the
+ *     dictionary, so a String is only created for each distinct value. The
+ *     arrays are sized from the Cursor's count, so they are allocated once.
+ *     A table scan of many rows therefore doesn't allocate per row or per
+ *     cell as <code>getString</code> on every cell does.
+ * </p>
+ * <p>
+ *     The type of each column is that of the DBColumn (by affinity, see
+ *     <code>getTypeForDBColumn</code>) of the same name if a DBTable is
+ *     given, else the actual type of the column's first non NULL value.
+ *     Values are converted to the column's type as per the Cursor getters
+ *     (e.g. text in a TYPE_LONG column is read by <code>getLong</code>).
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBColumnarResult {
+
+    public static final int TYPE_LONG = 0;
+    public static final int TYPE_DOUBLE = 1;
+    public static final int TYPE_STRING = 2;
+    public static final int TYPE_BLOB = 3;
+    private static final int STRING_BUFFER_SIZE = 128;
+    /* A column whose type is taken from its first non NULL value */
+    private static final int TYPE_UNRESOLVED = -1;
+
+    private String[] column_names;
+    private int[] types;
+    private int row_count;
+    private long[][] longs;
+    private double[][] doubles;
+    private int[][] codes;
+    private String[][] dictionaries;
+    private byte[][][] blobs;
+    private long[][] nulls;
+    private long estimated_size;
+
+    private DBColumnarResult(String[] column_names, int[] types, int row_count) {
+        int columncount = column_names.length;
+        this.column_names = column_names;
+        this.types = types;
+        this.row_count = 0;
+        this.longs = new long[columncount][];
+        this.doubles = new double[columncount][];
+        this.codes = new int[columncount][];
+        this.dictionaries = new String[columncount][];
+        this.blobs = new byte[columncount][][];
+        this.nulls = new long[columncount][];
+        for (int i = 0; i < columncount; i++) {
+            switch (types[i]) {
+                case TYPE_LONG:
+                    this.longs[i] = new long[row_count];
+                    break;
+                case TYPE_DOUBLE:
+                    this.doubles[i] = new double[row_count];
+                    break;
+                case TYPE_STRING:
+                    this.codes[i] = new int[row_count];
+                    break;
+                default:
+                    this.blobs[i] = new byte[row_count][];
+            }
+            this.nulls[i] = new long[(row_count + 63) >>> 6];
+        }
+    }
+
+    /**************************************************************************
+     * Reads all the rows of a Cursor, from the first, the column types being
+     * those of the DBTable's DBColumns. The Cursor is not closed.
+     *
+     * @param csr       The Cursor.
+     * @param dbtable   The DBTable, null to use the actual types.
+     * @return The DBColumnarResult.
+     */
+    public static DBColumnarResult read(Cursor csr, DBTable dbtable) {
+        int columncount = csr.getColumnCount();
+        int[] types = new int[columncount];
+        int unresolved = 0;
+        for (int i = 0; i < columncount; i++) {
+            DBColumn dc = dbtable != null ? dbtable.getDBColumnByName(csr.getColumnName(i)) : null;
+            types[i] = dc != null ? getTypeForDBColumn(dc) : TYPE_UNRESOLVED;
+            if (types[i] == TYPE_UNRESOLVED) {
+                unresolved++;
+            }
+        }
+        if (unresolved > 0) {
+            resolveFirstValueTypes(csr, types, unresolved);
+        }
+        return read(csr, types);
+    }
+
+    /**************************************************************************
+     * Reads all the rows of a Cursor, from the first, with the given column
+     * types. The Cursor is not closed.
+     *
+     * @param csr   The Cursor.
+     * @param types The type of each column (TYPE_LONG, TYPE_DOUBLE,
+     *              TYPE_STRING or TYPE_BLOB).
+     * @return The DBColumnarResult.
+     */
+    public static DBColumnarResult read(Cursor csr, int[] types) {
+        int columncount = csr.getColumnCount();
+        int count = csr.getCount();
+        DBColumnarResult result = new DBColumnarResult(csr.getColumnNames(), types, count);
+        StringDictionary[] dictionaries = new StringDictionary[columncount];
+        CharArrayBuffer buffer = new CharArrayBuffer(STRING_BUFFER_SIZE);
+        for (int i = 0; i < columncount; i++) {
+            if (types[i] == TYPE_STRING) {
+                dictionaries[i] = new StringDictionary();
+            }
+        }
+        int row = 0;
+        csr.moveToPosition(-1);
+        while (row < count && csr.moveToNext()) {
+            for (int i = 0; i < columncount; i++) {
+                if (csr.isNull(i)) {
+                    result.nulls[i][row >>> 6] |= 1L << (row & 63);
+                    continue;
+                }
+                switch (types[i]) {
+                    case TYPE_LONG:
+                        result.longs[i][row] = csr.getLong(i);
+                        break;
+                    case TYPE_DOUBLE:
+                        result.doubles[i][row] = csr.getDouble(i);
+                        break;
+                    case TYPE_STRING:
+                        csr.copyStringToBuffer(i, buffer);
+                        result.codes[i][row] =
+                                dictionaries[i].getCode(buffer.data, buffer.sizeCopied);
+                        break;
+                    default:
+                        result.blobs[i][row] = csr.getBlob(i);
+                }
+            }
+            row++;
+        }
+        result.row_count = row;
+        for (int i = 0; i < columncount; i++) {
+            if (dictionaries[i] != null) {
+                result.dictionaries[i] = dictionaries[i].toArray();
+            }
+        }
+        result.estimated_size = result.estimateSize();
+        return result;
+    }
+
+    /**************************************************************************
+     * Gets the type for a DBColumn, according to SQLite's rules for the
+     * affinity of a column type; INTEGER affinity is TYPE_LONG, TEXT
+     * affinity is TYPE_STRING, BLOB (or no type) is TYPE_BLOB and REAL
+     * affinity is TYPE_DOUBLE. NUMERIC affinity (e.g. NUMERIC, DECIMAL,
+     * BOOLEAN, DATE) is TYPE_STRING; such a column can hold both integers
+     * and reals, and integers beyond 2^53 or decimals would be changed by
+     * TYPE_DOUBLE (or reals truncated by TYPE_LONG), whereas as strings
+     * they are not.
+     *
+     * @param dc    The DBColumn.
+     * @return The type.
+     */
+    public static int getTypeForDBColumn(DBColumn dc) {
+        String type = dc.getDBColumnType() == null ? "" :
+                dc.getDBColumnType().toUpperCase();
+        if (type.contains("INT")) {
+            return TYPE_LONG;
+        }
+        if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+            return TYPE_STRING;
+        }
+        if (type.contains("BLOB") || type.trim().length() < 1) {
+            return TYPE_BLOB;
+        }
+        if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_STRING;
+    }
+
+    /**************************************************************************
+     * Gets the number of rows.
+     *
+     * @return The number of rows.
+     */
+    public int getRowCount() { return this.row_count; }
+
+    /**************************************************************************
+     * Gets the number of columns.
+     *
+     * @return The number of columns.
+     */
+    public int getColumnCount() { return this.column_names.length; }
+
+    /**************************************************************************
+     * Gets the name of a column.
+     *
+     * @param column    The index of the column.
+     * @return The name of the column.
+     */
+    public String getColumnName(int column) { return this.column_names[column]; }
+
+    /**************************************************************************
+     * Gets the index of a column by its name (ignoring case).
+     *
+     * @param column_name   The name of the column.
+     * @return The index of the column, -1 if there is no such column.
+     */
+    public int getColumnIndex(String column_name) {
+        for (int i = 0; i < this.column_names.length; i++) {
+            if (this.column_names[i].equalsIgnoreCase(column_name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**************************************************************************
+     * Gets the type of a column.
+     *
+     * @param column    The index of the column.
+     * @return TYPE_LONG, TYPE_DOUBLE, TYPE_STRING or TYPE_BLOB.
+     */
+    public int getColumnType(int column) { return this.types[column]; }
+
+    /**************************************************************************
+     * Gets whether or not a value is NULL.
+     *
+     * @param column    The index of the column.
+     * @param row       The index of the row.
+     * @return true if NULL, else false.
+     */
+    public boolean isNull(int column, int row) {
+        return (this.nulls[column][row >>> 6] & (1L << (row & 63))) != 0;
+    }
+
+    /**************************************************************************
+     * Gets the NULL bitmap of a column; bit (row % 64) of element (row / 64)
+     * is set if the row's value is NULL.
+     *
+     * @param column    The index of the column.
+     * @return The bitmap (not a copy).
+     */
+    public long[] getNulls(int column) { return this.nulls[column]; }
+
+    /**************************************************************************
+     * Gets the values of a TYPE_LONG column (0 where NULL).
+     *
+     * @param column    The index of the column.
+     * @return The values (not a copy).
+     * @throws IllegalStateException if the column isn't TYPE_LONG.
+     */
+    public long[] getLongs(int column) {
+        this.checkType(column, TYPE_LONG);
+        return this.longs[column];
+    }
+
+    /**************************************************************************
+     * Gets the values of a TYPE_DOUBLE column (0 where NULL).
+     *
+     * @param column    The index of the column.
+     * @return The values (not a copy).
+     * @throws IllegalStateException if the column isn't TYPE_DOUBLE.
+     */
+    public double[] getDoubles(int column) {
+        this.checkType(column, TYPE_DOUBLE);
+        return this.doubles[column];
+    }
+
+    /**************************************************************************
+     * Gets the dictionary codes of a TYPE_STRING column (0 where NULL); the
+     * index of each value in <code>getStringDictionary</code>.
+     *
+     * @param column    The index of the column.
+     * @return The codes (not a copy).
+     * @throws IllegalStateException if the column isn't TYPE_STRING.
+     */
+    public int[] getStringCodes(int column) {
+        this.checkType(column, TYPE_STRING);
+        return this.codes[column];
+    }
+
+    /**************************************************************************
+     * Gets the distinct values of a TYPE_STRING column, in the order first
+     * read.
+     *
+     * @param column    The index of the column.
+     * @return The values (not a copy).
+     * @throws IllegalStateException if the column isn't TYPE_STRING.
+     */
+    public String[] getStringDictionary(int column) {
+        this.checkType(column, TYPE_STRING);
+        return this.dictionaries[column];
+    }
+
+    /**************************************************************************
+     * Gets a value of a TYPE_LONG column.
+     *
+     * @param column    The index of the column.
+     * @param row       The index of the row.
+     * @return The value, 0 if NULL.
+     */
+    public long getLong(int column, int row) { return this.getLongs(column)[row]; }
+
+    /**************************************************************************
+     * Gets a value of a TYPE_DOUBLE column.
+     *
+     * @param column    The index of the column.
+     * @param row       The index of the row.
+     * @return The value, 0 if NULL.
+     */
+    public double getDouble(int column, int row) { return this.getDoubles(column)[row]; }
+
+    /**************************************************************************
+     * Gets a value of a TYPE_STRING column.
+     *
+     * @param column    The index of the column.
+     * @param row       The index of the row.
+     * @return The value, null if NULL.
+     */
+    public String getString(int column, int row) {
+        int[] columncodes = this.getStringCodes(column);
+        return this.isNull(column, row) ? null :
+                this.dictionaries[column][columncodes[row]];
+    }
+
+    /**************************************************************************
+     * Gets a value of a TYPE_BLOB column.
+     *
+     * @param column    The index of the column.
+     * @param row       The index of the row.
+     * @return The value, null if NULL.
+     */
+    public byte[] getBlob(int column, int row) {
+        this.checkType(column, TYPE_BLOB);
+        return this.blobs[column][row];
+    }
+
+    /**************************************************************************
+     * Gets the estimated memory used by the values, in bytes (arrays, the
+     * dictionaries' Strings and the blobs).
+     *
+     * @return The estimated size in bytes.
+     */
+    public long getEstimatedSize() { return this.estimated_size; }
+
+    /**************************************************************************
+     * Estimates the memory used, allowing 16 bytes per array and 40 bytes
+     * plus 2 bytes per character per String.
+     */
+    private long estimateSize() {
+        long size = 0;
+        for (int i = 0; i < this.column_names.length; i++) {
+            size += 16 + this.nulls[i].length * 8L;
+            switch (this.types[i]) {
+                case TYPE_LONG:
+                    size += 16 + this.longs[i].length * 8L;
+                    break;
+                case TYPE_DOUBLE:
+                    size += 16 + this.doubles[i].length * 8L;
+                    break;
+                case TYPE_STRING:
+                    size += 16 + this.codes[i].length * 4L;
+                    for (String value : this.dictionaries[i]) {
+                        size += 40 + value.length() * 2L;
+                    }
+                    break;
+                default:
+                    size += 16 + this.blobs[i].length * 4L;
+                    for (byte[] blob : this.blobs[i]) {
+                        if (blob != null) {
+                            size += 16 + blob.length;
+                        }
+                    }
+            }
+        }
+        return size;
+    }
+
+    private void checkType(int column, int type) {
+        if (this.types[column] != type) {
+            throw new IllegalStateException("Column " + this.column_names[column] +
+                    " is type " + Integer.toString(this.types[column]) +
+                    " not " + Integer.toString(type));
+        }
+    }
+
+    /**************************************************************************
+     * Sets the types of the unresolved columns from the actual types of
+     * their first non NULL values, TYPE_STRING if all are NULL. The rows
+     * are scanned once, for all the columns, stopping as soon as every
+     * column is resolved (so a Cursor larger than a CursorWindow isn't
+     * refilled per column).
+     *
+     * @param csr           The Cursor.
+     * @param types         The types, TYPE_UNRESOLVED for those to set.
+     * @param unresolved    The number of unresolved columns.
+     */
+    private static void resolveFirstValueTypes(Cursor csr, int[] types, int unresolved) {
+        csr.moveToPosition(-1);
+        while (unresolved > 0 && csr.moveToNext()) {
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] != TYPE_UNRESOLVED) {
+                    continue;
+                }
+                switch (csr.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        types[i] = TYPE_LONG;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        types[i] = TYPE_DOUBLE;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        types[i] = TYPE_BLOB;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        types[i] = TYPE_STRING;
+                        break;
+                    default:
+                        // NULL, so try the next row
+                        continue;
+                }
+                unresolved--;
+            }
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == TYPE_UNRESOLVED) {
+                types[i] = TYPE_STRING;
+            }
+        }
+    }
+
+    /**
+     * A dictionary of distinct strings, looked up by the characters (open
+     * addressing) so that a String is only created for a new value.
+     */
+    private static class StringDictionary {
+        private ArrayList<String> values = new ArrayList<>();
+        private int[] slots = newSlots(64);
+
+        private static int[] newSlots(int size) {
+            int[] slots = new int[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = -1;
+            }
+            return slots;
+        }
+
+        /**
+         * Gets the code of the value, adding it if it is new.
+         */
+        int getCode(char[] chars, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = this.slots.length - 1;
+            int slot = spread(hash) & mask;
+            while (this.slots[slot] >= 0) {
+                String value = this.values.get(this.slots[slot]);
+                if (matches(value, chars, length)) {
+                    return this.slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int code = this.values.size();
+            this.values.add(new String(chars, 0, length));
+            this.slots[slot] = code;
+            if (this.values.size() * 2 > this.slots.length) {
+                this.rehash();
+            }
+            return code;
+        }
+
+        String[] toArray() {
+            return this.values.toArray(new String[this.values.size()]);
+        }
+
+        private void rehash() {
+            this.slots = newSlots(this.slots.length * 2);
+            int mask = this.slots.length - 1;
+            for (int code = 0; code < this.values.size(); code++) {
+                // String's hash is the same as that calculated above
+                int slot = spread(this.values.get(code).hashCode()) & mask;
+                while (this.slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.slots[slot] = code;
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean matches(String value, char[] chars, int length) {
+            if (value.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import mjt.dbcolumn.DBColumn;
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBReadCache is a read-through cache of the results (as DBColumnarResults)
+ * of reads of tables defined by DBTables; all the rows of a table, a row by
+ * its key, or a query. A read that is cached doesn't run its query, but
+ * does (see below) check the database's versions, two PRAGMA queries.
+ *
+ * <p>
+ *     The cache is bounded by the estimated memory used by the results
+ *     (see <code>DBColumnarResult.getEstimatedSize</code>), the least
+ *     recently used (POLICY_LRU, the default) or least frequently used
+ *     (POLICY_LFU) result being evicted when the bound is exceeded.
+ * </p>
+ * <p>
+ *     A table's results are invalidated when it is written through a
+ *     DBTableDAO to which the cache has been given (see
+ *     <code>DBTableDAO.setReadCache</code>), or by <code>invalidate</code>.
+ *     All results are invalidated if the database's
+ *     <code>schema_version</code> or <code>data_version</code> changes;
+ *     i.e. the schema is changed or changes are committed by another
+ *     connection. The versions are checked before each read or, if a
+ *     version check interval is set (<code>setVersionCheckInterval</code>),
+ *     before a read only when the interval has passed since they were last
+ *     checked, so that a cached read then doesn't go to SQLite at all; in
+ *     which case such changes may not be seen for up to the interval.
+ * </p>
+ * <p>
+ *     Note! <code>data_version</code> is per connection, so writes by
+ *     other connections are only detected reliably if the SQLiteDatabase
+ *     has a single connection (write-ahead logging not enabled); writes on
+ *     the same connection other than via a DBTableDAO are never detected.
+ *     The results are shared and must not be changed.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBReadCache {
+
+    public static final int POLICY_LRU = 0;
+    public static final int POLICY_LFU = 1;
+    public static final long DEFAULT_MAX_MEMORY = 4L * 1024 * 1024;
+    private static final String KEY_ALL = "A";
+    private static final String KEY_BY_KEY = "K";
+    private static final String KEY_QUERY = "Q";
+
+    private SQLiteDatabase db;
+    private long max_memory;
+    private int policy;
+    /* Access ordered, so iterated from the least recently used */
+    private LinkedHashMap<String,Entry> entries;
+    private HashMap<String,HashSet<String>> keys_by_table;
+    private long memory;
+    /* Incremented by each invalidation, so that stale loads aren't cached */
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private SQLiteStatement schema_version_stmt;
+    private SQLiteStatement data_version_stmt;
+    private long schema_version;
+    private long data_version;
+    private long version_check_interval;
+    private long last_version_check;
+
+    /**
+     * A cached result.
+     */
+    private static class Entry {
+        String table_name;
+        DBColumnarResult result;
+        long uses;
+    }
+
+    /**************************************************************************
+     * Constructs a DBReadCache, LRU, of the default size (4MB).
+     *
+     * @param db    The SQLite database.
+     */
+    public DBReadCache(SQLiteDatabase db) {
+        this(db, DEFAULT_MAX_MEMORY, POLICY_LRU);
+    }
+
+    /**************************************************************************
+     * Constructs a DBReadCache.
+     *
+     * @param db            The SQLite database.
+     * @param max_memory    The maximum estimated memory, in bytes, used by
+     *                      the cached results.
+     * @param policy        POLICY_LRU or POLICY_LFU.
+     */
+    public DBReadCache(SQLiteDatabase db, long max_memory, int policy) {
+        this.db = db;
+        this.max_memory = Math.max(0, max_memory);
+        this.policy = policy == POLICY_LFU ? POLICY_LFU : POLICY_LRU;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.keys_by_table = new HashMap<>();
+        this.memory = 0;
+        this.generation = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+        this.invalidations = 0;
+        this.schema_version = -1;
+        this.data_version = -1;
+        this.version_check_interval = 0;
+    }
+
+    /**************************************************************************
+     * Sets the minimum interval between checks of the database's
+     * <code>schema_version</code> and <code>data_version</code>; a
+     * schema change or a commit by another connection may not be seen (the
+     * cached results not invalidated) until the interval has passed.
+     *
+     * @param millis    The interval in milliseconds, 0 (the default) to
+     *                  check before every read.
+     */
+    public synchronized void setVersionCheckInterval(long millis) {
+        this.version_check_interval = Math.max(0, millis);
+    }
+
+    /**************************************************************************
+     * Gets the minimum interval between checks of the database's versions.
+     *
+     * @return The interval in milliseconds, 0 if checked before every read.
+     */
+    public synchronized long getVersionCheckInterval() {
+        return this.version_check_interval;
+    }
+
+    /**************************************************************************
+     * Gets all the rows of a table, the DBTable's DBColumns in DBColumn
+     * order.
+     *
+     * @param dbtable   The DBTable.
+     * @return The rows.
+     */
+    public DBColumnarResult getAllRows(DBTable dbtable) {
+        return this.get(dbtable, KEY_ALL, SQLSELECT + getColumnList(dbtable) +
+                SQLFROM + dbtable.getDBTableName(), new Object[0]);
+    }
+
+    /**************************************************************************
+     * Gets a row by its key, the DBTable's DBColumns in DBColumn order.
+     *
+     * @param dbtable   The DBTable.
+     * @param key       The key values, the PRIMARY KEY DBColumns in DBColumn
+     *                  order (the rowid if the DBTable has no PRIMARY KEY).
+     * @return The row, no rows if there is no such row.
+     */
+    public DBColumnarResult getByKey(DBTable dbtable, Object... key) {
+        StringBuilder where = new StringBuilder(SQLWHERE);
+        ArrayList<DBColumn> keycolumns = dbtable.getPrimaryKeyDBColumns();
+        if (keycolumns.isEmpty()) {
+            where.append(SQLITEMASTERCOLUMN_ROWID).append(" = ?");
+        }
+        for (int k = 0; k < keycolumns.size(); k++) {
+            if (k > 0) {
+                where.append(SQLAND);
+            }
+            where.append(keycolumns.get(k).getDBColumnName()).append(" = ?");
+        }
+        return this.get(dbtable, KEY_BY_KEY, SQLSELECT + getColumnList(dbtable) +
+                SQLFROM + dbtable.getDBTableName() + where, key);
+    }
+
+    /**************************************************************************
+     * Gets the result of a query, cached against the DBTable (so it is
+     * invalidated when the table is written); the query should only read
+     * the DBTable's table.
+     *
+     * @param dbtable   The DBTable.
+     * @param sql       The SQL of the query.
+     * @param args      The values to bind.
+     * @return The result.
+     */
+    public DBColumnarResult query(DBTable dbtable, String sql, Object... args) {
+        return this.get(dbtable, KEY_QUERY, sql, args == null ? new Object[0] : args);
+    }
+
+    /**************************************************************************
+     * Invalidates the cached results of a table.
+     *
+     * @param table_name    The name of the table.
+     */
+    public synchronized void invalidate(String table_name) {
+        this.generation++;
+        this.invalidations++;
+        HashSet<String> keys = this.keys_by_table.remove(table_name.toLowerCase());
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Entry entry = this.entries.remove(key);
+            if (entry != null) {
+                this.memory -= entry.result.getEstimatedSize();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Invalidates all cached results.
+     */
+    public synchronized void invalidateAll() {
+        this.generation++;
+        this.invalidations++;
+        this.entries.clear();
+        this.keys_by_table.clear();
+        this.memory = 0;
+    }
+
+    /**************************************************************************
+     * Gets the number of reads that were cached.
+     *
+     * @return The number of hits.
+     */
+    public synchronized long getHits() { return this.hits; }
+
+    /**************************************************************************
+     * Gets the number of reads that went to SQLite.
+     *
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() { return this.misses; }
+
+    /**************************************************************************
+     * Gets the proportion of reads that were cached.
+     *
+     * @return The hit ratio, 0 if there have been no reads.
+     */
+    public synchronized double getHitRatio() {
+        long reads = this.hits + this.misses;
+        return reads == 0 ? 0 : (double) this.hits / reads;
+    }
+
+    /**************************************************************************
+     * Gets the number of results evicted to keep within the maximum memory.
+     *
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() { return this.evictions; }
+
+    /**************************************************************************
+     * Gets the number of invalidations (of a table or all).
+     *
+     * @return The number of invalidations.
+     */
+    public synchronized long getInvalidations() { return this.invalidations; }
+
+    /**************************************************************************
+     * Gets the estimated memory used by the cached results.
+     *
+     * @return The estimated memory in bytes.
+     */
+    public synchronized long getMemoryUsage() { return this.memory; }
+
+    /**************************************************************************
+     * Gets the maximum estimated memory used by the cached results.
+     *
+     * @return The maximum memory in bytes.
+     */
+    public synchronized long getMaxMemory() { return this.max_memory; }
+
+    /**************************************************************************
+     * Gets the number of cached results.
+     *
+     * @return The number of results.
+     */
+    public synchronized int size() { return this.entries.size(); }
+
+    /**************************************************************************
+     * Releases the statements used to check the versions and invalidates
+     * all cached results.
+     */
+    public synchronized void close() {
+        this.invalidateAll();
+        if (this.schema_version_stmt != null) {
+            this.schema_version_stmt.close();
+            this.schema_version_stmt = null;
+        }
+        if (this.data_version_stmt != null) {
+            this.data_version_stmt.close();
+            this.data_version_stmt = null;
+        }
+        this.schema_version = -1;
+        this.data_version = -1;
+    }
+
+    /**************************************************************************
+     * Gets a result from the cache or, if not cached, by running the query
+     * (without holding the lock) and caching the result.
+     *
+     * @param dbtable   The DBTable read.
+     * @param type      The type of read (KEY_ALL, KEY_BY_KEY or KEY_QUERY).
+     * @param sql       The SQL of the query.
+     * @param args      The values to bind.
+     * @return The result.
+     */
+    private DBColumnarResult get(DBTable dbtable, String type, String sql,
+                                 Object[] args) {
+        String table_name = dbtable.getDBTableName().toLowerCase();
+        String key = getKey(table_name, type, sql, args);
+        long load_generation;
+        synchronized (this) {
+            this.checkVersions();
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                this.hits++;
+                entry.uses++;
+                return entry.result;
+            }
+            this.misses++;
+            load_generation = this.generation;
+        }
+        DBColumnarResult result;
+        Cursor csr = DBStatementBinder.rawQuery(this.db, sql, args);
+        try {
+            result = DBColumnarResult.read(csr, dbtable);
+        } finally {
+            csr.close();
+        }
+        synchronized (this) {
+            // Not cached if invalidated whilst being read, as it may be stale
+            if (load_generation == this.generation &&
+                    result.getEstimatedSize() <= this.max_memory) {
+                this.put(key, table_name, result);
+            }
+        }
+        return result;
+    }
+
+    /**************************************************************************
+     * Caches a result, evicting results to keep within the maximum memory.
+     */
+    private void put(String key, String table_name, DBColumnarResult result) {
+        Entry entry = new Entry();
+        entry.table_name = table_name;
+        entry.result = result;
+        entry.uses = 1;
+        Entry previous = this.entries.put(key, entry);
+        if (previous != null) {
+            this.memory -= previous.result.getEstimatedSize();
+        }
+        this.memory += result.getEstimatedSize();
+        HashSet<String> keys = this.keys_by_table.get(table_name);
+        if (keys == null) {
+            keys = new HashSet<>();
+            this.keys_by_table.put(table_name, keys);
+        }
+        keys.add(key);
+        while (this.memory > this.max_memory && this.entries.size() > 1) {
+            this.evict(key);
+        }
+    }
+
+    /**************************************************************************
+     * Evicts the least recently used, or least frequently used (the least
+     * recently used of those equally used), result other than the given one.
+     */
+    private void evict(String keep_key) {
+        String evict_key = null;
+        long evict_uses = Long.MAX_VALUE;
+        for (Map.Entry<String,Entry> e : this.entries.entrySet()) {
+            if (e.getKey().equals(keep_key)) {
+                continue;
+            }
+            if (this.policy == POLICY_LRU) {
+                evict_key = e.getKey();
+                break;
+            }
+            if (e.getValue().uses < evict_uses) {
+                evict_key = e.getKey();
+                evict_uses = e.getValue().uses;
+            }
+        }
+        Entry entry = this.entries.remove(evict_key);
+        this.memory -= entry.result.getEstimatedSize();
+        HashSet<String> keys = this.keys_by_table.get(entry.table_name);
+        if (keys != null) {
+            keys.remove(evict_key);
+        }
+        this.evictions++;
+    }
+
+    /**************************************************************************
+     * Invalidates all results if the schema_version or data_version has
+     * changed since last checked; unless checked within the version check
+     * interval.
+     */
+    private void checkVersions() {
+        long now = System.nanoTime();
+        if (this.schema_version >= 0 && this.version_check_interval > 0 &&
+                now - this.last_version_check <
+                        TimeUnit.MILLISECONDS.toNanos(this.version_check_interval)) {
+            return;
+        }
+        this.last_version_check = now;
+        if (this.schema_version_stmt == null) {
+            this.schema_version_stmt = this.db.compileStatement("PRAGMA schema_version");
+            this.data_version_stmt = this.db.compileStatement("PRAGMA data_version");
+        }
+        long schema = this.schema_version_stmt.simpleQueryForLong();
+        long data = this.data_version_stmt.simpleQueryForLong();
+        if (schema != this.schema_version || data != this.data_version) {
+            if (this.schema_version >= 0) {
+                this.invalidateAll();
+            }
+            this.schema_version = schema;
+            this.data_version = data;
+        }
+    }
+
+    /**************************************************************************
+     * Gets the cache key; the table, type, SQL and values (each value
+     * prefixed by its class, so e.g. 1 and "1" differ).
+     */
+    private static String getKey(String table_name, String type, String sql, Object[] args) {
+        StringBuilder sb = new StringBuilder(table_name).append('\u0000')
+                .append(type).append('\u0000').append(sql);
+        for (Object arg : args) {
+            sb.append('\u0000');
+            if (arg == null) {
+                sb.append("null");
+            } else if (arg instanceof byte[]) {
+                sb.append("blob:");
+                for (byte b : (byte[]) arg) {
+                    sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                            .append(Character.forDigit(b & 0xF, 16));
+                }
+            } else {
+                sb.append(arg.getClass().getSimpleName()).append(':').append(arg);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getColumnList(DBTable dbtable) {
+        StringBuilder sb = new StringBuilder();
+        for (DBColumn dc : dbtable.getTableDBColumns()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(dc.getDBColumnName());
+        }
+        return sb.toString();
+    }
+}
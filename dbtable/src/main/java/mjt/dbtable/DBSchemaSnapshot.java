@@ -0,0 +1,610 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBSchemaSnapshot an in-memory copy of the actual SQLite database's schema
+ * as held in the sqlite_master table and as returned by PRAGMA table_info.
+ *
+ * <p>
+ *     A DBSchemaSnapshot is used by the DB???? classes (DBDatabase, DBTable
+ *     and DBIndex) so that the actual database is inspected once, rather
+ *     than once per DBTable or DBIndex, when determining the SQL needed to
+ *     build or alter the database.
+ * </p>
+ * <p>
+ *     The tables and indexes are read from sqlite_master when the
+ *     DBSchemaSnapshot is constructed. The columns of the tables are read
+ *     when first requested; where the SQLite version supports the
+ *     pragma_table_info table-valued function this is a single query for
+ *     all tables, otherwise PRAGMA table_info is used once per table
+ *     (and the result retained).
+ * </p>
+ * <p>
+ *     The structure of an index (columns, sort orders, uniqueness and
+ *     whether or not it is a partial index) is read when first requested.
+ * </p>
+ * <p>
+ *     Table and Index names are held in lowercase, as SQLite names are
+ *     case insensitive.
+ * </p>
+ * <p>
+ *     A DBSchemaSnapshot is not updated when the database is changed, so a
+ *     new DBSchemaSnapshot should be taken after applying changes.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBSchemaSnapshot {
+
+    /**
+     * The SQLite database that the snapshot was taken from, retained so
+     * that the table columns can be loaded when first requested.
+     */
+    private SQLiteDatabase db;
+    /**
+     * The tables (lowercase name) and the SQL used to create them.
+     */
+    private HashMap<String,String> tables;
+    /**
+     * The indexes (lowercase name) and the SQL used to create them.
+     * <p>Automatically created indexes have no SQL so are held with an
+     * empty String.</p>
+     */
+    private HashMap<String,String> indexes;
+    /**
+     * The indexes (lowercase name) and the table (lowercase) that
+     * they index.
+     */
+    private HashMap<String,String> index_tables;
+    /**
+     * The triggers (lowercase name) and the SQL used to create them.
+     */
+    private HashMap<String,String> triggers;
+    /**
+     * The tables (lowercase name) and their actual columns, in column
+     * order, as per PRAGMA table_info.
+     */
+    private HashMap<String,ArrayList<ActualColumn>> table_columns;
+    /**
+     * Whether or not the columns for all tables have been loaded.
+     */
+    private boolean all_columns_loaded;
+    /**
+     * The structure of indexes (lowercase name), loaded as requested.
+     */
+    private HashMap<String,ActualIndex> index_structures;
+    /**
+     * The unique and partial flags, as per PRAGMA index_list, of the
+     * indexes (lowercase name) of the tables listed, loaded as requested.
+     */
+    private HashMap<String,boolean[]> index_list_flags;
+    private HashMap<String,Boolean> index_list_loaded;
+
+    /**************************************************************************
+     * Constructs a DBSchemaSnapshot by reading the tables, indexes and
+     * triggers from the sqlite_master table of the given SQLite database.
+     *
+     * @param db    The SQLite database to inspect.
+     */
+    public DBSchemaSnapshot(SQLiteDatabase db) {
+        this.db = db;
+        this.tables = new HashMap<>();
+        this.indexes = new HashMap<>();
+        this.index_tables = new HashMap<>();
+        this.triggers = new HashMap<>();
+        this.table_columns = new HashMap<>();
+        this.all_columns_loaded = false;
+        this.index_structures = new HashMap<>();
+        this.index_list_flags = new HashMap<>();
+        this.index_list_loaded = new HashMap<>();
+
+        String where = SQLITEMASTERCOLUMN_TYPE +
+                SQLIN + "(?,?,?)" +
+                SQLAND +
+                SQLITEMASTERCOLUMN_NAME +
+                "!=?";
+        String[] whereargs = {SQLITEMASTERTYPE_TABLE,
+                SQLITEMASTERTYPE_INDEX,
+                SQLITEMASTERTYPE_TRIGGER,
+                SQLITEMASTERNAME_METADATA};
+        Cursor csr_mstr = db.query(SQLITEMASTERTABLE,
+                new String[]{SQLITEMASTERCOLUMN_TYPE,
+                        SQLITEMASTERCOLUMN_NAME,
+                        SQLITEMASTERCOLUMN_TBLNAME,
+                        SQLITEMASTERCOLUMN_SQL
+                },
+                where,
+                whereargs,
+                null,
+                null,
+                null
+        );
+        while (csr_mstr.moveToNext()) {
+            String name = csr_mstr.getString(1).toLowerCase();
+            String sql = csr_mstr.getString(3);
+            if (sql == null) {
+                sql = "";
+            }
+            if (csr_mstr.getString(0).equals(SQLITEMASTERTYPE_TABLE)) {
+                this.tables.put(name,sql);
+            } else if (csr_mstr.getString(0).equals(SQLITEMASTERTYPE_TRIGGER)) {
+                this.triggers.put(name,sql);
+            } else {
+                this.indexes.put(name,sql);
+                this.index_tables.put(name,
+                        csr_mstr.getString(2).toLowerCase());
+            }
+        }
+        csr_mstr.close();
+    }
+
+    /**************************************************************************
+     * Gets the SQLite database that the snapshot was taken from.
+     *
+     * @return The SQLiteDatabase.
+     */
+    public SQLiteDatabase getSQLiteDatabase() { return this.db; }
+
+    /**************************************************************************
+     * Checks whether or not a table existed when the snapshot was taken.
+     *
+     * @param table_name    The name of the table.
+     * @return true if the table exists, else false.
+     */
+    public boolean isTableInSnapshot(String table_name) {
+        return this.tables.containsKey(table_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the SQL, as recorded in sqlite_master, used to create a table.
+     *
+     * @param table_name    The name of the table.
+     * @return The SQL as a String, null if the table does not exist.
+     */
+    public String getTableSQL(String table_name) {
+        return this.tables.get(table_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the names (lowercase) of all the tables in the snapshot.
+     *
+     * @return A String ArrayList of the table names.
+     */
+    public ArrayList<String> getTableNames() {
+        return new ArrayList<>(this.tables.keySet());
+    }
+
+    /**************************************************************************
+     * Checks whether or not an index existed when the snapshot was taken.
+     *
+     * @param index_name    The name of the index.
+     * @return true if the index exists, else false.
+     */
+    public boolean isIndexInSnapshot(String index_name) {
+        return this.indexes.containsKey(index_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the SQL, as recorded in sqlite_master, used to create an index.
+     *
+     * @param index_name    The name of the index.
+     * @return The SQL as a String, null if the index does not exist and
+     * an empty String if the index was automatically created.
+     */
+    public String getIndexSQL(String index_name) {
+        return this.indexes.get(index_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the name (lowercase) of the table that an index is for.
+     *
+     * @param index_name    The name of the index.
+     * @return The table name as a String, null if the index does not exist.
+     */
+    public String getIndexTableName(String index_name) {
+        return this.index_tables.get(index_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Checks whether or not a trigger existed when the snapshot was taken.
+     *
+     * @param trigger_name  The name of the trigger.
+     * @return true if the trigger exists, else false.
+     */
+    public boolean isTriggerInSnapshot(String trigger_name) {
+        return this.triggers.containsKey(trigger_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the SQL, as recorded in sqlite_master, used to create a trigger.
+     *
+     * @param trigger_name  The name of the trigger.
+     * @return The SQL as a String, null if the trigger does not exist.
+     */
+    public String getTriggerSQL(String trigger_name) {
+        return this.triggers.get(trigger_name.toLowerCase());
+    }
+
+    /**************************************************************************
+     * Gets the structure of an actual index, i.e. the indexed columns,
+     * their sort order and whether or not the index is unique or partial.
+     *
+     * <p>
+     *     The columns and sort orders are obtained via PRAGMA index_xinfo
+     *     (SQLite 3.9.0+), otherwise via PRAGMA index_info with the sort
+     *     orders being taken from the index's SQL. The unique and partial
+     *     flags are obtained via PRAGMA index_list (once per table), the
+     *     index's SQL being used if the flags are not available.
+     * </p>
+     *
+     * @param index_name    The name of the index.
+     * @return The ActualIndex, null if the index does not exist.
+     */
+    public ActualIndex getIndexStructure(String index_name) {
+        String index = index_name.toLowerCase();
+        if (!this.indexes.containsKey(index)) {
+            return null;
+        }
+        ActualIndex ai = this.index_structures.get(index);
+        if (ai != null) {
+            return ai;
+        }
+        String table = this.index_tables.get(index);
+        String sql = this.indexes.get(index);
+        String compactsql = sql.toUpperCase().replaceAll("\\s+"," ").trim();
+
+        // Defaults from the SQL, used if PRAGMA index_list can't provide
+        boolean unique = compactsql.startsWith("CREATE UNIQUE ");
+        boolean partial = compactsql.contains(" WHERE ");
+        if (!this.index_list_loaded.containsKey(table)) {
+            this.loadIndexList(table);
+        }
+        boolean[] flags = this.index_list_flags.get(index);
+        if (flags != null) {
+            unique = flags[0];
+            if (flags[2]) {
+                partial = flags[1];
+            }
+        }
+
+        ArrayList<String> columns = new ArrayList<>();
+        ArrayList<Boolean> descending = new ArrayList<>();
+        Cursor csr = this.db.rawQuery(SQLINDEXXINFO_START + index +
+                SQLTABLEINFO_END, null);
+        try {
+            int keycol = csr.getColumnIndex(SQLINDEXINFO_KEY_COL);
+            int desccol = csr.getColumnIndex(SQLINDEXINFO_DESC_COL);
+            int namecol = csr.getColumnIndex(SQLINDEXINFO_NAME_COL);
+            while (keycol >= 0 && csr.moveToNext()) {
+                // Only key columns, not the trailing rowid/primary key
+                if (csr.getInt(keycol) > 0) {
+                    // name is null for an expression
+                    columns.add(csr.getString(namecol));
+                    descending.add(csr.getInt(desccol) > 0);
+                }
+            }
+        } catch (SQLiteException e) {
+            columns.clear();
+            descending.clear();
+        } finally {
+            csr.close();
+        }
+
+        // PRAGMA index_xinfo not supported (unknown PRAGMAs return nothing)
+        if (columns.isEmpty()) {
+            csr = this.db.rawQuery(SQLINDEXINFO_START + index +
+                    SQLTABLEINFO_END, null);
+            while (csr.moveToNext()) {
+                columns.add(csr.getString(
+                        csr.getColumnIndex(SQLINDEXINFO_NAME_COL)));
+            }
+            csr.close();
+            descending = getDescendingFromIndexSQL(sql,columns.size());
+        }
+        ai = new ActualIndex(index,table,unique,partial,columns,descending);
+        this.index_structures.put(index,ai);
+        return ai;
+    }
+
+    /**************************************************************************
+     * Loads the unique and partial flags of a table's indexes via PRAGMA
+     * index_list.
+     *
+     * @param table The name (lowercase) of the table.
+     */
+    private void loadIndexList(String table) {
+        this.index_list_loaded.put(table,true);
+        Cursor csr = this.db.rawQuery(SQLINDEXLIST_START + table +
+                SQLTABLEINFO_END, null);
+        int namecol = csr.getColumnIndex(SQLINDEXLIST_NAME_COL);
+        int uniquecol = csr.getColumnIndex(SQLINDEXLIST_UNIQUE_COL);
+        // partial column was introduced in SQLite 3.8.9
+        int partialcol = csr.getColumnIndex(SQLINDEXLIST_PARTIAL_COL);
+        while (namecol >= 0 && uniquecol >= 0 && csr.moveToNext()) {
+            this.index_list_flags.put(csr.getString(namecol).toLowerCase(),
+                    new boolean[]{
+                            csr.getInt(uniquecol) > 0,
+                            partialcol >= 0 && csr.getInt(partialcol) > 0,
+                            partialcol >= 0
+                    }
+            );
+        }
+        csr.close();
+    }
+
+    /**************************************************************************
+     * Determines the sort order of an index's columns from the index's SQL,
+     * used when PRAGMA index_xinfo is not available.
+     *
+     * @param sql           The CREATE INDEX SQL.
+     * @param columncount   The number of indexed columns.
+     * @return A Boolean ArrayList, true where the column is DESC.
+     */
+    private static ArrayList<Boolean> getDescendingFromIndexSQL(String sql,
+                                                               int columncount) {
+        ArrayList<Boolean> rv = new ArrayList<>();
+        int start = sql.indexOf('(');
+        if (start >= 0) {
+            int depth = 0;
+            int termstart = start + 1;
+            for (int i = start; i < sql.length(); i++) {
+                char c = sql.charAt(i);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' || (c == ',' && depth == 1)) {
+                    if (c == ')') {
+                        depth--;
+                    }
+                    if (depth <= 1) {
+                        rv.add(sql.substring(termstart, i)
+                                .trim().toUpperCase().endsWith("DESC"));
+                        termstart = i + 1;
+                    }
+                    if (depth == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        while (rv.size() < columncount) {
+            rv.add(false);
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the actual columns of a table, loading the columns for all
+     * tables if they have not already been loaded.
+     *
+     * @param table_name    The name of the table.
+     * @return An ArrayList of the actual columns, in column order; empty
+     * if the table does not exist.
+     */
+    public ArrayList<ActualColumn> getTableColumns(String table_name) {
+        String table = table_name.toLowerCase();
+        if (!this.tables.containsKey(table)) {
+            return new ArrayList<>();
+        }
+        if (!this.all_columns_loaded) {
+            this.loadAllTableColumns();
+        }
+        ArrayList<ActualColumn> columns = this.table_columns.get(table);
+        if (columns == null) {
+            columns = this.loadTableColumns(table);
+            this.table_columns.put(table,columns);
+        }
+        return columns;
+    }
+
+    /**************************************************************************
+     * Gets an actual column of a table.
+     *
+     * @param table_name    The name of the table.
+     * @param column_name   The name of the column.
+     * @return The ActualColumn, null if there is no such column.
+     */
+    public ActualColumn getTableColumn(String table_name, String column_name) {
+        for (ActualColumn ac : this.getTableColumns(table_name)) {
+            if (ac.getColumnName().equalsIgnoreCase(column_name)) {
+                return ac;
+            }
+        }
+        return null;
+    }
+
+    /**************************************************************************
+     * Loads the columns for all tables via a single query using the
+     * pragma_table_info table-valued function. If unsupported (SQLite
+     * versions prior to 3.16.0) the columns will be loaded per table via
+     * <code>loadTableColumns</code> as they are requested.
+     */
+    private void loadAllTableColumns() {
+        this.all_columns_loaded = true;
+        if (this.tables.isEmpty()) {
+            return;
+        }
+        String sql = SQLSELECT + "m." + SQLITEMASTERCOLUMN_NAME + ", " +
+                "p." + SQLTABLEINFO_COLNAME_COL + ", " +
+                "p." + SQLTABLEINFO_COLTYPE_COL + ", " +
+                "p.\"" + SQLTABLEINFO_COLNOTNULL_COL + "\", " +
+                "p." + SQLTABLEINFO_COLDFLTVAL_COL + ", " +
+                "p." + SQLTABLEINFO_COLPRIMARYKEY_COL +
+                SQLFROM + SQLITEMASTERTABLE + SQLAS + "m" +
+                SQLJOIN + "pragma_table_info(m." + SQLITEMASTERCOLUMN_NAME + ")" +
+                SQLAS + "p" +
+                SQLWHERE + "m." + SQLITEMASTERCOLUMN_TYPE + "=?" +
+                SQLORDERBY + "m." + SQLITEMASTERCOLUMN_NAME + ", p." +
+                SQLTABLEINFO_IDCOL;
+        Cursor csr;
+        try {
+            csr = this.db.rawQuery(sql,new String[]{SQLITEMASTERTYPE_TABLE});
+        } catch (SQLiteException e) {
+            // pragma_table_info not available, so load per table on demand
+            return;
+        }
+        while (csr.moveToNext()) {
+            String table = csr.getString(0).toLowerCase();
+            ArrayList<ActualColumn> columns = this.table_columns.get(table);
+            if (columns == null) {
+                columns = new ArrayList<>();
+                this.table_columns.put(table,columns);
+            }
+            columns.add(new ActualColumn(csr.getString(1),
+                    csr.getString(2),
+                    csr.getInt(3) > 0,
+                    csr.getString(4),
+                    csr.getInt(5)
+            ));
+        }
+        csr.close();
+    }
+
+    /**************************************************************************
+     * Loads the columns of a single table via PRAGMA table_info.
+     *
+     * @param table The name of the table.
+     * @return An ArrayList of the table's actual columns.
+     */
+    private ArrayList<ActualColumn> loadTableColumns(String table) {
+        ArrayList<ActualColumn> columns = new ArrayList<>();
+        Cursor csr = this.db.rawQuery(SQLTABLEINFO_START + table +
+                SQLTABLEINFO_END, null);
+        while (csr.moveToNext()) {
+            columns.add(new ActualColumn(
+                    csr.getString(csr.getColumnIndex(SQLTABLEINFO_COLNAME_COL)),
+                    csr.getString(csr.getColumnIndex(SQLTABLEINFO_COLTYPE_COL)),
+                    csr.getInt(csr.getColumnIndex(SQLTABLEINFO_COLNOTNULL_COL)) > 0,
+                    csr.getString(csr.getColumnIndex(SQLTABLEINFO_COLDFLTVAL_COL)),
+                    csr.getInt(csr.getColumnIndex(SQLTABLEINFO_COLPRIMARYKEY_COL))
+            ));
+        }
+        csr.close();
+        return columns;
+    }
+
+    /**************************************************************************
+     * The structure of an actual index, as per PRAGMA index_list and
+     * PRAGMA index_xinfo.
+     */
+    public static class ActualIndex {
+        private String index_name;
+        private String table_name;
+        private boolean unique;
+        private boolean partial;
+        private ArrayList<String> columns;
+        private ArrayList<Boolean> descending;
+
+        ActualIndex(String index_name,
+                    String table_name,
+                    boolean unique,
+                    boolean partial,
+                    ArrayList<String> columns,
+                    ArrayList<Boolean> descending) {
+            this.index_name = index_name;
+            this.table_name = table_name;
+            this.unique = unique;
+            this.partial = partial;
+            this.columns = columns;
+            this.descending = descending;
+        }
+
+        /**
+         * Gets the index's name (lowercase).
+         * @return The name as a String.
+         */
+        public String getIndexName() { return this.index_name; }
+
+        /**
+         * Gets the name (lowercase) of the table the index is for.
+         * @return The table name as a String.
+         */
+        public String getTableName() { return this.table_name; }
+
+        /**
+         * Gets the index's UNIQUE status.
+         * @return true if the index is unique, else false.
+         */
+        public boolean isUnique() { return this.unique; }
+
+        /**
+         * Gets the index's partial status.
+         * @return true if the index is a partial index (has a WHERE clause),
+         * else false.
+         */
+        public boolean isPartial() { return this.partial; }
+
+        /**
+         * Gets the names of the indexed columns, in index order.
+         * @return A String ArrayList of the column names; a name is null
+         * where an expression, rather than a column, is indexed.
+         */
+        public ArrayList<String> getColumnNames() { return this.columns; }
+
+        /**
+         * Gets the sort orders of the indexed columns.
+         * @return A Boolean ArrayList, true where the column is DESC.
+         */
+        public ArrayList<Boolean> getColumnDescending() { return this.descending; }
+    }
+
+    /**************************************************************************
+     * An actual column of a table, as per PRAGMA table_info.
+     */
+    public static class ActualColumn {
+        private String column_name;
+        private String column_type;
+        private boolean notnull;
+        private String default_value;
+        private int primary_key_sequence;
+
+        ActualColumn(String column_name,
+                     String column_type,
+                     boolean notnull,
+                     String default_value,
+                     int primary_key_sequence) {
+            this.column_name = column_name;
+            this.column_type = (column_type == null) ? "" : column_type;
+            this.notnull = notnull;
+            this.default_value = (default_value == null) ? "" : default_value;
+            this.primary_key_sequence = primary_key_sequence;
+        }
+
+        /**
+         * Gets the column's name.
+         * @return The name as a String.
+         */
+        public String getColumnName() { return this.column_name; }
+
+        /**
+         * Gets the column's declared type.
+         * @return The declared type as a String, empty if no type.
+         */
+        public String getColumnType() { return this.column_type; }
+
+        /**
+         * Gets the column's NOT NULL status.
+         * @return true if the column is NOT NULL, else false.
+         */
+        public boolean isNotNull() { return this.notnull; }
+
+        /**
+         * Gets the column's default value.
+         * @return The default value as a String, empty if no default.
+         */
+        public String getDefaultValue() { return this.default_value; }
+
+        /**
+         * Gets the column's position within the primary key.
+         * @return 0 if not part of the primary key, else the 1 based
+         * position within the primary key.
+         */
+        public int getPrimaryKeySequence() { return this.primary_key_sequence; }
+    }
+}
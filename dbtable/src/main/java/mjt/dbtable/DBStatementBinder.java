@@ -0,0 +1,94 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * DBStatementBinder binds Java values to the parameters of compiled SQLite
+ * statements (SQLiteStatement), according to the type of the value.
+ *
+ * <p>
+ *     Binding the actual type, rather than binding everything as a String,
+ *     means that values are stored as given, without relying upon column
+ *     affinity, and that no conversion to and from String is undertaken.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBStatementBinder {
+
+    private DBStatementBinder() {}
+
+    /**************************************************************************
+     * Binds a value to a parameter of a compiled statement.
+     *
+     * <p>
+     *     null is bound as NULL, Long/Integer/Short/Byte as an integer,
+     *     Boolean as 1 or 0, Double/Float as a real, byte[] as a blob and
+     *     anything else as its String value.
+     * </p>
+     *
+     * @param statement The compiled statement.
+     * @param index     The index (1 based) of the parameter.
+     * @param value     The value to bind.
+     */
+    public static void bindValue(SQLiteProgram statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer ||
+                value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**************************************************************************
+     * Binds values to the parameters of a compiled statement, the first
+     * value to parameter 1 and so on, the existing bindings being cleared.
+     *
+     * @param statement The compiled statement.
+     * @param values    The values to bind.
+     */
+    public static void bindValues(SQLiteProgram statement, Object[] values) {
+        statement.clearBindings();
+        for (int i = 0; i < values.length; i++) {
+            bindValue(statement, i + 1, values[i]);
+        }
+    }
+
+    /**************************************************************************
+     * Runs a query, the values being bound according to their type (rather
+     * than as Strings, as per <code>SQLiteDatabase.rawQuery</code>).
+     *
+     * @param db    The SQLite database.
+     * @param sql   The SQL of the query.
+     * @param args  The values to bind, null if none.
+     * @return The Cursor, which must be closed.
+     */
+    public static Cursor rawQuery(SQLiteDatabase db, String sql, final Object[] args) {
+        return db.rawQueryWithFactory(
+                new SQLiteDatabase.CursorFactory() {
+                    @Override
+                    public Cursor newCursor(SQLiteDatabase db,
+                                            SQLiteCursorDriver driver,
+                                            String edittable,
+                                            SQLiteQuery query) {
+                        if (args != null) {
+                            bindValues(query, args);
+                        }
+                        return new SQLiteCursor(driver, edittable, query);
+                    }
+                },
+                sql, null, null);
+    }
+}
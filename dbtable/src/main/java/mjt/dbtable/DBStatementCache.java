@@ -0,0 +1,311 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DBStatementCache is a bounded, least recently used, cache of compiled
+ * statements (SQLiteStatement) for an SQLite database, keyed by the
+ * normalised SQL; so SQL that is run repeatedly, e.g. built from the
+ * SQLKWORD constants, is compiled once rather than every time it is run.
+ *
+ * <p>
+ *     The SQL is normalised by collapsing whitespace (outside of quotes) to
+ *     a single space and removing leading/trailing whitespace and trailing
+ *     semicolons, so SQL that differs only in spacing shares a statement.
+ *     Values are bound as per DBStatementBinder. When the cache is full,
+ *     the least recently used statement is closed (an eviction).
+ * </p>
+ * <p>
+ *     Queries that return rows can't be held as SQLiteStatements; these are
+ *     run (<code>rawQuery</code>) with the normalised SQL, so that they hit
+ *     the connection's own statement cache, the size of which can be set
+ *     by <code>setConnectionCacheSize</code>.
+ * </p>
+ * <p>
+ *     Note! The execute methods are synchronized so a DBStatementCache can
+ *     be shared by threads. A statement obtained by
+ *     <code>getStatement</code> must only be used by the calling thread
+ *     and is only valid until it is evicted.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBStatementCache {
+
+    public static final int DEFAULT_MAX_SIZE = 50;
+    /**
+     * The maximum size of the connection's statement cache
+     * (<code>SQLiteDatabase.MAX_SQL_CACHE_SIZE</code>).
+     */
+    public static final int MAX_CONNECTION_CACHE_SIZE = 100;
+
+    private SQLiteDatabase db;
+    private int max_size;
+    private LinkedHashMap<String,SQLiteStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**************************************************************************
+     * Constructs a DBStatementCache of the default size (50).
+     *
+     * @param db    The SQLite database.
+     */
+    public DBStatementCache(SQLiteDatabase db) {
+        this(db, DEFAULT_MAX_SIZE);
+    }
+
+    /**************************************************************************
+     * Constructs a DBStatementCache.
+     *
+     * @param db        The SQLite database.
+     * @param max_size  The maximum number of statements (minimum 1).
+     */
+    public DBStatementCache(SQLiteDatabase db, int max_size) {
+        this.db = db;
+        this.max_size = Math.max(1, max_size);
+        // Access ordered, so the eldest entry is the least recently used
+        this.statements = new LinkedHashMap<String,SQLiteStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,SQLiteStatement> eldest) {
+                if (size() > DBStatementCache.this.max_size) {
+                    eldest.getValue().close();
+                    DBStatementCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**************************************************************************
+     * Gets the compiled statement for the SQL, compiling it if it isn't
+     * cached. The statement's bindings are cleared.
+     *
+     * @param sql   The SQL.
+     * @return The compiled statement.
+     */
+    public synchronized SQLiteStatement getStatement(String sql) {
+        String key = normaliseSQL(sql);
+        SQLiteStatement stmt = this.statements.get(key);
+        if (stmt != null) {
+            this.hits++;
+            stmt.clearBindings();
+            return stmt;
+        }
+        this.misses++;
+        stmt = this.db.compileStatement(key);
+        this.statements.put(key, stmt);
+        return stmt;
+    }
+
+    /**************************************************************************
+     * Runs SQL that returns no data (e.g. CREATE, UPDATE).
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     */
+    public synchronized void execute(String sql, Object... args) {
+        this.bound(sql, args).execute();
+    }
+
+    /**************************************************************************
+     * Runs an INSERT.
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     * @return The rowid of the inserted row, -1 if not inserted.
+     */
+    public synchronized long executeInsert(String sql, Object... args) {
+        return this.bound(sql, args).executeInsert();
+    }
+
+    /**************************************************************************
+     * Runs an UPDATE or DELETE.
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     * @return The number of rows changed.
+     */
+    public synchronized int executeUpdateDelete(String sql, Object... args) {
+        return this.bound(sql, args).executeUpdateDelete();
+    }
+
+    /**************************************************************************
+     * Runs a query that returns a single integer (first row, first column).
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     * @return The value.
+     */
+    public synchronized long simpleQueryForLong(String sql, Object... args) {
+        return this.bound(sql, args).simpleQueryForLong();
+    }
+
+    /**************************************************************************
+     * Runs a query that returns a single string (first row, first column).
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     * @return The value.
+     */
+    public synchronized String simpleQueryForString(String sql, Object... args) {
+        return this.bound(sql, args).simpleQueryForString();
+    }
+
+    /**************************************************************************
+     * Runs a query with the normalised SQL (see above), the values being
+     * bound according to their type.
+     *
+     * @param sql   The SQL.
+     * @param args  The values to bind.
+     * @return The Cursor, which must be closed.
+     */
+    public Cursor rawQuery(String sql, Object... args) {
+        return DBStatementBinder.rawQuery(this.db, normaliseSQL(sql), args);
+    }
+
+    /**************************************************************************
+     * Sets the size of the connection's own statement cache, which is used
+     * by queries (see <code>SQLiteDatabase.setMaxSqlCacheSize</code>).
+     *
+     * @param size  The size (1 to 100).
+     */
+    public void setConnectionCacheSize(int size) {
+        this.db.setMaxSqlCacheSize(Math.min(MAX_CONNECTION_CACHE_SIZE, Math.max(1, size)));
+    }
+
+    /**************************************************************************
+     * Sets the maximum number of statements, evicting statements if more
+     * are cached.
+     *
+     * @param max_size  The maximum number of statements (minimum 1).
+     */
+    public synchronized void setMaxSize(int max_size) {
+        this.max_size = Math.max(1, max_size);
+        Iterator<SQLiteStatement> it = this.statements.values().iterator();
+        while (this.statements.size() > this.max_size && it.hasNext()) {
+            it.next().close();
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**************************************************************************
+     * Gets the maximum number of statements.
+     *
+     * @return The maximum number of statements.
+     */
+    public synchronized int getMaxSize() { return this.max_size; }
+
+    /**************************************************************************
+     * Gets the number of statements cached.
+     *
+     * @return The number of statements.
+     */
+    public synchronized int size() { return this.statements.size(); }
+
+    /**************************************************************************
+     * Gets the number of times a statement was found in the cache.
+     *
+     * @return The number of hits.
+     */
+    public synchronized long getHits() { return this.hits; }
+
+    /**************************************************************************
+     * Gets the number of times a statement had to be compiled.
+     *
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() { return this.misses; }
+
+    /**************************************************************************
+     * Gets the number of statements closed to keep within the maximum size.
+     *
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() { return this.evictions; }
+
+    /**************************************************************************
+     * Closes all cached statements and resets the counters; the cache can
+     * still be used.
+     */
+    public synchronized void clear() {
+        for (SQLiteStatement stmt : this.statements.values()) {
+            stmt.close();
+        }
+        this.statements.clear();
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**************************************************************************
+     * Normalises SQL; whitespace outside of quotes (', " and `), brackets
+     * ([]) and -- comments is collapsed to a single space, leading and trailing
+     * whitespace and trailing semicolons are removed.
+     *
+     * @param sql   The SQL.
+     * @return The normalised SQL.
+     */
+    public static String normaliseSQL(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '[') {
+                quote = ']';
+            } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+                // A comment runs to the end of the line, which is kept
+                quote = '\n';
+            }
+            sb.append(c);
+        }
+        // Remove trailing semicolons (and any whitespace between them)
+        int end = sb.length();
+        while (end > 0 && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**************************************************************************
+     * Gets the statement for the SQL with the values bound.
+     */
+    private SQLiteStatement bound(String sql, Object[] args) {
+        SQLiteStatement stmt = this.getStatement(sql);
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                DBStatementBinder.bindValue(stmt, i + 1, args[i]);
+            }
+        }
+        return stmt;
+    }
+}
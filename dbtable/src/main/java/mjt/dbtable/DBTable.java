@@ -1,9 +1,9 @@
 package mjt.dbtable;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import mjt.dbcolumn.DBColumn;
 import static mjt.sqlwords.SQLKWORD.*;
@@ -35,6 +35,13 @@ import static mjt.sqlwords.SQLKWORD.*;
  *     flag set to false. The usability flag is propogated to the
  *     DBDatabase object.
  * </p>
+ * <p>
+ *     The checking is deferred; constructing or changing the DBTable just
+ *     notes that checking is required, the checking being undertaken, just
+ *     the once, when the usability or the problem message is next
+ *     requested (or when the DBTable is frozen). So adding many DBColumns
+ *     one at a time does not repeatedly check the DBTable.
+ * </p>
  */
 @SuppressWarnings({"WeakerAccess","unused"})
 public class DBTable {
@@ -61,6 +68,67 @@ public class DBTable {
      * if the usable flag is set to false.
      */
     private String problem_msg;
+    /**
+     * Whether or not the DBTable has been changed since it was last
+     * checked, in which case it is checked when the usability or problem
+     * message is next requested.
+     */
+    private boolean check_pending;
+    /**
+     * The label of the routine that last changed the DBTable, for
+     * inclusion in the problem message by the deferred check.
+     */
+    private String check_pending_caller;
+    /**
+     * Whether or not the DBTable has been frozen by <code>freeze</code>, in
+     * which case it (and its DBColumns) cannot be changed and the following
+     * precomputed values are used.
+     */
+    private volatile boolean frozen;
+    /**
+     * The precomputed SQL create statement (frozen DBTable only).
+     */
+    private String frozen_create_sql;
+    /**
+     * The precomputed export create statements, for SQLite and for MySQL
+     * (frozen DBTable only).
+     */
+    private String frozen_export_sql;
+    private String frozen_export_sql_mysql;
+    /**
+     * The DBColumns keyed by lowercase column name (frozen DBTable only).
+     */
+    private HashMap<String,DBColumn> frozen_columns_by_name;
+    /**
+     * The PRIMARY KEY DBColumns in column order (frozen DBTable only).
+     */
+    private ArrayList<DBColumn> frozen_primary_key_columns;
+    /**
+     * The name of the rowid alias column, null if none (frozen DBTable only).
+     */
+    private String frozen_rowid_alias;
+    /**
+     * Whether or not changes to the table's rows are recorded, by
+     * triggers, in the change log table.
+     */
+    private boolean change_tracking;
+
+    /**
+     * The change log table, in which the triggers of DBTables with change
+     * tracking enabled record the changed rows; the sequence number
+     * (AUTOINCREMENT so never reused), the table, the key of the row as an
+     * SQL WHERE clause expression and the operation (I, U or D).
+     */
+    public static final String CHANGELOG_TABLE = "dbtable_changelog";
+    public static final String CHANGELOG_SEQ_COL = "seq";
+    public static final String CHANGELOG_TABLE_COL = "table_name";
+    public static final String CHANGELOG_KEY_COL = "key_where";
+    public static final String CHANGELOG_OPERATION_COL = "operation";
+    public static final String CHANGE_INSERT = "I";
+    public static final String CHANGE_UPDATE = "U";
+    public static final String CHANGE_DELETE = "D";
+    private static final String[] CHANGE_TRIGGER_SUFFIXES = {
+            "_dbtrack_insert", "_dbtrack_update", "_dbtrack_delete"};
 
     /**************************************************************************
      * Constructs an unusable DBTable with problem message set.
@@ -147,7 +215,8 @@ public class DBTable {
         this.table_name = table_name;
         this.table_columns.add(table_column);
         this.problem_msg = "";
-        this.checkDBTableIsUsable("DBTable (table_name, table_column (singular))");
+        table_column.setFullyQualifiedColumnName(this.table_name);
+        this.deferDBTableCheck("DBTable (table_name, table_column (singular))");
     }
 
     /**************************************************************************
@@ -163,61 +232,83 @@ public class DBTable {
         this.problem_msg = "";
         this.table_name = table_name;
         this.table_columns = table_columns;
-        this.checkDBTableIsUsable("DBTable Full Constructor");
+        this.setFullyQualifiedColumnNames(table_columns);
+        this.deferDBTableCheck("DBTable Full Constructor");
     }
 
     /**
      * Look for duplicate column names, if found add to problem message
      * and flag DBTable as unusable.
+     *
+     * <p>
+     *     Columns are located by name via a HashMap, so the check is a
+     *     single pass of the columns.
+     * </p>
      */
     private void findDuplicateColumns() {
         // no or 1 column cannot have duplicates so done
         if (this.table_columns.size() < 2) {
             return;
         }
-        ArrayList<Integer> needlematches = new ArrayList<>();
-        ArrayList<Integer> haystackmatches = new ArrayList<>();
-        int i =0;
-        for (DBColumn needlecolumn : this.table_columns) {
-            int j = 0;
-            for (DBColumn haystackcolumn : this.table_columns) {
-                //Skip checking the column against itself
-                if (j == i) {
-                    j++;
-                    continue;
-                }
+        // The column offsets for each column name
+        HashMap<String,ArrayList<Integer>> columnoffsets =
+                new HashMap<>(this.table_columns.size() * 2);
+        for (int j = 0; j < this.table_columns.size(); j++) {
+            DBColumn haystackcolumn = this.table_columns.get(j);
+            ArrayList<Integer> offsets =
+                    columnoffsets.get(haystackcolumn.getDBColumnName());
+            if (offsets == null) {
+                offsets = new ArrayList<>(1);
+                columnoffsets.put(haystackcolumn.getDBColumnName(),offsets);
+            }
+            // Report against each earlier column with the same name
+            for (Integer i : offsets) {
+                this.problem_msg = this.problem_msg +
+                        "\nEDBT0015 - Duplicated Column - " +
+                        "Column=" + this.table_columns.get(i).getDBColumnName() +
+                        " col(" +
+                        Integer.toString(i) +
+                        ") is the same as " +
+                        "Column=" + haystackcolumn.getDBColumnName() +
+                        " col(" +
+                        Integer.toString(j) + ")";
+                this.usable = false;
+            }
+            offsets.add(j);
+        }
+    }
 
-                //Skip checking already matched columns
-                boolean alreadymatched = false;
-                for (int k = 0; k < needlematches.size(); k++) {
-                    if (i == haystackmatches.get(k) && j == needlematches.get(k) ) {
-                        alreadymatched = true;
-                    }
-                }
-                if (alreadymatched) {
-                    j++;
-                    continue;
-                }
+    /**************************************************************************
+     * Notes that the DBTable has changed and so is to be checked when the
+     * usability or problem message is next requested.
+     *
+     * @param caller The label of the invoking routine, to assist in locating
+     *               any issues.
+     */
+    private void deferDBTableCheck(String caller) {
+        this.usable = false;
+        this.check_pending = true;
+        this.check_pending_caller = caller;
+    }
 
-                if (needlecolumn.getDBColumnName().equals(
-                        haystackcolumn.getDBColumnName()
-                )) {
-                    needlematches.add(i);
-                    haystackmatches.add(j);
-                    this.problem_msg = this.problem_msg +
-                            "\nEDBT0015 - Duplicated Column - " +
-                            "Column=" + needlecolumn.getDBColumnName() +
-                            " col(" +
-                            Integer.toString(i) +
-                            ") is the same as " +
-                            "Column=" + haystackcolumn.getDBColumnName() +
-                            " col(" +
-                            Integer.toString(j) + ")";
-                    this.usable = false;
-                }
-                j++;
-            }
-            i++;
+    /**************************************************************************
+     * Undertakes the deferred check, if the DBTable has changed since it
+     * was last checked.
+     */
+    private void checkDBTableIfPending() {
+        if (this.check_pending) {
+            this.checkDBTableIsUsable(this.check_pending_caller);
+        }
+    }
+
+    /**************************************************************************
+     * Sets the fully qualified name (i.e. table.column) of DBColumns.
+     *
+     * @param dbcolumns The DBColumns.
+     */
+    private void setFullyQualifiedColumnNames(ArrayList<DBColumn> dbcolumns) {
+        for (DBColumn dc : dbcolumns) {
+            dc.setFullyQualifiedColumnName(this.table_name);
         }
     }
 
@@ -227,9 +318,13 @@ public class DBTable {
      * @param dbcolumn  The DBColumn to add to the DBTable.
      */
     public void AddDBColumnToDBTable(DBColumn dbcolumn) {
+        if (this.isFrozenIgnored("AddDBColumnToDBTable")) {
+            return;
+        }
         this.table_columns.add(dbcolumn);
+        dbcolumn.setFullyQualifiedColumnName(this.table_name);
         this.problem_msg = "";
-        this.checkDBTableIsUsable("AddDBColumnToDBTable");
+        this.deferDBTableCheck("AddDBColumnToDBTable");
     }
 
     /**************************************************************************
@@ -239,9 +334,13 @@ public class DBTable {
      *                  added to the DBTable.
      */
     public void AddDBColumnsToDBTable(ArrayList<DBColumn> dbcolumns) {
+        if (this.isFrozenIgnored("AddDBColumnsToDBTable")) {
+            return;
+        }
         this.table_columns.addAll(dbcolumns);
+        this.setFullyQualifiedColumnNames(dbcolumns);
         this.problem_msg = "";
-        this.checkDBTableIsUsable("AddDBColumnsToDBtable");
+        this.deferDBTableCheck("AddDBColumnsToDBtable");
     }
 
     /**************************************************************************
@@ -262,9 +361,83 @@ public class DBTable {
      *                      naming conventions.
      */
     public void setDBTableName(String table_name) {
+        if (this.isFrozenIgnored("setDBTableName")) {
+            return;
+        }
         this.table_name = table_name.toLowerCase();
+        this.setFullyQualifiedColumnNames(this.table_columns);
         this.problem_msg = "";
-        this.checkDBTableIsUsable("setDBTableName");
+        this.deferDBTableCheck("setDBTableName");
+    }
+
+    /**************************************************************************
+     * Freezes the DBTable, and its DBColumns, so that it can no longer be
+     * changed and can therefore be safely shared by threads.
+     *
+     * <p>
+     *     Any deferred check of the DBTable's usability is undertaken and
+     *     then the SQL create statements, the DBColumns keyed by name and
+     *     the PRIMARY KEY information are computed once and retained, so
+     *     subsequent requests for them incur no regeneration. Subsequent
+     *     attempts to change the DBTable are ignored (a warning being added
+     *     to the problem message). Freezing cannot be undone.
+     * </p>
+     * <p>
+     *     Note that the DBColumn ArrayList returned by
+     *     <code>getTableDBColumns</code> must not be changed once frozen.
+     * </p>
+     */
+    public void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        this.checkDBTableIfPending();
+        this.table_columns = new ArrayList<>(this.table_columns);
+        HashMap<String,DBColumn> columnsbyname = new HashMap<>();
+        ArrayList<DBColumn> pkcolumns = new ArrayList<>();
+        for (DBColumn dc : this.table_columns) {
+            dc.freeze();
+            if (!columnsbyname.containsKey(dc.getDBColumnName().toLowerCase())) {
+                columnsbyname.put(dc.getDBColumnName().toLowerCase(), dc);
+            }
+            if (dc.getDBColumnIsPrimaryIndex()) {
+                pkcolumns.add(dc);
+            }
+        }
+        this.frozen_columns_by_name = columnsbyname;
+        this.frozen_primary_key_columns = pkcolumns;
+        this.frozen_rowid_alias = this.getRowidAliasColumnName();
+        this.frozen_create_sql = this.buildSQLCreateString(this.table_name, false, false);
+        this.frozen_export_sql = this.buildSQLCreateString(this.table_name, true, false);
+        this.frozen_export_sql_mysql = this.buildSQLCreateString(this.table_name, true, true);
+        // Set last so that readers seeing frozen also see the above
+        this.frozen = true;
+    }
+
+    /**************************************************************************
+     * Gets whether or not the DBTable has been frozen.
+     *
+     * @return true if the DBTable is frozen, else false.
+     */
+    public boolean isDBTableFrozen() { return this.frozen; }
+
+    /**************************************************************************
+     * Checks whether a change is to be ignored as the DBTable is frozen,
+     * if so noting this in the problem message.
+     *
+     * @param caller    The method that is attempting the change.
+     * @return true if the DBTable is frozen (change to be ignored).
+     */
+    private boolean isFrozenIgnored(String caller) {
+        if (this.frozen) {
+            this.problem_msg = this.problem_msg +
+                    "\nWDBT0016 - Frozen - " +
+                    "DBTable " + this.table_name +
+                    " cannot be changed, change ignored. " +
+                    "Caller=(" + caller + ")";
+            return true;
+        }
+        return false;
     }
 
     /**************************************************************************
@@ -281,7 +454,10 @@ public class DBTable {
      * the DBTable is usable, false that it is not.
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    public boolean isDBTableUsable() { return this.usable; }
+    public boolean isDBTableUsable() {
+        this.checkDBTableIfPending();
+        return this.usable;
+    }
 
     /**************************************************************************
      * Gets the number of DBColumns currently assigned to the DBTable.
@@ -300,12 +476,51 @@ public class DBTable {
         return this.table_columns;
     }
 
+    /**************************************************************************
+     * Gets the DBTable's DBColumn with the given name (ignoring case).
+     *
+     * @param column_name   The name of the column.
+     * @return The DBColumn, null if the DBTable has no such DBColumn.
+     */
+    public DBColumn getDBColumnByName(String column_name) {
+        if (this.frozen) {
+            return this.frozen_columns_by_name.get(column_name.toLowerCase());
+        }
+        for (DBColumn dc : this.table_columns) {
+            if (dc.getDBColumnName().equalsIgnoreCase(column_name)) {
+                return dc;
+            }
+        }
+        return null;
+    }
+
+    /**************************************************************************
+     * Gets the DBTable's PRIMARY KEY DBColumns, in column order.
+     *
+     * @return A DBColumn ArrayList of the PRIMARY KEY DBColumns.
+     */
+    public ArrayList<DBColumn> getPrimaryKeyDBColumns() {
+        if (this.frozen) {
+            return new ArrayList<>(this.frozen_primary_key_columns);
+        }
+        ArrayList<DBColumn> rv = new ArrayList<>();
+        for (DBColumn dc : this.table_columns) {
+            if (dc.getDBColumnIsPrimaryIndex()) {
+                rv.add(dc);
+            }
+        }
+        return rv;
+    }
+
     /**************************************************************************
      * Gets the DBTables problem msg.
      *
      * @return The DBTable's problem msg as a String
      */
-    public String getDBTableProblemMsg() { return this.problem_msg; }
+    public String getDBTableProblemMsg() {
+        this.checkDBTableIfPending();
+        return this.problem_msg;
+    }
 
     /**************************************************************************
      * Gets the DBTable's problem message along with the underlying
@@ -333,6 +548,7 @@ public class DBTable {
      */
     @SuppressWarnings("UnusedReturnValue")
     public boolean checkDBTableIsUsable(String caller) {
+        this.check_pending = false;
         this.usable = false;
         if(this.anyEmptyDBColumnsInDBTable(caller)) {
             this.usable = true;
@@ -343,6 +559,14 @@ public class DBTable {
                         "Caller=(" + caller + ")";
                 this.usable = false;
             }
+            if (this.change_tracking && this.getPrimaryKeyDBColumns().isEmpty()) {
+                this.problem_msg = this.problem_msg +
+                        "\nEDBT0017 - Change Tracking without PRIMARY KEY - " +
+                        "Rows of table " + this.table_name +
+                        " cannot be identified in a copy of the database. " +
+                        "Caller=(" + caller + ")";
+                this.usable = false;
+            }
         }
         this.findDuplicateColumns();
         return this.usable;
@@ -388,36 +612,58 @@ public class DBTable {
      * contains the table.
      */
     public String getSQLCreateString(SQLiteDatabase db) {
+        return this.getSQLCreateString(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Gets the DBTable's SQL creation statement but only if the table
+     * doesn't exist according to the DBSchemaSnapshot.
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return the sql create string, empty String if the SQLite database
+     * contains the table.
+     */
+    public String getSQLCreateString(DBSchemaSnapshot snapshot) {
 
-        // Check to see if this table exists, if not then skip CREATE
-        String where = SQLITEMASTERCOLUMN_TYPE +
-                "=? " +
-                SQLAND +
-                SQLITEMASTERCOLUMN_NAME +
-                "!=?";
-        String[] whereargs = {"table",SQLITEMASTERNAME_METADATA};
-        Cursor csr_mstr = db.query(SQLITEMASTERTABLE,
-                new String[]{SQLITEMASTERCOLUMN_NAME},
-                where,
-                whereargs,
-                null,
-                null,
-                SQLITEMASTERCOLUMN_NAME
-        );
-        boolean table_exists = false;
-
-        while(csr_mstr.moveToNext()) {
-            if(this.table_name.equals(csr_mstr.getString(0))) {
-                table_exists = true;
-            }
-        }
-        // Finished with master
-        csr_mstr.close();
         // if the table exists then provide no SQL (changes should be done via Alter)
-        if(table_exists) {
+        if(snapshot.isTableInSnapshot(this.table_name)) {
             return "";
         }
+        if (this.frozen) {
+            return this.frozen_create_sql;
+        }
+        return this.buildSQLCreateString(this.table_name, false, false);
+    }
+
+    /**************************************************************************
+     * Gets the DBTable's SQL creation statement but for a table with the
+     * given name rather than the DBTable's name; e.g. for creating a shadow
+     * copy of the table when the table is to be rebuilt.
+     *
+     * @param table_name The name to be given to the table, which may be
+     *                   qualified by a schema name (e.g. other.mytable).
+     * @return the sql create string.
+     */
+    public String getSQLCreateStringForTableName(String table_name) {
+        if (this.frozen && table_name.equals(this.table_name)) {
+            return this.frozen_create_sql;
+        }
+        return this.buildSQLCreateString(table_name, false, false);
+    }
 
+    /**************************************************************************
+     * Builds the SQL creation statement for the DBTable's columns.
+     *
+     * @param table_name    The name to be given to the table.
+     * @param forexport     true if for export, in which case the table and
+     *                      column names are quoted.
+     * @param doasmysql     true if for export to MYSQL, in which case
+     *                      INTEGER columns are BIGINT(20) NOT NULL.
+     * @return the sql create string.
+     */
+    private String buildSQLCreateString(String table_name,
+                                        boolean forexport,
+                                        boolean doasmysql) {
         // Extract Columns that are flagged as PRIMARY INDEXES so we have a count
         // More than one has to be handled differently
         ArrayList<String> indexes = new ArrayList<>();
@@ -427,46 +673,56 @@ public class DBTable {
             }
         }
         // Build the CREATE SQL
-        String part1 = SQLCREATE +
-                SQLTABLE +
-                SQLIFNOTEXISTS +
-                this.table_name +
-                " (";
+        StringBuilder sb = new StringBuilder(64 + this.table_columns.size() * 32);
+        sb.append(SQLCREATE).append(SQLTABLE).append(SQLIFNOTEXISTS);
+        if (forexport) {
+            sb.append("'").append(table_name).append("' (");
+        } else {
+            sb.append(table_name).append(" (");
+        }
         int dccount = 0;
         // Main Loop through the columns
         for(DBColumn dc : this.table_columns) {
-            part1 = part1 + dc.getDBColumnName() + " " + dc.getDBColumnType() + " ";
+            if (!forexport) {
+                sb.append(dc.getDBColumnName()).append(" ")
+                        .append(dc.getDBColumnType()).append(" ");
+            // FOR mysql export need to use BIGINT(20) instead of INTEGER
+            } else if (doasmysql && dc.getDBColumnType().equals(SQLINTEGER)) {
+                sb.append("`").append(dc.getDBColumnName())
+                        .append("` BIGINT(20) NOT NULL ");
+            } else {
+                sb.append("`").append(dc.getDBColumnName()).append("` ")
+                        .append(dc.getDBColumnType()).append(" ");
+            }
             // Apply the default value if required
             if(dc.getDBColumnDefaultValue() != null && dc.getDBColumnDefaultValue().length() > 0) {
-                part1 = part1 +
-                        SQLDEFAULT +
-                        dc.getDBColumnDefaultValue() + " ";
+                sb.append(SQLDEFAULT).append(dc.getDBColumnDefaultValue()).append(" ");
             }
             // if only 1 PRIMARY INDEX and this is it then add it
             if(dc.getDBColumnIsPrimaryIndex() & indexes.size() == 1) {
-                part1 = part1 + SQLPRIMARYKEY;
+                sb.append(SQLPRIMARYKEY);
             }
             // If more to do then include comma separator
             dccount++;
             if (dccount < this.table_columns.size()) {
-                part1 = part1 + ", ";
+                sb.append(", ");
             }
         }
         // Handle multiple PRIMARY INDEXES ie add PRIMARY KEY (<col>, <col> .....)
         int ixcount = 1;
         if(indexes.size() > 1 ) {
-            part1 = part1 + SQLPRIMARYKEYSTART;
+            sb.append(SQLPRIMARYKEYSTART);
             for(String ix : indexes) {
-                part1 = part1 + ix;
+                sb.append(ix);
                 if(ixcount < (indexes.size() ) ) {
-                    part1 = part1 + ", ";
+                    sb.append(", ");
                 }
                 ixcount++;
             }
-            part1 = part1 + SQLPRIMARYKEYEND;
+            sb.append(SQLPRIMARYKEYEND);
         }
-        part1 = part1 + ") ;";
-        return part1;
+        sb.append(") ;");
+        return sb.toString();
     }
 
     /**************************************************************************
@@ -478,61 +734,10 @@ public class DBTable {
      * @return the sql table create as string
      */
     public String getSQLTableCreateAsString(@SuppressWarnings("SameParameterValue") Boolean doasmysql) {
-
-        // Extract Columns that are flagged as PRIMARY INDEXES so we have a count
-        // More than one has to be handled differently
-        ArrayList<String> indexes = new ArrayList<>();
-        for(DBColumn dc : this.table_columns) {
-            if(dc.getDBColumnIsPrimaryIndex()) {
-                indexes.add(dc.getDBColumnName());
-            }
+        if (this.frozen) {
+            return doasmysql ? this.frozen_export_sql_mysql : this.frozen_export_sql;
         }
-        // Build the CREATE SQL
-        String part1 = SQLCREATE +
-                SQLTABLE +
-                SQLIFNOTEXISTS +
-                "'" +
-                this.table_name +
-                "' (";
-        int dccount = 0;
-        // Main Loop through the columns
-        for(DBColumn dc : this.table_columns) {
-            // FOR mysql export need to use BIGINT(20) instead of INTEGER
-            if(doasmysql && dc.getDBColumnType().equals(SQLINTEGER)) {
-                part1 = part1 + "`" + dc.getDBColumnName() + "` BIGINT(20) NOT NULL ";
-            } else {
-                part1 = part1 + "`" + dc.getDBColumnName() + "` " + dc.getDBColumnType() + " ";
-            }
-
-            // Apply the default value if required
-            if(dc.getDBColumnDefaultValue().length() > 0 ) {
-                part1 = part1 + SQLDEFAULT + dc.getDBColumnDefaultValue() + " ";
-            }
-            // if only 1 PRIMARY INDEX and this is it then add it
-            if(dc.getDBColumnIsPrimaryIndex() & indexes.size() == 1) {
-                part1 = part1 + SQLPRIMARYKEY;
-            }
-            // If more to do then include comma separator
-            dccount++;
-            if (dccount < this.table_columns.size()) {
-                part1 = part1 + ", ";
-            }
-        }
-        // Handle multiple PRIMARY INDEXES ie add PRIMARY KEY (<col>, <col> .....)
-        int ixcount = 1;
-        if(indexes.size() > 1 ) {
-            part1 = part1 + SQLPRIMARYKEYSTART;
-            for(String ix : indexes) {
-                part1 = part1 + ix;
-                if(ixcount < (indexes.size() ) ) {
-                    part1 = part1 + ", ";
-                }
-                ixcount++;
-            }
-            part1 = part1 + SQLPRIMARYKEYEND;
-        }
-        part1 = part1 + ") ;";
-        return part1;
+        return this.buildSQLCreateString(this.table_name, true, doasmysql);
     }
 
     /**************************************************************************
@@ -548,41 +753,27 @@ public class DBTable {
      * there could be no elements.
      */
     public ArrayList<String> getSQLAlterToAddNewColumns(SQLiteDatabase db) {
+        return this.getSQLAlterToAddNewColumns(new DBSchemaSnapshot(db));
+    }
+
+    /**************************************************************************
+     * Gets SQL alter statements to add new columns to the SQLite table,
+     * the table's actual columns being obtained from the DBSchemaSnapshot.
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return the SQL statements to add new columns as a String ArrayList,
+     * there could be no elements.
+     */
+    public ArrayList<String> getSQLAlterToAddNewColumns(DBSchemaSnapshot snapshot) {
         // Have to return an array (arraylist) as ALTER statements can only Add 1 column at a time.
         ArrayList<String> result = new ArrayList<>();
 
-        // Prepare to get the current database table information
-        // i.e columns in the table via PRAGMA.
-        String sqlstr = " PRAGMA table_info (" + this.table_name + ")";
-        Cursor csr = db.rawQuery(sqlstr, null);
-
         // Check to see if this table exists, if not then cannot ALTER anything
         // Should never happen if the method actionDBAlterSQL (method that
         // invokes this method) is preceeded by actionDBBuildSQL, as that
         // should create any tables that don't exist.
-        String where = SQLITEMASTERCOLUMN_TYPE +
-                "=?" +
-                SQLAND +
-                SQLITEMASTERCOLUMN_NAME +
-                "!=?";
-        String[] whereargs = {SQLITEMASTERTYPE_TABLE,
-                SQLITEMASTERNAME_METADATA};
-
-        //String sqlstr_mstr = "SELECT name FROM sqlite_master WHERE type = 'table' AND name!='android_metadata' ORDER by name;";
-        //Cursor csr_mstr = db.rawQuery(sqlstr_mstr,null);
-        Cursor csr_mstr = db.query(SQLITEMASTERTABLE,
-                new String[]{SQLITEMASTERCOLUMN_NAME},
-                where,
-                whereargs,null,null,SQLITEMASTERCOLUMN_NAME);
-        boolean table_exists = false;
-
-        while(csr_mstr.moveToNext()) {
-            if(this.table_name.equals(csr_mstr.getString(0))) { table_exists = true; }
-        }
-        csr_mstr.close();
         // If the table doesn't exist then return the empty String ArrayList.
-        if(!table_exists) {
-            csr.close();
+        if(!snapshot.isTableInSnapshot(this.table_name)) {
             return result;
         }
 
@@ -590,17 +781,10 @@ public class DBTable {
         // new ccolumns)
         for(DBColumn dc : this.table_columns) {
             String columntofind = dc.getDBColumnName();
-            boolean columnmatch = false;
-
-            // ensure that the cursor is positioned before the first row
-            csr.moveToPosition(-1);
-            // Check to see if the current column exists, if it doesn then
+            // Check to see if the current column exists, if it does then
             // nothing will be done for this column.
-            while(csr.moveToNext()) {
-                if(csr.getString(1).equals(columntofind)) {
-                    columnmatch = true;
-                }
-            }
+            boolean columnmatch =
+                    snapshot.getTableColumn(this.table_name,columntofind) != null;
 
             // Column not found so create SQL alter statement to add the
             // column to the table.
@@ -620,7 +804,259 @@ public class DBTable {
                 result.add(altersql);
             }
         }
-        csr.close();
         return result;
     }
+
+    /**************************************************************************
+     * Gets the name of the DBTable's column that is an alias of the rowid,
+     * i.e. the only PRIMARY KEY column, where that column is an INTEGER.
+     *
+     * @return the column name, null if there is no such column.
+     */
+    public String getRowidAliasColumnName() {
+        if (this.frozen) {
+            return this.frozen_rowid_alias;
+        }
+        DBColumn pkcolumn = null;
+        for (DBColumn dc : this.table_columns) {
+            if (dc.getDBColumnIsPrimaryIndex()) {
+                if (pkcolumn != null) {
+                    return null;
+                }
+                pkcolumn = dc;
+            }
+        }
+        if (pkcolumn != null && pkcolumn.getDBColumnType().equals(SQLINTEGER)) {
+            return pkcolumn.getDBColumnName();
+        }
+        return null;
+    }
+
+    /**************************************************************************
+     * Gets the reasons, if any, why the SQLite table must be rebuilt to
+     * match the DBTable; i.e. changes that cannot be applied by
+     * ALTER TABLE ... ADD COLUMN.
+     *
+     * <p>
+     *     A rebuild is required if a DBColumn's type, default value or
+     *     primary key status differs from the actual column or if the
+     *     actual table has a column that is not a DBColumn of the DBTable
+     *     (i.e. the column has been dropped).
+     * </p>
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return A String ArrayList of the reasons, empty if no rebuild is
+     * required or if the table doesn't exist.
+     */
+    public ArrayList<String> getTableRebuildReasons(DBSchemaSnapshot snapshot) {
+        ArrayList<String> reasons = new ArrayList<>();
+        if (!snapshot.isTableInSnapshot(this.table_name)) {
+            return reasons;
+        }
+        ArrayList<DBSchemaSnapshot.ActualColumn> actualcolumns =
+                snapshot.getTableColumns(this.table_name);
+        for (DBSchemaSnapshot.ActualColumn ac : actualcolumns) {
+            DBColumn dc = this.getDBColumnByName(ac.getColumnName());
+            if (dc == null) {
+                reasons.add("Column " + ac.getColumnName() + " dropped");
+                continue;
+            }
+            if (!ac.getColumnType().equalsIgnoreCase(dc.getDBColumnType())) {
+                reasons.add("Column " + dc.getDBColumnName() +
+                        " type changed from " + ac.getColumnType() +
+                        " to " + dc.getDBColumnType());
+            }
+            String dcdefault = dc.getDBColumnDefaultValue() == null ?
+                    "" : dc.getDBColumnDefaultValue().trim();
+            if (!ac.getDefaultValue().trim().equals(dcdefault)) {
+                reasons.add("Column " + dc.getDBColumnName() +
+                        " default changed from " + ac.getDefaultValue() +
+                        " to " + dcdefault);
+            }
+            if ((ac.getPrimaryKeySequence() > 0) != dc.getDBColumnIsPrimaryIndex()) {
+                reasons.add("Column " + dc.getDBColumnName() +
+                        " primary key changed");
+            }
+        }
+        return reasons;
+    }
+
+    /**************************************************************************
+     * Sets whether or not changes to the table's rows are tracked; i.e.
+     * whether AFTER INSERT, UPDATE and DELETE triggers record the key of
+     * each changed row in the change log table (see
+     * <code>DBDatabase.exportDBDelta</code>). The triggers are created, or
+     * dropped, by the DBDatabase build and alter.
+     *
+     * <p>
+     *     The key is the PRIMARY KEY columns, so the DBTable must have a
+     *     PRIMARY KEY; with change tracking enabled a DBTable without one is
+     *     not usable (EDBT0017), as the rowids of a copy of the database
+     *     (e.g. one restored from an export) need not match. Rows with a
+     *     NULL in a PRIMARY KEY column are not identifiable by their key.
+     * </p>
+     *
+     * @param change_tracking   true to track changes, false (the default)
+     *                          to not.
+     */
+    public void setChangeTrackingEnabled(boolean change_tracking) {
+        if (this.isFrozenIgnored("setChangeTrackingEnabled")) {
+            return;
+        }
+        this.change_tracking = change_tracking;
+        this.deferDBTableCheck("setChangeTrackingEnabled");
+    }
+
+    /**************************************************************************
+     * Gets whether or not changes to the table's rows are tracked.
+     *
+     * @return true if changes are tracked, else false.
+     */
+    public boolean isChangeTrackingEnabled() { return this.change_tracking; }
+
+    /**************************************************************************
+     * Gets the SQL that creates the change log table, if it doesn't exist.
+     *
+     * @return The SQL create statement.
+     */
+    public static String getSQLChangeLogTableCreate() {
+        return SQLCREATE + SQLTABLE + SQLIFNOTEXISTS + CHANGELOG_TABLE + " (" +
+                CHANGELOG_SEQ_COL + " " + SQLINTEGER + SQLPRIMARYKEY + " AUTOINCREMENT, " +
+                CHANGELOG_TABLE_COL + " " + SQLTEXT + ", " +
+                CHANGELOG_KEY_COL + " " + SQLTEXT + ", " +
+                CHANGELOG_OPERATION_COL + " " + SQLTEXT + ")" + SQLENDSTATEMENT;
+    }
+
+    /**************************************************************************
+     * Gets the names of the change tracking triggers; the insert, update
+     * and delete triggers.
+     *
+     * @return A String ArrayList of the trigger names.
+     */
+    public ArrayList<String> getChangeTrackingTriggerNames() {
+        ArrayList<String> rv = new ArrayList<>();
+        for (String suffix : CHANGE_TRIGGER_SUFFIXES) {
+            rv.add(this.table_name + suffix);
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the SQL that creates the change tracking triggers (if they don't
+     * exist); in the order insert, update and delete. An update that
+     * changes the key records both the old and the new key.
+     *
+     * @return A String ArrayList of the SQL create statements.
+     * @throws IllegalStateException if the DBTable has no PRIMARY KEY.
+     */
+    public ArrayList<String> getSQLChangeTrackingTriggers() {
+        ArrayList<String> names = this.getChangeTrackingTriggerNames();
+        String newkey = this.getChangeKeyExpression("NEW");
+        String oldkey = this.getChangeKeyExpression("OLD");
+        String insertinto = " INSERT INTO " + CHANGELOG_TABLE + " (" +
+                CHANGELOG_TABLE_COL + ", " +
+                CHANGELOG_KEY_COL + ", " +
+                CHANGELOG_OPERATION_COL + ")";
+        String tableliteral = "'" + this.table_name.replace("'", "''") + "'";
+        ArrayList<String> rv = new ArrayList<>();
+        rv.add(SQLCREATE + "TRIGGER" + SQLIFNOTEXISTS + names.get(0) +
+                " AFTER INSERT ON " + this.table_name + " BEGIN" +
+                insertinto + " VALUES(" + tableliteral + ", " + newkey +
+                ", '" + CHANGE_INSERT + "')" + SQLENDSTATEMENT + " END" + SQLENDSTATEMENT);
+        rv.add(SQLCREATE + "TRIGGER" + SQLIFNOTEXISTS + names.get(1) +
+                " AFTER UPDATE ON " + this.table_name + " BEGIN" +
+                insertinto + SQLSELECT + tableliteral + ", " + oldkey +
+                ", '" + CHANGE_DELETE + "'" + SQLWHERE + oldkey + SQLNOTEQUALS + newkey +
+                SQLENDSTATEMENT +
+                insertinto + " VALUES(" + tableliteral + ", " + newkey +
+                ", '" + CHANGE_UPDATE + "')" + SQLENDSTATEMENT + " END" + SQLENDSTATEMENT);
+        rv.add(SQLCREATE + "TRIGGER" + SQLIFNOTEXISTS + names.get(2) +
+                " AFTER DELETE ON " + this.table_name + " BEGIN" +
+                insertinto + " VALUES(" + tableliteral + ", " + oldkey +
+                ", '" + CHANGE_DELETE + "')" + SQLENDSTATEMENT + " END" + SQLENDSTATEMENT);
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the SQL that drops the change tracking triggers (if they exist).
+     *
+     * @return A String ArrayList of the SQL drop statements.
+     */
+    public ArrayList<String> getSQLDropChangeTrackingTriggers() {
+        ArrayList<String> rv = new ArrayList<>();
+        for (String name : this.getChangeTrackingTriggerNames()) {
+            rv.add(SQLDROP + "TRIGGER" + SQLIFEXISTS + name + SQLENDSTATEMENT);
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the SQL to bring the change tracking triggers of the table, as
+     * per the snapshot, into line with the DBTable; creating missing
+     * triggers (and the change log table), re-creating triggers whose key
+     * differs (e.g. the PRIMARY KEY has changed) or dropping the triggers
+     * if change tracking is not enabled.
+     *
+     * @param snapshot The DBSchemaSnapshot of the SQLite database.
+     * @return A String ArrayList of the SQL statements, empty if none are
+     * required.
+     */
+    public ArrayList<String> getSQLChangeTrackingAlter(DBSchemaSnapshot snapshot) {
+        ArrayList<String> rv = new ArrayList<>();
+        ArrayList<String> names = this.getChangeTrackingTriggerNames();
+        if (!this.change_tracking) {
+            ArrayList<String> drops = this.getSQLDropChangeTrackingTriggers();
+            for (int i = 0; i < names.size(); i++) {
+                if (snapshot.isTriggerInSnapshot(names.get(i))) {
+                    rv.add(drops.get(i));
+                }
+            }
+            return rv;
+        }
+        if (!snapshot.isTableInSnapshot(CHANGELOG_TABLE)) {
+            rv.add(getSQLChangeLogTableCreate());
+        }
+        ArrayList<String> creates = this.getSQLChangeTrackingTriggers();
+        ArrayList<String> drops = this.getSQLDropChangeTrackingTriggers();
+        // The insert trigger records the new key, the others the old key
+        String[] keys = {this.getChangeKeyExpression("NEW"),
+                this.getChangeKeyExpression("OLD"),
+                this.getChangeKeyExpression("OLD")};
+        for (int i = 0; i < names.size(); i++) {
+            String actual = snapshot.getTriggerSQL(names.get(i));
+            if (actual != null && actual.contains(keys[i])) {
+                continue;
+            }
+            if (actual != null) {
+                rv.add(drops.get(i));
+            }
+            rv.add(creates.get(i));
+        }
+        return rv;
+    }
+
+    /**************************************************************************
+     * Gets the SQL expression, for use within a trigger, that yields the
+     * key of the NEW or OLD row as a WHERE clause expression; e.g.
+     * <code>'a = ' || quote(NEW.a) || ' AND b = ' || quote(NEW.b)</code>.
+     *
+     * @param row   NEW or OLD.
+     * @return The expression.
+     * @throws IllegalStateException if the DBTable has no PRIMARY KEY (such
+     *                               a DBTable can't be tracked, EDBT0017).
+     */
+    private String getChangeKeyExpression(String row) {
+        ArrayList<DBColumn> pkcolumns = this.getPrimaryKeyDBColumns();
+        if (pkcolumns.isEmpty()) {
+            throw new IllegalStateException("DBTable " + this.table_name +
+                    " has no PRIMARY KEY, changes can't be tracked");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (DBColumn dc : pkcolumns) {
+            sb.append(sb.length() == 0 ? "'" : " || '" + SQLAND)
+                    .append(dc.getDBColumnName()).append(" = ' || quote(")
+                    .append(row).append(".").append(dc.getDBColumnName()).append(")");
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,736 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mjt.dbcolumn.DBColumn;
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBTableDAO inserts, updates, deletes and selects the rows of a table, as
+ * defined by a DBTable, using statements generated from the DBTable's
+ * DBColumns that are compiled once and then reused, rather than the SQL
+ * being compiled for every call (as per <code>SQLiteDatabase.insert</code>
+ * etc. with ContentValues).
+ *
+ * <p>
+ *     A row's values are given in DBColumn order and bound positionally,
+ *     according to their type (see DBStatementBinder). A row's key is the
+ *     values of the PRIMARY KEY DBColumns, in DBColumn order, or the rowid
+ *     if the DBTable has no PRIMARY KEY. Selects are run via
+ *     <code>rawQueryWithFactory</code> with the same SQL each time, so the
+ *     statement compiled by the connection (held in its statement cache)
+ *     is reused.
+ * </p>
+ * <p>
+ *     Batches of rows (<code>insertBatch</code>, <code>updateBatch</code>
+ *     and <code>deleteByKeys</code>) reuse the compiled statement and are
+ *     committed in transactions of <code>setTransactionSize</code> rows,
+ *     rather than each row being committed individually. If a batch
+ *     fails, the rows of the current transaction are rolled back; rows of
+ *     transactions already committed remain. If the batch is run within a
+ *     transaction, the batch's transactions are nested within it.
+ * </p>
+ * <p>
+ *     <code>upsert</code> inserts a row or, if it conflicts with an
+ *     existing row on the conflict DBColumns (the PRIMARY KEY unless set by
+ *     <code>setConflictDBColumns</code>, e.g. to the DBColumns of a UNIQUE
+ *     DBIndex), updates the existing row; a single statement per row,
+ *     <code>INSERT ... ON CONFLICT (...) DO UPDATE</code>. SQLite prior to
+ *     3.24.0 (Android prior to API 30) doesn't support this, in which case
+ *     <code>INSERT OR REPLACE</code> is used; the existing row is then
+ *     deleted and the row inserted, so any DBColumns not given are reset
+ *     and, unless the rowid is a given column, the rowid changes.
+ * </p>
+ * <p>
+ *     Note! A DBTableDAO is not thread safe; use one per thread. The
+ *     DBTable should not be changed once the DBTableDAO has been
+ *     constructed. Close the DBTableDAO to release the compiled statements.
+ * </p>
+ *
+ * Example usage :-
+ * <pre>
+ *     DBTableDAO dao = new DBTableDAO(db, mytable);
+ *     try {
+ *         long id = dao.insert(null, "Fred", "A user");
+ *         dao.update(id, "Fred", "Updated user");
+ *     } finally {
+ *         dao.close();
+ *     }
+ * </pre>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBTableDAO {
+
+    public static final int DEFAULT_TRANSACTION_SIZE = 10000;
+    /**
+     * The maximum number of parameters of a statement, SQLite's limit
+     * (SQLITE_MAX_VARIABLE_NUMBER) prior to version 3.32.0.
+     */
+    public static final int MAX_BIND_PARAMETERS = 999;
+    private static final int BATCH_INSERT = 0;
+    private static final int BATCH_UPDATE = 1;
+    private static final int BATCH_UPSERT = 2;
+
+    private SQLiteDatabase db;
+    private DBTable dbtable;
+    private int column_count;
+    /* The offsets (in DBColumn order) of the PRIMARY KEY columns */
+    private int[] key_offsets;
+    /* The offsets of the columns that are not part of the PRIMARY KEY */
+    private int[] nonkey_offsets;
+
+    private String insert_sql;
+    private String update_sql;
+    private String delete_sql;
+    private String select_sql;
+    private SQLiteStatement insert_stmt;
+    private SQLiteStatement update_stmt;
+    private SQLiteStatement delete_stmt;
+    private int transaction_size;
+    /* The DELETE for a full chunk of keys, see deleteByKeys */
+    private SQLiteStatement delete_chunk_stmt;
+    /* The offsets of the conflict target columns of an upsert */
+    private int[] conflict_offsets;
+    /* Whether ON CONFLICT DO UPDATE is supported, null until checked */
+    private Boolean native_upsert;
+    private SQLiteStatement upsert_stmt;
+    /* The DBReadCache invalidated by writes, if any */
+    private DBReadCache read_cache;
+
+    /**************************************************************************
+     * Constructs a DBTableDAO.
+     *
+     * @param db        The SQLite database.
+     * @param dbtable   The DBTable, which must be usable.
+     * @throws IllegalStateException if the DBTable is not usable.
+     */
+    public DBTableDAO(SQLiteDatabase db, DBTable dbtable) {
+        if (!dbtable.isDBTableUsable()) {
+            throw new IllegalStateException("DBTable " + dbtable.getDBTableName() +
+                    " is not usable - " + dbtable.getAllDBTableProblemMsgs());
+        }
+        this.db = db;
+        this.dbtable = dbtable;
+        ArrayList<DBColumn> columns = dbtable.getTableDBColumns();
+        this.column_count = columns.size();
+        int keycount = 0;
+        for (DBColumn dc : columns) {
+            if (dc.getDBColumnIsPrimaryIndex()) {
+                keycount++;
+            }
+        }
+        this.key_offsets = new int[keycount];
+        this.nonkey_offsets = new int[this.column_count - keycount];
+        int k = 0;
+        int n = 0;
+        for (int i = 0; i < this.column_count; i++) {
+            if (columns.get(i).getDBColumnIsPrimaryIndex()) {
+                this.key_offsets[k++] = i;
+            } else {
+                this.nonkey_offsets[n++] = i;
+            }
+        }
+        this.transaction_size = DEFAULT_TRANSACTION_SIZE;
+        this.conflict_offsets = this.key_offsets;
+        this.buildSQL(columns);
+    }
+
+    /**************************************************************************
+     * Sets the DBColumns on which an upsert conflicts with an existing row,
+     * which must be the DBColumns of the PRIMARY KEY or of a UNIQUE index
+     * (e.g. <code>DBIndex.getIndexDBColumns</code>).
+     *
+     * @param conflict_columns  The DBColumns of the DBTable.
+     * @throws IllegalArgumentException if a DBColumn isn't in the DBTable.
+     */
+    public void setConflictDBColumns(ArrayList<DBColumn> conflict_columns) {
+        ArrayList<DBColumn> columns = this.dbtable.getTableDBColumns();
+        int[] offsets = new int[conflict_columns.size()];
+        for (int c = 0; c < offsets.length; c++) {
+            offsets[c] = -1;
+            for (int i = 0; i < this.column_count; i++) {
+                if (columns.get(i).getDBColumnName().equalsIgnoreCase(
+                        conflict_columns.get(c).getDBColumnName())) {
+                    offsets[c] = i;
+                    break;
+                }
+            }
+            if (offsets[c] < 0) {
+                throw new IllegalArgumentException("DBColumn " +
+                        conflict_columns.get(c).getDBColumnName() +
+                        " is not in DBTable " + this.dbtable.getDBTableName());
+            }
+        }
+        this.conflict_offsets = offsets;
+        if (this.upsert_stmt != null) {
+            this.upsert_stmt.close();
+            this.upsert_stmt = null;
+        }
+    }
+
+    /**************************************************************************
+     * Gets whether or not the SQLite version supports
+     * <code>ON CONFLICT ... DO UPDATE</code> (3.24.0 or greater), else
+     * upserts use <code>INSERT OR REPLACE</code>.
+     *
+     * @return true if supported, else false.
+     */
+    public boolean isNativeUpsertSupported() {
+        if (this.native_upsert == null) {
+            SQLiteStatement stmt = this.db.compileStatement(SQLSELECT + "sqlite_version()");
+            try {
+                this.native_upsert = isVersionAtLeast(stmt.simpleQueryForString(), 3, 24);
+            } finally {
+                stmt.close();
+            }
+        }
+        return this.native_upsert;
+    }
+
+    /**************************************************************************
+     * Sets the number of rows per transaction of a batch.
+     *
+     * @param transaction_size  The number of rows (minimum 1, default
+     *                          10000).
+     */
+    public void setTransactionSize(int transaction_size) {
+        this.transaction_size = Math.max(1, transaction_size);
+    }
+
+    /**************************************************************************
+     * Gets the number of rows per transaction of a batch.
+     *
+     * @return The number of rows.
+     */
+    public int getTransactionSize() { return this.transaction_size; }
+
+    /**************************************************************************
+     * Sets the DBReadCache whose results for the table are invalidated when
+     * the table is written (by any of the insert, update, upsert or delete
+     * methods).
+     *
+     * @param read_cache    The DBReadCache, null for none.
+     */
+    public void setReadCache(DBReadCache read_cache) {
+        this.read_cache = read_cache;
+    }
+
+    /**************************************************************************
+     * Gets the DBTable.
+     *
+     * @return The DBTable.
+     */
+    public DBTable getDBTable() { return this.dbtable; }
+
+    /**************************************************************************
+     * Gets whether or not the key is the PRIMARY KEY (else the rowid).
+     *
+     * @return true if the key is the PRIMARY KEY, false if the rowid.
+     */
+    public boolean hasPrimaryKey() { return this.key_offsets.length > 0; }
+
+    /**************************************************************************
+     * Inserts a row.
+     *
+     * @param values    The values, one per DBColumn in DBColumn order (null
+     *                  for an alias of the rowid to have it generated).
+     * @return The rowid of the inserted row, -1 if not inserted.
+     * @throws IllegalArgumentException if the number of values is wrong.
+     */
+    public long insert(Object... values) {
+        this.checkValueCount(values, this.column_count);
+        if (this.insert_stmt == null) {
+            this.insert_stmt = this.db.compileStatement(this.insert_sql);
+        }
+        DBStatementBinder.bindValues(this.insert_stmt, values);
+        long rowid = this.insert_stmt.executeInsert();
+        this.invalidateReadCache();
+        return rowid;
+    }
+
+    /**************************************************************************
+     * Updates a row by its PRIMARY KEY; the values of the PRIMARY KEY
+     * DBColumns identify the row and the other DBColumns are set.
+     *
+     * @param values    The values, one per DBColumn in DBColumn order.
+     * @return The number of rows updated (0 or 1).
+     * @throws IllegalArgumentException if the number of values is wrong.
+     * @throws IllegalStateException if the DBTable has no PRIMARY KEY (use
+     *                               <code>updateByRowid</code>).
+     */
+    public int update(Object... values) {
+        this.checkValueCount(values, this.column_count);
+        if (!this.hasPrimaryKey()) {
+            throw new IllegalStateException("DBTable " + this.dbtable.getDBTableName() +
+                    " has no PRIMARY KEY");
+        }
+        Object[] args = new Object[this.column_count];
+        int a = 0;
+        for (int offset : this.nonkey_offsets) {
+            args[a++] = values[offset];
+        }
+        for (int offset : this.key_offsets) {
+            args[a++] = values[offset];
+        }
+        return this.executeUpdate(args);
+    }
+
+    /**************************************************************************
+     * Updates a row by its rowid, all DBColumns being set.
+     *
+     * @param rowid     The rowid of the row.
+     * @param values    The values, one per DBColumn in DBColumn order.
+     * @return The number of rows updated (0 or 1).
+     * @throws IllegalArgumentException if the number of values is wrong.
+     * @throws IllegalStateException if the DBTable has a PRIMARY KEY (use
+     *                               <code>update</code>).
+     */
+    public int updateByRowid(long rowid, Object... values) {
+        this.checkValueCount(values, this.column_count);
+        if (this.hasPrimaryKey()) {
+            throw new IllegalStateException("DBTable " + this.dbtable.getDBTableName() +
+                    " has a PRIMARY KEY");
+        }
+        Object[] args = new Object[this.column_count + 1];
+        System.arraycopy(values, 0, args, 0, this.column_count);
+        args[this.column_count] = rowid;
+        return this.executeUpdate(args);
+    }
+
+    /**************************************************************************
+     * Deletes a row by its key.
+     *
+     * @param key   The key values, in DBColumn order (the rowid if the
+     *              DBTable has no PRIMARY KEY).
+     * @return The number of rows deleted (0 or 1).
+     * @throws IllegalArgumentException if the number of key values is wrong.
+     */
+    public int deleteByKey(Object... key) {
+        this.checkValueCount(key, this.getKeyCount());
+        if (this.delete_stmt == null) {
+            this.delete_stmt = this.db.compileStatement(this.delete_sql);
+        }
+        DBStatementBinder.bindValues(this.delete_stmt, key);
+        int deleted = this.delete_stmt.executeUpdateDelete();
+        this.invalidateReadCache();
+        return deleted;
+    }
+
+    /**************************************************************************
+     * Inserts a row or, if it conflicts on the conflict DBColumns with an
+     * existing row, updates the existing row's other DBColumns (other than
+     * the PRIMARY KEY).
+     *
+     * @param values    The values, one per DBColumn in DBColumn order.
+     * @return The number of rows inserted or updated (0 if the row
+     *         conflicts and there are no other DBColumns to update).
+     * @throws IllegalArgumentException if the number of values is wrong.
+     * @throws IllegalStateException if there are no conflict DBColumns
+     *                               (no PRIMARY KEY and none set).
+     */
+    public int upsert(Object... values) {
+        this.checkValueCount(values, this.column_count);
+        if (this.upsert_stmt == null) {
+            if (this.conflict_offsets.length < 1) {
+                throw new IllegalStateException("DBTable " +
+                        this.dbtable.getDBTableName() + " has no conflict DBColumns");
+            }
+            this.upsert_stmt = this.db.compileStatement(
+                    this.getUpsertSQL(this.isNativeUpsertSupported()));
+        }
+        DBStatementBinder.bindValues(this.upsert_stmt, values);
+        int changed = this.upsert_stmt.executeUpdateDelete();
+        this.invalidateReadCache();
+        return changed;
+    }
+
+    /**************************************************************************
+     * Inserts a batch of rows, as per <code>insert</code>.
+     *
+     * @param rows  The rows, each the values in DBColumn order.
+     * @return The number of rows inserted.
+     * @throws IllegalArgumentException if the number of values of a row is
+     *                                  wrong.
+     */
+    public long insertBatch(Iterable<Object[]> rows) {
+        return this.runBatch(rows, BATCH_INSERT);
+    }
+
+    /**************************************************************************
+     * Updates a batch of rows by their PRIMARY KEYs, as per
+     * <code>update</code>.
+     *
+     * @param rows  The rows, each the values in DBColumn order.
+     * @return The number of rows updated.
+     * @throws IllegalArgumentException if the number of values of a row is
+     *                                  wrong.
+     * @throws IllegalStateException if the DBTable has no PRIMARY KEY.
+     */
+    public long updateBatch(Iterable<Object[]> rows) {
+        return this.runBatch(rows, BATCH_UPDATE);
+    }
+
+    /**************************************************************************
+     * Upserts a batch of rows, as per <code>upsert</code>.
+     *
+     * @param rows  The rows, each the values in DBColumn order.
+     * @return The number of rows inserted or updated.
+     * @throws IllegalArgumentException if the number of values of a row is
+     *                                  wrong.
+     * @throws IllegalStateException if there are no conflict DBColumns.
+     */
+    public long upsertBatch(Iterable<Object[]> rows) {
+        return this.runBatch(rows, BATCH_UPSERT);
+    }
+
+    /**************************************************************************
+     * Deletes rows by their keys. The keys are deleted in chunks, each a
+     * single DELETE with as many keys as are within
+     * <code>MAX_BIND_PARAMETERS</code>.
+     *
+     * @param keys  The keys, each the key values in DBColumn order (the
+     *              rowid if the DBTable has no PRIMARY KEY).
+     * @return The number of rows deleted.
+     * @throws IllegalArgumentException if the number of values of a key is
+     *                                  wrong.
+     */
+    public long deleteByKeys(List<Object[]> keys) {
+        int keycount = this.getKeyCount();
+        int chunk_keys = MAX_BIND_PARAMETERS / keycount;
+        // Keys per transaction, in whole chunks
+        int transaction_keys = Math.max(1,
+                this.transaction_size / chunk_keys) * chunk_keys;
+        long deleted = 0;
+        int start = 0;
+        while (start < keys.size()) {
+            int end = Math.min(keys.size(), start + transaction_keys);
+            this.db.beginTransaction();
+            try {
+                for (int c = start; c < end; c += chunk_keys) {
+                    deleted += this.deleteChunk(keys, c,
+                            Math.min(end, c + chunk_keys), chunk_keys);
+                }
+                this.db.setTransactionSuccessful();
+            } finally {
+                this.db.endTransaction();
+                this.invalidateReadCache();
+            }
+            start = end;
+        }
+        return deleted;
+    }
+
+    /**************************************************************************
+     * Selects a row by its key.
+     *
+     * @param key   The key values, in DBColumn order (the rowid if the
+     *              DBTable has no PRIMARY KEY).
+     * @return A Cursor with the row's columns, in DBColumn order, which
+     *         has no rows if there is no such row. The Cursor must be
+     *         closed.
+     * @throws IllegalArgumentException if the number of key values is wrong.
+     */
+    public Cursor selectByKey(Object... key) {
+        this.checkValueCount(key, this.getKeyCount());
+        return DBStatementBinder.rawQuery(this.db, this.select_sql, key);
+    }
+
+    /**************************************************************************
+     * Releases the compiled statements; the DBTableDAO can still be used,
+     * the statements being compiled again when next required.
+     */
+    public void close() {
+        if (this.insert_stmt != null) {
+            this.insert_stmt.close();
+            this.insert_stmt = null;
+        }
+        if (this.update_stmt != null) {
+            this.update_stmt.close();
+            this.update_stmt = null;
+        }
+        if (this.delete_stmt != null) {
+            this.delete_stmt.close();
+            this.delete_stmt = null;
+        }
+        if (this.delete_chunk_stmt != null) {
+            this.delete_chunk_stmt.close();
+            this.delete_chunk_stmt = null;
+        }
+        if (this.upsert_stmt != null) {
+            this.upsert_stmt.close();
+            this.upsert_stmt = null;
+        }
+    }
+
+    /**************************************************************************
+     * Inserts or updates a batch of rows, committing every transaction size
+     * rows.
+     *
+     * @param rows  The rows.
+     * @param op    BATCH_INSERT, BATCH_UPDATE or BATCH_UPSERT.
+     * @return The number of rows inserted or updated.
+     */
+    private long runBatch(Iterable<Object[]> rows, int op) {
+        long done = 0;
+        int in_transaction = 0;
+        this.db.beginTransaction();
+        try {
+            for (Object[] row : rows) {
+                if (op == BATCH_INSERT) {
+                    if (this.insert(row) != -1) {
+                        done++;
+                    }
+                } else if (op == BATCH_UPDATE) {
+                    done += this.update(row);
+                } else {
+                    done += this.upsert(row);
+                }
+                if (++in_transaction >= this.transaction_size) {
+                    this.db.setTransactionSuccessful();
+                    this.db.endTransaction();
+                    this.db.beginTransaction();
+                    in_transaction = 0;
+                }
+            }
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+            // Again, as rows read whilst the batch ran may have been rolled back
+            this.invalidateReadCache();
+        }
+        return done;
+    }
+
+    /**************************************************************************
+     * Deletes a chunk of keys by a single DELETE, the statement for a full
+     * chunk being kept for reuse.
+     *
+     * @param keys          The keys.
+     * @param start         The index of the first key of the chunk.
+     * @param end           The index after the last key of the chunk.
+     * @param chunk_keys    The number of keys of a full chunk.
+     * @return The number of rows deleted.
+     */
+    private int deleteChunk(List<Object[]> keys, int start, int end, int chunk_keys) {
+        int keycount = this.getKeyCount();
+        Object[] args = new Object[(end - start) * keycount];
+        int a = 0;
+        for (int i = start; i < end; i++) {
+            Object[] key = keys.get(i);
+            this.checkValueCount(key, keycount);
+            System.arraycopy(key, 0, args, a, keycount);
+            a += keycount;
+        }
+        boolean full = end - start == chunk_keys;
+        SQLiteStatement stmt = full ? this.delete_chunk_stmt : null;
+        if (stmt == null) {
+            stmt = this.db.compileStatement(this.getDeleteChunkSQL(end - start));
+        }
+        try {
+            DBStatementBinder.bindValues(stmt, args);
+            return stmt.executeUpdateDelete();
+        } finally {
+            if (full) {
+                this.delete_chunk_stmt = stmt;
+            } else {
+                stmt.close();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Gets the SQL to delete a number of keys; <code>k IN (?, ...)</code>
+     * for a single column key, else <code>(k1 = ? AND k2 = ?) OR ...</code>.
+     *
+     * @param count The number of keys.
+     * @return The SQL.
+     */
+    private String getDeleteChunkSQL(int count) {
+        ArrayList<DBColumn> columns = this.dbtable.getTableDBColumns();
+        StringBuilder sql = new StringBuilder("DELETE").append(SQLFROM)
+                .append(this.dbtable.getDBTableName()).append(SQLWHERE);
+        if (this.key_offsets.length < 2) {
+            sql.append(this.hasPrimaryKey() ?
+                    columns.get(this.key_offsets[0]).getDBColumnName() :
+                    SQLITEMASTERCOLUMN_ROWID).append(" IN (");
+            for (int i = 0; i < count; i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            return sql.append(")").toString();
+        }
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sql.append(SQLOR);
+            }
+            sql.append("(");
+            for (int k = 0; k < this.key_offsets.length; k++) {
+                if (k > 0) {
+                    sql.append(SQLAND);
+                }
+                sql.append(columns.get(this.key_offsets[k]).getDBColumnName())
+                        .append(" = ?");
+            }
+            sql.append(")");
+        }
+        return sql.toString();
+    }
+
+    /**************************************************************************
+     * Builds the SQL of the statements.
+     *
+     * <p>
+     *     The UPDATE's parameters are the non key DBColumns followed by the
+     *     key; for a DBTable without a PRIMARY KEY, all DBColumns followed
+     *     by the rowid.
+     * </p>
+     */
+    private void buildSQL(ArrayList<DBColumn> columns) {
+        String table_name = this.dbtable.getDBTableName();
+        StringBuilder names = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < this.column_count; i++) {
+            if (i > 0) {
+                names.append(", ");
+                params.append(", ");
+            }
+            names.append(columns.get(i).getDBColumnName());
+            params.append("?");
+        }
+        StringBuilder where = new StringBuilder(SQLWHERE);
+        if (this.hasPrimaryKey()) {
+            for (int k = 0; k < this.key_offsets.length; k++) {
+                if (k > 0) {
+                    where.append(SQLAND);
+                }
+                where.append(columns.get(this.key_offsets[k]).getDBColumnName())
+                        .append(" = ?");
+            }
+        } else {
+            where.append(SQLITEMASTERCOLUMN_ROWID).append(" = ?");
+        }
+        StringBuilder set = new StringBuilder();
+        int[] setoffsets = this.hasPrimaryKey() ? this.nonkey_offsets : null;
+        int setcount = setoffsets != null ? setoffsets.length : this.column_count;
+        for (int s = 0; s < setcount; s++) {
+            if (s > 0) {
+                set.append(", ");
+            }
+            set.append(columns.get(setoffsets != null ? setoffsets[s] : s)
+                    .getDBColumnName()).append(" = ?");
+        }
+
+        this.insert_sql = "INSERT INTO " + table_name +
+                " (" + names + ") VALUES (" + params + ")";
+        // A DBTable whose only DBColumns are its PRIMARY KEY has nothing to
+        // set, so the key is set to itself
+        this.update_sql = "UPDATE " + table_name + " SET " +
+                (set.length() > 0 ? set.toString() :
+                        columns.get(this.key_offsets[0]).getDBColumnName() + " = " +
+                                columns.get(this.key_offsets[0]).getDBColumnName()) +
+                where;
+        this.delete_sql = "DELETE" + SQLFROM + table_name + where;
+        this.select_sql = SQLSELECT + names + SQLFROM + table_name + where;
+    }
+
+    /**************************************************************************
+     * Gets the SQL of the upsert, either
+     * <code>INSERT ... ON CONFLICT (...) DO UPDATE SET c = excluded.c</code>
+     * or <code>INSERT OR REPLACE</code>.
+     *
+     * @param native_upsert true for ON CONFLICT, false for OR REPLACE.
+     * @return The SQL.
+     */
+    private String getUpsertSQL(boolean native_upsert) {
+        if (!native_upsert) {
+            return this.insert_sql.replaceFirst("INSERT", "INSERT OR REPLACE");
+        }
+        ArrayList<DBColumn> columns = this.dbtable.getTableDBColumns();
+        StringBuilder sql = new StringBuilder(this.insert_sql).append(" ON CONFLICT (");
+        StringBuilder set = new StringBuilder();
+        for (int c = 0; c < this.conflict_offsets.length; c++) {
+            if (c > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns.get(this.conflict_offsets[c]).getDBColumnName());
+        }
+        sql.append(")");
+        // The conflict and PRIMARY KEY DBColumns identify the existing row,
+        // so they are not updated
+        for (int i = 0; i < this.column_count; i++) {
+            if (containsOffset(this.conflict_offsets, i) ||
+                    containsOffset(this.key_offsets, i)) {
+                continue;
+            }
+            if (set.length() > 0) {
+                set.append(", ");
+            }
+            String name = columns.get(i).getDBColumnName();
+            set.append(name).append(" = excluded.").append(name);
+        }
+        if (set.length() < 1) {
+            return sql.append(" DO NOTHING").toString();
+        }
+        return sql.append(" DO UPDATE SET ").append(set).toString();
+    }
+
+    private static boolean containsOffset(int[] offsets, int offset) {
+        for (int o : offsets) {
+            if (o == offset) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**************************************************************************
+     * Compares an SQLite version string (e.g. 3.22.0) with a version.
+     *
+     * @return true if the version is at least major.minor.
+     */
+    private static boolean isVersionAtLeast(String version, int major, int minor) {
+        String[] parts = version.split("\\.");
+        try {
+            int vmajor = Integer.parseInt(parts[0]);
+            int vminor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return vmajor > major || (vmajor == major && vminor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**************************************************************************
+     * Runs the UPDATE statement with the given arguments.
+     */
+    private int executeUpdate(Object[] args) {
+        if (this.update_stmt == null) {
+            this.update_stmt = this.db.compileStatement(this.update_sql);
+        }
+        DBStatementBinder.bindValues(this.update_stmt, args);
+        int updated = this.update_stmt.executeUpdateDelete();
+        this.invalidateReadCache();
+        return updated;
+    }
+
+    private void invalidateReadCache() {
+        if (this.read_cache != null) {
+            this.read_cache.invalidate(this.dbtable.getDBTableName());
+        }
+    }
+
+    private int getKeyCount() {
+        return this.hasPrimaryKey() ? this.key_offsets.length : 1;
+    }
+
+    private void checkValueCount(Object[] values, int expected) {
+        if (values == null || values.length != expected) {
+            throw new IllegalArgumentException("DBTable " + this.dbtable.getDBTableName() +
+                    " requires " + Integer.toString(expected) + " values, " +
+                    Integer.toString(values == null ? 0 : values.length) + " given");
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package mjt.dbtable;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import mjt.dbcolumn.DBColumn;
+import static mjt.sqlwords.SQLKWORD.*;
+
+/**
+ * DBTableReader reads the rows of a table a page at a time, each page
+ * being a query that continues from the key of the last row of the
+ * previous page (keyset pagination), rather than a single query over the
+ * whole table.
+ *
+ * <p>
+ *     A single Cursor over a large table is filled a CursorWindow (2MB)
+ *     at a time, the query being re-run and stepped past the rows already
+ *     read each time the window moves; so a full scan costs more than
+ *     O(n). Each page of a DBTableReader fits within a window and starts
+ *     with an index seek on the key, so a full scan is O(n) and only a
+ *     page of rows is held at a time.
+ * </p>
+ * <p>
+ *     The key is the rowid (KEY_ROWID, the default), or the PRIMARY KEY
+ *     columns (KEY_PRIMARY_KEY) for rows in primary key order. The rows
+ *     are exposed as an Iterator; <code>next</code> returns the Cursor of
+ *     the current page positioned at the row, which is only valid until
+ *     the next call. The key values are bound according to their type so
+ *     comparisons do not rely upon column affinity.
+ * </p>
+ * <p>
+ *     Note! With KEY_PRIMARY_KEY, rows that have a NULL in a PRIMARY KEY
+ *     column are not read.
+ * </p>
+ *
+ * Example usage :-
+ * <pre>
+ *     DBTableReader reader = new DBTableReader(db, mytable, 500);
+ *     try {
+ *         while (reader.hasNext()) {
+ *             Cursor csr = reader.next();
+ *             ....
+ *         }
+ *     } finally {
+ *         reader.close();
+ *     }
+ * </pre>
+ */
+@SuppressWarnings({"WeakerAccess","unused"})
+public class DBTableReader implements Iterator<Cursor> {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int KEY_ROWID = 0;
+    public static final int KEY_PRIMARY_KEY = 1;
+    /**
+     * The name of the column that holds the rowid, if the rowid is the key
+     * and the table has no alias of the rowid.
+     */
+    public static final String ROWID_COLUMN = "dbtablereader_rowid";
+    private static final String LARGE_VALUE_SUFFIX = "_dbtablereader_large";
+
+    private SQLiteDatabase db;
+    private DBTable dbtable;
+    private int page_size;
+    private int key_mode;
+    private String[] columns;
+    private Long from_rowid;
+    private Long to_rowid;
+    private int large_value_size;
+
+    /* Set when the first page is read */
+    private String[] key_expressions;
+    private int[] key_offsets;
+    private int rowid_offset;
+    private int[] large_offsets;
+    private String[] large_column_names;
+    private String first_select_sql;
+    private String select_sql;
+    private boolean started;
+
+    /* The current page */
+    private Cursor page;
+    private Object[] last_key;
+    private boolean last_page;
+    private long rows_read;
+    private int pages_read;
+
+    /**************************************************************************
+     * Constructs a DBTableReader with the default page size.
+     *
+     * @param db        The SQLite database.
+     * @param dbtable   The DBTable of the table to read.
+     */
+    public DBTableReader(SQLiteDatabase db, DBTable dbtable) {
+        this(db, dbtable, DEFAULT_PAGE_SIZE);
+    }
+
+    /**************************************************************************
+     * Constructs a DBTableReader.
+     *
+     * @param db        The SQLite database.
+     * @param dbtable   The DBTable of the table to read.
+     * @param page_size The number of rows per page (minimum 1); the rows of
+     *                  a page should fit within a CursorWindow.
+     */
+    public DBTableReader(SQLiteDatabase db, DBTable dbtable, int page_size) {
+        this.db = db;
+        this.dbtable = dbtable;
+        this.page_size = Math.max(1, page_size);
+        this.key_mode = KEY_ROWID;
+        this.columns = null;
+        this.large_value_size = 0;
+        this.started = false;
+        this.last_page = false;
+        this.rows_read = 0;
+        this.pages_read = 0;
+    }
+
+    /**************************************************************************
+     * Sets the key, KEY_ROWID or KEY_PRIMARY_KEY; a DBTable without PRIMARY
+     * KEY columns is always read by rowid.
+     *
+     * @param key_mode  KEY_ROWID or KEY_PRIMARY_KEY.
+     */
+    public void setKeyMode(int key_mode) {
+        this.checkNotStarted();
+        this.key_mode = key_mode;
+    }
+
+    /**************************************************************************
+     * Sets the columns to be read, the default being the DBTable's columns
+     * (in column order). Any key columns that are not included are added
+     * after the given columns.
+     *
+     * @param columns   The names of the columns, null for the default.
+     */
+    public void setColumns(String[] columns) {
+        this.checkNotStarted();
+        this.columns = columns;
+    }
+
+    /**************************************************************************
+     * Restricts the rows read to a range of rowids (KEY_ROWID only).
+     *
+     * @param from_rowid    The lowest rowid, null for no lower limit.
+     * @param to_rowid      The highest rowid, null for no upper limit.
+     */
+    public void setRowidRange(Long from_rowid, Long to_rowid) {
+        this.checkNotStarted();
+        this.from_rowid = from_rowid;
+        this.to_rowid = to_rowid;
+    }
+
+    /**************************************************************************
+     * Sets the size above which BLOB/TEXT values (of the DBTable's columns
+     * other than INTEGER, REAL and key columns) are not read with the row;
+     * such values are NULL in the Cursor, <code>getLargeValueType</code>
+     * indicates that they are large and they can be read using
+     * <code>openLargeValue</code>. So rows with values that would not fit
+     * within a CursorWindow can be read.
+     *
+     * @param large_value_size  The size in bytes, 0 (the default) to read
+     *                          all values with the row.
+     */
+    public void setLargeValueSize(int large_value_size) {
+        this.checkNotStarted();
+        this.large_value_size = Math.max(0, large_value_size);
+    }
+
+    /**************************************************************************
+     * Gets the rowid of the current row; this is available if reading by
+     * rowid or if a large value size has been set.
+     *
+     * @return The rowid.
+     */
+    public long getRowid() {
+        if (this.page == null || this.rowid_offset < 0) {
+            throw new IllegalStateException("rowid not available");
+        }
+        return this.page.getLong(this.rowid_offset);
+    }
+
+    /**************************************************************************
+     * Gets whether or not the value of a column of the current row is
+     * large (see <code>setLargeValueSize</code>), and if so its type.
+     *
+     * @param column    The offset of the column.
+     * @return Cursor.FIELD_TYPE_NULL if the value is not large (it is in the
+     * Cursor), else Cursor.FIELD_TYPE_STRING or Cursor.FIELD_TYPE_BLOB.
+     */
+    public int getLargeValueType(int column) {
+        if (this.page == null || column >= this.large_offsets.length ||
+                this.large_offsets[column] < 0 ||
+                this.page.isNull(this.large_offsets[column])) {
+            return Cursor.FIELD_TYPE_NULL;
+        }
+        return this.page.getString(this.large_offsets[column]).equals("blob") ?
+                Cursor.FIELD_TYPE_BLOB : Cursor.FIELD_TYPE_STRING;
+    }
+
+    /**************************************************************************
+     * Opens a DBBlobInputStream that reads a large value of the current row.
+     *
+     * @param column    The offset of the column.
+     * @return The DBBlobInputStream.
+     */
+    public DBBlobInputStream openLargeValue(int column) {
+        if (this.getLargeValueType(column) == Cursor.FIELD_TYPE_NULL) {
+            throw new IllegalStateException("Value of column " +
+                    Integer.toString(column) + " is not large");
+        }
+        return new DBBlobInputStream(this.db, this.dbtable.getDBTableName(),
+                this.large_column_names[column], this.getRowid());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.started) {
+            this.start();
+            this.readPage();
+        }
+        while (this.page != null) {
+            if (this.page.getPosition() < this.page.getCount() - 1) {
+                return true;
+            }
+            if (this.last_page) {
+                this.closePage();
+                return false;
+            }
+            this.saveLastKey();
+            this.readPage();
+        }
+        return false;
+    }
+
+    /**************************************************************************
+     * Moves to the next row.
+     *
+     * @return The Cursor of the current page positioned at the row; it must
+     * not be moved or closed and is only valid until the next call.
+     */
+    @Override
+    public Cursor next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.page.moveToNext();
+        this.rows_read++;
+        return this.page;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**************************************************************************
+     * Closes the Cursor of the current page, if any; no further rows are
+     * read.
+     */
+    public void close() {
+        this.closePage();
+        this.started = true;
+        this.last_page = true;
+    }
+
+    /**************************************************************************
+     * Gets the number of rows read, i.e. returned by <code>next</code>.
+     *
+     * @return The number of rows.
+     */
+    public long getRowsRead() {
+        return this.rows_read;
+    }
+
+    /**************************************************************************
+     * Gets the number of pages read, i.e. the number of page queries run.
+     *
+     * @return The number of pages.
+     */
+    public int getPagesRead() {
+        return this.pages_read;
+    }
+
+    /**************************************************************************
+     * Builds the page queries; the query for the first page and the query
+     * for subsequent pages, which continues after the last key with
+     * <code>(k1 > ?) OR (k1 = ? AND k2 > ?) ...</code> for the key columns.
+     */
+    private void start() {
+        this.started = true;
+        ArrayList<String> keys = new ArrayList<>();
+        if (this.key_mode == KEY_PRIMARY_KEY) {
+            for (DBColumn dc : this.dbtable.getPrimaryKeyDBColumns()) {
+                keys.add(dc.getDBColumnName());
+            }
+        }
+        String rowidalias = null;
+        boolean byrowid = keys.isEmpty();
+        if (byrowid) {
+            rowidalias = this.dbtable.getRowidAliasColumnName();
+            keys.add(rowidalias != null ? rowidalias : ROWID_COLUMN);
+        }
+
+        // names are the column names, expressions what is selected for them
+        ArrayList<String> names = new ArrayList<>();
+        if (this.columns != null) {
+            for (String column : this.columns) {
+                names.add(column);
+            }
+        } else {
+            for (DBColumn dc : this.dbtable.getTableDBColumns()) {
+                names.add(dc.getDBColumnName());
+            }
+        }
+        int columncount = names.size();
+        ArrayList<String> expressions = new ArrayList<>(names);
+        this.key_expressions = new String[keys.size()];
+        this.key_offsets = new int[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            String key = keys.get(k);
+            this.key_expressions[k] = key.equals(ROWID_COLUMN) ?
+                    SQLITEMASTERCOLUMN_ROWID : key;
+            int offset = indexOfIgnoreCase(names, key);
+            if (offset < 0) {
+                offset = names.size();
+                names.add(key);
+                expressions.add(key.equals(ROWID_COLUMN) ?
+                        SQLITEMASTERCOLUMN_ROWID + SQLAS + ROWID_COLUMN : key);
+            }
+            this.key_offsets[k] = offset;
+        }
+        this.rowid_offset = byrowid ? this.key_offsets[0] : -1;
+        if (this.rowid_offset < 0 && this.large_value_size > 0) {
+            this.rowid_offset = names.size();
+            names.add(ROWID_COLUMN);
+            expressions.add(SQLITEMASTERCOLUMN_ROWID + SQLAS + ROWID_COLUMN);
+        }
+
+        // Large values are selected as NULL with a flag column of their type
+        this.large_offsets = new int[columncount];
+        this.large_column_names = new String[columncount];
+        for (int i = 0; i < columncount; i++) {
+            this.large_offsets[i] = -1;
+            DBColumn dc = this.dbtable.getDBColumnByName(names.get(i));
+            if (this.large_value_size < 1 || dc == null ||
+                    indexOfIgnoreCase(keys, dc.getDBColumnName()) >= 0 ||
+                    dc.getDBColumnType().equals(SQLINTEGER) ||
+                    dc.getDBColumnType().equals(SQLREAL)) {
+                continue;
+            }
+            String column = dc.getDBColumnName();
+            String islarge = "CASE WHEN length(CAST(" + column + SQLAS + SQLBLOB +
+                    ")) > " + Integer.toString(this.large_value_size) + " THEN ";
+            expressions.set(i, islarge + "NULL ELSE " + column + " END" +
+                    SQLAS + column);
+            this.large_offsets[i] = names.size();
+            this.large_column_names[i] = column;
+            names.add(column + LARGE_VALUE_SUFFIX);
+            expressions.add(islarge + "typeof(" + column + ") END" +
+                    SQLAS + column + LARGE_VALUE_SUFFIX);
+        }
+
+        StringBuilder sql = new StringBuilder(SQLSELECT);
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(expressions.get(i));
+        }
+        sql.append(SQLFROM).append(this.dbtable.getDBTableName());
+        ArrayList<String> conditions = new ArrayList<>();
+        if (byrowid && this.from_rowid != null) {
+            conditions.add(SQLITEMASTERCOLUMN_ROWID + " >= " + Long.toString(this.from_rowid));
+        }
+        if (byrowid && this.to_rowid != null) {
+            conditions.add(SQLITEMASTERCOLUMN_ROWID + " <= " + Long.toString(this.to_rowid));
+        }
+        if (!byrowid) {
+            for (String key : this.key_expressions) {
+                conditions.add(key + SQLISNOTNULL);
+            }
+        }
+        StringBuilder orderby = new StringBuilder(SQLORDERBY);
+        for (int k = 0; k < this.key_expressions.length; k++) {
+            if (k > 0) {
+                orderby.append(", ");
+            }
+            orderby.append(this.key_expressions[k]);
+        }
+        orderby.append(SQLLIMIT).append(Integer.toString(this.page_size));
+        this.first_select_sql = sql.toString() + buildWhereClause(conditions) +
+                orderby.toString();
+
+        StringBuilder keyset = new StringBuilder("(");
+        for (int k = 0; k < this.key_expressions.length; k++) {
+            if (k > 0) {
+                keyset.append(SQLOR);
+            }
+            keyset.append("(");
+            for (int e = 0; e < k; e++) {
+                keyset.append(this.key_expressions[e]).append(" = ?").append(SQLAND);
+            }
+            keyset.append(this.key_expressions[k]).append(" > ?)");
+        }
+        keyset.append(")");
+        conditions.add(keyset.toString());
+        this.select_sql = sql.toString() + buildWhereClause(conditions) +
+                orderby.toString();
+    }
+
+    /**************************************************************************
+     * Gets the offset of a name in a list, ignoring case.
+     *
+     * @return The offset, -1 if not found.
+     */
+    private static int indexOfIgnoreCase(ArrayList<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**************************************************************************
+     * Builds a WHERE clause of the conditions ANDed.
+     *
+     * @return The WHERE clause, empty if there are no conditions.
+     */
+    private static String buildWhereClause(ArrayList<String> conditions) {
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < conditions.size(); i++) {
+            where.append(i == 0 ? SQLWHERE : SQLAND).append(conditions.get(i));
+        }
+        return where.toString();
+    }
+
+    /**************************************************************************
+     * Reads the next page, closing the current page.
+     */
+    private void readPage() {
+        this.closePage();
+        Cursor csr = DBStatementBinder.rawQuery(this.db,
+                this.last_key == null ? this.first_select_sql : this.select_sql,
+                this.getPageArgs());
+        this.pages_read++;
+        if (csr.getCount() < this.page_size) {
+            this.last_page = true;
+        }
+        if (csr.getCount() < 1) {
+            csr.close();
+            return;
+        }
+        this.page = csr;
+    }
+
+    /**************************************************************************
+     * Gets the arguments for the keyset condition, none for the first page.
+     */
+    private Object[] getPageArgs() {
+        ArrayList<Object> args = new ArrayList<>();
+        if (this.last_key != null) {
+            for (int k = 0; k < this.key_expressions.length; k++) {
+                for (int e = 0; e <= k; e++) {
+                    args.add(this.last_key[e]);
+                }
+            }
+        }
+        return args.toArray();
+    }
+
+    /**************************************************************************
+     * Saves the key values of the last row of the current page, according
+     * to their type, as the starting point of the next page.
+     */
+    private void saveLastKey() {
+        this.page.moveToLast();
+        Object[] key = new Object[this.key_offsets.length];
+        for (int k = 0; k < key.length; k++) {
+            int offset = this.key_offsets[k];
+            switch (this.page.getType(offset)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    key[k] = this.page.getLong(offset);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    key[k] = this.page.getDouble(offset);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    key[k] = this.page.getBlob(offset);
+                    break;
+                case Cursor.FIELD_TYPE_NULL:
+                    key[k] = null;
+                    break;
+                default:
+                    key[k] = this.page.getString(offset);
+            }
+        }
+        this.last_key = key;
+    }
+
+    /**************************************************************************
+     * Closes the Cursor of the current page, if any.
+     */
+    private void closePage() {
+        if (this.page != null) {
+            this.page.close();
+            this.page = null;
+        }
+    }
+
+    /**************************************************************************
+     * Checks that reading hasn't started, so the reader can be configured.
+     */
+    private void checkNotStarted() {
+        if (this.started) {
+            throw new IllegalStateException("DBTableReader has started reading");
+        }
+    }
+}
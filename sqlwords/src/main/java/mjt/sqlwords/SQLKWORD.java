@@ -30,6 +30,16 @@ public class SQLKWORD {
             public static final String SQLTABLEINFO_COLNOTNULL_COL = "notnull";
             public static final String SQLTABLEINFO_COLDFLTVAL_COL = "dflt_value";
             public static final String SQLTABLEINFO_COLPRIMARYKEY_COL = "pk";
+        public static final String SQLINDEXLIST_START = SQLPRAGMA + " INDEX_LIST (";
+            public static final String SQLINDEXLIST_NAME_COL = "name";
+            public static final String SQLINDEXLIST_UNIQUE_COL = "unique";
+            public static final String SQLINDEXLIST_PARTIAL_COL = "partial";
+        public static final String SQLINDEXINFO_START = SQLPRAGMA + " INDEX_INFO (";
+        public static final String SQLINDEXXINFO_START = SQLPRAGMA + " INDEX_XINFO (";
+            public static final String SQLINDEXINFO_SEQNO_COL = "seqno";
+            public static final String SQLINDEXINFO_NAME_COL = "name";
+            public static final String SQLINDEXINFO_DESC_COL = "desc";
+            public static final String SQLINDEXINFO_KEY_COL = "key";
 
 
     // Core SQLite Types
@@ -91,6 +101,7 @@ public class SQLKWORD {
     public static final String SQLITEMASTERCOLUMN_SQL = "sql";
     public static final String SQLITEMASTERTYPE_INDEX = "index";
     public static final String SQLITEMASTERTYPE_TABLE = "table";
+    public static final String SQLITEMASTERTYPE_TRIGGER = "trigger";
     public static final String SQLITEMASTERNAME_METADATA = "android_metadata";
     public static final String SQLITEMASTERNAMEPREFIX_AUTOINDEX =
             "sqlite_autoindex";